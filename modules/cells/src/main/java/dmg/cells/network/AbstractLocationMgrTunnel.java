@@ -0,0 +1,314 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2001 - 2017 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import dmg.cells.nucleus.CellAdapter;
+import dmg.cells.nucleus.CellDomainInfo;
+import dmg.cells.nucleus.CellDomainRole;
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellNucleus;
+import dmg.cells.nucleus.CellRoute;
+import dmg.cells.nucleus.CellTunnel;
+import dmg.cells.nucleus.CellTunnelInfo;
+import dmg.cells.nucleus.MessagePayloadCodec;
+import dmg.cells.nucleus.NoRouteToCellException;
+import dmg.util.Releases;
+
+import org.dcache.util.Args;
+import org.dcache.util.NDC;
+import org.dcache.util.Version;
+
+/**
+ * Base class for tunnels connecting two dCache domains.
+ *
+ * Implements the handshake, route management and statistics shared by
+ * the tunnel implementations. Subclasses provide the transport.
+ */
+abstract class AbstractLocationMgrTunnel
+    extends CellAdapter
+    implements CellTunnel
+{
+    /**
+     * We use a single shared instance of Tunnels to coordinate route
+     * creation between tunnels.
+     */
+    private static final Tunnels _tunnels = new Tunnels();
+
+    private static final Logger _log =
+        LoggerFactory.getLogger(AbstractLocationMgrTunnel.class);
+
+    protected final CellNucleus  _nucleus;
+
+    private final CellDomainInfo  _localDomainInfo;
+    private CellDomainInfo  _remoteDomainInfo;
+    private boolean _allowForwardingOfRemoteMessages;
+    private Set<Short> _remotePayloadTypes;
+
+    //
+    // some statistics
+    //
+    private final LongAdder _messagesToTunnel = new LongAdder();
+    private final LongAdder _messagesToSystem = new LongAdder();
+    private final LongAdder _messagesTranscoded = new LongAdder();
+    private final LatencyHistogram _sendLatency = new LatencyHistogram();
+
+    protected AbstractLocationMgrTunnel(String cellName, Args args)
+    {
+        super(cellName, "System", args);
+        _nucleus = getNucleus();
+        CellDomainRole role = args.hasOption("role") ? CellDomainRole.valueOf(
+                args.getOption("role").toUpperCase()) : CellDomainRole.SATELLITE;
+        _localDomainInfo = new CellDomainInfo(_nucleus.getCellDomainName(),
+                                              Version.of(LocationMgrTunnel.class).getVersion(), role,
+                                              MessagePayloadCodec.getInstance().getSupportedTypeIds());
+    }
+
+    /**
+     * Exchanges domain information with the peer. The local domain information is
+     * written to {@code out}, after which the domain information of the peer is
+     * read from {@code rawIn}.
+     *
+     * @return the object input stream from which the peer information was read
+     */
+    protected ObjectInputStream handshake(ObjectOutputStream out, InputStream rawIn) throws IOException
+    {
+        try {
+            out.writeObject(_localDomainInfo);
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(rawIn);
+
+            _remoteDomainInfo = (CellDomainInfo) in.readObject();
+            if (_remoteDomainInfo == null) {
+                throw new IOException("Remote dCache domain disconnected during handshake.");
+            }
+            short release = _remoteDomainInfo.getRelease();
+            if (release < Releases.RELEASE_2_16) {
+                throw new IOException("Connection from incompatible domain " + _remoteDomainInfo + " rejected.");
+            }
+
+            _allowForwardingOfRemoteMessages = (_remoteDomainInfo.getRole() != CellDomainRole.CORE);
+
+            /* Compact payloads not understood by the peer are transcoded to Java
+             * serialization before being sent.
+             */
+            _remotePayloadTypes = _remoteDomainInfo.getSupportedPayloadTypes();
+
+            _log.info("Established connection with {}", _remoteDomainInfo);
+            return in;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Cannot deserialize object. This is most likely due to a version mismatch.", e);
+        }
+    }
+
+    protected CellDomainInfo getRemoteDomainInfo()
+    {
+        return _remoteDomainInfo;
+    }
+
+    /**
+     * Registers the tunnel, killing any other tunnel to the same domain.
+     */
+    protected void register() throws InterruptedException
+    {
+        _tunnels.add(this);
+    }
+
+    protected void unregister()
+    {
+        _tunnels.remove(this);
+    }
+
+    protected void installRoutes()
+    {
+        String domain = getRemoteDomainName();
+        CellNucleus nucleus = getNucleus();
+
+        /* Add domain route.
+         */
+        CellRoute route = new CellRoute(domain, nucleus.getThisAddress(), CellRoute.DOMAIN);
+        try {
+            nucleus.routeAdd(route);
+        } catch (IllegalArgumentException e) {
+            _log.warn("Failed to add route: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Delivers a message received from the peer.
+     */
+    protected void deliver(CellMessage msg)
+    {
+        _nucleus.sendMessage(msg, true, _allowForwardingOfRemoteMessages, false);
+        _messagesToSystem.increment();
+    }
+
+    /**
+     * Prepares a message to be sent to the peer.
+     */
+    protected CellMessage encodeForPeer(CellMessage msg)
+    {
+        _messagesToTunnel.increment();
+        CellMessage encoded = msg.encodeFor(_remotePayloadTypes);
+        if (encoded != msg) {
+            _messagesTranscoded.increment();
+        }
+        return encoded;
+    }
+
+    /**
+     * Records the time it took to hand a message to the transport, measured from
+     * the point at which the message was delivered to the tunnel.
+     */
+    protected void recordSendLatency(long nanos)
+    {
+        _sendLatency.record(nanos);
+    }
+
+    /**
+     * Notifies the sender of a message that it could not be delivered.
+     */
+    protected void returnToSender(CellMessage msg)
+    {
+        NoRouteToCellException noRoute =
+                new NoRouteToCellException(msg, "Communication failure. Message could not be delivered.");
+        CellMessage envelope = new CellMessage(msg.getSourcePath().revert(), noRoute);
+        envelope.setLastUOID(msg.getUOID());
+        _nucleus.sendMessage(envelope, true, true, true);
+    }
+
+    @Override
+    public CellTunnelInfo getCellTunnelInfo()
+    {
+        return new CellTunnelInfo(getNucleus().getThisAddress(), _localDomainInfo, _remoteDomainInfo);
+    }
+
+    protected String getRemoteDomainName()
+    {
+        return (_remoteDomainInfo == null)
+            ? ""
+            : _remoteDomainInfo.getCellDomainName();
+    }
+
+    protected void pushRemoteDomainContext()
+    {
+        NDC.push(_remoteDomainInfo.toString());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Connected to " + getRemoteDomainName();
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        pw.println("Tunnel        : " + getCellName());
+        pw.println("Messages delivered to");
+        pw.println("   Peer       : " + _messagesToTunnel);
+        pw.println("   Local      : " + _messagesToSystem);
+        pw.println("Payloads transcoded");
+        pw.println("   To Java    : " + _messagesTranscoded);
+        pw.println("Send latency  : " + _sendLatency);
+        pw.println("Local domain");
+        pw.println("   Name       : " + _localDomainInfo.getCellDomainName());
+        pw.println("   Version    : " + _localDomainInfo.getVersion());
+        pw.println("   Role       : " + _localDomainInfo.getRole());
+        pw.println("Peer domain");
+        pw.println("   Name       : " + _remoteDomainInfo.getCellDomainName());
+        pw.println("   Version    : " + _remoteDomainInfo.getVersion());
+        pw.println("   Role       : " + _remoteDomainInfo.getRole());
+        pw.println("   Payloads   : " + _remotePayloadTypes);
+    }
+
+    /**
+     * This class encapsulates routing table management. It ensures
+     * that at most one tunnel to any given domain is registered at a
+     * time.
+     *
+     * It is assumed that all tunnels share the same cell glue (this
+     * is normally the case for cells in the same domain).
+     */
+    private static class Tunnels
+    {
+        private Map<String,AbstractLocationMgrTunnel> _tunnels =
+                new HashMap<>();
+
+        /**
+         * Adds a new tunnel. A route for the tunnel destination is
+         * registered in the CellNucleus. The same tunnel cannot be
+         * registered twice; unregister it first.
+         *
+         * If another tunnel is already registered for the same
+         * destination, then the other tunnel is killed.
+         *
+         * Routes are automatically removed by the CellGlue when this
+         * tunnel is killed.
+         */
+        public synchronized void add(AbstractLocationMgrTunnel tunnel)
+                throws InterruptedException
+        {
+            if (_tunnels.containsValue(tunnel)) {
+                throw new IllegalArgumentException("Cannot register the same tunnel twice");
+            }
+
+            String domain = tunnel.getRemoteDomainName();
+
+            /* Kill old tunnel first.
+             */
+            AbstractLocationMgrTunnel old;
+            while ((old = _tunnels.get(domain)) != null) {
+                old.kill();
+                wait();
+            }
+
+            /* Keep track of what we did.
+             */
+            _tunnels.put(domain, tunnel);
+            notifyAll();
+        }
+
+        /**
+         * Removes a tunnel and unregisters its routes. If the tunnel
+         * was already removed, then nothing happens.
+         *
+         * It is crucial that the <code>_remoteDomainInfo</code> of
+         * the tunnel does not change between the point at which it is
+         * added and the point at which it is removed.
+         */
+        public synchronized void remove(AbstractLocationMgrTunnel tunnel)
+        {
+            if (_tunnels.remove(tunnel.getRemoteDomainName(), tunnel)) {
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2017 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies with power of two microsecond buckets.
+ *
+ * Percentiles are reported as the upper bound of the bucket containing
+ * the percentile, i.e. they are accurate to within a factor of two.
+ */
+class LatencyHistogram
+{
+    private static final int BUCKETS = 40;
+
+    private final LongAdder[] _buckets = new LongAdder[BUCKETS];
+
+    LatencyHistogram()
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            _buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos)
+    {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = (micros <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        _buckets[Math.min(bucket, BUCKETS - 1)].increment();
+    }
+
+    long getCount()
+    {
+        long count = 0;
+        for (LongAdder bucket : _buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Returns an upper bound in microseconds for the given percentile, or 0 if
+     * nothing was recorded.
+     */
+    long getPercentile(double percentile)
+    {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _buckets[i].sum();
+            total += counts[i];
+        }
+        long threshold = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen > 0 && seen >= threshold) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("p50<=%dus p90<=%dus p99<=%dus p99.9<=%dus (n=%d)",
+                             getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(99.9),
+                             getCount());
+    }
+}
@@ -13,6 +13,7 @@ import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.SocketChannel;
 import java.nio.channels.UnresolvedAddressException;
 import java.nio.channels.UnsupportedAddressTypeException;
 import java.util.Random;
@@ -39,6 +40,7 @@ public class LocationManagerConnector
     private final String _domain;
     private final SocketFactory _ssf;
     private final InetSocketAddress _address;
+    private final boolean _isNetty;
     private Thread _thread;
     private volatile String _status = "disconnected";
     private volatile int _retries;
@@ -52,6 +54,7 @@ public class LocationManagerConnector
         _ssf = requireNonNull(socketFactory);
         HostAndPort where = HostAndPort.fromString(a.getOpt("where"));
         _address = new InetSocketAddress(where.getHostText(), where.getPort());
+        _isNetty = a.getOption("tunnel", "blocking").equals("netty");
     }
 
     @Override
@@ -68,7 +71,12 @@ public class LocationManagerConnector
         _status = "Connecting to " + _address;
         Socket socket;
         try {
-            socket = _ssf.createSocket(_address.getAddress(), _address.getPort());
+            /* The netty tunnel takes over the socket channel, hence the socket
+             * must be created from a channel.
+             */
+            socket = _isNetty
+                     ? SocketChannel.open(_address).socket()
+                     : _ssf.createSocket(_address.getAddress(), _address.getPort());
         } catch (UnsupportedAddressTypeException e) {
             throw new IOException("Unsupported address type: " + _address, e);
         } catch (UnresolvedAddressException e) {
@@ -99,7 +107,9 @@ public class LocationManagerConnector
                 try {
                     _retries++;
 
-                    LocationMgrTunnel tunnel = new LocationMgrTunnel(name, connect(), args);
+                    AbstractLocationMgrTunnel tunnel = _isNetty
+                                                       ? new NettyLocationMgrTunnel(name, connect(), args)
+                                                       : new LocationMgrTunnel(name, connect(), args);
                     try {
                         tunnel.start().get();
                         _retries = 0;
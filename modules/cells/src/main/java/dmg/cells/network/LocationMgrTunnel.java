@@ -30,50 +30,29 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.nio.channels.AsynchronousCloseException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.LongAdder;
 
-import dmg.cells.nucleus.CellAdapter;
-import dmg.cells.nucleus.CellDomainInfo;
-import dmg.cells.nucleus.CellDomainRole;
 import dmg.cells.nucleus.CellMessage;
-import dmg.cells.nucleus.CellNucleus;
-import dmg.cells.nucleus.CellRoute;
-import dmg.cells.nucleus.CellTunnel;
-import dmg.cells.nucleus.CellTunnelInfo;
 import dmg.cells.nucleus.MessageEvent;
-import dmg.cells.nucleus.NoRouteToCellException;
 import dmg.cells.nucleus.RoutedMessageEvent;
 import dmg.util.Releases;
 import dmg.util.StreamEngine;
 
 import org.dcache.util.Args;
 import org.dcache.util.NDC;
-import org.dcache.util.Version;
 
+/**
+ * Tunnel using blocking socket I/O with a dedicated reader thread. Messages
+ * are written synchronously on the thread delivering them to the tunnel.
+ */
 public class LocationMgrTunnel
-    extends CellAdapter
-    implements CellTunnel, Runnable
+    extends AbstractLocationMgrTunnel
+    implements Runnable
 {
-    /**
-     * We use a single shared instance of Tunnels to coordinate route
-     * creation between tunnels.
-     */
-    private static final Tunnels _tunnels = new Tunnels();
-
     private static final Logger _log =
         LoggerFactory.getLogger(LocationMgrTunnel.class);
 
-    private final CellNucleus  _nucleus;
-
-    private CellDomainInfo  _localDomainInfo;
-    private CellDomainInfo  _remoteDomainInfo;
-    private boolean _allowForwardingOfRemoteMessages;
-
     private Thread _thread;
     private final Socket _socket;
 
@@ -83,23 +62,12 @@ public class LocationMgrTunnel
     private ObjectSource _input;
     private ObjectSink _output;
 
-    //
-    // some statistics
-    //
-    private LongAdder _messagesToTunnel = new LongAdder();
-    private LongAdder _messagesToSystem = new LongAdder();
-
     public LocationMgrTunnel(String cellName, StreamEngine engine, Args args)
     {
-        super(cellName, "System", args);
-        _nucleus = getNucleus();
+        super(cellName, args);
         _socket = engine.getSocket();
         _rawOut = new BufferedOutputStream(engine.getOutputStream());
         _rawIn = new BufferedInputStream(engine.getInputStream());
-        CellDomainRole role = args.hasOption("role") ? CellDomainRole.valueOf(
-                args.getOption("role").toUpperCase()) : CellDomainRole.SATELLITE;
-        _localDomainInfo = new CellDomainInfo(_nucleus.getCellDomainName(),
-                                              Version.of(LocationMgrTunnel.class).getVersion(), role);
     }
 
     @Override
@@ -107,7 +75,7 @@ public class LocationMgrTunnel
     {
         _socket.setTcpNoDelay(true);
         handshake();
-        _tunnels.add(this);
+        register();
     }
 
     @Override
@@ -122,7 +90,7 @@ public class LocationMgrTunnel
     public void stopped()
     {
         _log.info("Closing tunnel to {}", getRemoteDomainName());
-        _tunnels.remove(this);
+        unregister();
         try {
             try {
                 _socket.shutdownOutput();
@@ -144,69 +112,35 @@ public class LocationMgrTunnel
         }
     }
 
-    private void installRoutes()
-    {
-        String domain = getRemoteDomainName();
-        CellNucleus nucleus = getNucleus();
-
-        /* Add domain route.
-         */
-        CellRoute route = new CellRoute(domain, nucleus.getThisAddress(), CellRoute.DOMAIN);
-        try {
-            nucleus.routeAdd(route);
-        } catch (IllegalArgumentException e) {
-            _log.warn("Failed to add route: {}", e.getMessage());
-        }
-    }
-
     private void handshake() throws IOException
     {
-        try {
-            ObjectOutputStream out = new ObjectOutputStream(_rawOut);
-            out.writeObject(_localDomainInfo);
-            out.flush();
-            ObjectInputStream in = new ObjectInputStream(_rawIn);
-
-            _remoteDomainInfo = (CellDomainInfo) in.readObject();
-            if (_remoteDomainInfo == null) {
-                throw new IOException("Remote dCache domain disconnected during handshake.");
-            }
-            short release = _remoteDomainInfo.getRelease();
-            if (release < Releases.RELEASE_2_16) {
-                throw new IOException("Connection from incompatible domain " + _remoteDomainInfo + " rejected.");
-            } else if (release < Releases.RELEASE_3_0) {
-                /* Releases before dCache 3.0 use Java Serialization for CellMessage.
-                 * This branch can be removed in 4.0.
-                 */
-                _log.debug("Using Java serialization for message envelope.");
-                _input = new JavaObjectSource(in);
-                _output = new JavaObjectSink(out);
-            } else {
-                _log.debug("Using raw serialization for message envelope.");
-
-                /* Since dCache 3.0 we use raw encoding of CellMessage.
-                 */
-                _input = new RawObjectSource(_rawIn);
-                _output = new RawObjectSink(_rawOut);
-            }
-
-            _allowForwardingOfRemoteMessages = (_remoteDomainInfo.getRole() != CellDomainRole.CORE);
+        ObjectOutputStream out = new ObjectOutputStream(_rawOut);
+        ObjectInputStream in = handshake(out, _rawIn);
+        if (getRemoteDomainInfo().getRelease() < Releases.RELEASE_3_0) {
+            /* Releases before dCache 3.0 use Java Serialization for CellMessage.
+             * This branch can be removed in 4.0.
+             */
+            _log.debug("Using Java serialization for message envelope.");
+            _input = new JavaObjectSource(in);
+            _output = new JavaObjectSink(out);
+        } else {
+            _log.debug("Using raw serialization for message envelope.");
 
-            _log.info("Established connection with {}", _remoteDomainInfo);
-        } catch (ClassNotFoundException e) {
-            throw new IOException("Cannot deserialize object. This is most likely due to a version mismatch.", e);
+            /* Since dCache 3.0 we use raw encoding of CellMessage.
+             */
+            _input = new RawObjectSource(_rawIn);
+            _output = new RawObjectSink(_rawOut);
         }
     }
 
     @Override
     public void run()
     {
-        NDC.push(_remoteDomainInfo.toString());
+        pushRemoteDomainContext();
         try {
             CellMessage msg;
             while ((msg = _input.readObject()) != null) {
-                getNucleus().sendMessage(msg, true, _allowForwardingOfRemoteMessages, false);
-                _messagesToSystem.increment();
+                deliver(msg);
             }
         } catch (AsynchronousCloseException | EOFException ignored) {
         } catch (ClassNotFoundException e) {
@@ -223,20 +157,17 @@ public class LocationMgrTunnel
     public void messageArrived(MessageEvent me)
     {
         if (me instanceof RoutedMessageEvent) {
+            long start = System.nanoTime();
             CellMessage msg = me.getMessage();
             try {
-                _messagesToTunnel.increment();
-                _output.writeObject(msg);
+                _output.writeObject(encodeForPeer(msg));
+                recordSendLatency(System.nanoTime() - start);
             } catch (IOException e) {
-                NDC.push(_remoteDomainInfo.toString());
+                pushRemoteDomainContext();
                 try {
                     kill();
                     _log.warn("Error while sending message: {}", e.getMessage());
-                    NoRouteToCellException noRoute =
-                            new NoRouteToCellException(msg, "Communication failure. Message could not be delivered.");
-                    CellMessage envelope = new CellMessage(msg.getSourcePath().revert(), noRoute);
-                    envelope.setLastUOID(msg.getUOID());
-                    _nucleus.sendMessage(envelope, true, true, true);
+                    returnToSender(msg);
                 } finally {
                     NDC.pop();
                 }
@@ -246,105 +177,6 @@ public class LocationMgrTunnel
         }
     }
 
-    @Override
-    public CellTunnelInfo getCellTunnelInfo()
-    {
-        return new CellTunnelInfo(getNucleus().getThisAddress(), _localDomainInfo, _remoteDomainInfo);
-    }
-
-    private String getRemoteDomainName()
-    {
-        return (_remoteDomainInfo == null)
-            ? ""
-            : _remoteDomainInfo.getCellDomainName();
-    }
-
-    @Override
-    public String toString()
-    {
-        return "Connected to " + getRemoteDomainName();
-    }
-
-    @Override
-    public void getInfo(PrintWriter pw)
-    {
-        pw.println("Tunnel        : " + getCellName());
-        pw.println("Messages delivered to");
-        pw.println("   Peer       : " + _messagesToTunnel);
-        pw.println("   Local      : " + _messagesToSystem);
-        pw.println("Local domain");
-        pw.println("   Name       : " + _localDomainInfo.getCellDomainName());
-        pw.println("   Version    : " + _localDomainInfo.getVersion());
-        pw.println("   Role       : " + _localDomainInfo.getRole());
-        pw.println("Peer domain");
-        pw.println("   Name       : " + _remoteDomainInfo.getCellDomainName());
-        pw.println("   Version    : " + _remoteDomainInfo.getVersion());
-        pw.println("   Role       : " + _remoteDomainInfo.getRole());
-    }
-
-    /**
-     * This class encapsulates routing table management. It ensures
-     * that at most one tunnel to any given domain is registered at a
-     * time.
-     *
-     * It is assumed that all tunnels share the same cell glue (this
-     * is normally the case for cells in the same domain).
-     */
-    private static class Tunnels
-    {
-        private Map<String,LocationMgrTunnel> _tunnels =
-                new HashMap<>();
-
-        /**
-         * Adds a new tunnel. A route for the tunnel destination is
-         * registered in the CellNucleus. The same tunnel cannot be
-         * registered twice; unregister it first.
-         *
-         * If another tunnel is already registered for the same
-         * destination, then the other tunnel is killed.
-         *
-         * Routes are automatically removed by the CellGlue when this
-         * tunnel is killed.
-         */
-        public synchronized void add(LocationMgrTunnel tunnel)
-                throws InterruptedException
-        {
-            if (_tunnels.containsValue(tunnel)) {
-                throw new IllegalArgumentException("Cannot register the same tunnel twice");
-            }
-
-            String domain = tunnel.getRemoteDomainName();
-
-            /* Kill old tunnel first.
-             */
-            LocationMgrTunnel old;
-            while ((old = _tunnels.get(domain)) != null) {
-                old.kill();
-                wait();
-            }
-
-            /* Keep track of what we did.
-             */
-            _tunnels.put(domain, tunnel);
-            notifyAll();
-        }
-
-        /**
-         * Removes a tunnel and unregisters its routes. If the tunnel
-         * was already removed, then nothing happens.
-         *
-         * It is crucial that the <code>_remoteDomainInfo</code> of
-         * the tunnel does not change between the point at which it is
-         * added and the point at which it is removed.
-         */
-        public synchronized void remove(LocationMgrTunnel tunnel)
-        {
-            if (_tunnels.remove(tunnel.getRemoteDomainName(), tunnel)) {
-                notifyAll();
-            }
-        }
-    }
-
     private interface ObjectSource
     {
         CellMessage readObject() throws IOException, ClassNotFoundException;
@@ -0,0 +1,314 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2017 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import dmg.cells.nucleus.CDC;
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.MessageEvent;
+import dmg.cells.nucleus.RoutedMessageEvent;
+import dmg.util.Releases;
+import dmg.util.StreamEngine;
+
+import org.dcache.util.Args;
+
+/**
+ * Tunnel using non-blocking I/O on a shared pool of netty event loops.
+ *
+ * Messages are encoded on the thread delivering them to the tunnel and written
+ * asynchronously. Writes issued in quick succession are flushed together. If
+ * more than {@code -high-water-mark} bytes are queued for the peer, delivery
+ * to the tunnel blocks until the queue drained below {@code -low-water-mark}
+ * bytes, thus pushing back on the message queue of the tunnel cell.
+ *
+ * The handshake is performed using blocking I/O before the socket channel is
+ * handed over to netty. The tunnel uses the same wire format as
+ * {@link LocationMgrTunnel}, but only supports peers running dCache 3.0 or newer.
+ */
+public class NettyLocationMgrTunnel extends AbstractLocationMgrTunnel
+{
+    private static final Logger _log =
+        LoggerFactory.getLogger(NettyLocationMgrTunnel.class);
+
+    private static final int DEFAULT_LOW_WATER_MARK = 256 * 1024;
+    private static final int DEFAULT_HIGH_WATER_MARK = 1024 * 1024;
+
+    /**
+     * Maximum number of flushes to consolidate while reading from the peer.
+     */
+    private static final int FLUSH_CONSOLIDATION_LIMIT = 256;
+
+    private final Socket _socket;
+    private final StreamEngine _engine;
+    private final WriteBufferWaterMark _waterMark;
+
+    private final Object _writability = new Object();
+    private volatile Channel _channel;
+
+    private final LongAdder _stalls = new LongAdder();
+
+    public NettyLocationMgrTunnel(String cellName, StreamEngine engine, Args args)
+    {
+        super(cellName, args);
+        _engine = engine;
+        _socket = engine.getSocket();
+        if (_socket.getChannel() == null) {
+            throw new IllegalArgumentException("Netty tunnel requires a socket channel.");
+        }
+        _waterMark = new WriteBufferWaterMark(args.getIntOption("low-water-mark", DEFAULT_LOW_WATER_MARK),
+                                              args.getIntOption("high-water-mark", DEFAULT_HIGH_WATER_MARK));
+    }
+
+    @Override
+    protected void starting() throws Exception
+    {
+        _socket.setTcpNoDelay(true);
+
+        /* The streams of the engine are unbuffered, thus the handshake does not
+         * consume any data that follows it.
+         */
+        handshake(new ObjectOutputStream(_engine.getOutputStream()), _engine.getInputStream());
+        if (getRemoteDomainInfo().getRelease() < Releases.RELEASE_3_0) {
+            throw new IOException("Connection from domain " + getRemoteDomainInfo() +
+                                  " rejected as it does not support raw message encoding.");
+        }
+        register();
+    }
+
+    @Override
+    protected void started()
+    {
+        NioSocketChannel channel = new NioSocketChannel(_socket.getChannel());
+        channel.config().setWriteBufferWaterMark(_waterMark);
+        channel.pipeline().addLast("flush", new FlushConsolidationHandler(FLUSH_CONSOLIDATION_LIMIT, true));
+        channel.pipeline().addLast("decoder", new CellMessageDecoder());
+        channel.pipeline().addLast("tunnel", new TunnelHandler());
+        _channel = channel;
+        ChannelFuture registration = EventLoops.GROUP.register(channel).awaitUninterruptibly();
+        if (!registration.isSuccess()) {
+            _log.warn("Failed to register tunnel: {}", registration.cause().toString());
+            kill();
+            return;
+        }
+
+        installRoutes();
+    }
+
+    @Override
+    public void stopped()
+    {
+        _log.info("Closing tunnel to {}", getRemoteDomainName());
+        unregister();
+        Channel channel = _channel;
+        if (channel != null) {
+            channel.close().awaitUninterruptibly(2_000);
+        } else {
+            try {
+                _socket.close();
+            } catch (IOException e) {
+                _log.warn("Failed to close socket: {}", e.getMessage());
+            }
+        }
+        synchronized (_writability) {
+            _writability.notifyAll();
+        }
+    }
+
+    @Override
+    public void messageArrived(MessageEvent me)
+    {
+        if (me instanceof RoutedMessageEvent) {
+            long start = System.nanoTime();
+            CellMessage msg = me.getMessage();
+            Channel channel = _channel;
+            try {
+                awaitWritable(channel);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                returnToSender(msg);
+                return;
+            }
+
+            ByteBuf buf = channel.alloc().ioBuffer();
+            try (ByteBufOutputStream out = new ByteBufOutputStream(buf)) {
+                encodeForPeer(msg).writeTo(out);
+            } catch (IOException | RuntimeException e) {
+                buf.release();
+                _log.error("Failed to encode message: {}", e.toString());
+                returnToSender(msg);
+                return;
+            }
+
+            channel.writeAndFlush(buf).addListener(future -> {
+                if (future.isSuccess()) {
+                    recordSendLatency(System.nanoTime() - start);
+                } else {
+                    try (CDC ignored = CDC.reset(_nucleus)) {
+                        pushRemoteDomainContext();
+                        kill();
+                        _log.warn("Error while sending message: {}", future.cause().getMessage());
+                        returnToSender(msg);
+                    }
+                }
+            });
+        } else {
+            super.messageArrived(me);
+        }
+    }
+
+    /**
+     * Blocks while the channel is open and more than the high water mark of
+     * bytes are queued for the peer.
+     */
+    private void awaitWritable(Channel channel) throws InterruptedException
+    {
+        if (!channel.isWritable() && channel.isActive()) {
+            _stalls.increment();
+            synchronized (_writability) {
+                while (!channel.isWritable() && channel.isActive()) {
+                    _writability.wait();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        super.getInfo(pw);
+        Channel channel = _channel;
+        pw.println("Transport     : netty");
+        pw.println("   Stalls     : " + _stalls);
+        if (channel != null) {
+            pw.println("   Queued     : " +
+                       (_waterMark.high() - channel.bytesBeforeUnwritable()) + " bytes (approx.)");
+        }
+    }
+
+    /**
+     * Decodes cell messages using the raw encoding of {@link CellMessage}. As
+     * the encoding is not length prefixed, the size of a message is determined
+     * from its header. Once known, the message is only decoded after all of it
+     * has been received, thus a large message arriving in many fragments is not
+     * parsed again for every fragment.
+     */
+    static class CellMessageDecoder extends ByteToMessageDecoder
+    {
+        /**
+         * Size of the message at the start of the buffer, or zero if not yet known.
+         */
+        private int _size;
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception
+        {
+            while (in.isReadable()) {
+                if (_size == 0) {
+                    int start = in.readerIndex();
+                    try {
+                        int len = CellMessage.readPayloadLength(new ByteBufInputStream(in));
+                        _size = Math.addExact(in.readerIndex() - start, len);
+                    } catch (EOFException e) {
+                        return;
+                    } finally {
+                        in.readerIndex(start);
+                    }
+                }
+                if (in.readableBytes() < _size) {
+                    return;
+                }
+                out.add(CellMessage.createFrom(new ByteBufInputStream(in, _size)));
+                _size = 0;
+            }
+        }
+    }
+
+    private class TunnelHandler extends SimpleChannelInboundHandler<CellMessage>
+    {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, CellMessage msg)
+        {
+            try (CDC ignored = CDC.reset(_nucleus)) {
+                pushRemoteDomainContext();
+                deliver(msg);
+            }
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception
+        {
+            synchronized (_writability) {
+                _writability.notifyAll();
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception
+        {
+            synchronized (_writability) {
+                _writability.notifyAll();
+            }
+            kill();
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+        {
+            try (CDC ignored = CDC.reset(_nucleus)) {
+                pushRemoteDomainContext();
+                _log.warn("Error while reading from tunnel: {}", cause.toString());
+            }
+            ctx.close();
+        }
+    }
+
+    /**
+     * Event loops shared by all netty tunnels of this domain. Created on first use.
+     */
+    private static class EventLoops
+    {
+        private static final EventLoopGroup GROUP =
+                new NioEventLoopGroup(0, new DefaultThreadFactory("cell-tunnel", true));
+    }
+}
@@ -17,7 +17,10 @@
  */
 package dmg.cells.nucleus;
 
+import com.google.common.collect.ImmutableSet;
+
 import java.io.Serializable;
+import java.util.Set;
 
 import dmg.util.Releases;
 
@@ -30,11 +33,23 @@ public class CellDomainInfo implements Serializable
     private final String _version;
     private CellDomainRole _role;
 
+    /**
+     * Type IDs of compact message payloads understood by the domain. Null
+     * for domains predating the compact payload encoding.
+     */
+    private Set<Short> _payloadTypes;
+
     public CellDomainInfo(String name, String version, CellDomainRole role)
+    {
+        this(name, version, role, ImmutableSet.of());
+    }
+
+    public CellDomainInfo(String name, String version, CellDomainRole role, Set<Short> payloadTypes)
     {
         _domainName = checkNotNull(name);
         _version = checkNotNull(version);
         _role = checkNotNull(role);
+        _payloadTypes = ImmutableSet.copyOf(payloadTypes);
     }
 
     public String getVersion()
@@ -57,6 +72,15 @@ public class CellDomainInfo implements Serializable
         return _role;
     }
 
+    /**
+     * Returns the type IDs of compact message payloads the domain is able to
+     * decode. See {@link MessagePayloadCodec}.
+     */
+    public Set<Short> getSupportedPayloadTypes()
+    {
+        return (_payloadTypes == null) ? ImmutableSet.of() : _payloadTypes;
+    }
+
     public String toString()
     {
         return _domainName + ',' + _version + ',' + _role;
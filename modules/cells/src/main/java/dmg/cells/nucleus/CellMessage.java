@@ -3,17 +3,13 @@ package dmg.cells.nucleus ;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.io.InvalidClassException;
-import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Objects;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -200,30 +196,31 @@ public boolean equals( Object obj ){
 
     protected static byte[] encode(Object message)
     {
-        int initialBufferSize = 256;
-        ByteArrayOutputStream array = new ByteArrayOutputStream(initialBufferSize);
-        try (ObjectOutputStream out = new ObjectOutputStream(array)) {
-            out.writeObject(message);
-        } catch (InvalidClassException e) {
-            throw new SerializationException("Failed to serialize object: "
-                    + e + "(this is usually a bug)", e);
-        } catch (NotSerializableException e) {
-            throw new SerializationException("Failed to serialize object because the object is not serializable (this is usually a bug)", e);
-        } catch (IOException e) {
-            throw new SerializationException("Failed to serialize object: " + e, e);
-        }
-        return array.toByteArray();
+        return MessagePayloadCodec.getInstance().encode(message);
     }
 
     protected static Object decode(byte[] messageStream)
     {
-        try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(messageStream))) {
-            return stream.readObject();
-        } catch (ClassNotFoundException e) {
-            throw new SerializationException("Failed to deserialize object: The class could not be found. Is there a software version mismatch in your installation?", e);
-        } catch (IOException e) {
-            throw new SerializationException("Failed to deserialize object: " + e, e);
+        return MessagePayloadCodec.getInstance().decode(messageStream);
+    }
+
+    /**
+     * Returns an envelope with a payload encoding understood by a peer supporting the
+     * given compact payload types. Compact payloads of any other type are re-encoded
+     * using Java serialization. If no re-encoding is needed, this envelope is returned.
+     *
+     * The CellMessage must be in stream mode.
+     */
+    public CellMessage encodeFor(Set<Short> supportedPayloadTypes) throws SerializationException
+    {
+        checkState(_mode == STREAM_MODE);
+        if (!MessagePayloadCodec.isCompact(_messageStream) ||
+            supportedPayloadTypes.contains(MessagePayloadCodec.getTypeId(_messageStream))) {
+            return this;
         }
+        CellMessage encoded = clone();
+        encoded._messageStream = MessagePayloadCodec.getInstance().toJavaSerialization(_messageStream);
+        return encoded;
     }
 
     public void addSourceAddress( CellAddressCore source ){
@@ -291,6 +288,32 @@ public boolean equals( Object obj ){
      * This is the raw encoding used by tunnels since release 3.0.
      */
     public static CellMessage createFrom(DataInput in) throws IOException
+    {
+        CellMessage message = readHeaderFrom(in);
+        int len = in.readInt();
+        message._messageStream = new byte[len];
+        in.readFully(message._messageStream);
+        return message;
+    }
+
+    /**
+     * Reads the header of a CellMessage in raw encoding from a data input
+     * stream and returns the length of the payload that follows it.
+     *
+     * Allows a non-blocking reader to determine the size of a message before
+     * all of it has been received.
+     */
+    public static int readPayloadLength(DataInput in) throws IOException
+    {
+        readHeaderFrom(in);
+        int len = in.readInt();
+        if (len < 0) {
+            throw new IOException("Invalid message tunnel wire format.");
+        }
+        return len;
+    }
+
+    private static CellMessage readHeaderFrom(DataInput in) throws IOException
     {
         CellMessage message = new CellMessage();
         message._mode = in.readByte();
@@ -309,9 +332,6 @@ public boolean equals( Object obj ){
         message._source = CellPath.createFrom(in);
         message._destination = CellPath.createFrom(in);
         message._session = Strings.emptyToNull(in.readUTF());
-        int len = in.readInt();
-        message._messageStream = new byte[len];
-        in.readFully(message._messageStream);
         return message;
     }
 }
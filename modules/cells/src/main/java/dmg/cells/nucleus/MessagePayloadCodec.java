@@ -0,0 +1,265 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2017 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.nucleus;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Encodes and decodes the payload of a {@link CellMessage}.
+ *
+ * Payloads for which a {@link MessagePayloadSerializer} is registered are
+ * encoded in a compact binary format; all other payloads use Java
+ * serialization. The compact format starts with a magic byte that cannot
+ * start a Java serialization stream (which always starts with 0xACED),
+ * hence decoding does not need to know which encoding was used.
+ *
+ * The compact format is:
+ *
+ * <pre>
+ *     byte  MAGIC
+ *     byte  VERSION
+ *     short type ID
+ *     ...   serializer specific data
+ * </pre>
+ *
+ * Peers only understand compact payloads for the type IDs they advertised
+ * during the tunnel handshake. Tunnels use {@link #toJavaSerialization} to
+ * re-encode any other compact payload before forwarding it.
+ */
+public final class MessagePayloadCodec
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessagePayloadCodec.class);
+
+    public static final byte MAGIC = (byte) 0xDC;
+    public static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final MessagePayloadCodec INSTANCE =
+            new MessagePayloadCodec(ServiceLoader.load(MessagePayloadSerializer.class));
+
+    private final Map<Class<?>, MessagePayloadSerializer<?>> _byType;
+    private final Map<Short, MessagePayloadSerializer<?>> _byId;
+
+    public MessagePayloadCodec(Iterable<? extends MessagePayloadSerializer> serializers)
+    {
+        Map<Class<?>, MessagePayloadSerializer<?>> byType = new HashMap<>();
+        Map<Short, MessagePayloadSerializer<?>> byId = new HashMap<>();
+        for (MessagePayloadSerializer<?> serializer : serializers) {
+            MessagePayloadSerializer<?> existing = byId.putIfAbsent(serializer.getTypeId(), serializer);
+            if (existing != null) {
+                LOGGER.error("Payload serializers {} and {} share type ID {}; ignoring the latter.",
+                             existing.getClass().getName(), serializer.getClass().getName(),
+                             serializer.getTypeId());
+            } else {
+                byType.put(serializer.getType(), serializer);
+            }
+        }
+        _byType = ImmutableMap.copyOf(byType);
+        _byId = ImmutableMap.copyOf(byId);
+    }
+
+    /**
+     * Returns the codec with all serializers available in this domain.
+     */
+    public static MessagePayloadCodec getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the type IDs this codec is able to decode.
+     */
+    public Set<Short> getSupportedTypeIds()
+    {
+        return ImmutableSet.copyOf(_byId.keySet());
+    }
+
+    public byte[] encode(Object payload) throws SerializationException
+    {
+        MessagePayloadSerializer<Serializable> serializer =
+                (payload == null) ? null : (MessagePayloadSerializer<Serializable>) _byType.get(payload.getClass());
+        if (serializer == null) {
+            return encodeJava(payload);
+        }
+        ByteArrayOutputStream array = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        try (DataOutputStream out = new DataOutputStream(array)) {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            out.writeShort(serializer.getTypeId());
+            serializer.write((Serializable) payload, out);
+        } catch (IOException e) {
+            throw new SerializationException("Failed to serialize object: " + e + " (this is usually a bug)", e);
+        }
+        return array.toByteArray();
+    }
+
+    public Object decode(byte[] stream) throws SerializationException
+    {
+        if (!isCompact(stream)) {
+            return decodeJava(stream);
+        }
+        if (stream[1] != VERSION) {
+            throw new SerializationException("Failed to deserialize object: Unsupported payload encoding version " +
+                                             stream[1] + ". Is there a software version mismatch in your installation?");
+        }
+        short typeId = getTypeId(stream);
+        MessagePayloadSerializer<?> serializer = _byId.get(typeId);
+        if (serializer == null) {
+            throw new SerializationException("Failed to deserialize object: Unknown payload type " + typeId +
+                                             ". Is there a software version mismatch in your installation?");
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(stream, HEADER_SIZE, stream.length - HEADER_SIZE));
+            return serializer.read(in);
+        } catch (IOException | RuntimeException e) {
+            throw new SerializationException("Failed to deserialize object: " + e, e);
+        }
+    }
+
+    /**
+     * Returns a Java serialized version of an encoded payload. If the payload already
+     * uses Java serialization, then the argument is returned.
+     */
+    public byte[] toJavaSerialization(byte[] stream) throws SerializationException
+    {
+        return isCompact(stream) ? encodeJava(decode(stream)) : stream;
+    }
+
+    /**
+     * Returns true if the encoded payload uses the compact format.
+     */
+    public static boolean isCompact(byte[] stream)
+    {
+        return stream.length >= HEADER_SIZE && stream[0] == MAGIC;
+    }
+
+    /**
+     * Returns the type ID of a compact payload.
+     */
+    public static short getTypeId(byte[] stream)
+    {
+        return (short) (((stream[2] & 0xFF) << 8) | (stream[3] & 0xFF));
+    }
+
+    static byte[] encodeJava(Object payload) throws SerializationException
+    {
+        ByteArrayOutputStream array = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        try (ObjectOutputStream out = new ObjectOutputStream(array)) {
+            out.writeObject(payload);
+        } catch (InvalidClassException e) {
+            throw new SerializationException("Failed to serialize object: "
+                    + e + "(this is usually a bug)", e);
+        } catch (NotSerializableException e) {
+            throw new SerializationException("Failed to serialize object because the object is not serializable (this is usually a bug)", e);
+        } catch (IOException e) {
+            throw new SerializationException("Failed to serialize object: " + e, e);
+        }
+        return array.toByteArray();
+    }
+
+    static Object decodeJava(byte[] stream) throws SerializationException
+    {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(stream))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new SerializationException("Failed to deserialize object: The class could not be found. Is there a software version mismatch in your installation?", e);
+        } catch (IOException e) {
+            throw new SerializationException("Failed to deserialize object: " + e, e);
+        }
+    }
+
+    /**
+     * Writes a nullable string. Unlike {@link DataOutput#writeUTF}, the length
+     * of the string is not limited.
+     */
+    public static void writeString(DataOutput out, String s) throws IOException
+    {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    public static String readString(DataInput in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a nullable object using Java serialization. Serializers use this
+     * for nested objects without an explicit encoding.
+     */
+    public static void writeObject(DataOutput out, Object object) throws IOException
+    {
+        if (object == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = encodeJava(object);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    public static <T> T readObject(DataInput in, Class<T> type) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        try {
+            return type.cast(decodeJava(bytes));
+        } catch (SerializationException | ClassCastException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
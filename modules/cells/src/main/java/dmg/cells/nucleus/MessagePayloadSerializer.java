@@ -0,0 +1,52 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2017 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.nucleus;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Explicit binary serializer for a particular message payload class.
+ *
+ * Serializers are discovered through {@link java.util.ServiceLoader} and used by
+ * {@link MessagePayloadCodec} instead of Java serialization for payloads of
+ * exactly the type returned by {@link #getType}. Subclasses of that type are
+ * not handled by the serializer and fall back to Java serialization.
+ *
+ * The type ID is part of the wire format and is advertised to peer domains
+ * during the tunnel handshake. It must be unique and must never be reused for
+ * a different type or for an incompatible encoding of the same type.
+ */
+public interface MessagePayloadSerializer<T extends Serializable>
+{
+    /**
+     * Returns the wire identifier of this serializer.
+     */
+    short getTypeId();
+
+    /**
+     * Returns the payload class handled by this serializer.
+     */
+    Class<T> getType();
+
+    void write(T payload, DataOutput out) throws IOException;
+
+    T read(DataInput in) throws IOException;
+}
@@ -3,6 +3,7 @@ package dmg.cells.nucleus;
 import javax.annotation.Nullable;
 
 import java.io.Serializable;
+import java.util.Collections;
 
 public class NoRouteToCellException extends Exception
 {
@@ -15,7 +16,11 @@ public class NoRouteToCellException extends Exception
     public NoRouteToCellException(CellMessage envelope, String str)
     {
         super(str);
-        _envelope = envelope.isStreamMode() ? envelope : envelope.encode();
+        /* The exception is itself Java serialized and may be delivered to domains that
+         * do not understand compact payloads. Hence the embedded envelope is always
+         * Java serialized.
+         */
+        _envelope = (envelope.isStreamMode() ? envelope : envelope.encode()).encodeFor(Collections.emptySet());
         _uoid = envelope.getUOID();
         _path = envelope.getDestinationPath();
     }
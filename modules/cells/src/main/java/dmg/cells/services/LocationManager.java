@@ -96,11 +96,15 @@ public class LocationManager extends CellAdapter
     private static final String ZK_CORES_URI = "/dcache/lm/cores-uri";
     private static final String ZK_CORE_CONFIG = "/dcache/lm/core-config";
 
+    private static final String BLOCKING_TUNNEL = "dmg.cells.network.LocationMgrTunnel";
+    private static final String NETTY_TUNNEL = "dmg.cells.network.NettyLocationMgrTunnel";
+
     private final CoreDomains coreDomains;
     private final CoreConfig  coreConfig;
     private final Args args;
     private final CellDomainRole role;
     private final Client client;
+    private final String tunnel;
 
     enum State
     {
@@ -809,7 +813,7 @@ public class LocationManager extends CellAdapter
                 throws ExecutionException, InterruptedException, UnknownHostException
         {
             String cellArgs = args.argv(0);
-            lmPlain = startListener(cellArgs);
+            lmPlain = startListener(cellArgs, tunnel.equals("netty") ? NETTY_TUNNEL : BLOCKING_TUNNEL);
             LOGGER.info("lmPlain: {}; port; {} ", lmPlain, lmPlain.getListenPort());
             info.addCore("tcp", InetAddress.getLocalHost().getCanonicalHostName(), lmPlain.getListenPort());
         }
@@ -823,7 +827,7 @@ public class LocationManager extends CellAdapter
             String cellArgs = String.format("%s -socketfactory='%s'",
                     Integer.parseInt((args.argc() == 1) ? args.argv(0) : args.argv(1)),
                     args.getOpt("socketfactory"));
-            lmTls = startListener(cellArgs);
+            lmTls = startListener(cellArgs, BLOCKING_TUNNEL);
             LOGGER.info("lmTls: {}; port; {} ", lmTls, lmTls.getListenPort());
             info.addCore("tls", InetAddress.getLocalHost().getCanonicalHostName(), lmTls.getListenPort());
         }
@@ -846,7 +850,7 @@ public class LocationManager extends CellAdapter
     }
 
     /**
-     * Usage : ... [-legacy=<port>] [-role=satellite|core] -mode=none|tls -- [<port>] <client options>
+     * Usage : ... [-legacy=<port>] [-role=satellite|core] -mode=none|tls [-tunnel=blocking|netty] -- [<port>] <client options>
      */
     public LocationManager(String name, String args) throws CommandException, IOException, BadConfigException
     {
@@ -855,6 +859,9 @@ public class LocationManager extends CellAdapter
 
         coreDomains = CoreDomains.createWithMode(getCellDomainName(), getCuratorFramework(), this.args.getOpt("mode"));
 
+        tunnel = this.args.getOption("tunnel", "blocking");
+        checkArgument(tunnel.equals("blocking") || tunnel.equals("netty"), "Invalid tunnel: " + tunnel);
+
         if (this.args.hasOption("role")) {
             role = CellDomainRole.valueOf(this.args.getOption("role").toUpperCase());
             switch (role) {
@@ -908,10 +915,9 @@ public class LocationManager extends CellAdapter
         }
     }
 
-    private LoginManager startListener(String args) throws ExecutionException, InterruptedException
+    private LoginManager startListener(String args, String cellClass) throws ExecutionException, InterruptedException
     {
         String cellName = "l*";
-        String cellClass = "dmg.cells.network.LocationMgrTunnel";
         String cellArgs = args + ' ' + cellClass + ' ' + "-prot=raw" + " -role=" + role;
         LOGGER.info("Starting acceptor with arguments: {}", cellArgs);
         LoginManager c = new LoginManager(cellName, "System", cellArgs);
@@ -933,6 +939,7 @@ public class LocationManager extends CellAdapter
 
         HostAndPort where;
         SocketFactory socketFactory;
+        String connectorTunnel;
         Mode mode = Mode.fromString(args.getOption("mode"));
 
         switch(mode) {
@@ -940,6 +947,7 @@ public class LocationManager extends CellAdapter
             LOGGER.info("Starting Connection in mode: PLAIN with {}", args.getArguments());
             where = domainInfo.tcpPort().orElseThrow(BadConfigException::new);
             socketFactory = SocketFactory.getDefault();
+            connectorTunnel = tunnel;
             break;
         case TLS:
             LOGGER.info("Starting Connection in mode: TLS with {}", args.getArguments());
@@ -957,6 +965,7 @@ public class LocationManager extends CellAdapter
                 throw new IllegalArgumentException(
                                 String.format("Problem creating socket factory with arguments: %s", args.toString()));
             }
+            connectorTunnel = "blocking";
             break;
         default:
             throw new IllegalArgumentException("Invalid mode to start connector: " + args.getOption("mode"));
@@ -966,6 +975,7 @@ public class LocationManager extends CellAdapter
                 + "-lm=" + getCellName() + ' '
                 + "-role=" + role + ' '
                 + "-where=" + where + ' '
+                + "-tunnel=" + connectorTunnel + ' '
                 + clientKey + ' '
                 + clientName;
 
@@ -0,0 +1,110 @@
+package dmg.cells.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CellMessageDecoderTest
+{
+    private static byte[] encode(CellMessage message) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.encode().writeTo(new DataOutputStream(out));
+        return out.toByteArray();
+    }
+
+    @Test
+    public void shouldDecodeFragmentedMessages() throws Exception
+    {
+        CellMessage message = new CellMessage(new CellPath("foo", "bar"), "payload");
+        byte[] bytes = encode(message);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyLocationMgrTunnel.CellMessageDecoder());
+        for (byte b : bytes) {
+            assertThat(channel.readInbound(), nullValue());
+            channel.writeInbound(Unpooled.wrappedBuffer(new byte[] { b }));
+        }
+
+        CellMessage decoded = ((CellMessage) channel.readInbound()).decode();
+        assertThat(decoded.getUOID(), is(message.getUOID()));
+        assertThat(decoded.getDestinationPath(), is(message.getDestinationPath()));
+        assertThat(decoded.getMessageObject(), is((Serializable) "payload"));
+        assertThat(channel.readInbound(), nullValue());
+    }
+
+    @Test
+    public void shouldDecodeSeveralMessagesFromOneBuffer() throws Exception
+    {
+        CellMessage first = new CellMessage(new CellPath("foo"), "first");
+        CellMessage second = new CellMessage(new CellPath("bar"), "second");
+        byte[] a = encode(first);
+        byte[] b = encode(second);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyLocationMgrTunnel.CellMessageDecoder());
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeBytes(a).writeBytes(b, 0, b.length - 1);
+        channel.writeInbound(buf);
+
+        assertThat(((CellMessage) channel.readInbound()).decode().getMessageObject(), is((Serializable) "first"));
+        assertThat(channel.readInbound(), nullValue());
+
+        channel.writeInbound(Unpooled.wrappedBuffer(b, b.length - 1, 1));
+        assertThat(((CellMessage) channel.readInbound()).decode().getMessageObject(), is((Serializable) "second"));
+    }
+
+    @Test
+    public void shouldDecodeLargeMessageArrivingInManyFragments() throws Exception
+    {
+        byte[] payload = new byte[4 * 1024 * 1024];
+        Arrays.fill(payload, (byte) 42);
+        CellMessage message = new CellMessage(new CellPath("foo"), payload);
+        byte[] bytes = encode(message);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyLocationMgrTunnel.CellMessageDecoder());
+        for (int i = 0; i < bytes.length; i += 1024) {
+            assertThat(channel.readInbound(), nullValue());
+            channel.writeInbound(Unpooled.wrappedBuffer(bytes, i, Math.min(1024, bytes.length - i)));
+        }
+
+        CellMessage decoded = ((CellMessage) channel.readInbound()).decode();
+        assertThat(decoded.getUOID(), is(message.getUOID()));
+        assertThat((byte[]) decoded.getMessageObject(), is(payload));
+        assertThat(channel.readInbound(), nullValue());
+    }
+
+    @Test
+    public void shouldRejectNegativePayloadLength() throws Exception
+    {
+        byte[] bytes = encode(new CellMessage(new CellPath("foo"), "payload"));
+        int len = CellMessage.readPayloadLength(new DataInputStream(new ByteArrayInputStream(bytes)));
+        int lengthField = bytes.length - len - 4;
+
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyLocationMgrTunnel.CellMessageDecoder());
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeBytes(bytes);
+        buf.setInt(lengthField, -1);
+        try {
+            channel.writeInbound(buf);
+            fail("Expected DecoderException");
+        } catch (DecoderException e) {
+            assertThat(e.getCause(), is(instanceOf(IOException.class)));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package dmg.cells.nucleus;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MessagePayloadCodecTest
+{
+    private final MessagePayloadCodec codec =
+            new MessagePayloadCodec(Collections.singleton(new PointSerializer()));
+
+    @Test
+    public void shouldUseCompactEncodingForRegisteredTypes() throws Exception
+    {
+        byte[] encoded = codec.encode(new Point(1, 2));
+
+        assertThat(MessagePayloadCodec.isCompact(encoded), is(true));
+        assertThat(MessagePayloadCodec.getTypeId(encoded), is((short) 42));
+        assertThat(codec.decode(encoded), is((Object) new Point(1, 2)));
+    }
+
+    @Test
+    public void shouldFallBackToJavaSerializationForOtherTypes() throws Exception
+    {
+        byte[] encoded = codec.encode("payload");
+
+        assertThat(MessagePayloadCodec.isCompact(encoded), is(false));
+        assertThat(codec.decode(encoded), is((Object) "payload"));
+    }
+
+    @Test
+    public void shouldTranscodeCompactPayloadToJavaSerialization() throws Exception
+    {
+        byte[] encoded = codec.toJavaSerialization(codec.encode(new Point(3, 4)));
+
+        assertThat(MessagePayloadCodec.isCompact(encoded), is(false));
+        assertThat(MessagePayloadCodec.decodeJava(encoded), is((Object) new Point(3, 4)));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void shouldRejectUnknownTypes() throws Exception
+    {
+        byte[] encoded = codec.encode(new Point(1, 2));
+
+        new MessagePayloadCodec(Collections.emptySet()).decode(encoded);
+    }
+
+    @Test
+    public void shouldNotTranscodeEnvelopeForPeerSupportingPayloadType() throws Exception
+    {
+        CellMessage envelope = new CellMessage(new CellPath("foo", "bar"), "payload").encode();
+
+        assertThat(envelope.encodeFor(ImmutableSet.of((short) 42)), is(sameInstance(envelope)));
+        assertThat(envelope.encodeFor(Collections.emptySet()), is(sameInstance(envelope)));
+    }
+
+    private static class Point implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int x;
+        final int y;
+
+        Point(int x, int y)
+        {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * x + y;
+        }
+    }
+
+    private static class PointSerializer implements MessagePayloadSerializer<Point>
+    {
+        @Override
+        public short getTypeId()
+        {
+            return 42;
+        }
+
+        @Override
+        public Class<Point> getType()
+        {
+            return Point.class;
+        }
+
+        @Override
+        public void write(Point payload, DataOutput out) throws IOException
+        {
+            out.writeInt(payload.x);
+            out.writeInt(payload.y);
+        }
+
+        @Override
+        public Point read(DataInput in) throws IOException
+        {
+            return new Point(in.readInt(), in.readInt());
+        }
+    }
+}
@@ -64,4 +64,9 @@ class DB2FsSqlDriver extends FsSqlDriver {
                          ps.setInt(5, flgs);
                      });
     }
+
+    @Override
+    String limit(int count) {
+        return "FETCH FIRST " + count + " ROWS ONLY";
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Cache of directory entries, mapping a name in a directory to the inode
+ * number of the entry. Names known not to exist are cached too.
+ *
+ * JdbcFs invalidates entries when it modifies the name space. Modifications
+ * by other processes sharing the database are only noticed once entries
+ * expire; the timeout thus bounds how stale a lookup may be.
+ *
+ * A lookup may observe the name space before a concurrent modification is
+ * committed, yet add its result only after the entry has been invalidated.
+ * To prevent such stale entries, each name has a generation that is bumped
+ * by invalidation. A lookup obtains the generation before querying the
+ * database, and its result is only added if the generation is unchanged.
+ * Generations are kept per stripe of names rather than per name; a collision
+ * merely causes an entry not to be cached.
+ */
+public class DentryCache
+{
+    private static final OptionalLong NO_ENTRY = OptionalLong.empty();
+
+    private static final int GENERATION_STRIPES = 4096;
+
+    private final long _maximumSize;
+    private final Cache<Key, OptionalLong> _cache;
+    private final LongAdder _negativeHits = new LongAdder();
+    private final AtomicLongArray _generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    /**
+     * Creates a cache with room for {@code maximumSize} entries. A size of
+     * zero disables the cache.
+     */
+    public DentryCache(long maximumSize, long timeout, TimeUnit unit)
+    {
+        checkArgument(maximumSize >= 0, "Size must not be negative");
+        checkArgument(timeout > 0, "Timeout must be positive");
+        _maximumSize = maximumSize;
+        _cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeout, unit)
+                .recordStats()
+                .build();
+    }
+
+    public boolean isEnabled()
+    {
+        return _maximumSize > 0;
+    }
+
+    /**
+     * Returns the inode number of {@code name} in directory {@code parent},
+     * an empty value if the entry is known not to exist, or null if the
+     * entry is not cached.
+     */
+    public OptionalLong get(long parent, String name)
+    {
+        OptionalLong child = _cache.getIfPresent(new Key(parent, name));
+        if (child != null && !child.isPresent()) {
+            _negativeHits.increment();
+        }
+        return child;
+    }
+
+    /**
+     * Returns the current generation of entries called {@code name}. The
+     * generation must be obtained before the database is queried, and be
+     * passed to {@link #put} or {@link #putNoEntry} along with the result.
+     */
+    public long generation(String name)
+    {
+        return _generations.get(stripe(name));
+    }
+
+    /**
+     * Records that {@code name} in directory {@code parent} is inode {@code child},
+     * unless the entry was invalidated since {@code generation} was obtained.
+     */
+    public void put(long parent, String name, long child, long generation)
+    {
+        put(new Key(parent, name), OptionalLong.of(child), generation);
+    }
+
+    /**
+     * Records that directory {@code parent} has no entry called {@code name},
+     * unless the entry was invalidated since {@code generation} was obtained.
+     */
+    public void putNoEntry(long parent, String name, long generation)
+    {
+        put(new Key(parent, name), NO_ENTRY, generation);
+    }
+
+    private void put(Key key, OptionalLong value, long generation)
+    {
+        if (isEnabled()) {
+            int stripe = stripe(key.name);
+            if (_generations.get(stripe) == generation) {
+                _cache.put(key, value);
+                /* An invalidation may have happened between checking the
+                 * generation and adding the entry.
+                 */
+                if (_generations.get(stripe) != generation) {
+                    _cache.invalidate(key);
+                }
+            }
+        }
+    }
+
+    public void invalidate(long parent, String name)
+    {
+        _generations.incrementAndGet(stripe(name));
+        _cache.invalidate(new Key(parent, name));
+    }
+
+    private static int stripe(String name)
+    {
+        return name.hashCode() & (GENERATION_STRIPES - 1);
+    }
+
+    @Override
+    public String toString()
+    {
+        if (!isEnabled()) {
+            return "disabled";
+        }
+        CacheStats stats = _cache.stats();
+        return String.format("size=%d hits=%d (negative=%d) misses=%d hit-rate=%.1f%%",
+                             _cache.size(), stats.hitCount(), _negativeHits.sum(),
+                             stats.missCount(), stats.hitRate() * 100);
+    }
+
+    private static class Key
+    {
+        private final long parent;
+        private final String name;
+
+        Key(long parent, String name)
+        {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return parent == other.parent && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(parent, name);
+        }
+    }
+}
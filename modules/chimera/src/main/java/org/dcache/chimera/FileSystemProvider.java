@@ -17,6 +17,7 @@
 package org.dcache.chimera;
 
 import java.io.Closeable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -86,6 +87,26 @@ public interface FileSystemProvider extends Closeable {
     DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir)
             throws ChimeraFsException;
 
+    /**
+     * Returns a stream of the entries of a directory in name order, starting
+     * with the first entry whose name sorts after {@code after}. The pseudo
+     * entries '.' and '..' are not included.
+     *
+     * The entries are fetched in pages of {@code pageSize} entries, each with
+     * a query of its own. No database resources are held between pages, and the
+     * cost of a page does not depend on its position in the directory. A listing
+     * may thus be resumed later by passing the name of the last entry seen.
+     *
+     * @param dir the directory to list
+     * @param after name of the last entry seen; the empty string to list from
+     *              the beginning
+     * @param pageSize number of entries to fetch at a time
+     * @return
+     * @throws ChimeraFsException
+     */
+    DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir, String after, int pageSize)
+            throws ChimeraFsException;
+
     void remove(String path) throws ChimeraFsException;
 
     /**
@@ -171,6 +192,17 @@ public interface FileSystemProvider extends Closeable {
      */
     FsInode id2inode(String id, StatCacheOption stat) throws ChimeraFsException;
 
+    /**
+     * Returns the inodes with the given ids, with their stat cache pre-filled.
+     * Ids of inodes that do not exist are skipped. The inodes are looked up with
+     * a few set-based queries rather than one query per id.
+     *
+     * @param ids
+     * @return
+     * @throws ChimeraFsException
+     */
+    List<FsInode> id2inodes(Collection<String> ids) throws ChimeraFsException;
+
     List<FsInode> path2inodes(String path)
         throws ChimeraFsException;
 
@@ -191,6 +223,13 @@ public interface FileSystemProvider extends Closeable {
      */
     String inode2path(FsInode inode, FsInode startFrom) throws ChimeraFsException;
 
+    /**
+     * Returns the paths of the given inodes, keyed by inode number. In case of
+     * hard links, one of the possible paths is returned. Inodes without path
+     * have no entry in the result.
+     */
+    Map<Long, String> inode2paths(Collection<? extends FsInode> inodes) throws ChimeraFsException;
+
     boolean isIoEnabled(FsInode inode)
             throws ChimeraFsException;
 
@@ -200,6 +239,13 @@ public interface FileSystemProvider extends Closeable {
     FsInode getParentOf(FsInode inode)
             throws ChimeraFsException;
 
+    /**
+     * Returns the parents of the given inodes, keyed by the inode number of
+     * the child. Inodes without parent have no entry in the result.
+     */
+    Map<Long, FsInode> getParentsOf(Collection<? extends FsInode> inodes)
+            throws ChimeraFsException;
+
     void setInodeAttributes(FsInode inode, int level, Stat stat)
             throws ChimeraFsException;
 
@@ -243,6 +289,13 @@ public interface FileSystemProvider extends Closeable {
     List<StorageLocatable> getInodeLocations(FsInode inode)
             throws ChimeraFsException;
 
+    /**
+     * Returns the locations of the given inodes, keyed by inode number.
+     * Inodes without locations have no entry in the result.
+     */
+    Map<Long, List<StorageLocatable>> getInodeLocations(Collection<? extends FsInode> inodes)
+            throws ChimeraFsException;
+
     void addInodeLocation(FsInode inode, int type,
                           String location) throws ChimeraFsException;
 
@@ -298,6 +351,13 @@ public interface FileSystemProvider extends Closeable {
     Set<Checksum> getInodeChecksums(FsInode inode)
                     throws ChimeraFsException;
 
+    /**
+     * Returns the checksums of the given inodes, keyed by inode number.
+     * Inodes without checksums have no entry in the result.
+     */
+    Map<Long, Set<Checksum>> getInodeChecksums(Collection<? extends FsInode> inodes)
+                    throws ChimeraFsException;
+
     String getInfo();
 
     /**
@@ -315,6 +375,12 @@ public interface FileSystemProvider extends Closeable {
      */
     List<ACE> getACL(FsInode inode) throws ChimeraFsException;
 
+    /**
+     * Returns the Access Control Entries of the given inodes, keyed by inode
+     * number. Inodes without ACL have no entry in the result.
+     */
+    Map<Long, List<ACE>> getACLs(Collection<? extends FsInode> inodes) throws ChimeraFsException;
+
     /**
      * Set Access Control Entries list for specified inode.
      * @param inode
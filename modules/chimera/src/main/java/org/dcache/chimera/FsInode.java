@@ -429,6 +429,11 @@ public class FsInode {
         return _fs.newDirectoryStream(this);
     }
 
+    public DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(String after, int pageSize)
+            throws ChimeraFsException {
+        return _fs.newDirectoryStream(this, after, pageSize);
+    }
+
     public String getId() throws ChimeraFsException
     {
         Stat stat = _stat;
@@ -16,7 +16,9 @@
  */
 package org.dcache.chimera;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Ints;
 import org.slf4j.Logger;
@@ -28,6 +30,7 @@ import org.springframework.jdbc.LobRetrievalFailureException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
@@ -44,14 +47,17 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.ServiceLoader;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -261,6 +267,89 @@ public class FsSqlDriver {
         };
     }
 
+    /**
+     * Returns up to {@code limit} entries of a directory in name order, starting
+     * with the first entry whose name sorts after {@code after}. The pseudo entries
+     * '.' and '..' are not included.
+     *
+     * Since the query resumes from a name rather than an offset, the cost of
+     * fetching a page does not depend on the position of the page in the directory.
+     *
+     * @param dir the directory to list
+     * @param after name of the last entry of the previous page; the empty string
+     *              to list from the beginning
+     * @param limit maximum number of entries to return
+     */
+    List<HimeraDirectoryEntry> listDir(FsInode dir, String after, int limit) {
+        /* Some databases treat the empty string as NULL, hence the predicate on the
+         * name is only added when resuming.
+         */
+        boolean isResuming = !after.isEmpty();
+        return _jdbc.query("SELECT i.*, d.iname FROM t_dirs d JOIN t_inodes i ON i.inumber = d.ichild " +
+                           "WHERE d.iparent=? " + (isResuming ? "AND d.iname>? " : "") +
+                           "ORDER BY d.iname " + limit(limit),
+                           ps -> {
+                               ps.setLong(1, dir.ino());
+                               if (isResuming) {
+                                   ps.setString(2, after);
+                               }
+                           },
+                           (rs, rowNum) -> {
+                               Stat stat = toStat(rs);
+                               FsInode inode = new FsInode(dir.getFs(), rs.getLong("inumber"), FsInodeType.INODE, 0, stat);
+                               inode.setParent(dir);
+                               return new HimeraDirectoryEntry(rs.getString("iname"), inode, stat);
+                           });
+    }
+
+    /**
+     * Like {@link #newDirectoryStream(FsInode)}, but entries are returned in
+     * name order, starting after {@code after}, and are fetched in pages of
+     * {@code pageSize} entries using {@link #listDir(FsInode, String, int)}.
+     * No database connection is held between pages; the stream thus need not
+     * be consumed within a transaction. The pseudo entries '.' and '..' are
+     * not included.
+     */
+    DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir, String after, int pageSize) {
+        return new DirectoryStreamB<HimeraDirectoryEntry>()
+        {
+            @Override
+            public Iterator<HimeraDirectoryEntry> iterator()
+            {
+                return new AbstractIterator<HimeraDirectoryEntry>()
+                {
+                    private Iterator<HimeraDirectoryEntry> page = Collections.emptyIterator();
+                    private String last = after;
+                    private boolean isLastPage;
+
+                    @Override
+                    protected HimeraDirectoryEntry computeNext()
+                    {
+                        if (!page.hasNext()) {
+                            if (isLastPage) {
+                                return endOfData();
+                            }
+                            List<HimeraDirectoryEntry> entries = listDir(dir, last, pageSize);
+                            isLastPage = entries.size() < pageSize;
+                            if (entries.isEmpty()) {
+                                return endOfData();
+                            }
+                            page = entries.iterator();
+                        }
+                        HimeraDirectoryEntry entry = page.next();
+                        last = entry.getName();
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+    }
+
     /**
      * Removes the hard link {@code name} in {@code parent} to {@code inode}. If the
      * last link is removed the object is deleted.
@@ -353,6 +442,19 @@ public class FsSqlDriver {
                 rs -> rs.next() ? toStat(rs) : null);
     }
 
+    /**
+     * Returns the stat of the inodes with the given ids. Ids of inodes that
+     * do not exist have no entry in the result.
+     */
+    List<Stat> stat(Collection<String> ids) {
+        List<Stat> stats = new ArrayList<>(ids.size());
+        queryAnyOf("SELECT * FROM t_inodes WHERE %s", "ipnfsid", "varchar", ids,
+                   rs -> {
+                       stats.add(toStat(rs));
+                   });
+        return stats;
+    }
+
     public Stat stat(FsInode inode) {
         return stat(inode, 0);
     }
@@ -545,6 +647,64 @@ public class FsSqlDriver {
         }
     }
 
+    /**
+     * Returns the paths of the given inodes, starting from the root of the
+     * tree and keyed by inode number. In case of hard links, one of the
+     * possible paths is returned. Inodes without path have no entry in the
+     * result.
+     *
+     * The directory entries are looked up one level of the tree at a time, such
+     * that files in the same directory share the lookup of their ancestors.
+     */
+    Map<Long,String> inode2paths(Collection<? extends FsInode> inodes) {
+        long root = getRootInumber();
+        Map<Long,Map.Entry<Long,String>> links = new HashMap<>();
+        Set<Long> unresolved = new HashSet<>(inumbers(inodes));
+        unresolved.remove(root);
+        while (!unresolved.isEmpty()) {
+            Set<Long> parents = new HashSet<>();
+            queryAnyOf("SELECT ichild, iparent, iname FROM t_dirs WHERE %s", "ichild", "bigint", unresolved,
+                       rs -> {
+                           long parent = rs.getLong("iparent");
+                           if (links.putIfAbsent(rs.getLong("ichild"),
+                                                 Maps.immutableEntry(parent, rs.getString("iname"))) == null) {
+                               parents.add(parent);
+                           }
+                       });
+            parents.remove(root);
+            parents.removeAll(links.keySet());
+            unresolved = parents;
+        }
+
+        Map<Long,String> paths = new HashMap<>();
+        for (long inumber : inumbers(inodes)) {
+            List<String> pList = new ArrayList<>();
+            long elementId = inumber;
+            while (elementId != root) {
+                Map.Entry<Long,String> link = links.get(elementId);
+                if (link == null) {
+                    break;
+                }
+                pList.add(link.getValue());
+                elementId = link.getKey();
+            }
+            if (elementId == root) {
+                paths.put(inumber, Lists.reverse(pList).stream().collect(Collectors.joining("/", "/", "")));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the directory entries linking to an inode, as pairs of parent
+     * inode number and name.
+     */
+    List<Map.Entry<Long, String>> getLinks(FsInode inode) {
+        return _jdbc.query("SELECT iparent, iname FROM t_dirs WHERE ichild=?",
+                           (rs, rowNum) -> Maps.immutableEntry(rs.getLong("iparent"), rs.getString("iname")),
+                           inode.ino());
+    }
+
     FsInode createInodeInParent(FsInode parent, String name, String id, int owner, int group, int mode,
                                 int type, int nlink, long size)
     {
@@ -778,6 +938,19 @@ public class FsSqlDriver {
                 rs -> rs.next() ? new FsInode(inode.getFs(), rs.getLong("iparent")) : null);
     }
 
+    /**
+     * Returns the inode numbers of the parents of the given inodes, keyed
+     * by the inode number of the child.
+     */
+    Map<Long,Long> getParentsOf(Collection<? extends FsInode> inodes) {
+        Map<Long,Long> parents = new HashMap<>();
+        queryAnyOf("SELECT ichild, iparent FROM t_dirs WHERE %s", "ichild", "bigint", inumbers(inodes),
+                   rs -> {
+                       parents.putIfAbsent(rs.getLong("ichild"), rs.getLong("iparent"));
+                   });
+        return parents;
+    }
+
     boolean setInodeAttributes(FsInode inode, int level, Stat stat) {
         return _jdbc.update(con -> generateAttributeUpdateStatement(con, inode, stat, level)) > 0;
     }
@@ -945,6 +1118,26 @@ public class FsSqlDriver {
                            });
     }
 
+    /**
+     * Returns the 'online' locations of the given inodes, keyed by inode
+     * number. Inodes without locations have no entry in the result.
+     */
+    Map<Long,List<StorageLocatable>> getInodeLocations(Collection<? extends FsInode> inodes) {
+        Map<Long,List<StorageLocatable>> locations = new HashMap<>();
+        queryAnyOf("SELECT inumber,itype,ilocation,ipriority,ictime,iatime FROM t_locationinfo " +
+                   "WHERE %s AND istate=1 ORDER BY ipriority DESC", "inumber", "bigint", inumbers(inodes),
+                   rs -> {
+                       int type = rs.getInt("itype");
+                       long ctime = rs.getTimestamp("ictime").getTime();
+                       long atime = rs.getTimestamp("iatime").getTime();
+                       int priority = rs.getInt("ipriority");
+                       String location = rs.getString("ilocation");
+                       locations.computeIfAbsent(rs.getLong("inumber"), ino -> new ArrayList<>())
+                               .add(new StorageGenericLocation(type, priority, location, ctime, atime, true));
+                   });
+        return locations;
+    }
+
 
     /**
      *
@@ -1441,6 +1634,22 @@ public class FsSqlDriver {
                            });
     }
 
+    /**
+     * Returns the checksums of the given inodes, keyed by inode number.
+     * Inodes without checksums have no entry in the result.
+     */
+    Map<Long,List<Checksum>> getInodeChecksums(Collection<? extends FsInode> inodes) {
+        Map<Long,List<Checksum>> checksums = new HashMap<>();
+        queryAnyOf("SELECT inumber, isum, itype FROM t_inodes_checksum WHERE %s", "inumber", "bigint", inumbers(inodes),
+                   rs -> {
+                       String checksum = rs.getString("isum");
+                       int type = rs.getInt("itype");
+                       checksums.computeIfAbsent(rs.getLong("inumber"), ino -> new ArrayList<>())
+                               .add(new Checksum(ChecksumType.getChecksumType(type), checksum));
+                   });
+        return checksums;
+    }
+
     /**
      *
      * @param inode
@@ -1589,17 +1798,32 @@ public class FsSqlDriver {
     List<ACE> readAcl(FsInode inode) {
         return _jdbc.query("SELECT * FROM t_acl WHERE inumber =  ? ORDER BY ace_order",
                            ps -> ps.setLong(1, inode.ino()),
-                           (rs, rowNum) -> {
-                               AceType type =
-                                       (rs.getInt("type") == 0)
-                                       ? AceType.ACCESS_ALLOWED_ACE_TYPE
-                                       : AceType.ACCESS_DENIED_ACE_TYPE;
-                               return new ACE(type,
-                                              rs.getInt("flags"),
-                                              rs.getInt("access_msk"),
-                                              Who.valueOf(rs.getInt("who")),
-                                              rs.getInt("who_id"));
-                           });
+                           (rs, rowNum) -> toAce(rs));
+    }
+
+    /**
+     * Returns the Access Control Lists of the given inodes, keyed by inode
+     * number. Inodes without ACL have no entry in the result.
+     */
+    Map<Long,List<ACE>> readAcls(Collection<? extends FsInode> inodes) {
+        Map<Long,List<ACE>> acls = new HashMap<>();
+        queryAnyOf("SELECT * FROM t_acl WHERE %s ORDER BY ace_order", "inumber", "bigint", inumbers(inodes),
+                   rs -> {
+                       acls.computeIfAbsent(rs.getLong("inumber"), ino -> new ArrayList<>()).add(toAce(rs));
+                   });
+        return acls;
+    }
+
+    private static ACE toAce(ResultSet rs) throws SQLException {
+        AceType type =
+                (rs.getInt("type") == 0)
+                ? AceType.ACCESS_ALLOWED_ACE_TYPE
+                : AceType.ACCESS_DENIED_ACE_TYPE;
+        return new ACE(type,
+                       rs.getInt("flags"),
+                       rs.getInt("access_msk"),
+                       Who.valueOf(rs.getInt("who")),
+                       rs.getInt("who_id"));
     }
 
     /**
@@ -1653,6 +1877,66 @@ public class FsSqlDriver {
         writeAcl(inode, type, acl);
     }
 
+    /**
+     * Returns a clause limiting a query to {@code count} rows. The clause is
+     * appended to the end of the query.
+     */
+    String limit(int count) {
+        return "LIMIT " + count;
+    }
+
+    /**
+     * Maximum number of values matched by a single set-based query. Larger
+     * sets are split over several queries.
+     */
+    int getMaxSetSize() {
+        return 1000;
+    }
+
+    /**
+     * Returns a predicate matching rows for which {@code column} has any of
+     * {@code count} values. The values are bound by {@link #setAnyOf}.
+     */
+    String anyOf(String column, int count) {
+        return column + " IN (" + String.join(",", Collections.nCopies(count, "?")) + ")";
+    }
+
+    /**
+     * Binds the values of a predicate generated by {@link #anyOf}.
+     *
+     * @param ps statement to bind the values in
+     * @param index index of the first parameter to bind
+     * @param sqlType SQL type name of the values
+     * @param values the values to bind
+     * @return index of the next parameter
+     */
+    int setAnyOf(PreparedStatement ps, int index, String sqlType, Object[] values) throws SQLException {
+        for (Object value : values) {
+            ps.setObject(index++, value);
+        }
+        return index;
+    }
+
+    /**
+     * Runs a query with a predicate matching any of the given values in
+     * {@code column}. The predicate replaces the {@code %s} placeholder in
+     * {@code sql}.
+     */
+    private void queryAnyOf(String sql, String column, String sqlType, Collection<?> values,
+                            RowCallbackHandler handler) {
+        for (List<?> chunk : Lists.partition(new ArrayList<>(values), getMaxSetSize())) {
+            _jdbc.query(String.format(sql, anyOf(column, chunk.size())),
+                        ps -> {
+                            setAnyOf(ps, 1, sqlType, chunk.toArray());
+                        },
+                        handler);
+        }
+    }
+
+    private static List<Long> inumbers(Collection<? extends FsInode> inodes) {
+        return inodes.stream().map(FsInode::ino).distinct().collect(toList());
+    }
+
     /**
      * Check <i>SQLException</i> for foreign key violation.
      * @return true is sqlState is a foreign key violation and false other wise
@@ -33,6 +33,8 @@ import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.TransactionSystemException;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
 
@@ -40,10 +42,15 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -147,6 +154,11 @@ public class JdbcFs implements FileSystemProvider {
                     .maximumSize(100000)
                     .build();
 
+    /**
+     * Cache of directory entries used to resolve paths. Disabled by default.
+     */
+    private volatile DentryCache _dentryCache = new DentryCache(0, 1, TimeUnit.SECONDS);
+
     /**
      * current fs id
      */
@@ -181,6 +193,14 @@ public class JdbcFs implements FileSystemProvider {
         _sqlDriver = FsSqlDriver.getDriverInstance(dataSource);
     }
 
+    /**
+     * Sets the cache of directory entries used to resolve paths.
+     */
+    public void setDentryCache(DentryCache dentryCache)
+    {
+        _dentryCache = dentryCache;
+    }
+
     private FsInode getWormID() throws ChimeraFsException {
 
         return this.path2inode("/admin/etc/config");
@@ -261,6 +281,7 @@ public class JdbcFs implements FileSystemProvider {
                 Stat stat = parent.statCache();
                 int group = (stat.getMode() & UnixPermission.S_ISGID) != 0 ? stat.getGid() : gid;
                 inode = _sqlDriver.createFile(parent, name, uid, group, mode, UnixPermission.S_IFLNK);
+                invalidateDentry(parent, name);
                 // link is a regular file where content is a reference
                 _sqlDriver.setInodeIo(inode, true);
                 _sqlDriver.write(inode, 0, 0, dest, 0, dest.length);
@@ -293,6 +314,7 @@ public class JdbcFs implements FileSystemProvider {
         return inTransaction(status -> {
             try {
                 _sqlDriver.createEntryInParent(parent, name, inode);
+                invalidateDentry(parent, name);
                 _sqlDriver.incNlink(inode);
                 _sqlDriver.incNlink(parent);
             } catch (DuplicateKeyException e) {
@@ -397,6 +419,7 @@ public class JdbcFs implements FileSystemProvider {
 
                 int gid = (parentStat.getMode() & UnixPermission.S_ISGID) != 0 ? parentStat.getGid() : group;
                 FsInode inode = _sqlDriver.createFile(parent, name, owner, gid, mode, type);
+                invalidateDentry(parent, name);
                 _sqlDriver.copyAcl(parent, inode, RsType.FILE,
                                    EnumSet.of(INHERIT_ONLY_ACE, DIRECTORY_INHERIT_ACE, FILE_INHERIT_ACE),
                                    EnumSet.of(FILE_INHERIT_ACE));
@@ -437,6 +460,7 @@ public class JdbcFs implements FileSystemProvider {
                 Stat stat = parent.statCache();
                 int gid = (stat.getMode() & UnixPermission.S_ISGID) != 0 ? stat.getGid() : group;
                 FsInode inode = _sqlDriver.createFileWithId(parent, id, name, owner, gid, mode, type);
+                invalidateDentry(parent, name);
                 _sqlDriver.copyAcl(parent, inode, RsType.FILE,
                                    EnumSet.of(INHERIT_ONLY_ACE, DIRECTORY_INHERIT_ACE, FILE_INHERIT_ACE),
                                    EnumSet.of(FILE_INHERIT_ACE));
@@ -467,6 +491,13 @@ public class JdbcFs implements FileSystemProvider {
         return _sqlDriver.newDirectoryStream(dir);
     }
 
+    @Override
+    public DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir, String after, int pageSize)
+            throws ChimeraFsException {
+        checkArgument(pageSize > 0, "Page size must be positive");
+        return _sqlDriver.newDirectoryStream(dir, after, pageSize);
+    }
+
     @Override
     public void remove(String path) throws ChimeraFsException {
 
@@ -484,6 +515,7 @@ public class JdbcFs implements FileSystemProvider {
             if (inode == null || !_sqlDriver.remove(parent, name, inode)) {
                 throw new FileNotFoundHimeraFsException(path);
             }
+            invalidateDentry(parent, name);
             return null;
         });
     }
@@ -494,6 +526,7 @@ public class JdbcFs implements FileSystemProvider {
             if (!_sqlDriver.remove(directory, name, inode)) {
                 throw new FileNotFoundHimeraFsException(name);
             }
+            invalidateDentry(directory, name);
             return null;
         });
     }
@@ -514,7 +547,13 @@ public class JdbcFs implements FileSystemProvider {
             if (inode.isDirectory() && inode.statCache().getNlink() > 2) {
                 throw new DirNotEmptyHimeraFsException("Directory is not empty");
             }
+            DentryCache dentryCache = _dentryCache;
+            List<Map.Entry<Long, String>> links =
+                    dentryCache.isEnabled() ? _sqlDriver.getLinks(inode) : Collections.emptyList();
             _sqlDriver.remove(inode);
+            for (Map.Entry<Long, String> link : links) {
+                invalidateDentry(dentryCache, link.getKey(), link.getValue());
+            }
             return null;
         });
     }
@@ -576,6 +615,7 @@ public class JdbcFs implements FileSystemProvider {
                 }
 
                 FsInode inode = _sqlDriver.mkdir(parent, name, owner, gid, perm);
+                invalidateDentry(parent, name);
                 _sqlDriver.copyTags(parent, inode);
                 _sqlDriver.copyAcl(parent, inode, RsType.DIR, EnumSet.of(INHERIT_ONLY_ACE),
                                    EnumSet.of(FILE_INHERIT_ACE, DIRECTORY_INHERIT_ACE));
@@ -618,6 +658,7 @@ public class JdbcFs implements FileSystemProvider {
                     perm = mode;
                 }
                 FsInode inode = _sqlDriver.mkdir(parent, name, owner, gid, perm);
+                invalidateDentry(parent, name);
                 _sqlDriver.createTags(inode, owner, gid, perm & 0666, tags);
                 _sqlDriver.writeAcl(inode, RsType.DIR, acl);
                 fillIdCaches(inode);
@@ -635,7 +676,10 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public FsInode path2inode(String path, FsInode startFrom) throws ChimeraFsException {
-        FsInode inode = _sqlDriver.path2inode(startFrom, path);
+        DentryCache dentryCache = _dentryCache;
+        FsInode inode = dentryCache.isEnabled()
+                        ? path2inode(dentryCache, startFrom, path)
+                        : _sqlDriver.path2inode(startFrom, path);
         if (inode == null) {
             throw new FileNotFoundHimeraFsException(path);
         }
@@ -643,6 +687,127 @@ public class JdbcFs implements FileSystemProvider {
         return inode;
     }
 
+    /**
+     * Resolves a path using the dentry cache. The longest cached prefix of
+     * the path is resolved without querying the database; the remainder is
+     * resolved with a single query and added to the cache.
+     *
+     * @return the inode or null if the path does not exist
+     */
+    private FsInode path2inode(DentryCache dentryCache, FsInode startFrom, String path)
+            throws ChimeraFsException
+    {
+        List<String> elements = pathElements(path);
+        FsInode inode = startFrom;
+        int i = 0;
+        while (i < elements.size() && isCacheable(elements.get(i))) {
+            OptionalLong child = dentryCache.get(inode.ino(), elements.get(i));
+            if (child == null) {
+                break;
+            }
+            if (!child.isPresent()) {
+                return null;
+            }
+            inode = new FsInode(this, child.getAsLong());
+            i++;
+        }
+        if (i == elements.size()) {
+            return inode;
+        }
+
+        List<String> remaining = elements.subList(i, elements.size());
+        long[] generations = generations(dentryCache, remaining);
+        List<FsInode> inodes = _sqlDriver.path2inodes(inode, String.join("/", remaining));
+        if (inodes.isEmpty()) {
+            if (remaining.size() == 1 && isCacheable(remaining.get(0))) {
+                dentryCache.putNoEntry(inode.ino(), remaining.get(0), generations[0]);
+            }
+            return null;
+        }
+        cacheDentries(dentryCache, remaining, generations, inodes);
+        return inodes.get(inodes.size() - 1);
+    }
+
+    /**
+     * Returns the dentry cache generations of the elements of a path. Must
+     * be called before the path is resolved.
+     */
+    private static long[] generations(DentryCache dentryCache, List<String> elements)
+    {
+        return elements.stream().mapToLong(dentryCache::generation).toArray();
+    }
+
+    /**
+     * Adds the entries of a resolved path to the dentry cache. The first inode is
+     * the directory the path was resolved from. Symbolic links are resolved by
+     * the path lookup, thus the entries following the first link are not cached.
+     */
+    private static void cacheDentries(DentryCache dentryCache, List<String> elements, long[] generations,
+                                      List<FsInode> inodes)
+    {
+        if (!dentryCache.isEnabled()) {
+            return;
+        }
+        for (int i = 0; i < elements.size() && i + 1 < inodes.size(); i++) {
+            String name = elements.get(i);
+            Stat stat = inodes.get(i + 1).getStatCache();
+            if (!isCacheable(name) || stat == null ||
+                UnixPermission.getType(stat.getMode()) == UnixPermission.S_IFLNK) {
+                break;
+            }
+            dentryCache.put(inodes.get(i).ino(), name, inodes.get(i + 1).ino(), generations[i]);
+        }
+    }
+
+    private static boolean isCacheable(String name)
+    {
+        return !name.equals(".") && !name.equals("..") && !name.startsWith(".(");
+    }
+
+    private static List<String> pathElements(String path)
+    {
+        List<String> elements = new ArrayList<>();
+        for (String element : path.split("/")) {
+            if (!element.isEmpty()) {
+                elements.add(element);
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Invalidates the dentry cache entry of {@code name} in {@code parent}.
+     * The entry is invalidated once more when the surrounding transaction
+     * completes, as a concurrent lookup may have cached the old state before
+     * the change was committed.
+     */
+    private void invalidateDentry(FsInode parent, String name)
+    {
+        invalidateDentry(_dentryCache, parent.ino(), name);
+    }
+
+    private static void invalidateDentry(DentryCache dentryCache, long parent, String name)
+    {
+        if (dentryCache.isEnabled()) {
+            dentryCache.invalidate(parent, name);
+            afterCompletion(() -> dentryCache.invalidate(parent, name));
+        }
+    }
+
+    private static void afterCompletion(Runnable task)
+    {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCompletion(int status)
+                {
+                    task.run();
+                }
+            });
+        }
+    }
+
     @Override
     public String inode2id(FsInode inode) throws ChimeraFsException {
         try {
@@ -689,6 +854,17 @@ public class JdbcFs implements FileSystemProvider {
         }
     }
 
+    @Override
+    public List<FsInode> id2inodes(Collection<String> ids) throws ChimeraFsException {
+        List<FsInode> inodes = new ArrayList<>(ids.size());
+        for (Stat stat : _sqlDriver.stat(ids)) {
+            _inoCache.put(stat.getId(), stat.getIno());
+            _idCache.put(stat.getIno(), stat.getId());
+            inodes.add(new FsInode(this, stat.getIno(), FsInodeType.INODE, 0, stat));
+        }
+        return inodes;
+    }
+
     @Override
     public List<FsInode> path2inodes(String path) throws ChimeraFsException {
         return path2inodes(path, new RootInode(this, _sqlDriver.getRootInumber()));
@@ -698,10 +874,14 @@ public class JdbcFs implements FileSystemProvider {
     public List<FsInode> path2inodes(String path, FsInode startFrom)
         throws ChimeraFsException
     {
+        DentryCache dentryCache = _dentryCache;
+        List<String> elements = pathElements(path);
+        long[] generations = generations(dentryCache, elements);
         List<FsInode> inodes = _sqlDriver.path2inodes(startFrom, path);
         if (inodes.isEmpty()) {
             throw new FileNotFoundHimeraFsException(path);
         }
+        cacheDentries(dentryCache, elements, generations, inodes);
         fillIdCaches(inodes.get(inodes.size() - 1));
         return inodes;
     }
@@ -951,6 +1131,11 @@ public class JdbcFs implements FileSystemProvider {
         return _sqlDriver.inode2path(inode, startFrom);
     }
 
+    @Override
+    public Map<Long, String> inode2paths(Collection<? extends FsInode> inodes) throws ChimeraFsException {
+        return _sqlDriver.inode2paths(inodes);
+    }
+
     @Override
     public boolean removeFileMetadata(String path, int level) throws ChimeraFsException {
         return inTransaction(status -> _sqlDriver.removeInodeLevel(path2inode(path), level));
@@ -961,6 +1146,13 @@ public class JdbcFs implements FileSystemProvider {
         return _sqlDriver.getParentOf(inode);
     }
 
+    @Override
+    public Map<Long, FsInode> getParentsOf(Collection<? extends FsInode> inodes) throws ChimeraFsException {
+        Map<Long, FsInode> parents = new HashMap<>();
+        _sqlDriver.getParentsOf(inodes).forEach((child, parent) -> parents.put(child, new FsInode(this, parent)));
+        return parents;
+    }
+
     @Override
     public void setInodeAttributes(FsInode inode, int level, Stat stat) throws ChimeraFsException {
         inTransaction(status -> {
@@ -1090,6 +1282,8 @@ public class JdbcFs implements FileSystemProvider {
             if (!_sqlDriver.rename(inode, srcDir, source, destDir, dest)) {
                 throw new FileNotFoundHimeraFsException(source);
             }
+            invalidateDentry(srcDir, source);
+            invalidateDentry(destDir, dest);
             return true;
         });
     }
@@ -1109,6 +1303,11 @@ public class JdbcFs implements FileSystemProvider {
         return _sqlDriver.getInodeLocations(inode);
     }
 
+    @Override
+    public Map<Long, List<StorageLocatable>> getInodeLocations(Collection<? extends FsInode> inodes) throws ChimeraFsException {
+        return _sqlDriver.getInodeLocations(inodes);
+    }
+
     @Override
     public void addInodeLocation(FsInode inode, int type, String location) throws ChimeraFsException {
         inTransaction(status -> {
@@ -1284,6 +1483,13 @@ public class JdbcFs implements FileSystemProvider {
         return new HashSet<>(_sqlDriver.getInodeChecksums(inode));
     }
 
+    @Override
+    public Map<Long, Set<Checksum>> getInodeChecksums(Collection<? extends FsInode> inodes) throws ChimeraFsException {
+        Map<Long, Set<Checksum>> checksums = new HashMap<>();
+        _sqlDriver.getInodeChecksums(inodes).forEach((ino, list) -> checksums.put(ino, new HashSet<>(list)));
+        return checksums;
+    }
+
     /**
      * Get inode's Access Control List. An empty list is returned if there are no ACL assigned
      * to the <code>inode</code>.
@@ -1295,6 +1501,11 @@ public class JdbcFs implements FileSystemProvider {
         return _sqlDriver.readAcl(inode);
     }
 
+    @Override
+    public Map<Long, List<ACE>> getACLs(Collection<? extends FsInode> inodes) throws ChimeraFsException {
+        return _sqlDriver.readAcls(inodes);
+    }
+
     /**
      * Set inode's Access Control List. The existing ACL will be replaced.
      * @param inode
@@ -1369,6 +1580,7 @@ public class JdbcFs implements FileSystemProvider {
             sb.append("rootID    : ").append(e.getMessage()).append('\n');
         }
         sb.append("FsId      : ").append(_fsId).append('\n');
+        sb.append("Dentries  : ").append(_dentryCache).append('\n');
         return sb.toString();
     }
 
@@ -85,4 +85,9 @@ class OracleFsSqlDriver extends FsSqlDriver {
                          ps.setInt(5, flgs);
                      });
     }
+
+    @Override
+    String limit(int count) {
+        return "FETCH FIRST " + count + " ROWS ONLY";
+    }
 }
@@ -24,7 +24,9 @@ import org.springframework.dao.IncorrectUpdateSemanticsDataAccessException;
 import javax.sql.DataSource;
 
 import java.io.File;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -315,4 +317,20 @@ public class PgSQLFsSqlDriver extends FsSqlDriver {
             }
         }
     }
+
+    @Override
+    int getMaxSetSize() {
+        return 10000;
+    }
+
+    @Override
+    String anyOf(String column, int count) {
+        return column + " = ANY(?)";
+    }
+
+    @Override
+    int setAnyOf(PreparedStatement ps, int index, String sqlType, Object[] values) throws SQLException {
+        ps.setArray(index, ps.getConnection().createArrayOf(sqlType, values));
+        return index + 1;
+    }
 }
@@ -12,8 +12,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
@@ -700,6 +703,71 @@ public class BasicTest extends ChimeraTestCaseHelper {
         assertHasChecksum(new Checksum(ChecksumType.getChecksumType(1), sum), fileInode);
     }
 
+    @Test
+    public void testBulkLookup() throws Exception {
+        FsInode base = _rootInode.mkdir("junit");
+        FsInode file1 = base.create("file1", 0, 0, 0644);
+        FsInode file2 = base.create("file2", 0, 0, 0644);
+        _fs.addInodeLocation(file1, StorageGenericLocation.DISK, "pool1");
+        _fs.addInodeLocation(file1, StorageGenericLocation.DISK, "pool2");
+        _fs.setInodeChecksum(file2, 1, "abc");
+
+        List<FsInode> inodes = _fs.id2inodes(Arrays.asList(file1.getId(), file2.getId(),
+                                                           FsInode.generateNewID()));
+        assertEquals(2, inodes.size());
+        for (FsInode inode : inodes) {
+            assertNotNull(inode.getStatCache());
+        }
+
+        Map<Long, List<StorageLocatable>> locations = _fs.getInodeLocations(inodes);
+        assertEquals(2, locations.get(file1.ino()).size());
+        assertFalse(locations.containsKey(file2.ino()));
+
+        Map<Long, Set<Checksum>> checksums = _fs.getInodeChecksums(inodes);
+        assertEquals(Collections.singleton(new Checksum(ChecksumType.getChecksumType(1), "abc")),
+                     checksums.get(file2.ino()));
+        assertFalse(checksums.containsKey(file1.ino()));
+
+        Map<Long, FsInode> parents = _fs.getParentsOf(inodes);
+        assertEquals(base, parents.get(file1.ino()));
+        assertEquals(base, parents.get(file2.ino()));
+    }
+
+    @Test
+    public void testBulkAclLookup() throws Exception {
+        FsInode base = _rootInode.mkdir("junit");
+        FsInode file1 = base.create("file1", 0, 0, 0644);
+        FsInode file2 = base.create("file2", 0, 0, 0644);
+        List<ACE> aces = new ArrayList<>();
+        aces.add(new ACE(AceType.ACCESS_DENIED_ACE_TYPE, 0, AccessMask.READ_DATA.getValue(), Who.USER, 1001));
+        aces.add(new ACE(AceType.ACCESS_ALLOWED_ACE_TYPE, 0, AccessMask.READ_DATA.getValue(), Who.EVERYONE, -1));
+        _fs.setACL(file1, aces);
+
+        Map<Long, List<ACE>> acls = _fs.getACLs(Arrays.asList(file1, file2));
+        assertEquals(aces, acls.get(file1.ino()));
+        assertFalse(acls.containsKey(file2.ino()));
+    }
+
+    @Test
+    public void testBulkPathLookup() throws Exception {
+        FsInode base = _rootInode.mkdir("junit");
+        FsInode dir = base.mkdir("dir");
+        FsInode file1 = base.create("file1", 0, 0, 0644);
+        FsInode file2 = dir.create("file2", 0, 0, 0644);
+        FsInode file3 = dir.create("file3", 0, 0, 0644);
+        FsInode unlinked = base.create("unlinked", 0, 0, 0644);
+        _fs.remove(base, "unlinked", unlinked);
+
+        Map<Long, String> paths = _fs.inode2paths(Arrays.asList(_rootInode, base, file1, file2, file3, unlinked));
+        assertEquals("/", paths.get(_rootInode.ino()));
+        assertEquals("/junit", paths.get(base.ino()));
+        assertEquals("/junit/file1", paths.get(file1.ino()));
+        assertEquals("/junit/dir/file2", paths.get(file2.ino()));
+        assertEquals("/junit/dir/file3", paths.get(file3.ino()));
+        assertFalse(paths.containsKey(unlinked.ino()));
+        assertEquals(_fs.inode2path(file2), paths.get(file2.ino()));
+    }
+
     @Ignore("Functionality not yet written, but desired")
     @Test
     public void testUpdateChecksumDifferTypes() throws Exception {
@@ -1068,6 +1136,34 @@ public class BasicTest extends ChimeraTestCaseHelper {
         }
     }
 
+    @Test
+    public void testPagedDirectoryStream() throws Exception {
+        FsInode dir = _rootInode.mkdir("junit");
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            String name = "file" + i;
+            dir.create(name, 0, 0, 0644);
+            names.add(name);
+        }
+
+        List<String> listed = new ArrayList<>();
+        try (DirectoryStreamB<HimeraDirectoryEntry> dirStream = _fs.newDirectoryStream(dir, "", 3)) {
+            for (HimeraDirectoryEntry entry : dirStream) {
+                assertEquals(dir, entry.getInode().getParent());
+                listed.add(entry.getName());
+            }
+        }
+        assertEquals(names, listed);
+
+        listed.clear();
+        try (DirectoryStreamB<HimeraDirectoryEntry> dirStream = _fs.newDirectoryStream(dir, "file4", 5)) {
+            for (HimeraDirectoryEntry entry : dirStream) {
+                listed.add(entry.getName());
+            }
+        }
+        assertEquals(names.subList(5, 10), listed);
+    }
+
     private void assertHasChecksum(Checksum expectedChecksum, FsInode inode) throws Exception {
         for(Checksum checksum: _fs.getInodeChecksums(inode)) {
             if (checksum.equals(expectedChecksum)) {
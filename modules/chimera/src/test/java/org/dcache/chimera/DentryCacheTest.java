@@ -0,0 +1,120 @@
+package org.dcache.chimera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DentryCacheTest extends ChimeraTestCaseHelper {
+
+    @Before
+    public void enableCache() {
+        ((JdbcFs) _fs).setDentryCache(new DentryCache(1000, 1, TimeUnit.MINUTES));
+    }
+
+    private void assertNotExists(String path) throws ChimeraFsException {
+        try {
+            _fs.path2inode(path);
+            fail(path + " exists");
+        } catch (FileNotFoundHimeraFsException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testCachedLookup() throws Exception {
+        FsInode dir = _fs.mkdir("/junit");
+        FsInode file = _fs.createFile(dir, "file");
+
+        assertEquals(file, _fs.path2inode("/junit/file"));
+        assertEquals(file, _fs.path2inode("/junit/file"));
+        assertEquals(file, _fs.path2inode("file", dir));
+        assertTrue(_fs.getInfo().contains("hits=3"));
+    }
+
+    @Test
+    public void testNegativeEntryInvalidatedOnCreate() throws Exception {
+        FsInode dir = _fs.mkdir("/junit");
+        assertNotExists("/junit/file");
+        assertNotExists("/junit/file");
+
+        FsInode file = _fs.createFile(dir, "file");
+        assertEquals(file, _fs.path2inode("/junit/file"));
+
+        assertNotExists("/junit/dir");
+        FsInode subdir = _fs.mkdir(dir, "dir");
+        assertEquals(subdir, _fs.path2inode("/junit/dir"));
+    }
+
+    @Test
+    public void testEntryInvalidatedOnRename() throws Exception {
+        FsInode dir = _fs.mkdir("/junit");
+        FsInode file = _fs.createFile(dir, "file");
+        FsInode other = _fs.createFile(dir, "other");
+        assertEquals(file, _fs.path2inode("/junit/file"));
+        assertEquals(other, _fs.path2inode("/junit/other"));
+
+        _fs.rename(file, dir, "file", dir, "other");
+
+        assertNotExists("/junit/file");
+        assertEquals(file, _fs.path2inode("/junit/other"));
+    }
+
+    @Test
+    public void testEntryInvalidatedOnRemove() throws Exception {
+        FsInode dir = _fs.mkdir("/junit");
+        FsInode file1 = _fs.createFile(dir, "file1");
+        FsInode file2 = _fs.createFile(dir, "file2");
+        assertEquals(file1, _fs.path2inode("/junit/file1"));
+        assertEquals(file2, _fs.path2inode("/junit/file2"));
+
+        _fs.remove("/junit/file1");
+        _fs.remove(file2);
+
+        assertNotExists("/junit/file1");
+        assertNotExists("/junit/file2");
+    }
+
+    @Test
+    public void testSymbolicLinkIsResolved() throws Exception {
+        FsInode dir = _fs.mkdir("/junit");
+        FsInode target = _fs.mkdir(dir, "target");
+        FsInode file = _fs.createFile(target, "file");
+        _fs.createLink(dir, "link", "target");
+
+        assertEquals(file, _fs.path2inode("/junit/link/file"));
+        assertEquals(file, _fs.path2inode("/junit/link/file"));
+        assertEquals(target, _fs.path2inode("/junit/link"));
+    }
+
+    @Test
+    public void testAllLinksInvalidatedOnRemoveByInode() throws Exception {
+        FsInode dir = _fs.mkdir("/junit");
+        FsInode file = _fs.createFile(dir, "file");
+        _fs.createHLink(dir, file, "link");
+        assertEquals(file, _fs.path2inode("/junit/file"));
+        assertEquals(file, _fs.path2inode("/junit/link"));
+
+        _fs.remove(file);
+
+        assertNotExists("/junit/file");
+        assertNotExists("/junit/link");
+    }
+
+    @Test
+    public void testLookupStartedBeforeInvalidationIsNotCached() {
+        DentryCache cache = new DentryCache(1000, 1, TimeUnit.MINUTES);
+
+        long generation = cache.generation("file");
+        cache.invalidate(1, "file");
+        cache.putNoEntry(1, "file", generation);
+        cache.put(1, "file", 2, generation);
+
+        assertNull(cache.get(1, "file"));
+
+        cache.putNoEntry(1, "file", cache.generation("file"));
+        assertFalse(cache.get(1, "file").isPresent());
+    }
+}
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -101,6 +102,12 @@ public class ChimeraNameSpaceProvider
 
     private static final int INHERIT_MODE = -1;
 
+    /**
+     * Number of directory entries read from the database at a time
+     * when listing a directory.
+     */
+    private static final int LIST_PAGE_SIZE = 1000;
+
     public static final String TAG_EXPECTED_SIZE = "ExpectedSize";
     public static final String TAG_PATH = "Path";
     public static final String TAG_WRITE_TOKEN = "WriteToken";
@@ -765,6 +772,29 @@ public class ChimeraNameSpaceProvider
         }
     }
 
+    @Override
+    public Map<PnfsId, String> pnfsidsToPaths(Subject subject, Collection<PnfsId> pnfsIds) throws CacheException {
+        try {
+            List<String> ids = new ArrayList<>(pnfsIds.size());
+            for (PnfsId pnfsId : pnfsIds) {
+                ids.add(pnfsId.getId());
+            }
+            List<FsInode> inodes = _fs.id2inodes(ids);
+            Map<Long, String> paths = _fs.inode2paths(inodes);
+
+            Map<PnfsId, String> result = new HashMap<>();
+            for (FsInode inode : inodes) {
+                String path = paths.get(inode.ino());
+                if (path != null) {
+                    result.put(new PnfsId(inode.getId()), path);
+                }
+            }
+            return result;
+        } catch (ChimeraFsException e) {
+            throw new CacheException(CacheException.UNEXPECTED_SYSTEM_EXCEPTION, e.getMessage());
+        }
+    }
+
     @Override
     public PnfsId pathToPnfsid(Subject subject, String path, boolean followLink)
         throws CacheException
@@ -1000,6 +1030,99 @@ public class ChimeraNameSpaceProvider
         }
     }
 
+    @Override
+    public Map<PnfsId, FileAttributes> getFileAttributes(Subject subject, Collection<PnfsId> pnfsIds,
+                                                         Set<FileAttribute> attr)
+        throws CacheException
+    {
+        try {
+            Set<FileAttribute> required = EnumSet.noneOf(FileAttribute.class);
+            required.addAll(attr);
+            boolean isRoot = Subjects.isRoot(subject);
+            if (!isRoot) {
+                required.addAll(_permissionHandler.getRequiredAttributes());
+            }
+
+            List<String> ids = new ArrayList<>(pnfsIds.size());
+            for (PnfsId pnfsId : pnfsIds) {
+                ids.add(pnfsId.getId());
+            }
+            List<ExtendedInode> inodes = new ArrayList<>(ids.size());
+            for (FsInode inode : _fs.id2inodes(ids)) {
+                inodes.add(new ExtendedInode(_fs, inode));
+            }
+            prefetch(inodes, required);
+
+            Map<PnfsId, FileAttributes> result = new HashMap<>();
+            for (ExtendedInode inode : inodes) {
+                try {
+                    FileAttributes fileAttributes = getFileAttributes(inode, required);
+                    if (isRoot || _permissionHandler.canGetAttributes(subject, fileAttributes, attr) == ACCESS_ALLOWED) {
+                        result.put(inode.getPnfsId(), fileAttributes);
+                    }
+                } catch (FileNotFoundHimeraFsException e) {
+                    /* Deleted since the inodes were looked up. */
+                }
+            }
+            return result;
+        } catch (IOException e) {
+            throw new CacheException(CacheException.UNEXPECTED_SYSTEM_EXCEPTION,
+                                     e.getMessage());
+        }
+    }
+
+    /**
+     * Fills the caches of the inodes with the data needed to extract the
+     * given attributes. Each kind of data is fetched for all inodes at once,
+     * rather than by one query per inode.
+     */
+    private void prefetch(List<ExtendedInode> inodes, Set<FileAttribute> attr) throws ChimeraFsException
+    {
+        if (inodes.isEmpty()) {
+            return;
+        }
+
+        boolean needsStorageInfo = attr.contains(STORAGEINFO) || attr.contains(STORAGECLASS) ||
+                                   attr.contains(CACHECLASS) || attr.contains(HSM);
+        boolean needsTags = needsStorageInfo ||
+                            attr.contains(ACCESS_LATENCY) || attr.contains(RETENTION_POLICY);
+
+        if (needsStorageInfo || attr.contains(LOCATIONS) || attr.contains(SIZE)) {
+            Map<Long, List<StorageLocatable>> locations = _fs.getInodeLocations(inodes);
+            for (ExtendedInode inode : inodes) {
+                inode.setLocations(locations.getOrDefault(inode.ino(), Collections.emptyList()));
+            }
+        }
+
+        if (attr.contains(CHECKSUM)) {
+            Map<Long, Set<Checksum>> checksums = _fs.getInodeChecksums(inodes);
+            for (ExtendedInode inode : inodes) {
+                inode.setChecksums(checksums.getOrDefault(inode.ino(), Collections.emptySet()));
+            }
+        }
+
+        if (attr.contains(ACL) && _aclEnabled) {
+            Map<Long, List<ACE>> acls = _fs.getACLs(inodes);
+            for (ExtendedInode inode : inodes) {
+                inode.setAcl(acls.getOrDefault(inode.ino(), Collections.emptyList()));
+            }
+        }
+
+        if (needsTags) {
+            /* Files in the same directory share the parent inode, such that
+             * directory tags are read once per directory.
+             */
+            Map<Long, FsInode> parents = _fs.getParentsOf(inodes);
+            Map<Long, ExtendedInode> directories = new HashMap<>();
+            for (ExtendedInode inode : inodes) {
+                FsInode parent = parents.get(inode.ino());
+                inode.setParent((parent == null)
+                                ? null
+                                : directories.computeIfAbsent(parent.ino(), ino -> new ExtendedInode(_fs, parent)));
+            }
+        }
+    }
+
     @Override
     public FileAttributes setFileAttributes(Subject subject, PnfsId pnfsId,
                                   FileAttributes attr, Set<FileAttribute> acquire)
@@ -1129,6 +1252,14 @@ public class ChimeraNameSpaceProvider
     public void list(Subject subject, String path, Glob glob, Range<Integer> range,
                      Set<FileAttribute> attrs, ListHandler handler)
         throws CacheException
+    {
+        list(subject, path, glob, null, range, attrs, handler);
+    }
+
+    @Override
+    public void list(Subject subject, String path, Glob glob, String after, Range<Integer> range,
+                     Set<FileAttribute> attrs, ListHandler handler)
+        throws CacheException
     {
         try {
             Pattern pattern = (glob == null) ? null : glob.toPattern();
@@ -1148,14 +1279,24 @@ public class ChimeraNameSpaceProvider
                 }
             }
 
+            /* The directory is read in pages, each with a query of its own,
+             * so that no database connection is held while the entries are
+             * processed. The listing ends once the range is exhausted.
+             */
+            int pageSize = LIST_PAGE_SIZE;
+            if (pattern == null && range.hasUpperBound()) {
+                pageSize = (int) Math.max(1, Math.min(pageSize, range.upperEndpoint() + 1L));
+            }
             int counter = 0;
             try (DirectoryStreamB<HimeraDirectoryEntry> dirStream = dir
-                    .newDirectoryStream()) {
+                    .newDirectoryStream(nullToEmpty(after), pageSize)) {
                 for (HimeraDirectoryEntry entry : dirStream) {
+                    if (range.hasUpperBound() && counter >= range.upperEndpoint() && !range.contains(counter)) {
+                        break;
+                    }
                     try {
                         String name = entry.getName();
-                        if (!name.equals(".") && !name.equals("..") &&
-                                (pattern == null || pattern.matcher(name)
+                        if ((pattern == null || pattern.matcher(name)
                                         .matches()) &&
                                 range.contains(counter++)) {
                             // FIXME: actually, HimeraDirectoryEntry
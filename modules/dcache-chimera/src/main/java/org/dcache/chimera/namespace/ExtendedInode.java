@@ -26,6 +26,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteSource;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -176,6 +177,43 @@ public class ExtendedInode extends FsInode
         return checksums;
     }
 
+    /**
+     * Pre-fills the cached checksums, e.g. after having fetched the
+     * checksums of many inodes at once.
+     */
+    void setChecksums(Collection<Checksum> checksums)
+    {
+        this.checksums = ImmutableList.copyOf(checksums);
+    }
+
+    /**
+     * Pre-fills the cached locations, e.g. after having fetched the
+     * locations of many inodes at once.
+     */
+    void setLocations(Collection<StorageLocatable> locations)
+    {
+        this.locations = ImmutableList.copyOf(locations);
+    }
+
+    /**
+     * Pre-fills the cached ACL, e.g. after having fetched the ACLs of many
+     * inodes at once.
+     */
+    void setAcl(List<ACE> acl)
+    {
+        RsType rsType = isDirectory() ? RsType.DIR : RsType.FILE;
+        this.acl = new ACL(rsType, acl);
+    }
+
+    /**
+     * Pre-fills the cached parent, allowing inodes in the same directory
+     * to share the parent and its cached tags.
+     */
+    void setParent(ExtendedInode parent)
+    {
+        this.parent = Optional.fromNullable(parent);
+    }
+
     public ImmutableList<String> getLocations(int type) throws ChimeraFsException
     {
         return ImmutableList.copyOf(
@@ -1,6 +1,8 @@
 package diskCacheV111.namespace;
 
+import com.google.common.collect.Range;
 import com.google.common.io.Resources;
+import com.zaxxer.hikari.HikariDataSource;
 import junit.framework.JUnit4TestAdapter;
 import liquibase.Liquibase;
 import liquibase.database.Database;
@@ -11,14 +13,20 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -34,17 +42,27 @@ import diskCacheV111.vehicles.PnfsCreateEntryMessage;
 import diskCacheV111.vehicles.PnfsCreateUploadPath;
 import diskCacheV111.vehicles.PnfsDeleteEntryMessage;
 import diskCacheV111.vehicles.PnfsGetCacheLocationsMessage;
+import diskCacheV111.vehicles.PnfsMessage;
 import diskCacheV111.vehicles.PnfsRenameMessage;
 import diskCacheV111.vehicles.PnfsSetChecksumMessage;
 import diskCacheV111.vehicles.StorageInfo;
 
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+
+import org.dcache.acl.ACE;
+import org.dcache.acl.enums.AccessMask;
+import org.dcache.acl.enums.AceType;
+import org.dcache.acl.enums.Who;
 import org.dcache.auth.Subjects;
+import org.dcache.auth.attributes.PrefixRestriction;
 import org.dcache.auth.attributes.Restrictions;
 import org.dcache.chimera.ChimeraFsException;
 import org.dcache.chimera.FileNotFoundHimeraFsException;
 import org.dcache.chimera.FileSystemProvider;
 import org.dcache.chimera.FsFactory;
 import org.dcache.chimera.FsInode;
+import org.dcache.chimera.JdbcFs;
 import org.dcache.chimera.UnixPermission;
 import org.dcache.chimera.namespace.ChimeraNameSpaceProvider;
 import org.dcache.chimera.namespace.ChimeraOsmStorageInfoExtractor;
@@ -54,9 +72,11 @@ import org.dcache.namespace.FileAttribute;
 import org.dcache.namespace.PosixPermissionHandler;
 import org.dcache.vehicles.FileAttributes;
 import org.dcache.vehicles.PnfsGetFileAttributes;
+import org.dcache.vehicles.PnfsGetFileAttributesBatch;
 import org.dcache.vehicles.PnfsSetFileAttributes;
 
 import static diskCacheV111.util.AccessLatency.NEARLINE;
+import static java.util.Arrays.asList;
 import static diskCacheV111.util.RetentionPolicy.CUSTODIAL;
 import static org.dcache.namespace.FileAttribute.*;
 import static org.dcache.namespace.FileType.DIR;
@@ -79,6 +99,7 @@ public class PnfsManagerTest
     private PnfsManagerV3 _pnfsManager;
     private Connection _conn;
     private FileSystemProvider _fs;
+    private ChimeraNameSpaceProvider _chimera;
 
     @Before
     public void setUp() throws Exception {
@@ -106,12 +127,21 @@ public class PnfsManagerTest
          */
 
         liquibase.update("");
-        _fs = FsFactory.createFileSystem(
+        HikariDataSource dataSource = FsFactory.getDataSource(
                 dbProperties.getProperty("chimera.db.url"),
                 dbProperties.getProperty("chimera.db.user"),
                 dbProperties.getProperty("chimera.db.password"));
+        PlatformTransactionManager txManager = new DataSourceTransactionManager(dataSource);
+        _fs = new JdbcFs(dataSource, txManager) {
+            @Override
+            public void close() throws IOException
+            {
+                dataSource.close();
+            }
+        };
 
         ChimeraNameSpaceProvider chimera = new ChimeraNameSpaceProvider();
+        _chimera = chimera;
         chimera.setExtractor(new ChimeraOsmStorageInfoExtractor(StorageInfo.DEFAULT_ACCESS_LATENCY,
                                                                 StorageInfo.DEFAULT_RETENTION_POLICY));
         chimera.setInheritFileOwnership(true);
@@ -134,6 +164,7 @@ public class PnfsManagerTest
         _pnfsManager.setQueueMaxSize(0);
         _pnfsManager.setFolding(true);
         _pnfsManager.setDirectoryListLimit(100);
+        _pnfsManager.setTransactionManager(txManager);
         _pnfsManager.init();
 
 
@@ -282,6 +313,170 @@ public class PnfsManagerTest
        assertTrue("file still exist after removing last location entry", pnfsGetFileAttributes.getReturnCode() == CacheException.FILE_NOT_FOUND );
     }
 
+    @Test
+    public void testListAfter() throws Exception {
+        for (String name : asList("d", "b", "e", "a", "c")) {
+            _fs.createFile("/pnfs/testRoot/" + name);
+        }
+
+        List<String> names = new ArrayList<>();
+        _chimera.list(Subjects.ROOT, "/pnfs/testRoot", null, null, Range.closedOpen(1, 3),
+                      EnumSet.noneOf(FileAttribute.class), (name, attrs) -> names.add(name));
+        assertThat(names, is(asList("b", "c")));
+
+        names.clear();
+        _chimera.list(Subjects.ROOT, "/pnfs/testRoot", null, "c", Range.closedOpen(0, 100),
+                      EnumSet.noneOf(FileAttribute.class), (name, attrs) -> names.add(name));
+        assertThat(names, is(asList("d", "e")));
+    }
+
+    @Test
+    public void testGetFileAttributesBatch() {
+        PnfsCreateEntryMessage first = new PnfsCreateEntryMessage("/pnfs/testRoot/testBatch1",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(first);
+        PnfsCreateEntryMessage second = new PnfsCreateEntryMessage("/pnfs/testRoot/testBatch2",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(second);
+        _pnfsManager.addCacheLocation(new PnfsAddCacheLocationMessage(first.getPnfsId(), "aPool"));
+
+        PnfsId missing = new PnfsId(FsInode.generateNewID());
+        Set<FileAttribute> requested = EnumSet.of(PNFSID, TYPE, LOCATIONS, STORAGEINFO);
+        PnfsGetFileAttributesBatch message =
+                new PnfsGetFileAttributesBatch(asList(first.getPnfsId(), second.getPnfsId(), missing), requested);
+        _pnfsManager.getFileAttributes(message);
+
+        assertThat(message.getReturnCode(), is(0));
+        Map<PnfsId, FileAttributes> attributes = message.getFileAttributes();
+        assertThat(attributes.size(), is(2));
+        assertFalse(attributes.containsKey(missing));
+        assertThat(attributes.get(first.getPnfsId()).getLocations(), is(asList("aPool")));
+        assertThat(attributes.get(second.getPnfsId()).getLocations().isEmpty(), is(true));
+
+        PnfsGetFileAttributes single = new PnfsGetFileAttributes(second.getPnfsId(), requested);
+        _pnfsManager.getFileAttributes(single);
+        assertEquals(single.getFileAttributes().getStorageInfo().getStorageClass(),
+                     attributes.get(second.getPnfsId()).getStorageInfo().getStorageClass());
+    }
+
+    private static List<CellMessage> group(PnfsMessage... messages)
+    {
+        List<CellMessage> group = new ArrayList<>();
+        for (PnfsMessage message : messages) {
+            message.setReplyRequired(false);
+            CellMessage envelope = new CellMessage(new CellPath("PnfsManager"), message);
+            envelope.getSourcePath().add("door@dCacheDomain");
+            group.add(envelope);
+        }
+        return group;
+    }
+
+    @Test
+    public void testGetFileAttributesBatchWithRestriction() {
+        PnfsCreateEntryMessage allowedDir = new PnfsCreateEntryMessage("/pnfs/testRoot/allowed",
+                FileAttributes.ofFileType(DIR));
+        _pnfsManager.createEntry(allowedDir);
+        PnfsCreateEntryMessage allowed1 = new PnfsCreateEntryMessage("/pnfs/testRoot/allowed/file1",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(allowed1);
+        PnfsCreateEntryMessage allowed2 = new PnfsCreateEntryMessage("/pnfs/testRoot/allowed/file2",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(allowed2);
+        PnfsCreateEntryMessage denied = new PnfsCreateEntryMessage("/pnfs/testRoot/denied",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(denied);
+
+        PnfsId missing = new PnfsId(FsInode.generateNewID());
+        PnfsGetFileAttributesBatch message =
+                new PnfsGetFileAttributesBatch(asList(allowed1.getPnfsId(), allowed2.getPnfsId(),
+                                                      denied.getPnfsId(), missing),
+                                               EnumSet.of(PNFSID, TYPE));
+        message.setSubject(Subjects.of(1000, 1000, new int[] { 1000 }));
+        message.setRestriction(new PrefixRestriction(FsPath.create("/pnfs/testRoot/allowed")));
+        _pnfsManager.getFileAttributes(message);
+
+        assertThat(message.getReturnCode(), is(0));
+        assertThat(message.getFileAttributes().keySet(),
+                   is((Set<PnfsId>) new HashSet<>(asList(allowed1.getPnfsId(), allowed2.getPnfsId()))));
+    }
+
+    @Test
+    public void testGetFileAttributesBatchWithAcl() throws Exception {
+        PnfsCreateEntryMessage withAcl = new PnfsCreateEntryMessage("/pnfs/testRoot/testBatchAcl1",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(withAcl);
+        PnfsCreateEntryMessage withoutAcl = new PnfsCreateEntryMessage("/pnfs/testRoot/testBatchAcl2",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(withoutAcl);
+        List<ACE> aces = asList(new ACE(AceType.ACCESS_ALLOWED_ACE_TYPE, 0, AccessMask.READ_DATA.getValue(),
+                                        Who.EVERYONE, -1));
+        _fs.setACL(_fs.path2inode("/pnfs/testRoot/testBatchAcl1"), aces);
+        _chimera.setAclEnabled(true);
+
+        PnfsGetFileAttributesBatch message =
+                new PnfsGetFileAttributesBatch(asList(withAcl.getPnfsId(), withoutAcl.getPnfsId()),
+                                               EnumSet.of(PNFSID, ACL));
+        _pnfsManager.getFileAttributes(message);
+
+        assertThat(message.getReturnCode(), is(0));
+        Map<PnfsId, FileAttributes> attributes = message.getFileAttributes();
+        assertThat(attributes.get(withAcl.getPnfsId()).getAcl().getList(), is(aces));
+        assertThat(attributes.get(withoutAcl.getPnfsId()).getAcl().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testGroupCommitWithFailingMessage() {
+        PnfsCreateEntryMessage first = new PnfsCreateEntryMessage("/pnfs/testRoot/testGroupCommit1",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(first);
+        PnfsCreateEntryMessage second = new PnfsCreateEntryMessage("/pnfs/testRoot/testGroupCommit2",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(second);
+
+        PnfsAddCacheLocationMessage addFirst = new PnfsAddCacheLocationMessage(first.getPnfsId(), "aPool");
+        FileAttributes attributes = new FileAttributes();
+        attributes.setMode(0600);
+        PnfsSetFileAttributes setMissing = new PnfsSetFileAttributes(new PnfsId(FsInode.generateNewID()), attributes,
+                                                                   EnumSet.of(MODE));
+        PnfsAddCacheLocationMessage addSecond = new PnfsAddCacheLocationMessage(second.getPnfsId(), "aPool");
+        _pnfsManager.processPnfsMessages(group(addFirst, setMissing, addSecond));
+
+        assertThat(addFirst.getReturnCode(), is(0));
+        assertThat(setMissing.getReturnCode(), is(CacheException.FILE_NOT_FOUND));
+        assertThat(addSecond.getReturnCode(), is(0));
+
+        PnfsGetCacheLocationsMessage locations = new PnfsGetCacheLocationsMessage(second.getPnfsId());
+        _pnfsManager.getCacheLocations(locations);
+        assertThat(locations.getCacheLocations(), is(asList("aPool")));
+    }
+
+    @Test
+    public void testGroupCommitWithFailingNameSpaceTransaction() {
+        PnfsCreateEntryMessage first = new PnfsCreateEntryMessage("/pnfs/testRoot/testGroupRetry1",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(first);
+        PnfsCreateEntryMessage second = new PnfsCreateEntryMessage("/pnfs/testRoot/testGroupRetry2",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(second);
+
+        PnfsAddCacheLocationMessage addFirst = new PnfsAddCacheLocationMessage(first.getPnfsId(), "aPool");
+        PnfsCreateEntryMessage duplicate = new PnfsCreateEntryMessage("/pnfs/testRoot/testGroupRetry1",
+                FileAttributes.ofFileType(REGULAR));
+        PnfsAddCacheLocationMessage addSecond = new PnfsAddCacheLocationMessage(second.getPnfsId(), "aPool");
+
+        _pnfsManager.processPnfsMessages(group(addFirst, duplicate, addSecond));
+
+        assertThat(addFirst.getReturnCode(), is(0));
+        assertThat(duplicate.getReturnCode(), is(CacheException.FILE_EXISTS));
+        assertThat(addSecond.getReturnCode(), is(0));
+
+        for (PnfsId pnfsId : asList(first.getPnfsId(), second.getPnfsId())) {
+            PnfsGetCacheLocationsMessage locations = new PnfsGetCacheLocationsMessage(pnfsId);
+            _pnfsManager.getCacheLocations(locations);
+            assertThat(locations.getCacheLocations(), is(asList("aPool")));
+        }
+    }
+
     @Test
     public void testCreateDupFile() {
         PnfsCreateEntryMessage message = new PnfsCreateEntryMessage("/pnfs/testRoot/testCreateDup",
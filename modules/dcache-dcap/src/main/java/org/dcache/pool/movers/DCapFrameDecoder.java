@@ -0,0 +1,162 @@
+package org.dcache.pool.movers;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.util.List;
+
+/**
+ * Decoder for the dcap data channel.
+ *
+ * Requests are blocks prefixed by their length and starting with a command
+ * code. An IOCMD_DATA request is followed by a sequence of data blocks, each
+ * prefixed by its length and terminated by a negative length. As data blocks
+ * may be arbitrarily large, they are passed on in chunks as they arrive.
+ *
+ * Requests larger than the maximum request size are discarded and reported
+ * as a protocol violation.
+ */
+public class DCapFrameDecoder extends ByteToMessageDecoder
+{
+    private enum State
+    {
+        REQUEST, BLOCK_SIZE, BLOCK_DATA, DISCARD
+    }
+
+    private final int _maxRequestSize;
+
+    private State _state = State.REQUEST;
+
+    /**
+     * Bytes remaining of the current data block or discarded request.
+     */
+    private int _remaining;
+
+    public DCapFrameDecoder(int maxRequestSize)
+    {
+        _maxRequestSize = maxRequestSize;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+    {
+        switch (_state) {
+        case REQUEST:
+            if (in.readableBytes() < 4) {
+                return;
+            }
+            int length = in.getInt(in.readerIndex());
+            if (length < 4) {
+                in.skipBytes(4);
+                out.add(new ProtocolViolation("Protocol Violation (cl<4)"));
+                return;
+            }
+            if (length > _maxRequestSize) {
+                in.skipBytes(4);
+                _remaining = length;
+                _state = State.DISCARD;
+                out.add(new ProtocolViolation("Protocol Violation: request block too big (" + length + ")"));
+                return;
+            }
+            if (in.readableBytes() < 4 + length) {
+                return;
+            }
+            in.skipBytes(4);
+            int command = in.readInt();
+            out.add(new Request(command, in.readRetainedSlice(length - 4)));
+            if (command == DCapConstants.IOCMD_DATA) {
+                _state = State.BLOCK_SIZE;
+            }
+            break;
+
+        case BLOCK_SIZE:
+            if (in.readableBytes() < 4) {
+                return;
+            }
+            int size = in.readInt();
+            if (size < 0) {
+                _state = State.REQUEST;
+                out.add(DataBlock.END);
+            } else if (size > 0) {
+                _remaining = size;
+                _state = State.BLOCK_DATA;
+            }
+            break;
+
+        case BLOCK_DATA:
+            int chunk = Math.min(_remaining, in.readableBytes());
+            out.add(new DataBlock(in.readRetainedSlice(chunk)));
+            _remaining -= chunk;
+            if (_remaining == 0) {
+                _state = State.BLOCK_SIZE;
+            }
+            break;
+
+        case DISCARD:
+            int skip = Math.min(_remaining, in.readableBytes());
+            in.skipBytes(skip);
+            _remaining -= skip;
+            if (_remaining == 0) {
+                _state = State.REQUEST;
+            }
+            break;
+        }
+    }
+
+    /**
+     * A request of the client. The content holds the arguments following
+     * the command code.
+     */
+    public static class Request extends DefaultByteBufHolder
+    {
+        private final int _command;
+
+        public Request(int command, ByteBuf arguments)
+        {
+            super(arguments);
+            _command = command;
+        }
+
+        public int getCommand()
+        {
+            return _command;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Request [Code=" + _command + " Arguments=" + content().readableBytes() + "]";
+        }
+    }
+
+    /**
+     * A chunk of a data block. {@link #END} signals the end of the data.
+     */
+    public static class DataBlock extends DefaultByteBufHolder
+    {
+        public static final DataBlock END = new DataBlock(Unpooled.EMPTY_BUFFER);
+
+        public DataBlock(ByteBuf data)
+        {
+            super(data);
+        }
+    }
+
+    public static class ProtocolViolation
+    {
+        private final String _message;
+
+        public ProtocolViolation(String message)
+        {
+            _message = message;
+        }
+
+        public String getMessage()
+        {
+            return _message;
+        }
+    }
+}
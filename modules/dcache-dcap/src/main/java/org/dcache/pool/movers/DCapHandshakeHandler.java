@@ -0,0 +1,88 @@
+package org.dcache.pool.movers;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.util.ByteUnit.KiB;
+
+/**
+ * Reads the challenge sent by clients connecting to a passive dcap mover.
+ *
+ * The client sends the session id, the length of the challenge and the
+ * base64 encoded challenge it received from the door. The challenge is the
+ * UUID of the mover. Once read, a {@link Challenge} event is fired and the
+ * handler removes itself from the pipeline.
+ */
+public class DCapHandshakeHandler extends ByteToMessageDecoder
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(DCapHandshakeHandler.class);
+
+    private static final int MAX_CHALLENGE_SIZE = KiB.toBytes(1);
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+    {
+        if (in.readableBytes() < 8) {
+            return;
+        }
+        int session = in.getInt(in.readerIndex());
+        int length = in.getInt(in.readerIndex() + 4);
+        if (length < 0 || length > MAX_CHALLENGE_SIZE) {
+            LOGGER.warn("Closing connection from {} with invalid challenge length {}.",
+                        ctx.channel().remoteAddress(), length);
+            in.skipBytes(in.readableBytes());
+            ctx.close();
+            return;
+        }
+        if (in.readableBytes() < 8 + length) {
+            return;
+        }
+        in.skipBytes(8);
+        byte[] encoded = new byte[length];
+        in.readBytes(encoded);
+
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(new String(Base64.getDecoder().decode(encoded), US_ASCII));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Closing connection from {} with invalid challenge: {}",
+                        ctx.channel().remoteAddress(), e.getMessage());
+            in.skipBytes(in.readableBytes());
+            ctx.close();
+            return;
+        }
+
+        ctx.fireUserEventTriggered(new Challenge(session, uuid));
+        ctx.pipeline().remove(this);
+    }
+
+    public static class Challenge
+    {
+        private final int _session;
+        private final UUID _uuid;
+
+        public Challenge(int session, UUID uuid)
+        {
+            _session = session;
+            _uuid = uuid;
+        }
+
+        public int getSession()
+        {
+            return _session;
+        }
+
+        public UUID getUuid()
+        {
+            return _uuid;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.dcache.pool.movers;
+
+import javax.annotation.Nonnull;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+
+import diskCacheV111.vehicles.DCapProtocolInfo;
+import diskCacheV111.vehicles.PoolIoFileMessage;
+
+import dmg.cells.nucleus.CellPath;
+
+import org.dcache.pool.classic.ChecksumModule;
+import org.dcache.pool.classic.TransferService;
+import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.util.Checksum;
+
+/**
+ * Netty mover for dcap. Keeps the checksum the client sends when closing
+ * the file.
+ */
+public class DCapMover extends NettyMover<DCapProtocolInfo>
+{
+    private volatile Checksum _expectedChecksum;
+
+    public DCapMover(ReplicaDescriptor handle,
+                     PoolIoFileMessage message,
+                     CellPath pathToDoor,
+                     TransferService<NettyMover<DCapProtocolInfo>> transferService,
+                     UUID uuid,
+                     ChecksumModule checksumModule,
+                     MoverIoStatistics ioStatistics)
+    {
+        super(handle, message, pathToDoor, transferService, uuid, checksumModule, ioStatistics);
+    }
+
+    public void setExpectedChecksum(Checksum checksum)
+    {
+        _expectedChecksum = checksum;
+    }
+
+    @Nonnull
+    @Override
+    public Set<Checksum> getExpectedChecksums()
+    {
+        Checksum checksum = _expectedChecksum;
+        return (checksum == null) ? Collections.emptySet() : Collections.singleton(checksum);
+    }
+}
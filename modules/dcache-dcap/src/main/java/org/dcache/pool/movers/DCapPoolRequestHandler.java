@@ -0,0 +1,654 @@
+package org.dcache.pool.movers;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
+
+import org.dcache.pool.movers.DCapFrameDecoder.DataBlock;
+import org.dcache.pool.movers.DCapFrameDecoder.ProtocolViolation;
+import org.dcache.pool.movers.DCapFrameDecoder.Request;
+import org.dcache.pool.movers.DCapHandshakeHandler.Challenge;
+import org.dcache.pool.movers.NettyTransferService.NettyMoverChannel;
+import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Handles the dcap data channel protocol of a single mover.
+ *
+ * Requests are processed on the event loop of the connection. Data of read
+ * requests is streamed to the client in blocks as the connection accepts
+ * it; no further requests are read until the response has been sent. The
+ * protocol mirrors the one of {@link DCapProtocol_3_nio}.
+ */
+public class DCapPoolRequestHandler extends ChannelInboundHandlerAdapter
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(DCapPoolRequestHandler.class);
+
+    private final DCapTransferService _service;
+
+    /**
+     * The mover of an active connection, or null if the client connected to
+     * the pool.
+     */
+    private final UUID _activeUuid;
+
+    /**
+     * Maximum number of bytes of a data block sent to the client.
+     */
+    private final int _blockSize;
+
+    private NettyMoverChannel _file;
+    private DCapMover _mover;
+    private boolean _isWrite;
+    private boolean _isIoOk = true;
+    private long _position;
+
+    /**
+     * The command of the write in progress, or zero.
+     */
+    private int _writeCommand;
+
+    /**
+     * Whether data blocks of the write in progress are being received.
+     */
+    private boolean _isReceivingData;
+
+    public DCapPoolRequestHandler(DCapTransferService service, @Nullable UUID activeUuid, int blockSize)
+    {
+        _service = service;
+        _activeUuid = activeUuid;
+        _blockSize = blockSize;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception
+    {
+        super.channelActive(ctx);
+        if (_activeUuid != null) {
+            if (!open(_activeUuid)) {
+                LOGGER.warn("Mover {} is gone; closing connection to {}.", _activeUuid, ctx.channel().remoteAddress());
+                ctx.close();
+                return;
+            }
+            /* Send the session id and an empty security challenge. */
+            ByteBuf greeting = ctx.alloc().buffer(8);
+            greeting.writeInt(_mover.getProtocolInfo().getSessionId()).writeInt(0);
+            ctx.writeAndFlush(greeting).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        }
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception
+    {
+        if (evt instanceof Challenge) {
+            Challenge challenge = (Challenge) evt;
+            DCapMover mover = _service.getMover(challenge.getUuid());
+            if (mover == null || mover.getProtocolInfo().getSessionId() != challenge.getSession() ||
+                    !open(challenge.getUuid())) {
+                LOGGER.warn("Closing connection from {} with unknown challenge.", ctx.channel().remoteAddress());
+                ctx.close();
+            }
+        } else if (evt instanceof IdleStateEvent) {
+            LOGGER.info("Closing idle connection to {}.", ctx.channel().remoteAddress());
+            ctx.close();
+        } else {
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    private boolean open(UUID uuid)
+    {
+        DCapMover mover = _service.getMover(uuid);
+        NettyMoverChannel file = (mover == null) ? null : _service.openFile(uuid, true);
+        if (file == null) {
+            return false;
+        }
+        _mover = mover;
+        _file = file;
+        _isWrite = file.getIoMode().contains(StandardOpenOption.WRITE);
+        return true;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception
+    {
+        /* Like the blocking mover, a client disconnecting is not an error. */
+        release(_isIoOk ? null : new DiskErrorCacheException("Disk I/O Error"));
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable t)
+    {
+        if (t instanceof ClosedChannelException) {
+            LOGGER.info("Connection {} unexpectedly closed.", ctx.channel());
+        } else if (t instanceof Exception) {
+            LOGGER.warn("Problem in dcap connection to {}: {}", ctx.channel().remoteAddress(), t.toString());
+        } else {
+            Thread me = Thread.currentThread();
+            me.getUncaughtExceptionHandler().uncaughtException(me, t);
+        }
+        release(t);
+        ctx.close();
+    }
+
+    private void release(@Nullable Throwable t)
+    {
+        if (_file != null) {
+            NettyMoverChannel file = _file;
+            _file = null;
+            if (t == null) {
+                file.release();
+            } else {
+                file.release(t);
+            }
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+    {
+        try {
+            if (_file == null) {
+                LOGGER.warn("Closing connection from {} sending data before the handshake.",
+                            ctx.channel().remoteAddress());
+                ctx.close();
+            } else if (msg instanceof Request) {
+                onRequest(ctx, (Request) msg);
+            } else if (msg instanceof DataBlock) {
+                onData(ctx, (DataBlock) msg);
+            } else if (msg instanceof ProtocolViolation) {
+                ctx.writeAndFlush(ack(ctx.alloc(), 9, 44, ((ProtocolViolation) msg).getMessage()));
+            } else {
+                throw new IllegalArgumentException("Unexpected message: " + msg);
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private void onRequest(ChannelHandlerContext ctx, Request request) throws IOException
+    {
+        LOGGER.debug("Request Block : {}", request);
+
+        ByteBuf arguments = request.content();
+        ByteBufAllocator alloc = ctx.alloc();
+
+        if (_writeCommand != 0) {
+            if (request.getCommand() != DCapConstants.IOCMD_DATA) {
+                throw new IOException("Expecting : " + DCapConstants.IOCMD_DATA + "; got : " + request.getCommand());
+            }
+            _isReceivingData = true;
+            return;
+        }
+
+        long offset;
+        int whence;
+        long blockSize;
+
+        switch (request.getCommand()) {
+        case DCapConstants.IOCMD_WRITE:
+            if (!_isIoOk) {
+                deny(ctx, DCapConstants.IOCMD_WRITE, "WRITE denied (IO not ok)");
+            } else if (!_isWrite) {
+                deny(ctx, DCapConstants.IOCMD_WRITE, "WRITE denied (not allowed)");
+            } else {
+                ctx.writeAndFlush(ack(alloc, DCapConstants.IOCMD_WRITE));
+                _writeCommand = DCapConstants.IOCMD_WRITE;
+            }
+            break;
+
+        case DCapConstants.IOCMD_READ:
+            blockSize = arguments.readLong();
+            LOGGER.debug("READ byte={}", blockSize);
+            if (_isIoOk) {
+                ctx.write(ack(alloc, DCapConstants.IOCMD_READ));
+                send(ctx, new ReadResponse(DCapConstants.IOCMD_READ, blockSize));
+            } else {
+                deny(ctx, DCapConstants.IOCMD_READ, "ACK : READ denied (IO not ok)");
+            }
+            break;
+
+        case DCapConstants.IOCMD_SEEK:
+            offset = arguments.readLong();
+            whence = arguments.readInt();
+            seek(whence, offset);
+            if (_isIoOk) {
+                ctx.writeAndFlush(ackSeek(alloc, _position));
+            } else {
+                LOGGER.error("SEEK failed : IOError ");
+                ctx.writeAndFlush(ack(alloc, DCapConstants.IOCMD_SEEK, 6, "SEEK failed : IOError "));
+            }
+            break;
+
+        case DCapConstants.IOCMD_SEEK_AND_READ:
+            offset = arguments.readLong();
+            whence = arguments.readInt();
+            blockSize = arguments.readLong();
+            if (_isIoOk) {
+                ctx.write(ack(alloc, DCapConstants.IOCMD_SEEK_AND_READ));
+                seek(whence, offset);
+                send(ctx, new ReadResponse(DCapConstants.IOCMD_SEEK_AND_READ, blockSize));
+            } else {
+                deny(ctx, DCapConstants.IOCMD_SEEK_AND_READ, "SEEK_AND_READ denied : IOError ");
+            }
+            break;
+
+        case DCapConstants.IOCMD_SEEK_AND_WRITE:
+            offset = arguments.readLong();
+            whence = arguments.readInt();
+            if (!_isIoOk) {
+                deny(ctx, DCapConstants.IOCMD_SEEK_AND_WRITE, "SEEK_AND_WRITE denied : IOError");
+            } else if (!_isWrite) {
+                deny(ctx, DCapConstants.IOCMD_SEEK_AND_WRITE, "SEEK_AND_WRITE denied (not allowed)");
+            } else {
+                ctx.writeAndFlush(ack(alloc, DCapConstants.IOCMD_SEEK_AND_WRITE));
+                seek(whence, offset);
+                _writeCommand = DCapConstants.IOCMD_SEEK_AND_WRITE;
+            }
+            break;
+
+        case DCapConstants.IOCMD_CLOSE:
+            ByteBuf reply;
+            if (_isIoOk) {
+                reply = ack(alloc, DCapConstants.IOCMD_CLOSE);
+                try {
+                    while (arguments.readableBytes() > 4) {
+                        scanCloseBlock(arguments);
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.error("Problem in close block {}", e.toString());
+                }
+            } else {
+                reply = ack(alloc, DCapConstants.IOCMD_CLOSE, CacheException.ERROR_IO_DISK, "IOError");
+            }
+            ctx.writeAndFlush(reply).addListener(ChannelFutureListener.CLOSE);
+            break;
+
+        case DCapConstants.IOCMD_LOCATE:
+            try {
+                long size = _file.size();
+                LOGGER.debug("LOCATE : size={};position={}", size, _position);
+                ctx.writeAndFlush(ackLocate(alloc, size, _position));
+            } catch (IOException e) {
+                ctx.writeAndFlush(ack(alloc, DCapConstants.IOCMD_LOCATE, -1, e.toString()));
+            }
+            break;
+
+        case DCapConstants.IOCMD_READV:
+            if (_isIoOk) {
+                int count = arguments.readInt();
+                long[] offsets = new long[count];
+                long[] lengths = new long[count];
+                for (int i = 0; i < count; i++) {
+                    offsets[i] = arguments.readLong();
+                    lengths[i] = arguments.readInt();
+                }
+                ctx.write(ack(alloc, DCapConstants.IOCMD_READV));
+                send(ctx, new ReadResponse(DCapConstants.IOCMD_READV, offsets, lengths));
+            } else {
+                deny(ctx, DCapConstants.IOCMD_READV, "ACK : READV denied (IO not ok)");
+            }
+            break;
+
+        default:
+            ctx.writeAndFlush(ack(alloc, 666, 9, "Invalid mover command : " + request));
+        }
+    }
+
+    private void onData(ChannelHandlerContext ctx, DataBlock block) throws IOException
+    {
+        if (!_isReceivingData) {
+            throw new IOException("Unexpected data block");
+        }
+
+        if (block == DataBlock.END) {
+            int command = _writeCommand;
+            _writeCommand = 0;
+            _isReceivingData = false;
+            if (_isIoOk) {
+                ctx.writeAndFlush(fin(ctx.alloc(), command));
+            } else {
+                LOGGER.error("Reporting IO problem to client");
+                ctx.writeAndFlush(fin(ctx.alloc(), command, CacheException.ERROR_IO_DISK, "[2]Problem in writing"));
+            }
+            return;
+        }
+
+        if (_isIoOk) {
+            try {
+                for (ByteBuffer buffer : block.content().nioBuffers()) {
+                    while (buffer.hasRemaining()) {
+                        _position += _file.write(buffer, _position);
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                throw e;
+            } catch (IOException e) {
+                LOGGER.error("IOException in writing data to disk : {}", e.toString());
+                _isIoOk = false;
+            }
+        }
+    }
+
+    private void deny(ChannelHandlerContext ctx, int command, String message)
+    {
+        LOGGER.error(message);
+        ctx.writeAndFlush(ack(ctx.alloc(), command, CacheException.ERROR_IO_DISK, message));
+    }
+
+    /**
+     * Sends {@code response}. No further requests are read until the
+     * response has been sent.
+     */
+    private void send(ChannelHandlerContext ctx, ReadResponse response)
+    {
+        ctx.channel().config().setAutoRead(false);
+        ctx.writeAndFlush(response).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                future.channel().config().setAutoRead(true);
+            } else {
+                future.channel().pipeline().fireExceptionCaught(future.cause());
+            }
+        });
+    }
+
+    private void seek(int whence, long offset)
+    {
+        try {
+            long size = _file.size();
+            long position;
+            switch (whence) {
+            case DCapConstants.IOCMD_SEEK_SET:
+                LOGGER.debug("SEEK {} SEEK_SET", offset);
+                /* This resets the io state. */
+                if (offset == 0L) {
+                    _isIoOk = true;
+                }
+                position = offset;
+                break;
+            case DCapConstants.IOCMD_SEEK_CURRENT:
+                LOGGER.debug("SEEK {} SEEK_CURRENT", offset);
+                position = _position + offset;
+                break;
+            case DCapConstants.IOCMD_SEEK_END:
+                LOGGER.debug("SEEK {} SEEK_END", offset);
+                position = size + offset;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid seek mode : " + whence);
+            }
+            if (position > size && !_isWrite) {
+                throw new IOException("Seek beyond EOF not allowed (write not allowed)");
+            }
+            _position = position;
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error("Problem in seek : {}", e.toString());
+        }
+    }
+
+    /**
+     *    Close Block Format :
+     *        Size          Purpose
+     *          4       (Size following)
+     *          4        sub block type  (1=crc)
+     *
+     *   if crc
+     *          4        crc type (1=adler32)
+     *          n        checksum
+     */
+    private void scanCloseBlock(ByteBuf arguments)
+    {
+        int blockSize = arguments.readInt();
+        if (blockSize < 4) {
+            throw new IllegalArgumentException("Not a valid block size in close");
+        }
+        int blockMode = arguments.readInt();
+        if (blockMode != 1) {
+            LOGGER.error("Unknown block mode ({}) in close", blockMode);
+            arguments.skipBytes(blockSize - 4);
+            return;
+        }
+        int crcType = arguments.readInt();
+        byte[] value = new byte[blockSize - 8];
+        arguments.readBytes(value);
+        _mover.setExpectedChecksum(new Checksum(ChecksumType.getChecksumType(crcType), value));
+    }
+
+    private static ByteBuf ack(ByteBufAllocator alloc, int command)
+    {
+        return alloc.buffer(16).writeInt(12).writeInt(DCapConstants.IOCMD_ACK).writeInt(command).writeInt(0);
+    }
+
+    private static ByteBuf ack(ByteBufAllocator alloc, int command, int returnCode, String message)
+    {
+        return reply(alloc, DCapConstants.IOCMD_ACK, command, returnCode, message);
+    }
+
+    private static ByteBuf ackSeek(ByteBufAllocator alloc, long position)
+    {
+        return alloc.buffer(24).writeInt(20).writeInt(DCapConstants.IOCMD_ACK).writeInt(DCapConstants.IOCMD_SEEK)
+                .writeInt(0).writeLong(position);
+    }
+
+    private static ByteBuf ackLocate(ByteBufAllocator alloc, long size, long position)
+    {
+        return alloc.buffer(32).writeInt(28).writeInt(DCapConstants.IOCMD_ACK).writeInt(DCapConstants.IOCMD_LOCATE)
+                .writeInt(0).writeLong(size).writeLong(position);
+    }
+
+    private static ByteBuf fin(ByteBufAllocator alloc, int command)
+    {
+        return alloc.buffer(16).writeInt(12).writeInt(DCapConstants.IOCMD_FIN).writeInt(command).writeInt(0);
+    }
+
+    private static ByteBuf fin(ByteBufAllocator alloc, int command, int returnCode, String message)
+    {
+        return reply(alloc, DCapConstants.IOCMD_FIN, command, returnCode, message);
+    }
+
+    private static ByteBuf reply(ByteBufAllocator alloc, int type, int command, int returnCode, String message)
+    {
+        byte[] bytes = message.getBytes(UTF_8);
+        return alloc.buffer(18 + bytes.length)
+                .writeInt(14 + bytes.length)
+                .writeInt(type)
+                .writeInt(command)
+                .writeInt(returnCode)
+                .writeShort(bytes.length)
+                .writeBytes(bytes);
+    }
+
+    /**
+     * Response to READ, SEEK_AND_READ and READV requests.
+     *
+     * The data is preceded by a data header and sent in blocks prefixed by
+     * their length. Reads from the current position end with a trailer and
+     * advance the position; vector reads do neither. The response ends with
+     * the FIN reply, reporting whether reading the file failed.
+     */
+    private class ReadResponse implements ChunkedInput<ByteBuf>
+    {
+        private final int _command;
+        private final boolean _isVector;
+        private final long[] _offsets;
+        private final long[] _lengths;
+        private final NettyMoverChannel _channel = _file;
+
+        private int _index;
+        private long _done;
+        private long _progress;
+        private boolean _isHeaderSent;
+        private boolean _isEndOfInput;
+
+        ReadResponse(int command, long length)
+        {
+            _command = command;
+            _isVector = false;
+            _offsets = new long[] { 0 };
+            _lengths = new long[] { length };
+        }
+
+        ReadResponse(int command, long[] offsets, long[] lengths)
+        {
+            _command = command;
+            _isVector = true;
+            _offsets = offsets;
+            _lengths = lengths;
+        }
+
+        @Override
+        public boolean isEndOfInput() throws Exception
+        {
+            return _isEndOfInput;
+        }
+
+        @Override
+        public void close() throws Exception
+        {
+        }
+
+        @Deprecated
+        @Override
+        public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception
+        {
+            return readChunk(ctx.alloc());
+        }
+
+        @Override
+        public ByteBuf readChunk(ByteBufAllocator alloc) throws Exception
+        {
+            if (_isEndOfInput) {
+                return null;
+            }
+            ByteBuf chunk = alloc.ioBuffer(8 + 4 + _blockSize);
+            try {
+                if (!_isHeaderSent) {
+                    chunk.writeInt(4).writeInt(DCapConstants.IOCMD_DATA);
+                    _isHeaderSent = true;
+                }
+                if (!readBlock(chunk)) {
+                    writeEnd(chunk);
+                    _isEndOfInput = true;
+                }
+                return chunk;
+            } catch (Exception | Error e) {
+                chunk.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Appends the next data block to {@code chunk}.
+         *
+         * @return false if there is no more data
+         */
+        private boolean readBlock(ByteBuf chunk) throws IOException
+        {
+            while (_isIoOk && _index < _lengths.length) {
+                long remaining = _lengths[_index] - _done;
+                if (remaining <= 0) {
+                    _index++;
+                    _done = 0;
+                    continue;
+                }
+
+                long position = (_isVector ? _offsets[_index] : _position) + _done;
+                int size = (int) Math.min(remaining, _blockSize);
+                int sizeIndex = chunk.writerIndex();
+                chunk.writeInt(0);
+                chunk.ensureWritable(size);
+
+                int n;
+                try {
+                    n = _channel.read(chunk.nioBuffer(chunk.writerIndex(), size), position);
+                } catch (ClosedChannelException e) {
+                    throw e;
+                } catch (IOException e) {
+                    LOGGER.error("IOException in reading data from disk : {}", e.toString());
+                    _isIoOk = false;
+                    chunk.writerIndex(sizeIndex);
+                    return false;
+                }
+
+                if (n <= 0) {
+                    chunk.writerIndex(sizeIndex);
+                    if (!_isVector) {
+                        return false;
+                    }
+                    _index++;
+                    _done = 0;
+                    continue;
+                }
+
+                chunk.setInt(sizeIndex, n);
+                chunk.writerIndex(chunk.writerIndex() + n);
+                _progress += n;
+                if (_isVector) {
+                    _done += n;
+                } else {
+                    _position += n;
+                    _lengths[0] -= n;
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private void writeEnd(ByteBuf chunk)
+        {
+            if (!_isVector) {
+                if (_progress == 0 && _lengths[0] == 0 && _isIoOk) {
+                    /* Empty request. */
+                    chunk.writeInt(0);
+                }
+                chunk.writeInt(-1);
+            }
+            if (_isIoOk) {
+                chunk.writeInt(12).writeInt(DCapConstants.IOCMD_FIN).writeInt(_command).writeInt(0);
+            } else {
+                String message = "FIN : READ failed (IO not ok)";
+                LOGGER.error(message);
+                byte[] bytes = message.getBytes(UTF_8);
+                chunk.writeInt(14 + bytes.length)
+                        .writeInt(DCapConstants.IOCMD_FIN)
+                        .writeInt(_command)
+                        .writeInt(CacheException.ERROR_IO_DISK)
+                        .writeShort(bytes.length)
+                        .writeBytes(bytes);
+            }
+        }
+
+        @Override
+        public long length()
+        {
+            return -1;
+        }
+
+        @Override
+        public long progress()
+        {
+            return _progress;
+        }
+    }
+}
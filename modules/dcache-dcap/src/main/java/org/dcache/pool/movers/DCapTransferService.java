@@ -0,0 +1,167 @@
+package org.dcache.pool.movers;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.logging.LoggingHandler;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.channels.CompletionHandler;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.vehicles.DCapProtocolInfo;
+import diskCacheV111.vehicles.PoolIoFileMessage;
+import diskCacheV111.vehicles.PoolPassiveIoFileMessage;
+
+import dmg.cells.nucleus.CellPath;
+
+import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.util.NetworkUtils;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.util.ByteUnit.MiB;
+
+/**
+ * dcap transfer service.
+ *
+ * Serves dcap movers from a shared Netty event loop rather than from a
+ * thread per mover as {@link DCapProtocol_3_nio} does.
+ *
+ * For passive transfers the pool listens on the server port of the service
+ * and sends the address and a challenge to the door. The challenge is the
+ * UUID of the mover and binds the connecting client to the mover. For active
+ * transfers the pool connects to the client and sends the session id.
+ */
+public class DCapTransferService extends NettyTransferService<DCapProtocolInfo>
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(DCapTransferService.class);
+
+    /**
+     * Maximum size of a request block.
+     */
+    private static final int MAX_REQUEST_SIZE = MiB.toBytes(8);
+
+    /**
+     * UUID of the mover of a connection initiated by the pool.
+     */
+    private static final AttributeKey<UUID> MOVER_KEY = AttributeKey.valueOf("dcap-mover");
+
+    private final ConcurrentMap<UUID, DCapMover> movers = new ConcurrentHashMap<>();
+
+    private int blockSize;
+
+    public DCapTransferService()
+    {
+        super("dcap");
+    }
+
+    public void setBlockSize(int blockSize)
+    {
+        this.blockSize = blockSize;
+    }
+
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    @Override
+    protected UUID createUuid(DCapProtocolInfo protocolInfo)
+    {
+        return UUID.randomUUID();
+    }
+
+    @Override
+    public Mover<?> createMover(ReplicaDescriptor handle, PoolIoFileMessage message,
+                                CellPath pathToDoor) throws CacheException
+    {
+        UUID uuid = createUuid((DCapProtocolInfo) message.getProtocolInfo());
+        DCapMover mover = new DCapMover(handle, message, pathToDoor, this, uuid, checksumModule, ioStatistics);
+        movers.put(uuid, mover);
+        return mover;
+    }
+
+    @Override
+    public void closeMover(NettyMover<DCapProtocolInfo> mover, CompletionHandler<Void, Void> completionHandler)
+    {
+        movers.remove(mover.getUuid());
+        super.closeMover(mover, completionHandler);
+    }
+
+    /**
+     * Returns the mover with the given UUID, or null if there is no such
+     * mover.
+     */
+    public DCapMover getMover(UUID uuid)
+    {
+        return movers.get(uuid);
+    }
+
+    @Override
+    protected void sendAddressToDoor(NettyMover<DCapProtocolInfo> mover, int port)
+            throws SocketException, CacheException
+    {
+        DCapProtocolInfo protocolInfo = mover.getProtocolInfo();
+        UUID uuid = mover.getUuid();
+        if (protocolInfo.isPassive()) {
+            InetAddress localIP = NetworkUtils.getLocalAddress(protocolInfo.getSocketAddress().getAddress());
+            PoolPassiveIoFileMessage<byte[]> msg =
+                    new PoolPassiveIoFileMessage<>("pool", new InetSocketAddress(localIP, port),
+                                                   uuid.toString().getBytes(US_ASCII));
+            msg.setId(protocolInfo.getSessionId());
+            doorStub.notify(protocolInfo.door(), msg);
+            LOGGER.debug("waiting for client to connect ({}:{})", localIP, port);
+        } else {
+            InetSocketAddress address = protocolInfo.getSocketAddress();
+            clientBootstrap()
+                    .attr(MOVER_KEY, uuid)
+                    .connect(address)
+                    .addListener((ChannelFutureListener) future -> {
+                        if (!future.isSuccess()) {
+                            NettyMoverChannel file = openFile(uuid, false);
+                            if (file != null) {
+                                file.release(new CacheException("Failed to connect to " + address + ": " +
+                                                                future.cause().getMessage(), future.cause()));
+                            }
+                        }
+                    });
+        }
+    }
+
+    @Override
+    protected void initChannel(Channel ch) throws Exception
+    {
+        super.initChannel(ch);
+
+        ch.config().setOption(ChannelOption.TCP_NODELAY, true);
+
+        UUID activeUuid = ch.attr(MOVER_KEY).get();
+        ChannelPipeline pipeline = ch.pipeline();
+        if (activeUuid == null) {
+            pipeline.addLast("handshake", new DCapHandshakeHandler());
+        }
+        pipeline.addLast("decoder", new DCapFrameDecoder(MAX_REQUEST_SIZE));
+        if (LOGGER.isDebugEnabled()) {
+            pipeline.addLast("logger", new LoggingHandler());
+        }
+        if (clientIdleTimeout > 0) {
+            pipeline.addLast("timeout", new IdleStateHandler(0,
+                                                             0,
+                                                             clientIdleTimeout,
+                                                             clientIdleTimeoutUnit));
+        }
+        pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());
+        pipeline.addLast("transfer", new DCapPoolRequestHandler(this, activeUuid, blockSize));
+    }
+}
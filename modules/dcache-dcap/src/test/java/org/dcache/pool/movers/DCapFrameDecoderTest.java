@@ -0,0 +1,79 @@
+package org.dcache.pool.movers;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.dcache.pool.movers.DCapFrameDecoder.DataBlock;
+import org.dcache.pool.movers.DCapFrameDecoder.ProtocolViolation;
+import org.dcache.pool.movers.DCapFrameDecoder.Request;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class DCapFrameDecoderTest
+{
+    private EmbeddedChannel _channel;
+
+    @Before
+    public void setup()
+    {
+        _channel = new EmbeddedChannel(new DCapFrameDecoder(64));
+    }
+
+    @Test
+    public void shouldDecodeFragmentedRequest()
+    {
+        ByteBuf request = Unpooled.buffer().writeInt(12).writeInt(DCapConstants.IOCMD_READ).writeLong(4711);
+
+        _channel.writeInbound(request.readRetainedSlice(6));
+        assertThat(_channel.readInbound(), is(nullValue()));
+        _channel.writeInbound(request);
+
+        Request decoded = _channel.readInbound();
+        assertThat(decoded.getCommand(), is(DCapConstants.IOCMD_READ));
+        assertThat(decoded.content().readLong(), is(4711L));
+        decoded.release();
+    }
+
+    @Test
+    public void shouldDecodeDataBlocks()
+    {
+        _channel.writeInbound(Unpooled.buffer()
+                                      .writeInt(4).writeInt(DCapConstants.IOCMD_DATA)
+                                      .writeInt(3).writeBytes(new byte[] { 1, 2, 3 })
+                                      .writeInt(-1)
+                                      .writeInt(4).writeInt(DCapConstants.IOCMD_LOCATE));
+
+        Request data = _channel.readInbound();
+        assertThat(data.getCommand(), is(DCapConstants.IOCMD_DATA));
+        data.release();
+
+        DataBlock block = _channel.readInbound();
+        assertThat(block.content().readableBytes(), is(3));
+        block.release();
+
+        assertThat(_channel.readInbound(), is(sameInstance(DataBlock.END)));
+
+        Request locate = _channel.readInbound();
+        assertThat(locate.getCommand(), is(DCapConstants.IOCMD_LOCATE));
+        locate.release();
+    }
+
+    @Test
+    public void shouldDiscardRequestsThatAreTooBig()
+    {
+        _channel.writeInbound(Unpooled.buffer()
+                                      .writeInt(100).writeBytes(new byte[100])
+                                      .writeInt(4).writeInt(DCapConstants.IOCMD_CLOSE));
+
+        ProtocolViolation violation = _channel.readInbound();
+        assertThat(violation.getMessage(), containsString("too big"));
+
+        Request close = _channel.readInbound();
+        assertThat(close.getCommand(), is(DCapConstants.IOCMD_CLOSE));
+        close.release();
+    }
+}
@@ -0,0 +1,507 @@
+package org.dcache.pool.movers;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.UUID;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
+import diskCacheV111.vehicles.DCapProtocolInfo;
+
+import org.dcache.pool.movers.DCapFrameDecoder.DataBlock;
+import org.dcache.pool.movers.DCapFrameDecoder.Request;
+import org.dcache.pool.movers.NettyTransferService.NettyMoverChannel;
+import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+
+import static org.dcache.pool.movers.DCapConstants.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class DCapPoolRequestHandlerTest
+{
+    private static final UUID SOME_UUID = UUID.fromString("49571502-60ca-49cd-bfe4-306bfe68037c");
+    private static final int SESSION_ID = 17;
+    private static final int BLOCK_SIZE = 8;
+
+    private DCapTransferService _service;
+    private DCapMover _mover;
+    private NettyMoverChannel _file;
+    private byte[] _content;
+    private EmbeddedChannel _channel;
+    private ByteBuf _replies;
+
+    @Before
+    public void setup() throws Exception
+    {
+        _content = new byte[100];
+        for (int i = 0; i < _content.length; i++) {
+            _content[i] = (byte) i;
+        }
+
+        DCapProtocolInfo protocolInfo = mock(DCapProtocolInfo.class);
+        given(protocolInfo.getSessionId()).willReturn(SESSION_ID);
+        _mover = mock(DCapMover.class);
+        given(_mover.getProtocolInfo()).willReturn(protocolInfo);
+
+        _file = mock(NettyMoverChannel.class);
+        doAnswer(invocation -> {
+            ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[0];
+            int position = (int) (long) (Long) invocation.getArguments()[1];
+            if (position >= _content.length) {
+                return -1;
+            }
+            int n = Math.min(buffer.remaining(), _content.length - position);
+            buffer.put(_content, position, n);
+            return n;
+        }).when(_file).read(any(ByteBuffer.class), anyLong());
+        doAnswer(invocation -> {
+            ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[0];
+            int position = (int) (long) (Long) invocation.getArguments()[1];
+            int n = buffer.remaining();
+            if (position + n > _content.length) {
+                _content = Arrays.copyOf(_content, position + n);
+            }
+            buffer.get(_content, position, n);
+            return n;
+        }).when(_file).write(any(ByteBuffer.class), anyLong());
+        doAnswer(invocation -> (long) _content.length).when(_file).size();
+
+        _service = mock(DCapTransferService.class);
+        given(_service.getMover(SOME_UUID)).willReturn(_mover);
+        given(_service.openFile(SOME_UUID, true)).willReturn(_file);
+
+        _replies = Unpooled.buffer();
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (_channel != null) {
+            _channel.finishAndReleaseAll();
+        }
+        _replies.release();
+    }
+
+    private void givenReadConnection()
+    {
+        givenConnection(StandardOpenOption.READ);
+    }
+
+    private void givenWriteConnection()
+    {
+        givenConnection(StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void givenConnection(StandardOpenOption... mode)
+    {
+        doReturn(EnumSet.copyOf(Arrays.asList(mode))).when(_file).getIoMode();
+        _channel = new EmbeddedChannel(new ChunkedWriteHandler(),
+                                       new DCapPoolRequestHandler(_service, SOME_UUID, BLOCK_SIZE));
+        ByteBuf greeting = replies();
+        greeting.skipBytes(8);
+    }
+
+    /**
+     * Returns all replies sent since the last call.
+     */
+    private ByteBuf replies()
+    {
+        _channel.runPendingTasks();
+        ByteBuf reply;
+        while ((reply = _channel.readOutbound()) != null) {
+            _replies.writeBytes(reply);
+            reply.release();
+        }
+        return _replies;
+    }
+
+    private void whenClientSends(int command, ByteBuf arguments)
+    {
+        _channel.writeInbound(new Request(command, arguments));
+    }
+
+    private void whenClientSends(int command)
+    {
+        whenClientSends(command, Unpooled.EMPTY_BUFFER);
+    }
+
+    private void whenClientSendsData(byte[] data)
+    {
+        whenClientSends(IOCMD_DATA);
+        _channel.writeInbound(new DataBlock(Unpooled.wrappedBuffer(data)));
+        _channel.writeInbound(DataBlock.END);
+    }
+
+    private static ByteBuf seek(long offset, int whence)
+    {
+        return Unpooled.buffer().writeLong(offset).writeInt(whence);
+    }
+
+    private static void assertReply(ByteBuf reply, int type, int command)
+    {
+        assertThat(reply.readInt(), is(12));
+        assertThat(reply.readInt(), is(type));
+        assertThat(reply.readInt(), is(command));
+        assertThat(reply.readInt(), is(0));
+    }
+
+    private static void assertAck(ByteBuf reply, int command)
+    {
+        assertReply(reply, IOCMD_ACK, command);
+    }
+
+    private static void assertFin(ByteBuf reply, int command)
+    {
+        assertReply(reply, IOCMD_FIN, command);
+    }
+
+    private static String assertError(ByteBuf reply, int type, int command, int returnCode)
+    {
+        int length = reply.readInt();
+        assertThat(reply.readInt(), is(type));
+        assertThat(reply.readInt(), is(command));
+        assertThat(reply.readInt(), is(returnCode));
+        int messageLength = reply.readShort();
+        assertThat(length, is(14 + messageLength));
+        byte[] message = new byte[messageLength];
+        reply.readBytes(message);
+        return new String(message);
+    }
+
+    private static void assertDataHeader(ByteBuf reply)
+    {
+        assertThat(reply.readInt(), is(4));
+        assertThat(reply.readInt(), is(IOCMD_DATA));
+    }
+
+    /**
+     * Reads data blocks up to and including the end of data marker.
+     */
+    private static byte[] readData(ByteBuf reply)
+    {
+        assertDataHeader(reply);
+        ByteBuf data = Unpooled.buffer();
+        int size;
+        while ((size = reply.readInt()) >= 0) {
+            assertThat(size, is(lessThanOrEqualTo(BLOCK_SIZE)));
+            reply.readBytes(data, size);
+        }
+        byte[] bytes = new byte[data.readableBytes()];
+        data.readBytes(bytes);
+        data.release();
+        return bytes;
+    }
+
+    private byte[] content(int from, int to)
+    {
+        return Arrays.copyOfRange(_content, from, to);
+    }
+
+    @Test
+    public void shouldSendSessionIdOnActiveConnection()
+    {
+        doReturn(EnumSet.of(StandardOpenOption.READ)).when(_file).getIoMode();
+        _channel = new EmbeddedChannel(new ChunkedWriteHandler(),
+                                       new DCapPoolRequestHandler(_service, SOME_UUID, BLOCK_SIZE));
+
+        ByteBuf greeting = replies();
+        assertThat(greeting.readInt(), is(SESSION_ID));
+        assertThat(greeting.readInt(), is(0));
+        assertThat(greeting.isReadable(), is(false));
+    }
+
+    @Test
+    public void shouldCloseActiveConnectionOfUnknownMover()
+    {
+        given(_service.getMover(SOME_UUID)).willReturn(null);
+
+        _channel = new EmbeddedChannel(new ChunkedWriteHandler(),
+                                       new DCapPoolRequestHandler(_service, SOME_UUID, BLOCK_SIZE));
+
+        assertThat(_channel.isOpen(), is(false));
+        assertThat(replies().isReadable(), is(false));
+    }
+
+    @Test
+    public void shouldReadFromCurrentPosition()
+    {
+        givenReadConnection();
+
+        whenClientSends(IOCMD_READ, Unpooled.buffer().writeLong(20));
+        whenClientSends(IOCMD_READ, Unpooled.buffer().writeLong(5));
+
+        ByteBuf reply = replies();
+        assertAck(reply, IOCMD_READ);
+        assertArrayEquals(content(0, 20), readData(reply));
+        assertFin(reply, IOCMD_READ);
+        assertAck(reply, IOCMD_READ);
+        assertArrayEquals(content(20, 25), readData(reply));
+        assertFin(reply, IOCMD_READ);
+        assertThat(reply.isReadable(), is(false));
+    }
+
+    @Test
+    public void shouldEndReadAtEndOfFile()
+    {
+        givenReadConnection();
+
+        whenClientSends(IOCMD_SEEK_AND_READ, seek(95, IOCMD_SEEK_SET).writeLong(10));
+
+        ByteBuf reply = replies();
+        assertAck(reply, IOCMD_SEEK_AND_READ);
+        assertArrayEquals(content(95, 100), readData(reply));
+        assertFin(reply, IOCMD_SEEK_AND_READ);
+    }
+
+    @Test
+    public void shouldSendEmptyBlockForEmptyRead()
+    {
+        givenReadConnection();
+
+        whenClientSends(IOCMD_READ, Unpooled.buffer().writeLong(0));
+
+        ByteBuf reply = replies();
+        assertAck(reply, IOCMD_READ);
+        assertDataHeader(reply);
+        assertThat(reply.readInt(), is(0));
+        assertThat(reply.readInt(), is(-1));
+        assertFin(reply, IOCMD_READ);
+    }
+
+    @Test
+    public void shouldReportReadFailure() throws Exception
+    {
+        doThrow(new IOException("Disk failure")).when(_file).read(any(ByteBuffer.class), anyLong());
+        givenReadConnection();
+
+        whenClientSends(IOCMD_READ, Unpooled.buffer().writeLong(10));
+        whenClientSends(IOCMD_READ, Unpooled.buffer().writeLong(10));
+
+        ByteBuf reply = replies();
+        assertAck(reply, IOCMD_READ);
+        assertThat(readData(reply).length, is(0));
+        assertError(reply, IOCMD_FIN, IOCMD_READ, CacheException.ERROR_IO_DISK);
+        assertThat(assertError(reply, IOCMD_ACK, IOCMD_READ, CacheException.ERROR_IO_DISK),
+                   containsString("IO not ok"));
+    }
+
+    @Test
+    public void shouldSeek()
+    {
+        givenReadConnection();
+
+        whenClientSends(IOCMD_SEEK, seek(10, IOCMD_SEEK_SET));
+        whenClientSends(IOCMD_SEEK, seek(5, IOCMD_SEEK_CURRENT));
+        whenClientSends(IOCMD_SEEK, seek(-10, IOCMD_SEEK_END));
+
+        ByteBuf reply = replies();
+        for (long position : new long[] { 10, 15, 90 }) {
+            assertThat(reply.readInt(), is(20));
+            assertThat(reply.readInt(), is(IOCMD_ACK));
+            assertThat(reply.readInt(), is(IOCMD_SEEK));
+            assertThat(reply.readInt(), is(0));
+            assertThat(reply.readLong(), is(position));
+        }
+    }
+
+    @Test
+    public void shouldNotSeekBeyondEndOfFileWhenReading()
+    {
+        givenReadConnection();
+
+        whenClientSends(IOCMD_SEEK, seek(10, IOCMD_SEEK_SET));
+        whenClientSends(IOCMD_SEEK, seek(200, IOCMD_SEEK_SET));
+
+        ByteBuf reply = replies();
+        reply.skipBytes(24);
+        assertThat(reply.readInt(), is(20));
+        reply.skipBytes(12);
+        assertThat(reply.readLong(), is(10L));
+    }
+
+    @Test
+    public void shouldReadVector()
+    {
+        givenReadConnection();
+
+        whenClientSends(IOCMD_READV, Unpooled.buffer()
+                .writeInt(2)
+                .writeLong(50).writeInt(12)
+                .writeLong(0).writeInt(5));
+
+        ByteBuf reply = replies();
+        assertAck(reply, IOCMD_READV);
+        assertDataHeader(reply);
+        ByteBuf data = Unpooled.buffer();
+        while (data.readableBytes() < 17) {
+            int size = reply.readInt();
+            assertThat(size, is(both(greaterThan(0)).and(lessThanOrEqualTo(BLOCK_SIZE))));
+            reply.readBytes(data, size);
+        }
+        byte[] bytes = new byte[17];
+        data.readBytes(bytes);
+        data.release();
+        assertArrayEquals(content(50, 62), Arrays.copyOfRange(bytes, 0, 12));
+        assertArrayEquals(content(0, 5), Arrays.copyOfRange(bytes, 12, 17));
+        assertFin(reply, IOCMD_READV);
+
+        /* Vector reads do not move the position. */
+        whenClientSends(IOCMD_LOCATE);
+        reply = replies();
+        reply.skipBytes(16);
+        assertThat(reply.readLong(), is(100L));
+        assertThat(reply.readLong(), is(0L));
+    }
+
+    @Test
+    public void shouldLocate()
+    {
+        givenReadConnection();
+
+        whenClientSends(IOCMD_SEEK, seek(10, IOCMD_SEEK_SET));
+        whenClientSends(IOCMD_LOCATE);
+
+        ByteBuf reply = replies();
+        reply.skipBytes(24);
+        assertThat(reply.readInt(), is(28));
+        assertThat(reply.readInt(), is(IOCMD_ACK));
+        assertThat(reply.readInt(), is(IOCMD_LOCATE));
+        assertThat(reply.readInt(), is(0));
+        assertThat(reply.readLong(), is(100L));
+        assertThat(reply.readLong(), is(10L));
+    }
+
+    @Test
+    public void shouldReportLocateFailure() throws Exception
+    {
+        givenReadConnection();
+        doThrow(new IOException("Disk failure")).when(_file).size();
+
+        whenClientSends(IOCMD_LOCATE);
+
+        assertThat(assertError(replies(), IOCMD_ACK, IOCMD_LOCATE, -1), containsString("Disk failure"));
+    }
+
+    @Test
+    public void shouldWrite()
+    {
+        givenWriteConnection();
+
+        whenClientSends(IOCMD_WRITE);
+        whenClientSendsData(new byte[] { 1, 2, 3 });
+        whenClientSends(IOCMD_SEEK_AND_WRITE, seek(0, IOCMD_SEEK_END));
+        whenClientSendsData(new byte[] { 4, 5 });
+
+        ByteBuf reply = replies();
+        assertAck(reply, IOCMD_WRITE);
+        assertFin(reply, IOCMD_WRITE);
+        assertAck(reply, IOCMD_SEEK_AND_WRITE);
+        assertFin(reply, IOCMD_SEEK_AND_WRITE);
+        assertThat(_content.length, is(102));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, content(0, 3));
+        assertArrayEquals(new byte[] { 4, 5 }, content(100, 102));
+    }
+
+    @Test
+    public void shouldDenyWriteToFileOpenForReading()
+    {
+        givenReadConnection();
+
+        whenClientSends(IOCMD_WRITE);
+        whenClientSends(IOCMD_SEEK_AND_WRITE, seek(0, IOCMD_SEEK_SET));
+
+        ByteBuf reply = replies();
+        assertThat(assertError(reply, IOCMD_ACK, IOCMD_WRITE, CacheException.ERROR_IO_DISK),
+                   containsString("not allowed"));
+        assertThat(assertError(reply, IOCMD_ACK, IOCMD_SEEK_AND_WRITE, CacheException.ERROR_IO_DISK),
+                   containsString("not allowed"));
+    }
+
+    @Test
+    public void shouldReportWriteFailure() throws Exception
+    {
+        doThrow(new IOException("Disk failure")).when(_file).write(any(ByteBuffer.class), anyLong());
+        givenWriteConnection();
+
+        whenClientSends(IOCMD_WRITE);
+        whenClientSendsData(new byte[] { 1, 2, 3 });
+        whenClientSends(IOCMD_WRITE);
+
+        ByteBuf reply = replies();
+        assertAck(reply, IOCMD_WRITE);
+        assertError(reply, IOCMD_FIN, IOCMD_WRITE, CacheException.ERROR_IO_DISK);
+        assertThat(assertError(reply, IOCMD_ACK, IOCMD_WRITE, CacheException.ERROR_IO_DISK),
+                   containsString("IO not ok"));
+    }
+
+    @Test
+    public void shouldCloseConnectionOnClose()
+    {
+        givenReadConnection();
+
+        whenClientSends(IOCMD_CLOSE);
+
+        assertAck(replies(), IOCMD_CLOSE);
+        assertThat(_channel.isOpen(), is(false));
+        verify(_file).release();
+    }
+
+    @Test
+    public void shouldPassChecksumOfCloseBlockToMover()
+    {
+        givenWriteConnection();
+
+        byte[] value = { 0x12, 0x34, 0x56, 0x78 };
+        whenClientSends(IOCMD_CLOSE, Unpooled.buffer()
+                .writeInt(8 + value.length).writeInt(1).writeInt(ChecksumType.ADLER32.getType())
+                .writeBytes(value));
+
+        assertAck(replies(), IOCMD_CLOSE);
+        verify(_mover).setExpectedChecksum(new Checksum(ChecksumType.ADLER32, value));
+    }
+
+    @Test
+    public void shouldReportIoErrorOnClose() throws Exception
+    {
+        doThrow(new IOException("Disk failure")).when(_file).write(any(ByteBuffer.class), anyLong());
+        givenWriteConnection();
+
+        whenClientSends(IOCMD_WRITE);
+        whenClientSendsData(new byte[] { 1, 2, 3 });
+        whenClientSends(IOCMD_CLOSE);
+
+        ByteBuf reply = replies();
+        assertAck(reply, IOCMD_WRITE);
+        assertError(reply, IOCMD_FIN, IOCMD_WRITE, CacheException.ERROR_IO_DISK);
+        assertError(reply, IOCMD_ACK, IOCMD_CLOSE, CacheException.ERROR_IO_DISK);
+        assertThat(_channel.isOpen(), is(false));
+        verify(_file).release(any(DiskErrorCacheException.class));
+    }
+
+    @Test
+    public void shouldRejectUnknownCommand()
+    {
+        givenReadConnection();
+
+        whenClientSends(IOCMD_STATUS);
+
+        assertThat(assertError(replies(), IOCMD_ACK, 666, 9), containsString("Invalid mover command"));
+    }
+}
@@ -11,7 +11,6 @@ import org.dcache.nfs.nfsstat;
 import org.dcache.nfs.status.NfsIoException;
 import org.dcache.nfs.v4.AbstractNFSv4Operation;
 import org.dcache.nfs.v4.CompoundContext;
-import org.dcache.nfs.v4.NFSv4Defaults;
 import org.dcache.nfs.v4.xdr.READ4res;
 import org.dcache.nfs.v4.xdr.READ4resok;
 import org.dcache.nfs.v4.xdr.nfs_argop4;
@@ -23,14 +22,6 @@ public class EDSOperationREAD extends AbstractNFSv4Operation {
 
     private static final Logger _log = LoggerFactory.getLogger(EDSOperationREAD.class.getName());
 
-    // Bind a direct buffer to each thread.
-    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
-        @Override
-        protected ByteBuffer initialValue() {
-            return  ByteBuffer.allocateDirect((int)NFSv4Defaults.NFS4_MAXIOBUFFERSIZE);
-        }
-    };
-
      private final NFSv4MoverHandler _moverHandler;
 
     public EDSOperationREAD(nfs_argop4 args, NFSv4MoverHandler moverHandler) {
@@ -58,11 +49,10 @@ public class EDSOperationREAD extends AbstractNFSv4Operation {
             }
             mover.attachSession(context.getSession());
 
-            ByteBuffer bb = BUFFERS.get();
-            bb.clear().limit(count);
+            /* The buffer is returned to the pool once the reply has been sent. */
+            ByteBuffer bb = _moverHandler.getBufferPool().acquire(count);
             RepositoryChannel fc = mover.getMoverChannel();
 
-            bb.rewind();
             int bytesRead = fc.read(bb, offset);
 
             res.status = nfsstat.NFS_OK;
@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.StandardOpenOption;
 
 import org.dcache.nfs.ChimeraNFSException;
@@ -57,8 +58,26 @@ public class EDSOperationWRITE extends AbstractNFSv4Operation {
 
             RepositoryChannel fc = mover.getMoverChannel();
 
-            _args.opwrite.data.rewind();
-            int bytesWritten = fc.write(_args.opwrite.data, offset);
+            ByteBuffer data = _args.opwrite.data;
+            data.rewind();
+            int bytesWritten;
+            if (data.isDirect()) {
+                bytesWritten = fc.write(data, offset);
+            } else {
+                /*
+                 * Writing a heap buffer makes the JDK copy it to a temporary
+                 * direct buffer cached by the thread. Copy to a pooled buffer
+                 * instead to bound the memory used by the RPC threads.
+                 */
+                NfsBufferPool pool = _moverHandler.getBufferPool();
+                ByteBuffer buffer = pool.acquire(data.remaining());
+                try {
+                    buffer.put(data).flip();
+                    bytesWritten = fc.write(buffer, offset);
+                } finally {
+                    pool.release(buffer);
+                }
+            }
 
             /*
                 due to bug in linux commit-through-ds code,
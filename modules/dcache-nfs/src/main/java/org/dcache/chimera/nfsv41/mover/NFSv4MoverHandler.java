@@ -221,18 +221,26 @@ public class NFSv4MoverHandler {
     private final ScheduledExecutorService _cleanerExecutor;
     private final long _bootVerifier;
 
+    /**
+     * Buffers for READ and WRITE operations.
+     */
+    private final NfsBufferPool _bufferPool;
+
     public NFSv4MoverHandler(PortRange portRange, IoStrategy ioStrategy,
-            boolean withGss, String serverId, CellStub door, long bootVerifier)
+            boolean withGss, String serverId, CellStub door, long bootVerifier,
+            long maxBufferMemory)
             throws IOException , GSSException, OncRpcException {
 
         _embededDS = new NFSServerV41(_operationFactory, null, _fs, null);
         _v3 = new EmbeddedV3(this);
+        _bufferPool = new NfsBufferPool((int) NFSv4Defaults.NFS4_MAXIOBUFFERSIZE, maxBufferMemory);
         OncRpcSvcBuilder oncRpcSvcBuilder = new OncRpcSvcBuilder()
                 .withMinPort(portRange.getLower())
                 .withMaxPort(portRange.getUpper())
                 .withTCP()
                 .withoutAutoPublish()
-                .withRpcService(new OncRpcProgram(nfs4_prot.NFS4_PROGRAM, nfs4_prot.NFS_V4), _embededDS)
+                .withRpcService(new OncRpcProgram(nfs4_prot.NFS4_PROGRAM, nfs4_prot.NFS_V4),
+                                _bufferPool.scoped(_embededDS))
                 .withRpcService(new OncRpcProgram(nfs3_prot.NFS_PROGRAM, nfs3_prot.NFS_V3), _v3);
 
         _log.debug("Using {} IO strategy", ioStrategy);
@@ -362,6 +370,10 @@ public class NFSv4MoverHandler {
         return _embededDS;
     }
 
+    NfsBufferPool getBufferPool() {
+        return _bufferPool;
+    }
+
     class MoverValidator implements Runnable {
 
         @Override
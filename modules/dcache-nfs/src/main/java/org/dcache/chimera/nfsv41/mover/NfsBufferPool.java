@@ -0,0 +1,219 @@
+package org.dcache.chimera.nfsv41.mover;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dcache.xdr.RpcDispatchable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.dcache.util.ByteUnit.KiB;
+
+/**
+ * Shared pool of direct buffers for the NFS data server.
+ *
+ * Buffers are grouped in size classes, starting at 4 KiB and growing by a
+ * factor of four up to the maximum I/O size. A request is served from the
+ * smallest class that fits. Buffers are allocated on demand until the memory
+ * limit of the pool is reached, after which requests are served with
+ * temporary heap buffers.
+ *
+ * The data of a READ reply is encoded after the operation returns, so
+ * buffers cannot be released by the operation itself. Instead, buffers are
+ * leased to the RPC call during which they were acquired and are returned
+ * to the pool once the call, including encoding of the reply, has
+ * completed. See {@link #scoped}. Buffers may be released earlier with
+ * {@link #release}.
+ *
+ * Buffers acquired outside an RPC call could never be returned and are
+ * counted as leaks; such requests are served with heap buffers. Releasing a
+ * buffer that is not leased to the current call is counted as well.
+ */
+public class NfsBufferPool
+{
+    private static final Logger _log = LoggerFactory.getLogger(NfsBufferPool.class);
+
+    private static final int MIN_BUFFER_SIZE = KiB.toBytes(4);
+
+    private final SizeClass[] _classes;
+    private final long _maxMemory;
+    private final AtomicLong _allocatedMemory = new AtomicLong();
+    private final LongAdder _overflows = new LongAdder();
+    private final LongAdder _leaks = new LongAdder();
+
+    /**
+     * Buffers leased to the RPC call processed by the current thread.
+     */
+    private final ThreadLocal<List<ByteBuffer>> _leases = new ThreadLocal<>();
+
+    private static class SizeClass
+    {
+        final int size;
+        final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        final AtomicInteger allocated = new AtomicInteger();
+        final AtomicInteger used = new AtomicInteger();
+        final LongAdder requests = new LongAdder();
+
+        SizeClass(int size)
+        {
+            this.size = size;
+        }
+    }
+
+    public NfsBufferPool(int maxBufferSize, long maxMemory)
+    {
+        checkArgument(maxBufferSize >= MIN_BUFFER_SIZE, "Maximum buffer size is too small");
+        List<SizeClass> classes = new ArrayList<>();
+        for (long size = MIN_BUFFER_SIZE; size < maxBufferSize; size *= 4) {
+            classes.add(new SizeClass((int) size));
+        }
+        classes.add(new SizeClass(maxBufferSize));
+        _classes = classes.toArray(new SizeClass[classes.size()]);
+        _maxMemory = maxMemory;
+    }
+
+    /**
+     * Returns a dispatcher which returns all buffers acquired while
+     * processing a call once {@code dispatchable} has processed the call.
+     */
+    public RpcDispatchable scoped(RpcDispatchable dispatchable)
+    {
+        return call -> {
+            List<ByteBuffer> outer = _leases.get();
+            List<ByteBuffer> leases = new ArrayList<>(2);
+            _leases.set(leases);
+            try {
+                dispatchable.dispatchOncRpcCall(call);
+            } finally {
+                _leases.set(outer);
+                leases.forEach(this::recycle);
+            }
+        };
+    }
+
+    /**
+     * Returns a buffer with position zero and a limit of {@code size}. The
+     * buffer is leased to the current RPC call.
+     */
+    public ByteBuffer acquire(int size)
+    {
+        List<ByteBuffer> leases = _leases.get();
+        if (leases == null) {
+            _leaks.increment();
+            _log.warn("Buffer of {} bytes requested outside an RPC call.", size);
+            return ByteBuffer.allocate(size);
+        }
+
+        SizeClass sizeClass = sizeClassOf(size);
+        if (sizeClass == null) {
+            _overflows.increment();
+            return ByteBuffer.allocate(size);
+        }
+        sizeClass.requests.increment();
+
+        ByteBuffer buffer = sizeClass.free.poll();
+        if (buffer == null) {
+            if (!reserve(sizeClass.size)) {
+                _overflows.increment();
+                return ByteBuffer.allocate(size);
+            }
+            buffer = ByteBuffer.allocateDirect(sizeClass.size);
+            sizeClass.allocated.incrementAndGet();
+        }
+        sizeClass.used.incrementAndGet();
+        buffer.clear().limit(size);
+        leases.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool before the end of the RPC call to which
+     * it is leased. Heap buffers returned by {@link #acquire} are ignored.
+     */
+    public void release(ByteBuffer buffer)
+    {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        List<ByteBuffer> leases = _leases.get();
+        if (leases != null) {
+            Iterator<ByteBuffer> i = leases.iterator();
+            while (i.hasNext()) {
+                if (i.next() == buffer) {
+                    i.remove();
+                    recycle(buffer);
+                    return;
+                }
+            }
+        }
+        _leaks.increment();
+        _log.warn("Released buffer which is not leased to the current RPC call.");
+    }
+
+    private SizeClass sizeClassOf(int size)
+    {
+        for (SizeClass sizeClass : _classes) {
+            if (size <= sizeClass.size) {
+                return sizeClass;
+            }
+        }
+        return null;
+    }
+
+    private boolean reserve(int size)
+    {
+        long allocated;
+        do {
+            allocated = _allocatedMemory.get();
+            if (allocated + size > _maxMemory) {
+                return false;
+            }
+        } while (!_allocatedMemory.compareAndSet(allocated, allocated + size));
+        return true;
+    }
+
+    private void recycle(ByteBuffer buffer)
+    {
+        SizeClass sizeClass = sizeClassOf(buffer.capacity());
+        sizeClass.used.decrementAndGet();
+        buffer.clear();
+        sizeClass.free.offer(buffer);
+    }
+
+    @VisibleForTesting
+    long getOverflows()
+    {
+        return _overflows.sum();
+    }
+
+    @VisibleForTesting
+    long getLeaks()
+    {
+        return _leaks.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Buffers (%d of %d bytes allocated):%n", _allocatedMemory.get(), _maxMemory));
+        sb.append(String.format("    %10s %10s %10s %12s%n", "size", "allocated", "used", "requests"));
+        for (SizeClass sizeClass : _classes) {
+            sb.append(String.format("    %10d %10d %10d %12d%n", sizeClass.size, sizeClass.allocated.get(),
+                                    sizeClass.used.get(), sizeClass.requests.sum()));
+        }
+        sb.append("    Served from heap: ").append(_overflows.sum()).append('\n');
+        sb.append("    Leaks           : ").append(_leaks.sum()).append('\n');
+        return sb.toString();
+    }
+}
@@ -45,6 +45,7 @@ import org.dcache.pool.classic.PostTransferService;
 import org.dcache.pool.classic.TransferService;
 import org.dcache.pool.movers.Mover;
 import org.dcache.pool.movers.MoverFactory;
+import org.dcache.pool.movers.MoverIoStatistics;
 import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.util.Bytes;
 import org.dcache.util.NetworkUtils;
@@ -71,9 +72,11 @@ public class NfsTransferService
     private boolean _sortMultipathList;
     private PnfsHandler _pnfsHandler;
     private ChecksumModule _checksumModule;
+    private MoverIoStatistics _ioStatistics;
     private int _minTcpPort;
     private int _maxTcpPort;
     private IoStrategy _ioStrategy;
+    private long _maxBufferMemory;
 
     /**
      * file to store TCP port number used by pool.
@@ -118,7 +121,8 @@ public class NfsTransferService
             retry--;
             portRange = new PortRange(minTcpPort, maxTcpPort);
             try {
-                _nfsIO = new NFSv4MoverHandler(portRange, _ioStrategy, _withGss, _cellAddress.getCellName(), _door, _bootVerifier);
+                _nfsIO = new NFSv4MoverHandler(portRange, _ioStrategy, _withGss, _cellAddress.getCellName(), _door,
+                                               _bootVerifier, _maxBufferMemory);
                 bound = true;
             } catch (BindException e) {
                 bindException = e;
@@ -171,6 +175,14 @@ public class NfsTransferService
         _checksumModule = checksumModule;
     }
 
+    public void setIoStatistics(MoverIoStatistics ioStatistics) {
+        _ioStatistics = ioStatistics;
+    }
+
+    public MoverIoStatistics getIoStatistics() {
+        return _ioStatistics;
+    }
+
     @Required
     public void setMinTcpPort(int minPort) {
         _minTcpPort = minPort;
@@ -194,6 +206,14 @@ public class NfsTransferService
         _tcpPortFile = path;
     }
 
+    /**
+     * Sets the maximum number of bytes used by the direct buffers of the
+     * NFS data server.
+     */
+    public void setMaxBufferMemory(long maxBufferMemory) {
+        _maxBufferMemory = maxBufferMemory;
+    }
+
     public void shutdown() throws IOException {
         _nfsIO.shutdown();
         _nfsIO.getNFSServer().getStateHandler().shutdown();
@@ -274,6 +294,7 @@ public class NfsTransferService
                      "client owner with the server,\n"+
                      "\tCREATE_SESSION - used by the client to create new session objects on " +
                      "the server.\n"+
+                     "Also shows the usage of the I/O buffer pool.\n" +
                      "If the optional argument \"c\" is specified statistics is reset.")
     public class NfsStatsCommand implements Callable<String>
     {
@@ -286,6 +307,7 @@ public class NfsTransferService
             RequestExecutionTimeGauges<String> gauges = _nfsIO.getNFSServer().getStatistics();
             StringBuilder sb = new StringBuilder();
             sb.append("Stats:").append("\n").append(gauges.toString("ns"));
+            sb.append("\n").append(_nfsIO.getBufferPool());
             if (clearStats) {
                 gauges.reset();
             }
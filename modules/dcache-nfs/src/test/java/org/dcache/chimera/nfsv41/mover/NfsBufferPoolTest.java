@@ -0,0 +1,302 @@
+package org.dcache.chimera.nfsv41.mover;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dcache.xdr.RpcCall;
+import org.dcache.xdr.RpcDispatchable;
+
+import static org.dcache.util.ByteUnit.KiB;
+import static org.dcache.util.ByteUnit.MiB;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class NfsBufferPoolTest
+{
+    private static final int MAX_BUFFER_SIZE = MiB.toBytes(1);
+
+    private final List<ByteBuffer> _buffers = new ArrayList<>();
+
+    private interface Call
+    {
+        void run(NfsBufferPool pool) throws Exception;
+    }
+
+    /**
+     * Runs {@code call} as if it was an RPC call dispatched through
+     * {@link NfsBufferPool#scoped}.
+     */
+    private static void inCall(NfsBufferPool pool, Call call) throws Exception
+    {
+        RpcDispatchable dispatchable = c -> {
+            try {
+                call.run(pool);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+        pool.scoped(dispatchable).dispatchOncRpcCall(mock(RpcCall.class));
+    }
+
+    private void acquire(NfsBufferPool pool, int size)
+    {
+        _buffers.add(pool.acquire(size));
+    }
+
+    @Test
+    public void shouldServeRequestFromSmallestFittingSizeClass() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> {
+            acquire(p, 1);
+            acquire(p, KiB.toBytes(4));
+            acquire(p, KiB.toBytes(4) + 1);
+            acquire(p, KiB.toBytes(64));
+            acquire(p, KiB.toBytes(300));
+            acquire(p, MAX_BUFFER_SIZE);
+        });
+
+        assertThat(_buffers.get(0).capacity(), is(KiB.toBytes(4)));
+        assertThat(_buffers.get(1).capacity(), is(KiB.toBytes(4)));
+        assertThat(_buffers.get(2).capacity(), is(KiB.toBytes(16)));
+        assertThat(_buffers.get(3).capacity(), is(KiB.toBytes(64)));
+        assertThat(_buffers.get(4).capacity(), is(MAX_BUFFER_SIZE));
+        assertThat(_buffers.get(5).capacity(), is(MAX_BUFFER_SIZE));
+        for (ByteBuffer buffer : _buffers) {
+            assertThat(buffer.isDirect(), is(true));
+        }
+    }
+
+    @Test
+    public void shouldLimitBufferToRequestedSize() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> {
+            ByteBuffer buffer = p.acquire(1000);
+            assertThat(buffer.position(), is(0));
+            assertThat(buffer.limit(), is(1000));
+        });
+    }
+
+    @Test
+    public void shouldUseMaxBufferSizeAsLargestClass() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(KiB.toBytes(10), MiB.toBytes(1));
+
+        inCall(pool, p -> acquire(p, KiB.toBytes(5)));
+
+        assertThat(_buffers.get(0).capacity(), is(KiB.toBytes(10)));
+        assertThat(_buffers.get(0).isDirect(), is(true));
+    }
+
+    @Test
+    public void shouldServeRequestsLargerThanMaxBufferSizeFromHeap() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> acquire(p, MAX_BUFFER_SIZE + 1));
+
+        assertThat(_buffers.get(0).isDirect(), is(false));
+        assertThat(_buffers.get(0).remaining(), is(MAX_BUFFER_SIZE + 1));
+        assertThat(pool.getOverflows(), is(1L));
+    }
+
+    @Test
+    public void shouldServeRequestsFromHeapOnceMemoryLimitIsReached() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, KiB.toBytes(8));
+
+        inCall(pool, p -> {
+            acquire(p, KiB.toBytes(4));
+            acquire(p, KiB.toBytes(4));
+            acquire(p, KiB.toBytes(4));
+            acquire(p, KiB.toBytes(16));
+        });
+
+        assertThat(_buffers.get(0).isDirect(), is(true));
+        assertThat(_buffers.get(1).isDirect(), is(true));
+        assertThat(_buffers.get(2).isDirect(), is(false));
+        assertThat(_buffers.get(2).remaining(), is(KiB.toBytes(4)));
+        assertThat(_buffers.get(3).isDirect(), is(false));
+        assertThat(pool.getOverflows(), is(2L));
+    }
+
+    @Test
+    public void shouldNotCountRecycledBuffersAgainstMemoryLimit() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, KiB.toBytes(4));
+
+        inCall(pool, p -> acquire(p, KiB.toBytes(4)));
+        inCall(pool, p -> acquire(p, KiB.toBytes(4)));
+
+        assertThat(_buffers.get(1).isDirect(), is(true));
+        assertThat(pool.getOverflows(), is(0L));
+    }
+
+    @Test
+    public void shouldRecycleBuffersAtEndOfCall() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> {
+            acquire(p, 100);
+            _buffers.get(0).position(50);
+        });
+        inCall(pool, p -> {
+            acquire(p, 200);
+            assertThat(_buffers.get(1).position(), is(0));
+            assertThat(_buffers.get(1).limit(), is(200));
+        });
+
+        assertThat(_buffers.get(1), is(sameInstance(_buffers.get(0))));
+    }
+
+    @Test
+    public void shouldNotShareBuffersWithinCall() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> {
+            acquire(p, 100);
+            acquire(p, 100);
+        });
+
+        assertThat(_buffers.get(1), is(not(sameInstance(_buffers.get(0)))));
+    }
+
+    @Test
+    public void shouldRecycleBuffersOnlyIntoTheirSizeClass() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> acquire(p, KiB.toBytes(16)));
+        inCall(pool, p -> acquire(p, KiB.toBytes(4)));
+
+        assertThat(_buffers.get(1), is(not(sameInstance(_buffers.get(0)))));
+        assertThat(_buffers.get(1).capacity(), is(KiB.toBytes(4)));
+    }
+
+    @Test
+    public void shouldRecycleBuffersWhenCallFails() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        try {
+            inCall(pool, p -> {
+                acquire(p, 100);
+                throw new IllegalStateException();
+            });
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        inCall(pool, p -> acquire(p, 100));
+
+        assertThat(_buffers.get(1), is(sameInstance(_buffers.get(0))));
+    }
+
+    @Test
+    public void shouldRecycleReleasedBufferBeforeEndOfCall() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> {
+            acquire(p, 100);
+            p.release(_buffers.get(0));
+            acquire(p, 100);
+        });
+
+        assertThat(_buffers.get(1), is(sameInstance(_buffers.get(0))));
+        assertThat(pool.getLeaks(), is(0L));
+    }
+
+    @Test
+    public void shouldRecycleBuffersOfNestedCallsSeparately() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> {
+            acquire(p, 100);
+            inCall(p, q -> acquire(q, 100));
+            acquire(p, 100);
+        });
+
+        assertThat(_buffers.get(1), is(not(sameInstance(_buffers.get(0)))));
+        assertThat(_buffers.get(2), is(sameInstance(_buffers.get(1))));
+    }
+
+    @Test
+    public void shouldCountAcquireOutsideCallAsLeak()
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        ByteBuffer buffer = pool.acquire(100);
+
+        assertThat(buffer.isDirect(), is(false));
+        assertThat(buffer.remaining(), is(100));
+        assertThat(pool.getLeaks(), is(1L));
+    }
+
+    @Test
+    public void shouldCountReleaseOfBufferLeasedToOtherCallAsLeak() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> acquire(p, 100));
+        inCall(pool, p -> p.release(_buffers.get(0)));
+
+        assertThat(pool.getLeaks(), is(1L));
+    }
+
+    @Test
+    public void shouldCountReleaseOutsideCallAsLeak() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> acquire(p, 100));
+        pool.release(_buffers.get(0));
+
+        assertThat(pool.getLeaks(), is(1L));
+    }
+
+    @Test
+    public void shouldNotRecycleBufferReleasedTwice() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> {
+            acquire(p, 100);
+            p.release(_buffers.get(0));
+            p.release(_buffers.get(0));
+            acquire(p, 100);
+            acquire(p, 100);
+        });
+
+        assertThat(pool.getLeaks(), is(1L));
+        assertThat(_buffers.get(2), is(not(sameInstance(_buffers.get(1)))));
+    }
+
+    @Test
+    public void shouldIgnoreReleaseOfHeapBuffer() throws Exception
+    {
+        NfsBufferPool pool = new NfsBufferPool(MAX_BUFFER_SIZE, MiB.toBytes(16));
+
+        inCall(pool, p -> p.release(p.acquire(MAX_BUFFER_SIZE + 1)));
+
+        assertThat(pool.getLeaks(), is(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectMaxBufferSizeBelowMinimumSizeClass()
+    {
+        new NfsBufferPool(KiB.toBytes(4) - 1, MiB.toBytes(1));
+    }
+}
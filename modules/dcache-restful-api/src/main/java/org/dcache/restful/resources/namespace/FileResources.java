@@ -99,6 +99,8 @@ public class FileResources {
      *                 the specified directory will be displayed.
      * @param isLocality optional boolean parameter, set to false by default.
      *                 When set to true the locality of file (ONLINE/NEARLINE) is displayed as a part of FileAttributes.
+     * @param after optional name of the last child of a previous listing. When set, children are
+     *                 listed in name order starting after this name, and offset is relative to it.
      * @return JsonFileAttributes  Json Object
      * <p>
      * <p>
@@ -151,7 +153,8 @@ public class FileResources {
                                                 @DefaultValue("false")
                                                 @QueryParam("qos") boolean isQos,
                                                 @QueryParam("limit") String limit,
-                                                @QueryParam("offset") String offset) throws CacheException
+                                                @QueryParam("offset") String offset,
+                                                @QueryParam("after") String after) throws CacheException
     {
         JsonFileAttributes fileAttributes = new JsonFileAttributes();
         Set<FileAttribute> attributes = EnumSet.allOf(FileAttribute.class);
@@ -196,6 +199,7 @@ public class FileResources {
                         HttpServletRequests.roleAwareRestriction(request),
                         path,
                         null,
+                        after,
                         range,
                         attributes);
 
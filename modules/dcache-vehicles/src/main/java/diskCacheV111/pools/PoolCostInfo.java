@@ -2,14 +2,22 @@ package diskCacheV111.pools;
 
 import javax.annotation.Nonnull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
+import dmg.cells.nucleus.MessagePayloadCodec;
+
 import org.dcache.pool.assumption.Assumption;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class PoolCostInfo implements Serializable
@@ -403,6 +411,312 @@ public class PoolCostInfo implements Serializable
         return sb.toString();
     }
 
+    /**
+     * Writes PoolCostInfo to a data output stream.
+     *
+     * This is the compact encoding used for cell message payloads.
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        MessagePayloadCodec.writeString(out, _poolName);
+        out.writeUTF(_defaultQueueName);
+        writeQueue(out, _store);
+        writeQueue(out, _restore);
+        writeQueue(out, _p2p);
+        writeQueue(out, _p2pClient);
+        out.writeInt(_extendedMoverHash.size());
+        for (NamedPoolQueueInfo queue : _extendedMoverHash.values()) {
+            out.writeUTF(queue.getName());
+            writeQueue(out, queue);
+        }
+        writeSpace(out, _space);
+        out.writeDouble(_moverCostFactor);
+    }
+
+    /**
+     * Reads PoolCostInfo from a data input stream.
+     *
+     * This is the compact encoding used for cell message payloads.
+     */
+    public static PoolCostInfo createFrom(DataInput in) throws IOException
+    {
+        PoolCostInfo info = new PoolCostInfo(MessagePayloadCodec.readString(in), in.readUTF());
+        info._store = readQueue(in);
+        info._restore = readQueue(in);
+        info._p2p = readQueue(in);
+        info._p2pClient = readQueue(in);
+        int movers = in.readInt();
+        for (int i = 0; i < movers; i++) {
+            String name = in.readUTF();
+            PoolQueueInfo queue = readQueue(in);
+            if (queue != null) {
+                info.addExtendedMoverQueueSizes(name, queue._active, queue._maxActive, queue._queued,
+                                                queue._readers, queue._writers);
+            }
+        }
+        info._space = readSpace(in);
+        info._moverCostFactor = in.readDouble();
+        return info;
+    }
+
+    private static void writeQueue(DataOutput out, PoolQueueInfo queue) throws IOException
+    {
+        out.writeBoolean(queue != null);
+        if (queue != null) {
+            out.writeInt(queue._active);
+            out.writeInt(queue._maxActive);
+            out.writeInt(queue._queued);
+            out.writeInt(queue._readers);
+            out.writeInt(queue._writers);
+        }
+    }
+
+    private static PoolQueueInfo readQueue(DataInput in) throws IOException
+    {
+        return in.readBoolean()
+               ? new PoolQueueInfo(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt())
+               : null;
+    }
+
+    private static void writeSpace(DataOutput out, PoolSpaceInfo space) throws IOException
+    {
+        out.writeLong(space._total);
+        out.writeLong(space._free);
+        out.writeLong(space._precious);
+        out.writeLong(space._removable);
+        out.writeLong(space._lru);
+        out.writeDouble(space._breakEven);
+        out.writeLong(space._gap);
+    }
+
+    private static PoolSpaceInfo readSpace(DataInput in) throws IOException
+    {
+        try {
+            return new PoolSpaceInfo(in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                                     in.readLong(), in.readDouble(), in.readLong());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid space information: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isSameQueue(PoolQueueInfo a, PoolQueueInfo b)
+    {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a._active == b._active && a._maxActive == b._maxActive && a._queued == b._queued
+               && a._readers == b._readers && a._writers == b._writers;
+    }
+
+    private static boolean isSameSpace(PoolSpaceInfo a, PoolSpaceInfo b)
+    {
+        return a._total == b._total && a._free == b._free && a._precious == b._precious
+               && a._removable == b._removable && a._lru == b._lru && a._gap == b._gap
+               && Double.compare(a._breakEven, b._breakEven) == 0;
+    }
+
+    /**
+     * Returns the changes of this cost information relative to {@code base},
+     * an earlier cost information of the same pool.
+     *
+     * @see #apply
+     */
+    public Delta diff(PoolCostInfo base)
+    {
+        checkArgument(_defaultQueueName.equals(base._defaultQueueName),
+                      "Cost information has a different default queue.");
+
+        Delta delta = new Delta();
+        if (!isSameQueue(_store, base._store)) {
+            delta._changed |= Delta.STORE;
+            delta._store = _store;
+        }
+        if (!isSameQueue(_restore, base._restore)) {
+            delta._changed |= Delta.RESTORE;
+            delta._restore = _restore;
+        }
+        if (!isSameQueue(_p2p, base._p2p)) {
+            delta._changed |= Delta.P2P;
+            delta._p2p = _p2p;
+        }
+        if (!isSameQueue(_p2pClient, base._p2pClient)) {
+            delta._changed |= Delta.P2P_CLIENT;
+            delta._p2pClient = _p2pClient;
+        }
+        if (!isSameSpace(_space, base._space)) {
+            delta._changed |= Delta.SPACE;
+            delta._space = _space;
+        }
+        if (Double.compare(_moverCostFactor, base._moverCostFactor) != 0) {
+            delta._changed |= Delta.MOVER_COST_FACTOR;
+            delta._moverCostFactor = _moverCostFactor;
+        }
+        for (NamedPoolQueueInfo queue : _extendedMoverHash.values()) {
+            if (!isSameQueue(queue, base._extendedMoverHash.get(queue.getName()))) {
+                delta._movers.put(queue.getName(), queue);
+            }
+        }
+        for (String name : base._extendedMoverHash.keySet()) {
+            if (!_extendedMoverHash.containsKey(name)) {
+                delta._removedMovers.add(name);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Returns new cost information combining this cost information with the
+     * changes in {@code delta}. The delta must have been computed relative to
+     * this cost information.
+     *
+     * @see #diff
+     */
+    public PoolCostInfo apply(Delta delta)
+    {
+        PoolCostInfo info = new PoolCostInfo(_poolName, _defaultQueueName);
+        info._store = delta.isChanged(Delta.STORE) ? delta._store : _store;
+        info._restore = delta.isChanged(Delta.RESTORE) ? delta._restore : _restore;
+        info._p2p = delta.isChanged(Delta.P2P) ? delta._p2p : _p2p;
+        info._p2pClient = delta.isChanged(Delta.P2P_CLIENT) ? delta._p2pClient : _p2pClient;
+        info._space = delta.isChanged(Delta.SPACE) ? delta._space : _space;
+        info._moverCostFactor = delta.isChanged(Delta.MOVER_COST_FACTOR) ? delta._moverCostFactor : _moverCostFactor;
+        info._extendedMoverHash.putAll(_extendedMoverHash);
+        info._extendedMoverHash.keySet().removeAll(delta._removedMovers);
+        info._extendedMoverHash.putAll(delta._movers);
+        return info;
+    }
+
+    /**
+     * The parts of the cost information of a pool that changed relative to
+     * earlier cost information of the same pool.
+     */
+    public static class Delta implements Serializable
+    {
+        private static final long serialVersionUID = -2815166398215446512L;
+
+        private static final int STORE = 1;
+        private static final int RESTORE = 2;
+        private static final int P2P = 4;
+        private static final int P2P_CLIENT = 8;
+        private static final int SPACE = 16;
+        private static final int MOVER_COST_FACTOR = 32;
+
+        /** Bit set of the changed fields. */
+        private int _changed;
+
+        private PoolQueueInfo _store;
+
+        private PoolQueueInfo _restore;
+
+        private PoolQueueInfo _p2p;
+
+        private PoolQueueInfo _p2pClient;
+
+        private PoolSpaceInfo _space;
+
+        private double _moverCostFactor;
+
+        /** Mover queues that were added or changed. */
+        private final Map<String, NamedPoolQueueInfo> _movers = new HashMap<>();
+
+        /** Names of mover queues that were removed. */
+        private final Set<String> _removedMovers = new HashSet<>();
+
+        private boolean isChanged(int field)
+        {
+            return (_changed & field) != 0;
+        }
+
+        /**
+         * Returns true if nothing changed.
+         */
+        public boolean isEmpty()
+        {
+            return _changed == 0 && _movers.isEmpty() && _removedMovers.isEmpty();
+        }
+
+        /**
+         * Writes the delta to a data output stream.
+         *
+         * This is the compact encoding used for cell message payloads.
+         */
+        public void writeTo(DataOutput out) throws IOException
+        {
+            out.writeInt(_changed);
+            if (isChanged(STORE)) {
+                writeQueue(out, _store);
+            }
+            if (isChanged(RESTORE)) {
+                writeQueue(out, _restore);
+            }
+            if (isChanged(P2P)) {
+                writeQueue(out, _p2p);
+            }
+            if (isChanged(P2P_CLIENT)) {
+                writeQueue(out, _p2pClient);
+            }
+            if (isChanged(SPACE)) {
+                writeSpace(out, _space);
+            }
+            if (isChanged(MOVER_COST_FACTOR)) {
+                out.writeDouble(_moverCostFactor);
+            }
+            out.writeInt(_movers.size());
+            for (NamedPoolQueueInfo queue : _movers.values()) {
+                out.writeUTF(queue.getName());
+                writeQueue(out, queue);
+            }
+            out.writeInt(_removedMovers.size());
+            for (String name : _removedMovers) {
+                out.writeUTF(name);
+            }
+        }
+
+        /**
+         * Reads a delta from a data input stream.
+         *
+         * This is the compact encoding used for cell message payloads.
+         */
+        public static Delta createFrom(DataInput in) throws IOException
+        {
+            Delta delta = new Delta();
+            delta._changed = in.readInt();
+            if (delta.isChanged(STORE)) {
+                delta._store = readQueue(in);
+            }
+            if (delta.isChanged(RESTORE)) {
+                delta._restore = readQueue(in);
+            }
+            if (delta.isChanged(P2P)) {
+                delta._p2p = readQueue(in);
+            }
+            if (delta.isChanged(P2P_CLIENT)) {
+                delta._p2pClient = readQueue(in);
+            }
+            if (delta.isChanged(SPACE)) {
+                delta._space = readSpace(in);
+            }
+            if (delta.isChanged(MOVER_COST_FACTOR)) {
+                delta._moverCostFactor = in.readDouble();
+            }
+            int movers = in.readInt();
+            for (int i = 0; i < movers; i++) {
+                String name = in.readUTF();
+                PoolQueueInfo queue = readQueue(in);
+                if (queue == null) {
+                    throw new IOException("Missing mover queue " + name + '.');
+                }
+                delta._movers.put(name, new NamedPoolQueueInfo(name, queue._active, queue._maxActive,
+                                                               queue._queued, queue._readers, queue._writers));
+            }
+            int removed = in.readInt();
+            for (int i = 0; i < removed; i++) {
+                delta._removedMovers.add(in.readUTF());
+            }
+            return delta;
+        }
+    }
+
     public double getPerformanceCost()
     {
         return getPerformanceCost(_store, _extendedMoverHash.values());
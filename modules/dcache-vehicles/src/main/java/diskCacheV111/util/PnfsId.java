@@ -5,6 +5,9 @@ package diskCacheV111.util;
 import com.google.common.hash.Funnel;
 import com.google.common.hash.PrimitiveSink;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
@@ -145,6 +148,33 @@ public class PnfsId implements Serializable, Comparable<PnfsId> {
         return sb.toString();
     }
 
+    /**
+     * Writes PnfsId to a data output stream.
+     *
+     * This is the compact encoding used for cell message payloads.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(_a.length);
+        out.write(_a);
+        out.writeUTF(Objects.toString(_domain, ""));
+    }
+
+    /**
+     * Reads PnfsId from a data input stream.
+     *
+     * This is the compact encoding used for cell message payloads.
+     */
+    public static PnfsId createFrom(DataInput in) throws IOException {
+        byte[] id = new byte[in.readUnsignedByte()];
+        in.readFully(id);
+        String domain = in.readUTF();
+        try {
+            return new PnfsId(id, domain.isEmpty() ? null : domain);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
     private static byte[] stringToId(String s) {
         int i = s.indexOf('.');
         if (i < 0) {
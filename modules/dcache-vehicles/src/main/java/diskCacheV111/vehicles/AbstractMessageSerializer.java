@@ -0,0 +1,254 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2017 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package diskCacheV111.vehicles;
+
+import javax.security.auth.Subject;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.MessagePayloadCodec;
+import dmg.cells.nucleus.MessagePayloadSerializer;
+
+import org.dcache.acl.enums.AccessMask;
+import org.dcache.auth.Subjects;
+import org.dcache.auth.attributes.Restriction;
+import org.dcache.auth.attributes.Restrictions;
+
+/**
+ * Base class for compact serializers of {@link Message} payloads.
+ *
+ * Provides encodings for the fields common to all messages and for value
+ * types frequently found in messages. Anything without an explicit encoding
+ * is written using Java serialization.
+ */
+public abstract class AbstractMessageSerializer<T extends Message> implements MessagePayloadSerializer<T>
+{
+    private static final int REPLY_REQUIRED = 0x01;
+    private static final int IS_REPLY = 0x02;
+    private static final int HAS_SUBJECT = 0x04;
+
+    private final short _typeId;
+    private final Class<T> _type;
+
+    protected AbstractMessageSerializer(int typeId, Class<T> type)
+    {
+        _typeId = (short) typeId;
+        _type = type;
+    }
+
+    @Override
+    public short getTypeId()
+    {
+        return _typeId;
+    }
+
+    @Override
+    public Class<T> getType()
+    {
+        return _type;
+    }
+
+    /**
+     * Writes the fields of the Message base class.
+     */
+    protected static void writeMessage(DataOutput out, Message message) throws IOException
+    {
+        Subject subject = message.getSubject();
+        boolean hasSubject = subject != Subjects.ROOT;
+        out.writeByte((message.getReplyRequired() ? REPLY_REQUIRED : 0) |
+                      (message.isReply() ? IS_REPLY : 0) |
+                      (hasSubject ? HAS_SUBJECT : 0));
+        out.writeLong(message.getId());
+        if (message.isReply()) {
+            out.writeInt(message.getReturnCode());
+            MessagePayloadCodec.writeObject(out, message.getErrorObject());
+        }
+        if (hasSubject) {
+            MessagePayloadCodec.writeObject(out, subject);
+        }
+    }
+
+    /**
+     * Reads the fields of the Message base class into {@code message}.
+     */
+    protected static void readMessage(DataInput in, Message message) throws IOException
+    {
+        int flags = in.readUnsignedByte();
+        message.setReplyRequired((flags & REPLY_REQUIRED) != 0);
+        message.setId(in.readLong());
+        if ((flags & IS_REPLY) != 0) {
+            message.setReply(in.readInt(), MessagePayloadCodec.readObject(in, Serializable.class));
+        }
+        if ((flags & HAS_SUBJECT) != 0) {
+            message.setSubject(MessagePayloadCodec.readObject(in, Subject.class));
+        }
+    }
+
+    /**
+     * Writes the fields of the PnfsMessage base class, including those of Message.
+     */
+    protected static void writePnfsMessage(DataOutput out, PnfsMessage message) throws IOException
+    {
+        writeMessage(out, message);
+        writePnfsId(out, message.getPnfsId());
+        MessagePayloadCodec.writeString(out, message.getPnfsPath());
+        Restriction restriction = message.getRestriction();
+        boolean isUnrestricted = restriction.equals(Restrictions.none());
+        out.writeBoolean(isUnrestricted);
+        if (!isUnrestricted) {
+            MessagePayloadCodec.writeObject(out, restriction);
+        }
+        writeEnumSet(out, message.getAccessMask());
+    }
+
+    /**
+     * Reads the fields of the PnfsMessage base class, including those of Message,
+     * into {@code message}.
+     */
+    protected static void readPnfsMessage(DataInput in, PnfsMessage message) throws IOException
+    {
+        readMessage(in, message);
+        message.setPnfsId(readPnfsId(in));
+        message.setPnfsPath(MessagePayloadCodec.readString(in));
+        if (!in.readBoolean()) {
+            message.setRestriction(MessagePayloadCodec.readObject(in, Restriction.class));
+        }
+        message.setAccessMask(readEnumSet(in, AccessMask.class));
+    }
+
+    protected static void writePnfsId(DataOutput out, PnfsId id) throws IOException
+    {
+        out.writeBoolean(id != null);
+        if (id != null) {
+            id.writeTo(out);
+        }
+    }
+
+    protected static PnfsId readPnfsId(DataInput in) throws IOException
+    {
+        return in.readBoolean() ? PnfsId.createFrom(in) : null;
+    }
+
+    /**
+     * Writes a nullable set of enum constants by name.
+     */
+    protected static <E extends Enum<E>> void writeEnumSet(DataOutput out, Set<E> set) throws IOException
+    {
+        if (set == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(set.size());
+            for (E e : set) {
+                out.writeUTF(e.name());
+            }
+        }
+    }
+
+    protected static <E extends Enum<E>> EnumSet<E> readEnumSet(DataInput in, Class<E> type) throws IOException
+    {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        EnumSet<E> set = EnumSet.noneOf(type);
+        try {
+            for (int i = 0; i < size; i++) {
+                set.add(Enum.valueOf(type, in.readUTF()));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown " + type.getSimpleName() + ": " + e.getMessage(), e);
+        }
+        return set;
+    }
+
+    /**
+     * Writes a nullable collection of strings.
+     */
+    protected static void writeStrings(DataOutput out, Collection<String> strings) throws IOException
+    {
+        if (strings == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                MessagePayloadCodec.writeString(out, s);
+            }
+        }
+    }
+
+    protected static List<String> readStringList(DataInput in) throws IOException
+    {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        List<String> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(MessagePayloadCodec.readString(in));
+        }
+        return list;
+    }
+
+    protected static Set<String> readStringSet(DataInput in) throws IOException
+    {
+        List<String> list = readStringList(in);
+        return (list == null) ? null : new HashSet<>(list);
+    }
+
+    /**
+     * Writes a nullable map of strings.
+     */
+    protected static void writeStringMap(DataOutput out, Map<String, String> map) throws IOException
+    {
+        if (map == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(map.size());
+            for (Map.Entry<String, String> e : map.entrySet()) {
+                MessagePayloadCodec.writeString(out, e.getKey());
+                MessagePayloadCodec.writeString(out, e.getValue());
+            }
+        }
+    }
+
+    protected static Map<String, String> readStringMap(DataInput in) throws IOException
+    {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> map = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            map.put(MessagePayloadCodec.readString(in), MessagePayloadCodec.readString(in));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,66 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2017 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package diskCacheV111.vehicles;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.MessagePayloadCodec;
+
+import org.dcache.vehicles.FileAttributes;
+
+/**
+ * Compact serializer for the transfer completion notification sent by pools to doors.
+ */
+public class DoorTransferFinishedMessageSerializer extends AbstractMessageSerializer<DoorTransferFinishedMessage>
+{
+    public static final int TYPE_ID = 3;
+
+    public DoorTransferFinishedMessageSerializer()
+    {
+        super(TYPE_ID, DoorTransferFinishedMessage.class);
+    }
+
+    @Override
+    public void write(DoorTransferFinishedMessage message, DataOutput out) throws IOException
+    {
+        message.getPnfsId().writeTo(out);
+        MessagePayloadCodec.writeObject(out, message.getProtocolInfo());
+        message.getFileAttributes().writeTo(out);
+        out.writeUTF(message.getPoolName());
+        MessagePayloadCodec.writeString(out, message.getIoQueueName());
+        writeMessage(out, message);
+    }
+
+    @Override
+    public DoorTransferFinishedMessage read(DataInput in) throws IOException
+    {
+        PnfsId pnfsId = PnfsId.createFrom(in);
+        ProtocolInfo protocolInfo = MessagePayloadCodec.readObject(in, ProtocolInfo.class);
+        FileAttributes attributes = FileAttributes.createFrom(in);
+        String poolName = in.readUTF();
+        String ioQueueName = MessagePayloadCodec.readString(in);
+        DoorTransferFinishedMessage message =
+                new DoorTransferFinishedMessage(0, pnfsId, protocolInfo, attributes, poolName, ioQueueName);
+        readMessage(in, message);
+        return message;
+    }
+}
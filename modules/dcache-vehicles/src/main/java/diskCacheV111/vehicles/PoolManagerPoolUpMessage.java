@@ -1,5 +1,7 @@
 package diskCacheV111.vehicles;
 
+import javax.annotation.Nullable;
+
 import java.io.Serializable;
 import java.util.Map;
 import java.util.Set;
@@ -7,6 +9,8 @@ import java.util.Set;
 import diskCacheV111.pools.PoolCostInfo;
 import diskCacheV111.pools.PoolV2Mode;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class PoolManagerPoolUpMessage extends PoolManagerMessage {
 
     private final String    _poolName ;
@@ -18,6 +22,16 @@ public class PoolManagerPoolUpMessage extends PoolManagerMessage {
     private Set<String> _hsmInstances;
     private String    _message                 = "";
     private int       _code;
+    private boolean   _isDelta;
+    private long      _fullHeartbeatSequence;
+    private PoolCostInfo.Delta _costDelta;
+
+    /**
+     * The full heartbeat a delta heartbeat was applied to. Further deltas of
+     * the same pool are applied to this heartbeat rather than to the combined
+     * heartbeat.
+     */
+    private transient PoolManagerPoolUpMessage _base;
 
 
     private static final long serialVersionUID = -8421133630068493665L;
@@ -109,4 +123,117 @@ public class PoolManagerPoolUpMessage extends PoolManagerMessage {
         assert value instanceof Serializable;
         _hsmInstances = value;
     }
+
+    /**
+     * Marks this message as a delta heartbeat. A delta heartbeat does not
+     * carry the tag map and the HSM instances of the pool, as these did not
+     * change since the last full heartbeat of the pool. Instead of the cost
+     * information it carries the changes to the cost information of the
+     * last full heartbeat.
+     */
+    public void setDelta(boolean isDelta)
+    {
+        _isDelta = isDelta;
+    }
+
+    /**
+     * Returns true if this is a delta heartbeat.
+     *
+     * @see #applyTo
+     */
+    public boolean isDelta()
+    {
+        return _isDelta;
+    }
+
+    /**
+     * Sets the sequence number of the full heartbeat. A full heartbeat carries
+     * its own sequence number, while a delta heartbeat carries the sequence
+     * number of the full heartbeat it was computed against.
+     */
+    public void setFullHeartbeatSequence(long sequence)
+    {
+        _fullHeartbeatSequence = sequence;
+    }
+
+    public long getFullHeartbeatSequence()
+    {
+        return _fullHeartbeatSequence;
+    }
+
+    /**
+     * Sets the changes to the cost information of the last full heartbeat.
+     * Only meaningful for delta heartbeats; null if the pool did not report
+     * cost information.
+     */
+    public void setCostDelta(@Nullable PoolCostInfo.Delta costDelta)
+    {
+        _costDelta = costDelta;
+    }
+
+    @Nullable
+    public PoolCostInfo.Delta getCostDelta()
+    {
+        return _costDelta;
+    }
+
+    /**
+     * Returns true if this heartbeat can be applied to {@code previous}, the
+     * last heartbeat received from the pool. This is the case for any full
+     * heartbeat and for delta heartbeats computed against the full heartbeat
+     * that {@code previous} is based on. A delta computed against a full
+     * heartbeat that was lost in transit cannot be applied.
+     */
+    public boolean canApplyTo(@Nullable PoolManagerPoolUpMessage previous)
+    {
+        return !_isDelta
+               || previous != null
+                  && !previous.isDelta()
+                  && _poolName.equals(previous.getPoolName())
+                  && _serialId == previous.getSerialId()
+                  && _fullHeartbeatSequence == previous.getFullHeartbeatSequence()
+                  && (_costDelta == null || previous.getBase().getPoolCostInfo() != null);
+    }
+
+    /**
+     * Returns a full heartbeat combining this heartbeat with the last
+     * heartbeat received from the pool. If this is a full heartbeat then it
+     * is returned unchanged.
+     *
+     * The tag map and HSM instances are taken from the last full heartbeat,
+     * and the cost changes of this heartbeat are applied to the cost
+     * information of the last full heartbeat. The returned heartbeat may
+     * itself be used as {@code previous} for the next delta heartbeat.
+     *
+     * @param previous the last heartbeat received from the pool, either full
+     *                 or as returned by this method
+     * @see #canApplyTo
+     */
+    public PoolManagerPoolUpMessage applyTo(PoolManagerPoolUpMessage previous)
+    {
+        if (!_isDelta) {
+            return this;
+        }
+        checkArgument(canApplyTo(previous), "Heartbeat is not a delta of %s.", previous);
+
+        PoolManagerPoolUpMessage full = previous.getBase();
+        PoolCostInfo info = (_costDelta == null) ? null : full.getPoolCostInfo().apply(_costDelta);
+        PoolManagerPoolUpMessage message = new PoolManagerPoolUpMessage(_poolName, _serialId, _mode, info);
+        message.setTagMap(full.getTagMap());
+        if (full.getHsmInstances() != null) {
+            message.setHsmInstances(full.getHsmInstances());
+        }
+        if (_message != null) {
+            message.setMessage(_message);
+        }
+        message.setCode(_code);
+        message.setFullHeartbeatSequence(_fullHeartbeatSequence);
+        message._base = full;
+        return message;
+    }
+
+    private PoolManagerPoolUpMessage getBase()
+    {
+        return (_base == null) ? this : _base;
+    }
 }
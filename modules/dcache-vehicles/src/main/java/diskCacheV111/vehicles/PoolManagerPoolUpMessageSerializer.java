@@ -0,0 +1,93 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2017 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package diskCacheV111.vehicles;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Set;
+
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.pools.PoolV2Mode;
+
+import dmg.cells.nucleus.MessagePayloadCodec;
+
+/**
+ * Compact serializer for the pool heartbeat.
+ */
+public class PoolManagerPoolUpMessageSerializer extends AbstractMessageSerializer<PoolManagerPoolUpMessage>
+{
+    public static final int TYPE_ID = 1;
+
+    public PoolManagerPoolUpMessageSerializer()
+    {
+        super(TYPE_ID, PoolManagerPoolUpMessage.class);
+    }
+
+    @Override
+    public void write(PoolManagerPoolUpMessage message, DataOutput out) throws IOException
+    {
+        out.writeUTF(message.getPoolName());
+        out.writeLong(message.getSerialId());
+        out.writeInt(message.getPoolMode().getMode());
+        PoolCostInfo info = message.getPoolCostInfo();
+        out.writeBoolean(info != null);
+        if (info != null) {
+            info.writeTo(out);
+        }
+        writeMessage(out, message);
+        writeStringMap(out, message.getTagMap());
+        writeStrings(out, message.getHsmInstances());
+        MessagePayloadCodec.writeString(out, message.getMessage());
+        out.writeInt(message.getCode());
+        out.writeBoolean(message.isDelta());
+        out.writeLong(message.getFullHeartbeatSequence());
+        PoolCostInfo.Delta costDelta = message.getCostDelta();
+        out.writeBoolean(costDelta != null);
+        if (costDelta != null) {
+            costDelta.writeTo(out);
+        }
+    }
+
+    @Override
+    public PoolManagerPoolUpMessage read(DataInput in) throws IOException
+    {
+        String poolName = in.readUTF();
+        long serialId = in.readLong();
+        PoolV2Mode mode = new PoolV2Mode(in.readInt());
+        PoolCostInfo info = in.readBoolean() ? PoolCostInfo.createFrom(in) : null;
+        PoolManagerPoolUpMessage message = new PoolManagerPoolUpMessage(poolName, serialId, mode, info);
+        readMessage(in, message);
+        message.setTagMap(readStringMap(in));
+        Set<String> hsmInstances = readStringSet(in);
+        if (hsmInstances != null) {
+            message.setHsmInstances(hsmInstances);
+        }
+        String status = MessagePayloadCodec.readString(in);
+        if (status != null) {
+            message.setMessage(status);
+        }
+        message.setCode(in.readInt());
+        message.setDelta(in.readBoolean());
+        message.setFullHeartbeatSequence(in.readLong());
+        if (in.readBoolean()) {
+            message.setCostDelta(PoolCostInfo.Delta.createFrom(in));
+        }
+        return message;
+    }
+}
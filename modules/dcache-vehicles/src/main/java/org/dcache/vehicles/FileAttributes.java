@@ -7,6 +7,8 @@ import com.google.common.collect.ImmutableMap;
 import javax.annotation.Nonnull;
 import javax.security.auth.Subject;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
@@ -15,6 +17,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,11 +27,14 @@ import diskCacheV111.util.PnfsId;
 import diskCacheV111.util.RetentionPolicy;
 import diskCacheV111.vehicles.StorageInfo;
 
+import dmg.cells.nucleus.MessagePayloadCodec;
+
 import org.dcache.acl.ACL;
 import org.dcache.auth.Subjects;
 import org.dcache.namespace.FileAttribute;
 import org.dcache.namespace.FileType;
 import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
 
 import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toMap;
@@ -598,6 +605,206 @@ public class FileAttributes implements Serializable {
         }
     }
 
+    /**
+     * Writes the defined attributes to a data output stream.
+     *
+     * This is the compact encoding used for cell message payloads. Attributes
+     * are identified by name to be robust against changes of the FileAttribute
+     * enum. Attribute values without an explicit encoding use Java serialization.
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        out.writeShort(_definedAttributes.size());
+        for (FileAttribute attribute : _definedAttributes) {
+            out.writeUTF(attribute.name());
+            switch (attribute) {
+            case ACCESS_LATENCY:
+                out.writeInt(_accessLatency.getId());
+                break;
+            case ACCESS_TIME:
+                out.writeLong(_atime);
+                break;
+            case ACL:
+                MessagePayloadCodec.writeObject(out, _acl);
+                break;
+            case CACHECLASS:
+                MessagePayloadCodec.writeString(out, _cacheClass);
+                break;
+            case CHECKSUM:
+                out.writeInt(_checksums.size());
+                for (Checksum checksum : _checksums) {
+                    out.writeInt(checksum.getType().getType());
+                    out.writeUTF(checksum.getValue());
+                }
+                break;
+            case CHANGE_TIME:
+                out.writeLong(_ctime);
+                break;
+            case CREATION_TIME:
+                out.writeLong(_creationTime);
+                break;
+            case FLAGS:
+                out.writeInt(_flags.size());
+                for (Map.Entry<String, String> flag : _flags.entrySet()) {
+                    MessagePayloadCodec.writeString(out, flag.getKey());
+                    MessagePayloadCodec.writeString(out, flag.getValue());
+                }
+                break;
+            case HSM:
+                MessagePayloadCodec.writeString(out, _hsm);
+                break;
+            case LOCATIONS:
+                out.writeInt(_locations.size());
+                for (String location : _locations) {
+                    out.writeUTF(location);
+                }
+                break;
+            case MODE:
+                out.writeInt(_mode);
+                break;
+            case MODIFICATION_TIME:
+                out.writeLong(_mtime);
+                break;
+            case OWNER:
+                out.writeInt(_owner);
+                break;
+            case OWNER_GROUP:
+                out.writeInt(_group);
+                break;
+            case RETENTION_POLICY:
+                out.writeInt(_retentionPolicy.getId());
+                break;
+            case SIZE:
+                out.writeLong(_size);
+                break;
+            case STORAGECLASS:
+                MessagePayloadCodec.writeString(out, _storageClass);
+                break;
+            case STORAGEINFO:
+                MessagePayloadCodec.writeObject(out, _storageInfo);
+                break;
+            case TYPE:
+                out.writeUTF(_fileType.name());
+                break;
+            case PNFSID:
+                _pnfsId.writeTo(out);
+                break;
+            case NLINK:
+                out.writeInt(_nlink);
+                break;
+            default:
+                throw new IOException("Attribute " + attribute + " has no compact encoding.");
+            }
+        }
+    }
+
+    /**
+     * Reads FileAttributes from a data input stream.
+     *
+     * This is the compact encoding used for cell message payloads.
+     */
+    public static FileAttributes createFrom(DataInput in) throws IOException
+    {
+        FileAttributes attributes = new FileAttributes();
+        int count = in.readShort();
+        for (int i = 0; i < count; i++) {
+            FileAttribute attribute;
+            try {
+                attribute = FileAttribute.valueOf(in.readUTF());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown file attribute: " + e.getMessage(), e);
+            }
+            switch (attribute) {
+            case ACCESS_LATENCY:
+                attributes.setAccessLatency(AccessLatency.getAccessLatency(in.readInt()));
+                break;
+            case ACCESS_TIME:
+                attributes.setAccessTime(in.readLong());
+                break;
+            case ACL:
+                attributes.setAcl(MessagePayloadCodec.readObject(in, ACL.class));
+                break;
+            case CACHECLASS:
+                attributes.setCacheClass(internOrNull(MessagePayloadCodec.readString(in)));
+                break;
+            case CHECKSUM:
+                int checksumCount = in.readInt();
+                Set<Checksum> checksums = new HashSet<>(checksumCount);
+                for (int j = 0; j < checksumCount; j++) {
+                    checksums.add(new Checksum(ChecksumType.getChecksumType(in.readInt()), in.readUTF()));
+                }
+                attributes.setChecksums(checksums);
+                break;
+            case CHANGE_TIME:
+                attributes.setChangeTime(in.readLong());
+                break;
+            case CREATION_TIME:
+                attributes.setCreationTime(in.readLong());
+                break;
+            case FLAGS:
+                int flagCount = in.readInt();
+                Map<String, String> flags = new HashMap<>(flagCount);
+                for (int j = 0; j < flagCount; j++) {
+                    flags.put(internOrNull(MessagePayloadCodec.readString(in)), MessagePayloadCodec.readString(in));
+                }
+                attributes.setFlags(flags);
+                break;
+            case HSM:
+                attributes.setHsm(internOrNull(MessagePayloadCodec.readString(in)));
+                break;
+            case LOCATIONS:
+                int locationCount = in.readInt();
+                List<String> locations = new ArrayList<>(locationCount);
+                for (int j = 0; j < locationCount; j++) {
+                    locations.add(in.readUTF());
+                }
+                attributes.setLocations(locations);
+                break;
+            case MODE:
+                attributes.setMode(in.readInt());
+                break;
+            case MODIFICATION_TIME:
+                attributes.setModificationTime(in.readLong());
+                break;
+            case OWNER:
+                attributes.setOwner(in.readInt());
+                break;
+            case OWNER_GROUP:
+                attributes.setGroup(in.readInt());
+                break;
+            case RETENTION_POLICY:
+                attributes.setRetentionPolicy(RetentionPolicy.getRetentionPolicy(in.readInt()));
+                break;
+            case SIZE:
+                attributes.setSize(in.readLong());
+                break;
+            case STORAGECLASS:
+                attributes.setStorageClass(internOrNull(MessagePayloadCodec.readString(in)));
+                break;
+            case STORAGEINFO:
+                attributes.setStorageInfo(MessagePayloadCodec.readObject(in, StorageInfo.class));
+                break;
+            case TYPE:
+                attributes.setFileType(FileType.valueOf(in.readUTF()));
+                break;
+            case PNFSID:
+                attributes.setPnfsId(PnfsId.createFrom(in));
+                break;
+            case NLINK:
+                attributes.setNlink(in.readInt());
+                break;
+            default:
+                throw new IOException("Attribute " + attribute + " has no compact encoding.");
+            }
+        }
+        return attributes;
+    }
+
+    private static String internOrNull(String s)
+    {
+        return (s == null) ? null : s.intern();
+    }
+
     public static FileAttributes ofAccessTime(long when)
     {
         return of().accessTime(when).build();
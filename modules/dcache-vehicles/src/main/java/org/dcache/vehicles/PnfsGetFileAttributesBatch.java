@@ -0,0 +1,85 @@
+package org.dcache.vehicles;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.Message;
+import diskCacheV111.vehicles.PnfsMessage;
+
+import org.dcache.namespace.FileAttribute;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Vehicle for getting the attributes of many files at once.
+ *
+ * The reply holds the attributes of those files that exist and for which
+ * the subject may read the attributes. Other files are not part of the
+ * reply.
+ */
+public class PnfsGetFileAttributesBatch extends PnfsMessage
+{
+    private static final long serialVersionUID = 2918637049826133436L;
+
+    private final List<PnfsId> _pnfsIds;
+    private final Set<FileAttribute> _attributes;
+    private Map<PnfsId, FileAttributes> _fileAttributes;
+
+    public PnfsGetFileAttributesBatch(Collection<PnfsId> pnfsIds, Set<FileAttribute> attr)
+    {
+        _pnfsIds = new ArrayList<>(pnfsIds);
+        _attributes = requireNonNull(attr);
+        setReplyRequired(true);
+    }
+
+    /**
+     * Get the files for which to get the attributes.
+     */
+    public List<PnfsId> getPnfsIds()
+    {
+        return _pnfsIds;
+    }
+
+    /**
+     * Get set of requested {@link FileAttributes}. An empty set
+     * indicates that client interested in file existence only.
+     */
+    public Set<FileAttribute> getRequestedAttributes()
+    {
+        return _attributes;
+    }
+
+    public void setFileAttributes(Map<PnfsId, FileAttributes> fileAttributes)
+    {
+        _fileAttributes = fileAttributes;
+    }
+
+    /**
+     * Get the attributes of the files, keyed by PNFS ID. Files that do
+     * not exist or whose attributes may not be read by the subject have
+     * no entry.
+     */
+    public Map<PnfsId, FileAttributes> getFileAttributes()
+    {
+        return _fileAttributes;
+    }
+
+    @Override
+    public boolean invalidates(Message message)
+    {
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return super.toString() + ";files=" + _pnfsIds.size() + ';' +
+               ((_fileAttributes == null)
+                ? "[noMetaData]"
+                : "found=" + _fileAttributes.size());
+    }
+}
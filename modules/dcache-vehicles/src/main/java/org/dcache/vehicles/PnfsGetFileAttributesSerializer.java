@@ -0,0 +1,65 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2017 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.vehicles;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import diskCacheV111.vehicles.AbstractMessageSerializer;
+
+import org.dcache.namespace.FileAttribute;
+
+/**
+ * Compact serializer for attribute lookups, both request and reply.
+ */
+public class PnfsGetFileAttributesSerializer extends AbstractMessageSerializer<PnfsGetFileAttributes>
+{
+    public static final int TYPE_ID = 2;
+
+    public PnfsGetFileAttributesSerializer()
+    {
+        super(TYPE_ID, PnfsGetFileAttributes.class);
+    }
+
+    @Override
+    public void write(PnfsGetFileAttributes message, DataOutput out) throws IOException
+    {
+        writeEnumSet(out, message.getRequestedAttributes());
+        writePnfsMessage(out, message);
+        out.writeBoolean(message.getUpdateAtime());
+        FileAttributes attributes = message.getFileAttributes();
+        out.writeBoolean(attributes != null);
+        if (attributes != null) {
+            attributes.writeTo(out);
+        }
+    }
+
+    @Override
+    public PnfsGetFileAttributes read(DataInput in) throws IOException
+    {
+        PnfsGetFileAttributes message =
+                new PnfsGetFileAttributes((String) null, readEnumSet(in, FileAttribute.class));
+        readPnfsMessage(in, message);
+        message.setUpdateAtime(in.readBoolean());
+        if (in.readBoolean()) {
+            message.setFileAttributes(FileAttributes.createFrom(in));
+        }
+        return message;
+    }
+}
@@ -79,6 +79,17 @@ public class PnfsListDirectoryMessage extends PnfsMessage
         return _pattern;
     }
 
+    /**
+     * Returns the name after which the listing starts, or null if the
+     * listing starts at the beginning of the directory.
+     *
+     * @see PnfsResumeListDirectoryMessage
+     */
+    public String getAfter()
+    {
+        return null;
+    }
+
     /** Returns the optional range bracketing the result. */
     public Range<Integer> getRange()
     {
@@ -0,0 +1,51 @@
+package org.dcache.vehicles;
+
+import com.google.common.collect.Range;
+
+import java.util.Set;
+
+import org.dcache.namespace.FileAttribute;
+import org.dcache.util.Glob;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Requests a directory listing that resumes a previous listing. Entries
+ * are listed in name order, starting with the first entry whose name
+ * sorts after the last entry of the previous listing.
+ *
+ * This is a separate message type rather than a field of
+ * PnfsListDirectoryMessage so that plain listings remain compatible
+ * with PnfsManagers that do not support resuming a listing.
+ */
+public class PnfsResumeListDirectoryMessage extends PnfsListDirectoryMessage
+{
+    private static final long serialVersionUID = 2915428472493207212L;
+
+    private final String _after;
+
+    /**
+     * Constructs a new message.
+     *
+     * @param path The full PNFS path of the directory to list
+     * @param pattern Optional glob pattern for filtering the result
+     * @param after Name of the last entry of a previous listing
+     * @param range Range for bracketing the result, relative to the
+     *              first entry after {@code after}
+     * @param attr The file attributes to include for each entry
+     * @see diskCacheV111.namespace.NameSpaceProvider#list
+     */
+    public PnfsResumeListDirectoryMessage(String path, Glob pattern, String after,
+                                          Range<Integer> range,
+                                          Set<FileAttribute> attr)
+    {
+        super(path, pattern, range, attr);
+        _after = checkNotNull(after);
+    }
+
+    @Override
+    public String getAfter()
+    {
+        return _after;
+    }
+}
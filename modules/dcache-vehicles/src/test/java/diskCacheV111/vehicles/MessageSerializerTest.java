@@ -0,0 +1,214 @@
+package diskCacheV111.vehicles;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.util.AccessLatency;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.util.RetentionPolicy;
+
+import dmg.cells.nucleus.MessagePayloadSerializer;
+
+import org.dcache.namespace.FileAttribute;
+import org.dcache.namespace.FileType;
+import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+import org.dcache.vehicles.FileAttributes;
+import org.dcache.vehicles.PnfsGetFileAttributes;
+import org.dcache.vehicles.PnfsGetFileAttributesSerializer;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MessageSerializerTest
+{
+    private static final PnfsId PNFSID = new PnfsId("0000D8C8A4C5A9C34D1DA4A1E6F1C1A2B3C4");
+
+    @Test
+    public void shouldRoundTripPoolUpMessage() throws Exception
+    {
+        PoolCostInfo info = new PoolCostInfo("pool1", "regular");
+        info.setSpaceUsage(1000, 400, 100, 200, 60);
+        info.setQueueSizes(1, 2, 3, 4, 5, 6);
+        info.addExtendedMoverQueueSizes("regular", 7, 100, 8, 5, 10);
+        info.setMoverCostFactor(0.5);
+
+        PoolManagerPoolUpMessage message =
+                new PoolManagerPoolUpMessage("pool1", 17, new PoolV2Mode(PoolV2Mode.DISABLED_RDONLY), info);
+        message.setTagMap(ImmutableMap.of("hostname", "node1"));
+        message.setHsmInstances(ImmutableSet.of("osm"));
+        message.setMessage("read-only");
+        message.setCode(3);
+
+        PoolManagerPoolUpMessage copy = roundTrip(new PoolManagerPoolUpMessageSerializer(), message);
+
+        assertThat(copy.getPoolName(), is("pool1"));
+        assertThat(copy.getSerialId(), is(17L));
+        assertThat(copy.getPoolMode().getMode(), is(PoolV2Mode.DISABLED_RDONLY));
+        assertThat(copy.getTagMap(), is(message.getTagMap()));
+        assertThat(copy.getHsmInstances(), contains("osm"));
+        assertThat(copy.getMessage(), is("read-only"));
+        assertThat(copy.getCode(), is(3));
+        assertThat(copy.getReplyRequired(), is(false));
+        assertThat(copy.getPoolCostInfo().toString(), is(info.toString()));
+        assertThat(copy.getPoolCostInfo().getMoverCostFactor(), is(0.5));
+        assertThat(copy.getPoolCostInfo().getPerformanceCost(), is(info.getPerformanceCost()));
+        assertThat(copy.isDelta(), is(false));
+    }
+
+    @Test
+    public void shouldRoundTripDeltaPoolUpMessage() throws Exception
+    {
+        PoolCostInfo info = new PoolCostInfo("pool1", "regular");
+        info.setSpaceUsage(1000, 400, 100, 200, 60);
+        info.setQueueSizes(1, 2, 3, 4, 5, 6);
+        info.addExtendedMoverQueueSizes("regular", 7, 100, 8, 5, 10);
+        info.addExtendedMoverQueueSizes("wan", 1, 10, 0, 1, 0);
+
+        PoolManagerPoolUpMessage full =
+                new PoolManagerPoolUpMessage("pool1", 17, new PoolV2Mode(PoolV2Mode.ENABLED), info);
+        full.setTagMap(ImmutableMap.of("hostname", "node1"));
+        full.setHsmInstances(ImmutableSet.of("osm"));
+
+        PoolCostInfo changed = new PoolCostInfo("pool1", "regular");
+        changed.setSpaceUsage(1000, 300, 100, 200, 60);
+        changed.setQueueSizes(1, 2, 3, 4, 5, 6);
+        changed.addExtendedMoverQueueSizes("regular", 8, 100, 8, 6, 10);
+
+        PoolManagerPoolUpMessage delta =
+                new PoolManagerPoolUpMessage("pool1", 17, new PoolV2Mode(PoolV2Mode.DISABLED_RDONLY));
+        delta.setDelta(true);
+        delta.setCostDelta(changed.diff(info));
+        delta.setMessage("read-only");
+
+        PoolManagerPoolUpMessage copy = roundTrip(new PoolManagerPoolUpMessageSerializer(), delta);
+
+        assertThat(copy.isDelta(), is(true));
+        assertThat(copy.getTagMap(), is(nullValue()));
+        assertThat(copy.getPoolCostInfo(), is(nullValue()));
+        assertThat(copy.canApplyTo(full), is(true));
+
+        PoolManagerPoolUpMessage patched = copy.applyTo(full);
+        assertThat(patched.isDelta(), is(false));
+        assertThat(patched.getPoolMode().getMode(), is(PoolV2Mode.DISABLED_RDONLY));
+        assertThat(patched.getMessage(), is("read-only"));
+        assertThat(patched.getTagMap(), is(full.getTagMap()));
+        assertThat(patched.getHsmInstances(), contains("osm"));
+        assertThat(patched.getPoolCostInfo().toString(), is(changed.toString()));
+    }
+
+    @Test
+    public void shouldApplyDeltaRelativeToLastFullHeartbeat() throws Exception
+    {
+        PoolCostInfo info = new PoolCostInfo("pool1", "regular");
+        info.setSpaceUsage(1000, 400, 100, 200, 60);
+        PoolManagerPoolUpMessage full =
+                new PoolManagerPoolUpMessage("pool1", 17, new PoolV2Mode(PoolV2Mode.ENABLED), info);
+
+        PoolCostInfo changed = new PoolCostInfo("pool1", "regular");
+        changed.setSpaceUsage(1000, 300, 100, 200, 60);
+        PoolManagerPoolUpMessage first = new PoolManagerPoolUpMessage("pool1", 17, full.getPoolMode());
+        first.setDelta(true);
+        first.setCostDelta(changed.diff(info));
+
+        PoolCostInfo unchanged = new PoolCostInfo("pool1", "regular");
+        unchanged.setSpaceUsage(1000, 400, 100, 200, 60);
+        PoolManagerPoolUpMessage second = new PoolManagerPoolUpMessage("pool1", 17, full.getPoolMode());
+        second.setDelta(true);
+        second.setCostDelta(unchanged.diff(info));
+
+        assertThat(second.getCostDelta().isEmpty(), is(true));
+
+        PoolManagerPoolUpMessage patched = second.applyTo(first.applyTo(full));
+        assertThat(patched.getPoolCostInfo().getSpaceInfo().getFreeSpace(), is(400L));
+    }
+
+    @Test
+    public void shouldNotApplyDeltaOfOtherIncarnation() throws Exception
+    {
+        PoolManagerPoolUpMessage full =
+                new PoolManagerPoolUpMessage("pool1", 17, new PoolV2Mode(PoolV2Mode.ENABLED));
+        PoolManagerPoolUpMessage delta =
+                new PoolManagerPoolUpMessage("pool1", 18, new PoolV2Mode(PoolV2Mode.ENABLED));
+        delta.setDelta(true);
+
+        assertThat(delta.canApplyTo(full), is(false));
+        assertThat(delta.canApplyTo(null), is(false));
+        assertThat(full.canApplyTo(null), is(true));
+    }
+
+    @Test
+    public void shouldNotApplyDeltaOfLostFullHeartbeat() throws Exception
+    {
+        PoolCostInfo info = new PoolCostInfo("pool1", "regular");
+        info.setSpaceUsage(1000, 400, 100, 200, 60);
+        PoolManagerPoolUpMessage full =
+                new PoolManagerPoolUpMessage("pool1", 17, new PoolV2Mode(PoolV2Mode.ENABLED), info);
+        full.setFullHeartbeatSequence(1);
+
+        PoolManagerPoolUpMessage delta = new PoolManagerPoolUpMessage("pool1", 17, full.getPoolMode());
+        delta.setDelta(true);
+        delta.setFullHeartbeatSequence(2);
+        delta.setCostDelta(info.diff(info));
+
+        PoolManagerPoolUpMessage copy = roundTrip(new PoolManagerPoolUpMessageSerializer(), delta);
+
+        assertThat(copy.getFullHeartbeatSequence(), is(2L));
+        assertThat(copy.canApplyTo(full), is(false));
+
+        delta.setFullHeartbeatSequence(1);
+        assertThat(delta.canApplyTo(full), is(true));
+        assertThat(delta.applyTo(full).getFullHeartbeatSequence(), is(1L));
+    }
+
+    @Test
+    public void shouldRoundTripFileAttributesReply() throws Exception
+    {
+        PnfsGetFileAttributes message =
+                new PnfsGetFileAttributes(PNFSID, EnumSet.of(FileAttribute.SIZE, FileAttribute.CHECKSUM));
+        message.setId(42);
+        message.setUpdateAtime(true);
+        FileAttributes attributes = FileAttributes.of()
+                .fileType(FileType.REGULAR)
+                .size(1234)
+                .checksum(new Checksum(ChecksumType.ADLER32, "12345678"))
+                .accessLatency(AccessLatency.ONLINE)
+                .retentionPolicy(RetentionPolicy.REPLICA)
+                .storageClass("a:b@osm")
+                .hsm("osm")
+                .location("pool1")
+                .build();
+        message.setFileAttributes(attributes);
+        message.setSucceeded();
+
+        PnfsGetFileAttributes copy = roundTrip(new PnfsGetFileAttributesSerializer(), message);
+
+        assertThat(copy.getPnfsId(), is(PNFSID));
+        assertThat(copy.getPnfsPath(), is(nullValue()));
+        assertThat(copy.getId(), is(42L));
+        assertThat(copy.isReply(), is(true));
+        assertThat(copy.getReturnCode(), is(0));
+        assertThat(copy.getReplyRequired(), is(true));
+        assertThat(copy.getUpdateAtime(), is(true));
+        assertThat(copy.getRequestedAttributes(), is(message.getRequestedAttributes()));
+        assertThat(copy.getFileAttributes().toString(), is(attributes.toString()));
+    }
+
+    private static <T extends Message> T roundTrip(MessagePayloadSerializer<T> serializer, T message)
+            throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.write(message, new DataOutputStream(bytes));
+        return serializer.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
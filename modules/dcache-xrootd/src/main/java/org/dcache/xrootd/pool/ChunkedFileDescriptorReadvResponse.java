@@ -2,58 +2,298 @@ package org.dcache.xrootd.pool;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
-import io.netty.util.ReferenceCountUtil;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import org.dcache.xrootd.core.XrootdException;
+import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage.EmbeddedReadRequest;
 import org.dcache.xrootd.protocol.messages.ReadVRequest;
 import org.dcache.xrootd.stream.AbstractChunkedReadvResponse;
 
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_FileNotOpen;
 
+/**
+ * Vector read response which coalesces nearby segments.
+ *
+ * ROOT clients tend to send vector reads with many small, often adjacent
+ * segments. Rather than reading each segment from the file, the segments
+ * are sorted and segments of the same file that are at most maxGap bytes
+ * apart are merged into extents of at most maxFrameSize bytes. Each extent
+ * is read with a single positional read and its segments are served as
+ * slices of the extent.
+ *
+ * Segments are served in the order of the request, so an extent may be
+ * needed again after other extents have been read. To bound memory, at most
+ * two frames worth of extents are kept; an extent evicted before all its
+ * segments have been served is read again when needed.
+ *
+ * Cached extents are pooled buffers. They are released when reading a
+ * segment fails and when the response is closed, which the request handler
+ * does once the response has been written or discarded.
+ */
 public class ChunkedFileDescriptorReadvResponse extends AbstractChunkedReadvResponse
 {
     private final List<FileDescriptor> descriptors;
 
+    private final EmbeddedReadRequest[] requests;
+
+    private final int maxExtentSize;
+
+    private final int maxGap;
+
+    /**
+     * Extent from which each segment is served. Planned when the first
+     * segment is read.
+     */
+    private Map<Segment, Extent> extents;
+
+    /**
+     * Extents currently held in memory, in the order in which they were read.
+     */
+    private final Map<Extent, ByteBuf> cache = new LinkedHashMap<>();
+
+    private final long maxCachedBytes;
+
+    private long cachedBytes;
+
     public ChunkedFileDescriptorReadvResponse(ReadVRequest request,
                                               int maxFrameSize,
+                                              int maxGap,
                                               List<FileDescriptor> descriptors)
     {
         super(request, maxFrameSize);
         this.descriptors = descriptors;
+        this.requests = request.getReadRequestList();
+        this.maxExtentSize = maxFrameSize;
+        this.maxGap = maxGap;
+        this.maxCachedBytes = 2L * maxFrameSize;
     }
 
-    @Override
-    protected long getSize(int fd) throws IOException, XrootdException
+    private Map<Segment, Extent> plan() throws IOException, XrootdException
+    {
+        Map<Integer, Long> sizes = new HashMap<>();
+        Segment[] segments = new Segment[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            EmbeddedReadRequest r = requests[i];
+            Long size = sizes.get(r.getFileHandle());
+            if (size == null) {
+                size = getSize(r.getFileHandle());
+                sizes.put(r.getFileHandle(), size);
+            }
+            /* Segments are read truncated at the end of the file. */
+            int length = (int) Math.max(0, Math.min(r.BytesToRead(), size - r.getOffset()));
+            segments[i] = new Segment(r.getFileHandle(), r.getOffset(), length);
+        }
+        Arrays.sort(segments, Comparator.comparingInt((Segment s) -> s.fd)
+                .thenComparingLong(s -> s.position).thenComparingInt(s -> s.length));
+
+        Map<Segment, Extent> extents = new HashMap<>();
+        Extent extent = null;
+        for (Segment segment : segments) {
+            Extent planned = extents.get(segment);
+            if (planned != null) {
+                /* Duplicate segments are served from the same extent. */
+                planned.remaining++;
+                continue;
+            }
+            if (extent == null || !extent.canMerge(segment, maxExtentSize, maxGap)) {
+                extent = new Extent(segment.fd, segment.position);
+            }
+            extent.add(segment);
+            extents.put(segment, extent);
+        }
+        return extents;
+    }
+
+    private FileDescriptor getDescriptor(int fd) throws XrootdException
     {
         if (fd < 0 || fd >= descriptors.size() || descriptors.get(fd) == null) {
             throw new XrootdException(kXR_FileNotOpen, "Invalid file descriptor");
         }
-        return descriptors.get(fd).getChannel().size();
+        return descriptors.get(fd);
+    }
+
+    @Override
+    protected long getSize(int fd) throws IOException, XrootdException
+    {
+        return getDescriptor(fd).getChannel().size();
     }
 
     @Override
     protected ByteBuf read(ByteBufAllocator alloc, int fd, long position, int length)
             throws IOException, XrootdException
     {
-        if (fd < 0 || fd >= descriptors.size() || descriptors.get(fd) == null) {
-            throw new XrootdException(kXR_FileNotOpen, "Invalid file descriptor");
+        try {
+            return readSegment(alloc, fd, position, length);
+        } catch (IOException | XrootdException | RuntimeException e) {
+            close();
+            throw e;
         }
+    }
 
-        FileDescriptor descriptor = descriptors.get(fd);
+    /**
+     * Releases all cached extents. Segments read after closing the response
+     * are read from the file again.
+     */
+    public void close()
+    {
+        for (ByteBuf data : cache.values()) {
+            data.release();
+        }
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    private ByteBuf readSegment(ByteBufAllocator alloc, int fd, long position, int length)
+            throws IOException, XrootdException
+    {
+        FileDescriptor descriptor = getDescriptor(fd);
+        if (extents == null) {
+            extents = plan();
+        }
+
+        Segment segment = new Segment(fd, position, length);
+        Extent extent = extents.get(segment);
+        if (extent == null) {
+            /* Should not happen as all segments are planned. */
+            extent = new Extent(fd, position);
+            extent.add(segment);
+        }
 
-        ByteBuf chunk = alloc.ioBuffer(length);
+        ByteBuf data = cache.get(extent);
+        if (data == null) {
+            data = readExtent(alloc, descriptor, extent);
+        }
+
+        int offset = (int) (position - extent.position);
+        int available = Math.max(0, Math.min(length, data.readableBytes() - offset));
+        ByteBuf chunk = data.retainedSlice(offset, available);
+
+        descriptor.getReadvStatistics().segmentServed(length);
+        if (--extent.remaining == 0) {
+            evict(extent);
+        }
+        return chunk;
+    }
+
+    private ByteBuf readExtent(ByteBufAllocator alloc, FileDescriptor descriptor, Extent extent)
+            throws IOException
+    {
+        ByteBuf data = alloc.ioBuffer(extent.length);
         try {
-            ByteBuffer buffer = chunk.nioBuffer(0, length);
-            descriptor.read(buffer, position);
-            chunk.writerIndex(buffer.position());
-            return chunk;
-        } catch (RuntimeException | IOException e) {
-            ReferenceCountUtil.release(chunk);
+            ByteBuffer buffer = data.nioBuffer(0, extent.length);
+            descriptor.read(buffer, extent.position);
+            data.writerIndex(buffer.position());
+        } catch (IOException | RuntimeException e) {
+            data.release();
             throw e;
         }
+        descriptor.getReadvStatistics().fileRead(data.readableBytes());
+
+        Iterator<Map.Entry<Extent, ByteBuf>> eldest = cache.entrySet().iterator();
+        while (cachedBytes + extent.length > maxCachedBytes && eldest.hasNext()) {
+            Map.Entry<Extent, ByteBuf> entry = eldest.next();
+            cachedBytes -= entry.getKey().length;
+            entry.getValue().release();
+            eldest.remove();
+        }
+
+        cache.put(extent, data);
+        cachedBytes += extent.length;
+        return data;
+    }
+
+    private void evict(Extent extent)
+    {
+        ByteBuf data = cache.remove(extent);
+        if (data != null) {
+            cachedBytes -= extent.length;
+            data.release();
+        }
+    }
+
+    /**
+     * An embedded read request, with its length truncated at the end of the
+     * file.
+     */
+    private static class Segment
+    {
+        private final int fd;
+        private final long position;
+        private final int length;
+
+        Segment(int fd, long position, int length)
+        {
+            this.fd = fd;
+            this.position = position;
+            this.length = length;
+        }
+
+        long end()
+        {
+            return position + length;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Segment)) {
+                return false;
+            }
+            Segment that = (Segment) o;
+            return fd == that.fd && position == that.position && length == that.length;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(fd, position, length);
+        }
+    }
+
+    /**
+     * A range of a file covering one or more segments. Uses identity equality.
+     */
+    private static class Extent
+    {
+        private final int fd;
+        private final long position;
+        private int length;
+
+        /**
+         * Number of segments not yet served from this extent.
+         */
+        private int remaining;
+
+        Extent(int fd, long position)
+        {
+            this.fd = fd;
+            this.position = position;
+        }
+
+        boolean canMerge(Segment segment, int maxLength, int maxGap)
+        {
+            long end = position + length;
+            return segment.fd == fd && segment.position <= end + maxGap &&
+                   Math.max(end, segment.end()) - position <= maxLength;
+        }
+
+        void add(Segment segment)
+        {
+            length = (int) Math.max(length, segment.end() - position);
+            remaining++;
+        }
     }
 }
@@ -50,4 +50,9 @@ public interface FileDescriptor
      * Whether the file was opened with kXR_posc.
      */
     boolean isPersistOnSuccessfulClose();
+
+    /**
+     * Returns the statistics to which vector reads of this file are recorded.
+     */
+    ReadvStatistics getReadvStatistics();
 }
@@ -0,0 +1,63 @@
+package org.dcache.xrootd.pool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about kXR_readv requests served by a mover.
+ *
+ * Segments are the embedded read requests of a vector read. Adjacent and
+ * nearby segments are served from a single read of the file; the
+ * amplification is the ratio between the number of bytes read from the
+ * file and the number of bytes requested by the client.
+ */
+public class ReadvStatistics
+{
+    private final LongAdder _segments = new LongAdder();
+    private final LongAdder _requestedBytes = new LongAdder();
+    private final LongAdder _reads = new LongAdder();
+    private final LongAdder _readBytes = new LongAdder();
+
+    public void segmentServed(int length)
+    {
+        _segments.increment();
+        _requestedBytes.add(length);
+    }
+
+    public void fileRead(int length)
+    {
+        _reads.increment();
+        _readBytes.add(length);
+    }
+
+    public long getSegments()
+    {
+        return _segments.sum();
+    }
+
+    public long getRequestedBytes()
+    {
+        return _requestedBytes.sum();
+    }
+
+    public long getReads()
+    {
+        return _reads.sum();
+    }
+
+    public long getReadBytes()
+    {
+        return _readBytes.sum();
+    }
+
+    public double getAmplification()
+    {
+        long requested = getRequestedBytes();
+        return (requested == 0) ? 0 : (double) getReadBytes() / requested;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("RV=%d/%d;RA=%.2f", getSegments(), getReads(), getAmplification());
+    }
+}
@@ -0,0 +1,45 @@
+package org.dcache.xrootd.pool;
+
+import java.util.UUID;
+
+import diskCacheV111.vehicles.PoolIoFileMessage;
+
+import dmg.cells.nucleus.CellPath;
+
+import org.dcache.pool.classic.ChecksumModule;
+import org.dcache.pool.classic.TransferService;
+import org.dcache.pool.movers.MoverIoStatistics;
+import org.dcache.pool.movers.NettyMover;
+import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.vehicles.XrootdProtocolInfo;
+
+/**
+ * Netty mover for xrootd which keeps statistics about vector reads.
+ */
+public class XrootdMover extends NettyMover<XrootdProtocolInfo>
+{
+    private final ReadvStatistics _readvStatistics = new ReadvStatistics();
+
+    public XrootdMover(ReplicaDescriptor handle,
+                       PoolIoFileMessage message,
+                       CellPath pathToDoor,
+                       TransferService<NettyMover<XrootdProtocolInfo>> transferService,
+                       UUID uuid,
+                       ChecksumModule checksumModule,
+                       MoverIoStatistics ioStatistics)
+    {
+        super(handle, message, pathToDoor, transferService, uuid, checksumModule, ioStatistics);
+    }
+
+    public ReadvStatistics getReadvStatistics()
+    {
+        return _readvStatistics;
+    }
+
+    @Override
+    protected String getStatus()
+    {
+        String status = super.getStatus();
+        return (_readvStatistics.getSegments() == 0) ? status : status + ";" + _readvStatistics;
+    }
+}
@@ -128,23 +128,29 @@ public class XrootdPoolRequestHandler extends AbstractXrootdRequestHandler
     /**
      * The server on which this request handler is running.
      */
-    private NettyTransferService<XrootdProtocolInfo> _server;
+    private XrootdTransferService _server;
 
     /**
      * Maximum size of frame used for xrootd replies.
      */
     private final int _maxFrameSize;
 
+    /**
+     * Largest gap between segments of a vector read served by a single read.
+     */
+    private final int _maxReadvGap;
+
     /**
      * Custom entries for kXR_Qconfig requests.
      */
     private final Map<String,String> _queryConfig;
 
-    public XrootdPoolRequestHandler(NettyTransferService<XrootdProtocolInfo> server, int maxFrameSize,
+    public XrootdPoolRequestHandler(XrootdTransferService server, int maxFrameSize, int maxReadvGap,
                                     Map<String, String> queryConfig)
     {
         _server = server;
         _maxFrameSize = maxFrameSize;
+        _maxReadvGap = maxReadvGap;
         _queryConfig = queryConfig;
     }
 
@@ -258,7 +264,10 @@ public class XrootdPoolRequestHandler extends AbstractXrootdRequestHandler
                     descriptor = new WriteDescriptor(file, (msg.getOptions() & kXR_posc) == kXR_posc ||
                             file.getProtocolInfo().getFlags().contains(XrootdProtocolInfo.Flags.POSC));
                 } else {
-                    descriptor = new ReadDescriptor(file);
+                    ReadvStatistics readvStatistics = _server.getReadvStatistics(uuid);
+                    descriptor = (readvStatistics == null)
+                                 ? new ReadDescriptor(file)
+                                 : new ReadDescriptor(file, readvStatistics);
                 }
 
                 FileStatus stat = msg.isRetStat() ? stat(file) : null;
@@ -456,7 +465,14 @@ public class XrootdPoolRequestHandler extends AbstractXrootdRequestHandler
             }
         }
 
-        return new ChunkedFileDescriptorReadvResponse(msg, _maxFrameSize, new ArrayList<>(_descriptors));
+        /* The response caches pooled buffers that must be released even if
+         * the client disconnects before the response has been written.
+         */
+        ChunkedFileDescriptorReadvResponse response =
+                new ChunkedFileDescriptorReadvResponse(msg, _maxFrameSize, _maxReadvGap,
+                                                       new ArrayList<>(_descriptors));
+        respond(ctx, response).addListener(future -> response.close());
+        return null;
     }
 
     /**
@@ -28,16 +28,22 @@ import org.springframework.beans.factory.annotation.Required;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.channels.CompletionHandler;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import diskCacheV111.util.CacheException;
+import diskCacheV111.vehicles.PoolIoFileMessage;
 
 import dmg.cells.nucleus.CellPath;
 
+import org.dcache.pool.movers.Mover;
 import org.dcache.pool.movers.NettyMover;
 import org.dcache.pool.movers.NettyTransferService;
+import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.util.NetworkUtils;
 import org.dcache.vehicles.XrootdDoorAdressInfoMessage;
 import org.dcache.vehicles.XrootdProtocolInfo;
@@ -86,9 +92,13 @@ public class XrootdTransferService extends NettyTransferService<XrootdProtocolIn
             LoggerFactory.getLogger(XrootdTransferService.class);
 
     private int maxFrameSize;
+    private int maxReadvGap;
     private List<ChannelHandlerFactory> plugins;
     private Map<String, String> queryConfig;
 
+    /** Vector read statistics of the movers of this service. */
+    private final ConcurrentMap<UUID, ReadvStatistics> readvStatistics = new ConcurrentHashMap<>();
+
     public XrootdTransferService()
     {
         super("xrootd");
@@ -116,6 +126,20 @@ public class XrootdTransferService extends NettyTransferService<XrootdProtocolIn
         return maxFrameSize;
     }
 
+    /**
+     * Sets the largest gap in bytes between two segments of a vector read
+     * for which the segments are served by a single read of the file.
+     */
+    public void setMaxReadvGap(int maxReadvGap)
+    {
+        this.maxReadvGap = maxReadvGap;
+    }
+
+    public int getMaxReadvGap()
+    {
+        return maxReadvGap;
+    }
+
     public Map<String, String> getQueryConfig()
     {
         return queryConfig;
@@ -133,6 +157,32 @@ public class XrootdTransferService extends NettyTransferService<XrootdProtocolIn
         return protocolInfo.getUUID();
     }
 
+    @Override
+    public Mover<?> createMover(ReplicaDescriptor handle, PoolIoFileMessage message,
+                                CellPath pathToDoor) throws CacheException
+    {
+        UUID uuid = createUuid((XrootdProtocolInfo) message.getProtocolInfo());
+        XrootdMover mover = new XrootdMover(handle, message, pathToDoor, this, uuid, checksumModule, ioStatistics);
+        readvStatistics.put(uuid, mover.getReadvStatistics());
+        return mover;
+    }
+
+    @Override
+    public void closeMover(NettyMover<XrootdProtocolInfo> mover, CompletionHandler<Void, Void> completionHandler)
+    {
+        readvStatistics.remove(mover.getUuid());
+        super.closeMover(mover, completionHandler);
+    }
+
+    /**
+     * Returns the vector read statistics of the mover with the given UUID,
+     * or null if there is no such mover.
+     */
+    public ReadvStatistics getReadvStatistics(UUID uuid)
+    {
+        return readvStatistics.get(uuid);
+    }
+
     /**
      * Sends our address to the door. Copied from the old xrootd mover.
      */
@@ -172,6 +222,6 @@ public class XrootdTransferService extends NettyTransferService<XrootdProtocolIn
                                                          clientIdleTimeout,
                                                          clientIdleTimeoutUnit));
         pipeline.addLast("chunkedWriter", new ChunkedResponseWriteHandler());
-        pipeline.addLast("transfer", new XrootdPoolRequestHandler(this, maxFrameSize, queryConfig));
+        pipeline.addLast("transfer", new XrootdPoolRequestHandler(this, maxFrameSize, maxReadvGap, queryConfig));
     }
 }
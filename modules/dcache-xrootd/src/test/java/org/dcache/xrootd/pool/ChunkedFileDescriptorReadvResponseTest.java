@@ -0,0 +1,272 @@
+package org.dcache.xrootd.pool;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dcache.pool.movers.NettyTransferService;
+import org.dcache.xrootd.core.XrootdException;
+import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage.EmbeddedReadRequest;
+import org.dcache.xrootd.protocol.messages.ReadVRequest;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_FileNotOpen;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ChunkedFileDescriptorReadvResponseTest
+{
+    private static final int MAX_FRAME_SIZE = 64;
+    private static final int MAX_GAP = 8;
+
+    private final ByteBufAllocator alloc = new UnpooledByteBufAllocator(false);
+
+    private byte[] data;
+    private FileDescriptor descriptor;
+    private ReadvStatistics statistics;
+    private List<ByteBuf> chunks;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        statistics = new ReadvStatistics();
+        chunks = new ArrayList<>();
+
+        NettyTransferService.NettyMoverChannel channel = mock(NettyTransferService.NettyMoverChannel.class);
+        when(channel.size()).thenReturn((long) data.length);
+
+        descriptor = mock(FileDescriptor.class);
+        doReturn(channel).when(descriptor).getChannel();
+        when(descriptor.getReadvStatistics()).thenReturn(statistics);
+        doAnswer(invocation -> {
+            ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[0];
+            long position = (Long) invocation.getArguments()[1];
+            int length = (int) Math.max(0, Math.min(buffer.remaining(), data.length - position));
+            buffer.put(data, (int) position, length);
+            return null;
+        }).when(descriptor).read(any(ByteBuffer.class), anyLong());
+    }
+
+    private static EmbeddedReadRequest segment(int fd, long offset, int length)
+    {
+        EmbeddedReadRequest request = mock(EmbeddedReadRequest.class);
+        when(request.getFileHandle()).thenReturn(fd);
+        when(request.getOffset()).thenReturn(offset);
+        when(request.BytesToRead()).thenReturn(length);
+        return request;
+    }
+
+    private ChunkedFileDescriptorReadvResponse response(EmbeddedReadRequest... segments)
+    {
+        ReadVRequest request = mock(ReadVRequest.class);
+        when(request.getReadRequestList()).thenReturn(segments);
+        return new ChunkedFileDescriptorReadvResponse(request, MAX_FRAME_SIZE, MAX_GAP,
+                                                      Arrays.asList(descriptor));
+    }
+
+    /**
+     * Reads a segment like the base class does, i.e. with the length
+     * truncated at the end of the file.
+     */
+    private void assertServed(ChunkedFileDescriptorReadvResponse response, int fd, long offset, int length)
+            throws Exception
+    {
+        int served = (int) Math.min(length, data.length - offset);
+        ByteBuf chunk = response.read(alloc, fd, offset, served);
+        chunks.add(chunk);
+
+        byte[] bytes = new byte[chunk.readableBytes()];
+        chunk.getBytes(chunk.readerIndex(), bytes);
+        assertArrayEquals(Arrays.copyOfRange(data, (int) offset, (int) offset + served), bytes);
+    }
+
+    @Test
+    public void shouldCoalesceAdjacentAndNearbySegments() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 10), segment(0, 10, 10), segment(0, 25, 5));
+
+        assertServed(response, 0, 0, 10);
+        assertServed(response, 0, 10, 10);
+        assertServed(response, 0, 25, 5);
+
+        assertThat(statistics.getSegments(), is(3L));
+        assertThat(statistics.getReads(), is(1L));
+        assertThat(statistics.getReadBytes(), is(30L));
+    }
+
+    @Test
+    public void shouldNotCoalesceSegmentsFurtherApartThanMaxGap() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 10), segment(0, 10 + MAX_GAP + 1, 10));
+
+        assertServed(response, 0, 0, 10);
+        assertServed(response, 0, 10 + MAX_GAP + 1, 10);
+
+        assertThat(statistics.getReads(), is(2L));
+        assertThat(statistics.getReadBytes(), is(20L));
+    }
+
+    @Test
+    public void shouldNotExceedMaxFrameSize() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 40), segment(0, 40, 40));
+
+        assertServed(response, 0, 0, 40);
+        assertServed(response, 0, 40, 40);
+
+        assertThat(statistics.getReads(), is(2L));
+    }
+
+    @Test
+    public void shouldServeSegmentsInRequestOrder() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 30, 10), segment(0, 0, 10), segment(0, 15, 10));
+
+        assertServed(response, 0, 30, 10);
+        assertServed(response, 0, 0, 10);
+        assertServed(response, 0, 15, 10);
+
+        assertThat(statistics.getReads(), is(1L));
+    }
+
+    @Test
+    public void shouldServeSegmentsAtSamePositionWithDifferentLengths() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 60), segment(0, 0, 4), segment(0, 0, 60));
+
+        assertServed(response, 0, 0, 60);
+        assertServed(response, 0, 0, 4);
+        assertServed(response, 0, 0, 60);
+
+        assertThat(statistics.getSegments(), is(3L));
+        assertThat(statistics.getReads(), is(1L));
+    }
+
+    @Test
+    public void shouldServeSegmentTruncatedAtEndOfFile() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 80, 10), segment(0, 95, 10));
+
+        assertServed(response, 0, 80, 10);
+        assertServed(response, 0, 95, 10);
+
+        assertThat(statistics.getReads(), is(1L));
+        assertThat(statistics.getReadBytes(), is(20L));
+    }
+
+    @Test
+    public void shouldReleaseExtentsOnceAllSegmentsAreServed() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 10), segment(0, 10, 10), segment(0, 50, 10));
+
+        assertServed(response, 0, 0, 10);
+        assertServed(response, 0, 10, 10);
+        assertServed(response, 0, 50, 10);
+
+        for (ByteBuf chunk : chunks) {
+            chunk.release();
+        }
+        for (ByteBuf chunk : chunks) {
+            assertThat(chunk.refCnt(), is(0));
+        }
+    }
+
+    @Test
+    public void shouldReleaseCachedExtentsWhenClosedMidResponse() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 10), segment(0, 50, 10), segment(0, 10, 10), segment(0, 60, 10));
+
+        assertServed(response, 0, 0, 10);
+        assertServed(response, 0, 50, 10);
+        for (ByteBuf chunk : chunks) {
+            chunk.release();
+        }
+        assertThat(chunks.get(0).refCnt(), is(1));
+        assertThat(chunks.get(1).refCnt(), is(1));
+
+        response.close();
+
+        for (ByteBuf chunk : chunks) {
+            assertThat(chunk.refCnt(), is(0));
+        }
+    }
+
+    @Test
+    public void shouldReleaseCachedExtentsWhenReadFails() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 10), segment(0, 50, 10), segment(0, 10, 10));
+
+        assertServed(response, 0, 0, 10);
+        doThrow(new IOException("disk failure")).when(descriptor).read(any(ByteBuffer.class), eq(50L));
+        try {
+            response.read(alloc, 0, 50, 10);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+
+        chunks.get(0).release();
+        assertThat(chunks.get(0).refCnt(), is(0));
+    }
+
+    @Test
+    public void shouldReleaseExtentOfDuplicateSegmentsOnceAllAreServed() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 10), segment(0, 0, 10), segment(0, 50, 10));
+
+        assertServed(response, 0, 0, 10);
+        assertServed(response, 0, 0, 10);
+        assertServed(response, 0, 50, 10);
+
+        assertThat(statistics.getReads(), is(2L));
+        for (ByteBuf chunk : chunks) {
+            chunk.release();
+        }
+        for (ByteBuf chunk : chunks) {
+            assertThat(chunk.refCnt(), is(0));
+        }
+    }
+
+    @Test
+    public void shouldRejectInvalidFileDescriptor() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response = response(segment(1, 0, 10));
+
+        try {
+            response.read(alloc, 1, 0, 10);
+            fail("Expected XrootdException");
+        } catch (XrootdException e) {
+            assertThat(e.getError(), is(kXR_FileNotOpen));
+        }
+    }
+}
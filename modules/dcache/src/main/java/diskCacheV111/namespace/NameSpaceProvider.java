@@ -7,6 +7,7 @@ import javax.security.auth.Subject;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import diskCacheV111.util.AccessLatency;
@@ -139,6 +140,17 @@ public interface NameSpaceProvider
             throws CacheException;
 
     String pnfsidToPath(Subject subject, PnfsId pnfsId) throws CacheException;
+
+    /**
+     * Get the paths of many files at once. Files that do not exist are not
+     * part of the result.
+     *
+     * @param subject Subject of user who invoked this method.
+     * @param pnfsIds of the files
+     * @return the paths of the files, keyed by PNFS ID
+     */
+    Map<PnfsId, String> pnfsidsToPaths(Subject subject, Collection<PnfsId> pnfsIds) throws CacheException;
+
     PnfsId pathToPnfsid(Subject subject, String path, boolean followLinks) throws CacheException;
 
     PnfsId getParentOf(Subject subject, PnfsId pnfsId) throws CacheException;
@@ -195,6 +207,20 @@ public interface NameSpaceProvider
                                      Set<FileAttribute> attr)
         throws CacheException;
 
+    /**
+     * Get attributes defined by <code>attr</code> of many files at once.
+     * Files that do not exist or whose attributes the subject may not read
+     * are not part of the result.
+     *
+     * @param subject Subject of user who invoked this method.
+     * @param pnfsIds of the files
+     * @param attr array of requested attributes
+     * @return the attributes of the files, keyed by PNFS ID
+     */
+    Map<PnfsId, FileAttributes> getFileAttributes(Subject subject, Collection<PnfsId> pnfsIds,
+                                                  Set<FileAttribute> attr)
+        throws CacheException;
+
     /**
      * Set files attributes defined by <code>attr</code>.
      *
@@ -239,6 +265,31 @@ public interface NameSpaceProvider
               Set<FileAttribute> attrs, ListHandler handler)
         throws CacheException;
 
+    /**
+     * Lists the content of a directory in name order, resuming after a
+     * given name.
+     *
+     * Like {@link #list(Subject, String, Glob, Range, Set, ListHandler)},
+     * except that entries are listed in name order, starting with the
+     * first entry whose name sorts after {@code after}. The range is
+     * relative to that entry. A client paging through a large directory
+     * passes the name of the last entry of the previous page, so that
+     * the cost of listing a page does not depend on its position in the
+     * directory.
+     *
+     * @param subject Subject of user who invoked this method
+     * @param path Path to directory to list
+     * @param glob Pattern to limit the result set; may be null
+     * @param after Name of the last entry of a previous listing; if null
+     *              the listing starts at the beginning of the directory
+     * @param range The range of entries to return; may be null
+     * @param attrs The file attributes to query for each entry
+     * @param handler Handler called for each entry
+     */
+    void list(Subject subject, String path, Glob glob, String after, Range<Integer> range,
+              Set<FileAttribute> attrs, ListHandler handler)
+        throws CacheException;
+
     /**
      * Set up a temporary upload location for a file.
      *
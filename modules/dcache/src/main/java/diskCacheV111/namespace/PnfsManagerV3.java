@@ -10,9 +10,14 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.security.auth.Subject;
 
@@ -33,8 +38,9 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.ChecksumFactory;
@@ -84,6 +90,7 @@ import org.dcache.acl.enums.AccessType;
 import org.dcache.auth.Subjects;
 import org.dcache.auth.attributes.Activity;
 import org.dcache.auth.attributes.Restriction;
+import org.dcache.auth.attributes.Restrictions;
 import org.dcache.cells.CellStub;
 import org.dcache.chimera.UnixPermission;
 import org.dcache.commons.stats.RequestCounters;
@@ -101,12 +108,15 @@ import org.dcache.util.PrefixMap;
 import org.dcache.vehicles.FileAttributes;
 import org.dcache.vehicles.PnfsCreateSymLinkMessage;
 import org.dcache.vehicles.PnfsGetFileAttributes;
+import org.dcache.vehicles.PnfsGetFileAttributesBatch;
 import org.dcache.vehicles.PnfsListDirectoryMessage;
+import org.dcache.vehicles.PnfsResumeListDirectoryMessage;
 import org.dcache.vehicles.PnfsRemoveChecksumMessage;
 import org.dcache.vehicles.PnfsSetFileAttributes;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.stream.Collectors.toList;
 import static org.dcache.acl.enums.AccessType.*;
 import static org.dcache.auth.Subjects.ROOT;
 import static org.dcache.auth.attributes.Activity.*;
@@ -148,7 +158,22 @@ public class PnfsManagerV3
         PnfsCreateEntryMessage.class,
         PnfsCreateUploadPath.class,
         PnfsGetFileAttributes.class,
-        PnfsListDirectoryMessage.class
+        PnfsListDirectoryMessage.class,
+        PnfsResumeListDirectoryMessage.class
+    };
+
+    /**
+     * These messages may be committed in the same transaction as other
+     * messages of the same queue when group commit is enabled. They are
+     * updates sent by pools at a high rate and are independent of each
+     * other.
+     */
+    private final Class<?>[] GROUP_COMMIT = {
+        PnfsAddCacheLocationMessage.class,
+        PnfsClearCacheLocationMessage.class,
+        PnfsSetChecksumMessage.class,
+        PnfsSetFileAttributes.class,
+        PoolFileFlushedMessage.class
     };
 
     private int _threads;
@@ -163,17 +188,43 @@ public class PnfsManagerV3
      */
     private boolean _canFold;
 
+    /**
+     * Maximum number of messages committed in a single transaction. A
+     * value of one disables group commit.
+     */
+    private int _groupCommitSize = 1;
+
+    /**
+     * Transaction of a group of messages and the nested transactions
+     * (savepoints) of the messages within a group.
+     */
+    private PlatformTransactionManager _transactionManager;
+    private TransactionTemplate _groupTransaction;
+    private TransactionTemplate _messageTransaction;
+
+    /**
+     * Group commit statistics. _groupCommitSizes counts commits by the
+     * number of messages committed.
+     */
+    private final LongAdder _groupCommits = new LongAdder();
+    private final LongAdder _groupCommitMessages = new LongAdder();
+    private final LongAdder _groupCommitRollbacks = new LongAdder();
+    private final LongAdder _groupCommitFailures = new LongAdder();
+    private final LongAdder _groupCommitRetries = new LongAdder();
+    private AtomicLongArray _groupCommitSizes;
+    private long _startTime;
+
     /**
      * Queues for list operations. There is one queue per thread
      * group.
      */
-    private BlockingQueue<CellMessage>[] _listQueues;
+    private PnfsMessageQueue[] _listQueues;
 
     /**
      * Tasks queues used for messages that do not operate on cache
      * locations.
      */
-    private BlockingQueue<CellMessage>[] _fifos;
+    private PnfsMessageQueue[] _fifos;
 
     /**
      * Executor for ProcessThread instances.
@@ -212,7 +263,9 @@ public class PnfsManagerV3
         _gauges.addGauge(PnfsGetParentMessage.class);
         _gauges.addGauge(PnfsSetFileAttributes.class);
         _gauges.addGauge(PnfsGetFileAttributes.class);
+        _gauges.addGauge(PnfsGetFileAttributesBatch.class);
         _gauges.addGauge(PnfsListDirectoryMessage.class);
+        _gauges.addGauge(PnfsResumeListDirectoryMessage.class);
         _gauges.addGauge(PnfsRemoveChecksumMessage.class);
         _gauges.addGauge(PnfsCreateSymLinkMessage.class);
         _gauges.addGauge(PnfsCreateUploadPath.class);
@@ -288,6 +341,17 @@ public class PnfsManagerV3
         _canFold = folding;
     }
 
+    public void setGroupCommitSize(int size)
+    {
+        checkArgument(size > 0, "Group commit size must be positive");
+        _groupCommitSize = size;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager)
+    {
+        _transactionManager = transactionManager;
+    }
+
     @Required
     public void setDirectoryListLimit(int limit)
     {
@@ -318,15 +382,20 @@ public class PnfsManagerV3
     public void init()
     {
         _stub = new CellStub(getCellEndpoint());
+        _groupCommitSizes = new AtomicLongArray(_groupCommitSize + 1);
+        if (_transactionManager != null) {
+            _groupTransaction = new TransactionTemplate(_transactionManager);
+            _messageTransaction = new TransactionTemplate(_transactionManager);
+            _messageTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        } else if (_groupCommitSize > 1) {
+            throw new IllegalStateException("Group commit requires a transaction manager");
+        }
+        _startTime = System.currentTimeMillis();
 
-        _fifos = new BlockingQueue[_threads * _threadGroups];
+        _fifos = new PnfsMessageQueue[_threads * _threadGroups];
         _log.info("Starting {} threads", _fifos.length);
         for (int i = 0; i < _fifos.length; i++) {
-            if (_queueMaxSize > 0) {
-                _fifos[i] = new LinkedBlockingQueue<>(_queueMaxSize);
-            } else {
-                _fifos[i] = new LinkedBlockingQueue<>();
-            }
+            _fifos[i] = new PnfsMessageQueue((_queueMaxSize > 0) ? _queueMaxSize : Integer.MAX_VALUE, _canFold);
             executor.execute(new ProcessThread(_fifos[i]));
         }
 
@@ -335,9 +404,9 @@ public class PnfsManagerV3
          * list operations are read only and thus there is no need
          * to serialize the operations.
          */
-        _listQueues = new BlockingQueue[_threadGroups];
+        _listQueues = new PnfsMessageQueue[_threadGroups];
         for (int i = 0; i < _threadGroups; i++) {
-            _listQueues[i] = new LinkedBlockingQueue<>();
+            _listQueues[i] = new PnfsMessageQueue(Integer.MAX_VALUE, false);
             for (int j = 0; j < _listThreads; j++) {
                 executor.execute(new ProcessThread(_listQueues[i]));
             }
@@ -402,6 +471,26 @@ public class PnfsManagerV3
         pw.println( "Statistics:" ) ;
         pw.println(_gauges.toString());
         pw.println(_foldedCounters.toString());
+        if (_groupCommitSize > 1) {
+            long commits = _groupCommits.sum();
+            long messages = _groupCommitMessages.sum();
+            long uptime = Math.max(System.currentTimeMillis() - _startTime, 1);
+            pw.println("Group commit (up to " + _groupCommitSize + " messages)");
+            pw.println(String.format("    Commits             : %d (%.2f/s)",
+                                     commits, commits * 1000.0 / uptime));
+            pw.println(String.format("    Messages            : %d (%.2f per commit)",
+                                     messages, (commits == 0) ? 0.0 : (double) messages / commits));
+            pw.println("    Rolled back messages: " + _groupCommitRollbacks.sum());
+            pw.println("    Failed commits      : " + _groupCommitFailures.sum());
+            pw.println("    Retried messages    : " + _groupCommitRetries.sum());
+            pw.println("    Commits by size");
+            for (int i = 2; i < _groupCommitSizes.length(); i++) {
+                long count = _groupCommitSizes.get(i);
+                if (count > 0) {
+                    pw.println(String.format("        %4d : %d", i, count));
+                }
+            }
+        }
     }
 
     @Command(name = "pnfsidof",
@@ -1622,6 +1711,7 @@ public class PnfsManagerV3
                                     msg, initialDelay, delay);
             _nameSpaceProvider.list(msg.getSubject(), path,
                                     msg.getPattern(),
+                                    msg.getAfter(),
                                     msg.getRange(),
                                     msg.getRequestedAttributes(),
                                     handler);
@@ -1640,9 +1730,9 @@ public class PnfsManagerV3
 
     private class ProcessThread implements Runnable
     {
-        private final BlockingQueue<CellMessage> _fifo ;
+        private final PnfsMessageQueue _fifo;
 
-        private ProcessThread(BlockingQueue<CellMessage> fifo)
+        private ProcessThread(PnfsMessageQueue fifo)
         {
             _fifo = fifo;
         }
@@ -1653,21 +1743,32 @@ public class PnfsManagerV3
             try {
                 for (CellMessage message = _fifo.take(); message != SHUTDOWN_SENTINEL; message = _fifo.take()) {
                     CDC.setMessageContext(message);
+                    List<CellMessage> messages = Collections.singletonList(message);
+                    boolean processed = false;
                     try {
-                        /* Discard messages if we are close to their
-                         * timeout (within 10% of the TTL or 10 seconds,
-                         * whatever is smaller)
-                         */
-                        PnfsMessage pnfs = (PnfsMessage) message.getMessageObject();
-                        if (message.getLocalAge() > message.getAdjustedTtl() && useEarlyDiscard(pnfs)) {
-                            _log.warn("Discarding {} because its time to live has been exceeded.",
-                                      pnfs.getClass().getSimpleName());
-                            sendTimeout(message, "TTL exceeded");
-                            continue;
+                        try {
+                            if (discardIfExpired(message)) {
+                                continue;
+                            }
+
+                            PnfsMessage pnfs = (PnfsMessage) message.getMessageObject();
+                            if (_groupCommitSize > 1 && useGroupCommit(message)) {
+                                messages = drainGroup(message);
+                            }
+                            if (messages.size() > 1) {
+                                processPnfsMessages(messages);
+                            } else {
+                                processPnfsMessage(message, pnfs);
+                            }
+                            processed = true;
+                        } finally {
+                            /* Messages attached to unprocessed messages are
+                             * requeued, thus this must happen in any case.
+                             */
+                            for (CellMessage envelope : messages) {
+                                fold(envelope, processed);
+                            }
                         }
-
-                        processPnfsMessage(message, pnfs);
-                        fold(pnfs);
                     } catch (Throwable e) {
                         _log.warn("processPnfsMessage: {} : {}", Thread.currentThread().getName(), e);
                     } finally {
@@ -1679,30 +1780,62 @@ public class PnfsManagerV3
             }
         }
 
-        protected void fold(PnfsMessage message)
+        /**
+         * Discards messages if we are close to their timeout (within 10% of
+         * the TTL or 10 seconds, whatever is smaller).
+         *
+         * @return true if the message was discarded
+         */
+        private boolean discardIfExpired(CellMessage message)
         {
-            if (_canFold && message.getReturnCode() == 0) {
-                Iterator<CellMessage> i = _fifo.iterator();
-                while (i.hasNext()) {
-                    CellMessage envelope = i.next();
-                    PnfsMessage other =
-                        (PnfsMessage) envelope.getMessageObject();
-
-                    if (other.invalidates(message)) {
-                        break;
-                    }
-
-                    if (other.fold(message)) {
-                        _log.info("Folded {}", other.getClass().getSimpleName());
-                        _foldedCounters.incrementRequests(message.getClass());
-
-                        i.remove();
-                        envelope.revertDirection();
+            PnfsMessage pnfs = (PnfsMessage) message.getMessageObject();
+            if (message.getLocalAge() > message.getAdjustedTtl() && useEarlyDiscard(pnfs)) {
+                _log.warn("Discarding {} because its time to live has been exceeded.",
+                          pnfs.getClass().getSimpleName());
+                sendTimeout(message, "TTL exceeded");
+                return true;
+            }
+            return false;
+        }
 
-                        sendMessage(envelope);
+        /**
+         * Returns {@code message} followed by as many of the messages at
+         * the head of the queue as may be committed together with it. Only
+         * messages already queued are taken. Expired messages are discarded
+         * as if they had been taken individually.
+         */
+        private List<CellMessage> drainGroup(CellMessage message)
+        {
+            List<CellMessage> group = new ArrayList<>(_groupCommitSize);
+            group.add(message);
+            while (group.size() < _groupCommitSize) {
+                CellMessage next = _fifo.peek();
+                if (next == null || !useGroupCommit(next)) {
+                    break;
+                }
+                _fifo.remove();
+                try (CDC ignored = messageContext(next)) {
+                    if (discardIfExpired(next)) {
+                        fold(next, false);
+                    } else {
+                        group.add(next);
                     }
                 }
             }
+            return group;
+        }
+
+        protected void fold(CellMessage envelope, boolean processed)
+        {
+            PnfsMessage message = (PnfsMessage) envelope.getMessageObject();
+            boolean canFold = processed && _canFold && message.getReturnCode() == 0;
+            for (CellMessage folded : _fifo.complete(envelope, canFold)) {
+                _log.info("Folded {}", folded.getMessageObject().getClass().getSimpleName());
+                _foldedCounters.incrementRequests(message.getClass());
+
+                folded.revertDirection();
+                sendMessage(folded);
+            }
         }
     }
 
@@ -1766,12 +1899,73 @@ public class PnfsManagerV3
             }
         }
 
+        completeMessage(message, pnfsMessage, System.currentTimeMillis() - ctime);
+    }
+
+    /**
+     * Processes a group of messages in a single transaction. Each message
+     * is processed within a savepoint, such that a failing message is
+     * rolled back without affecting the other messages of the group.
+     * Replies are only sent once the transaction has been committed.
+     */
+    @VisibleForTesting
+    void processPnfsMessages(List<CellMessage> messages)
+    {
+        long ctime = System.currentTimeMillis();
+        List<CellMessage> retry = Collections.emptyList();
+        try {
+            retry = _groupTransaction.execute(status -> processMessagesTransactionally(status, messages));
+            if (retry.isEmpty()) {
+                _groupCommits.increment();
+                _groupCommitMessages.add(messages.size());
+                _groupCommitSizes.incrementAndGet(Math.min(messages.size(), _groupCommitSizes.length() - 1));
+            } else {
+                _groupCommitFailures.increment();
+                _groupCommitRetries.add(retry.size());
+            }
+        } catch (TransactionException e) {
+            _log.error("Name space transaction failed: {}", e.getMessage());
+            _groupCommitFailures.increment();
+            for (CellMessage message : messages) {
+                PnfsMessage pnfsMessage = (PnfsMessage) message.getMessageObject();
+                if (pnfsMessage.getReturnCode() == 0) {
+                    pnfsMessage.setFailed(CacheException.UNEXPECTED_SYSTEM_EXCEPTION, "Name space transaction failed.");
+                }
+            }
+        }
+
+        long duration = System.currentTimeMillis() - ctime;
+        for (CellMessage message : messages) {
+            try (CDC ignored = messageContext(message)) {
+                PnfsMessage pnfsMessage = (PnfsMessage) message.getMessageObject();
+                if (retry.contains(message)) {
+                    processPnfsMessage(message, pnfsMessage);
+                } else {
+                    completeMessage(message, pnfsMessage, duration);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the message related diagnostic context of the calling thread
+     * with that of {@code envelope}. The previous context is restored when
+     * the returned CDC is closed.
+     */
+    private static CDC messageContext(CellMessage envelope)
+    {
+        CDC cdc = CDC.reset(MDC.get(CDC.MDC_CELL), MDC.get(CDC.MDC_DOMAIN));
+        CDC.setMessageContext(envelope);
+        return cdc;
+    }
+
+    private void completeMessage(CellMessage message, PnfsMessage pnfsMessage, long duration)
+    {
         if (pnfsMessage.getReturnCode() == CacheException.INVALID_ARGS) {
             _log.error("Inconsistent message {} received form {}",
                        pnfsMessage.getClass(), message.getSourcePath());
         }
 
-        long duration = System.currentTimeMillis() - ctime;
         _gauges.update(pnfsMessage.getClass(), duration);
         if (_logSlowThreshold != THRESHOLD_DISABLED && duration > _logSlowThreshold) {
             _log.warn("{} processed in {} ms", pnfsMessage.getClass(), duration);
@@ -1782,6 +1976,55 @@ public class PnfsManagerV3
         postProcessMessage(message, pnfsMessage);
     }
 
+    /**
+     * Processes each message in a nested transaction of the group
+     * transaction. A failing message is rolled back to the start of its
+     * nested transaction without affecting the other messages.
+     *
+     * A failure of a transaction participating in the nested transaction,
+     * e.g. one in JdbcFs, marks the whole group transaction rollback-only
+     * (Spring 4 does not clear the mark when rolling back the nested
+     * transaction). In that case the group transaction is rolled back and
+     * the messages that did not fail are returned, to be processed one
+     * at a time.
+     *
+     * @return messages to process individually
+     */
+    private List<CellMessage> processMessagesTransactionally(TransactionStatus status,
+                                                             List<CellMessage> messages)
+    {
+        for (CellMessage message : messages) {
+            PnfsMessage pnfsMessage = (PnfsMessage) message.getMessageObject();
+            try (CDC ignored = messageContext(message)) {
+                _messageTransaction.execute(nested -> {
+                    processMessageTransactionally(message, pnfsMessage);
+                    if (pnfsMessage.getReturnCode() != 0) {
+                        nested.setRollbackOnly();
+                    }
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                _log.error("Name space transaction failed: {}", e.toString());
+                if (pnfsMessage.getReturnCode() == 0) {
+                    pnfsMessage.setFailed(CacheException.UNEXPECTED_SYSTEM_EXCEPTION, "Name space transaction failed.");
+                }
+            }
+            if (pnfsMessage.getReturnCode() != 0) {
+                _groupCommitRollbacks.increment();
+            }
+            if (status.isRollbackOnly()) {
+                /* Marking the transaction rollback-only locally rolls it
+                 * back silently rather than failing the commit.
+                 */
+                status.setRollbackOnly();
+                return messages.stream()
+                        .filter(m -> ((PnfsMessage) m.getMessageObject()).getReturnCode() == 0)
+                        .collect(toList());
+            }
+        }
+        return Collections.emptyList();
+    }
+
     @Transactional
     private boolean processMessageTransactionally(CellMessage message, PnfsMessage pnfsMessage)
     {
@@ -1817,6 +2060,8 @@ public class PnfsManagerV3
             listDirectory(message, (PnfsListDirectoryMessage) pnfsMessage);
         } else if (pnfsMessage instanceof PnfsGetFileAttributes) {
             getFileAttributes((PnfsGetFileAttributes) pnfsMessage);
+        } else if (pnfsMessage instanceof PnfsGetFileAttributesBatch) {
+            getFileAttributes((PnfsGetFileAttributesBatch) pnfsMessage);
         } else if (pnfsMessage instanceof PnfsSetFileAttributes) {
             setFileAttributes((PnfsSetFileAttributes) pnfsMessage);
         } else if (pnfsMessage instanceof PnfsRemoveChecksumMessage) {
@@ -2075,6 +2320,21 @@ public class PnfsManagerV3
         return false;
     }
 
+    private boolean useGroupCommit(CellMessage envelope)
+    {
+        Object message = envelope.getMessageObject();
+        if (message == null) {
+            return false;
+        }
+        Class<?> msgClass = message.getClass();
+        for (Class<?> c: GROUP_COMMIT) {
+            if (c.equals(msgClass)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void sendTimeout(CellMessage envelope, String error)
     {
         Message msg = (Message) envelope.getMessageObject();
@@ -2146,6 +2406,71 @@ public class PnfsManagerV3
         }
     }
 
+    public void getFileAttributes(PnfsGetFileAttributesBatch message)
+    {
+        try {
+            Subject subject = message.getSubject();
+            Set<FileAttribute> requested = EnumSet.noneOf(FileAttribute.class);
+            requested.addAll(message.getRequestedAttributes());
+            if (requested.contains(FileAttribute.STORAGEINFO)) {
+                /* See getFileAttributes(PnfsGetFileAttributes).
+                 */
+                requested.add(FileAttribute.OWNER);
+                requested.add(FileAttribute.OWNER_GROUP);
+            }
+            boolean isMasked = !Subjects.isRoot(subject) && !message.getAccessMask().isEmpty();
+            if (isMasked) {
+                requested.addAll(_permissionHandler.getRequiredAttributes());
+            }
+            boolean isRestricted = !Subjects.isRoot(subject) &&
+                                   !message.getRestriction().equals(Restrictions.none());
+
+            Map<PnfsId, FileAttributes> result =
+                    _nameSpaceProvider.getFileAttributes(subject, message.getPnfsIds(), requested);
+
+            if (isMasked) {
+                result.values().removeIf(attrs -> !checkMask(subject, message.getAccessMask(), attrs));
+            }
+            if (isRestricted) {
+                /* Restrictions are path based, thus paths are only
+                 * resolved for restricted subjects.
+                 */
+                Map<PnfsId, String> paths = _nameSpaceProvider.pnfsidsToPaths(ROOT, result.keySet());
+                Iterator<PnfsId> i = result.keySet().iterator();
+                while (i.hasNext()) {
+                    String path = paths.get(i.next());
+                    if (path == null) {
+                        i.remove();
+                        continue;
+                    }
+                    try {
+                        checkRestriction(message.getRestriction(), message.getAccessMask(), READ_METADATA,
+                                         FsPath.create(path));
+                    } catch (PermissionDeniedCacheException e) {
+                        i.remove();
+                    }
+                }
+            }
+
+            for (FileAttributes attrs : result.values()) {
+                if (attrs.isDefined(FileAttribute.STORAGEINFO)) {
+                    StorageInfo storageInfo = attrs.getStorageInfo();
+                    storageInfo.setKey("uid", Integer.toString(attrs.getOwner()));
+                    storageInfo.setKey("gid", Integer.toString(attrs.getGroup()));
+                }
+            }
+
+            message.setFileAttributes(result);
+            message.setSucceeded();
+        } catch (CacheException e) {
+            _log.warn("Error while retrieving file attributes: " + e.getMessage());
+            message.setFailed(e.getRc(), e);
+        } catch (RuntimeException e) {
+            _log.error("Error while retrieving file attributes: " + e.getMessage(), e);
+            message.setFailed(CacheException.UNEXPECTED_SYSTEM_EXCEPTION, e);
+        }
+    }
+
     public void setFileAttributes(PnfsSetFileAttributes message)
     {
         try {
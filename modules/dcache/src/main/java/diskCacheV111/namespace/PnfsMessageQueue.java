@@ -0,0 +1,633 @@
+package diskCacheV111.namespace;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.Message;
+import diskCacheV111.vehicles.PnfsMessage;
+
+import dmg.cells.nucleus.CellMessage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Request queue of a PnfsManager processing thread.
+ *
+ * The queue is a FIFO that optionally supports message folding (see
+ * {@link Message#fold}) without scanning the queue. Messages that may be
+ * folded are indexed by their class and their PNFS ID or path, and
+ * messages that may invalidate other messages (see {@link Message#invalidates})
+ * are indexed by PNFS ID and path. Looking up the messages to fold and the
+ * messages that prevent folding thus takes time proportional to the number
+ * of messages on the same file rather than to the length of the queue.
+ *
+ * A foldable message arriving while a message of the same class on the same
+ * file is queued or being processed is attached to that message rather than
+ * queued, provided no message queued in between invalidates it. Once the
+ * message it is attached to has been processed, it is folded. If that
+ * fails, it is put back at the head of the queue.
+ *
+ * Messages taken from a queue with folding enabled must be passed to
+ * {@link #complete} once processed.
+ *
+ * The index relies on two properties of the message classes: a message
+ * only folds messages of its own class, and a message invalidates other
+ * messages only if it invalidates itself, and then only messages it shares
+ * the PNFS ID or path with or cannot be compared to.
+ */
+class PnfsMessageQueue extends AbstractQueue<CellMessage> implements BlockingQueue<CellMessage>
+{
+    /**
+     * Whether a message class overrides {@link Message#fold}.
+     */
+    private static final ClassValue<Boolean> CAN_FOLD = new ClassValue<Boolean>()
+    {
+        @Override
+        protected Boolean computeValue(Class<?> type)
+        {
+            try {
+                return type.getMethod("fold", Message.class).getDeclaringClass() != Message.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    private final int _capacity;
+    private final boolean _folding;
+
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _notEmpty = _lock.newCondition();
+    private final Condition _notFull = _lock.newCondition();
+
+    private Entry _head;
+    private Entry _tail;
+    private int _size;
+
+    /**
+     * Sequence numbers of entries added at the head and tail of the queue.
+     * Sequence numbers increase from head to tail.
+     */
+    private long _headSeq;
+    private long _tailSeq;
+
+    /**
+     * Foldable messages, queued or being processed, by class and PNFS ID
+     * or path.
+     */
+    private final Map<Key, Set<Entry>> _foldable = new HashMap<>();
+
+    /**
+     * Queued messages that may invalidate other messages, in total and by
+     * PNFS ID, path and the lack thereof.
+     */
+    private final Set<Entry> _invalidating = new LinkedHashSet<>();
+    private final Map<Object, Set<Entry>> _invalidatingByKey = new HashMap<>();
+    private final Set<Entry> _invalidatingWithoutId = new LinkedHashSet<>();
+    private final Set<Entry> _invalidatingWithoutPath = new LinkedHashSet<>();
+
+    /**
+     * Foldable messages taken from the queue and not yet completed.
+     */
+    private final Map<CellMessage, Entry> _inFlight = new IdentityHashMap<>();
+
+    PnfsMessageQueue(int capacity, boolean folding)
+    {
+        checkArgument(capacity > 0, "Capacity must be positive");
+        _capacity = capacity;
+        _folding = folding;
+    }
+
+    private static class Key
+    {
+        final Class<?> type;
+        final Object file;
+
+        Key(Class<?> type, Object file)
+        {
+            this.type = type;
+            this.file = file;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type.equals(other.type) && file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(type, file);
+        }
+    }
+
+    private class Entry
+    {
+        final CellMessage envelope;
+        final PnfsMessage message;
+        final PnfsId pnfsId;
+        final String path;
+        final Key key;
+        final boolean invalidating;
+        long seq;
+        Entry prev;
+        Entry next;
+        boolean queued;
+        List<CellMessage> attached = Collections.emptyList();
+
+        Entry(CellMessage envelope)
+        {
+            this.envelope = envelope;
+            Object object = envelope.getMessageObject();
+            message = (_folding && object instanceof PnfsMessage) ? (PnfsMessage) object : null;
+            pnfsId = (message == null) ? null : message.getPnfsId();
+            path = (message == null) ? null : message.getPnfsPath();
+            invalidating = message != null && message.invalidates(message);
+            key = (message != null && !invalidating && CAN_FOLD.get(message.getClass()) && (pnfsId != null || path != null))
+                    ? new Key(message.getClass(), (pnfsId != null) ? pnfsId : path)
+                    : null;
+        }
+
+        void attach(CellMessage envelope)
+        {
+            if (attached.isEmpty()) {
+                attached = new ArrayList<>();
+            }
+            attached.add(envelope);
+        }
+    }
+
+    @Override
+    public boolean offer(CellMessage envelope)
+    {
+        checkNotNull(envelope);
+        _lock.lock();
+        try {
+            Entry entry = new Entry(envelope);
+            if (attach(entry)) {
+                return true;
+            }
+            if (_size >= _capacity) {
+                return false;
+            }
+            addLast(entry);
+            return true;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(CellMessage envelope, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        checkNotNull(envelope);
+        long nanos = unit.toNanos(timeout);
+        _lock.lockInterruptibly();
+        try {
+            Entry entry = new Entry(envelope);
+            if (attach(entry)) {
+                return true;
+            }
+            while (_size >= _capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = _notFull.awaitNanos(nanos);
+            }
+            addLast(entry);
+            return true;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(CellMessage envelope) throws InterruptedException
+    {
+        checkNotNull(envelope);
+        _lock.lockInterruptibly();
+        try {
+            Entry entry = new Entry(envelope);
+            if (attach(entry)) {
+                return;
+            }
+            while (_size >= _capacity) {
+                _notFull.await();
+            }
+            addLast(entry);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public CellMessage poll()
+    {
+        _lock.lock();
+        try {
+            return (_head == null) ? null : takeFirst();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public CellMessage poll(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        _lock.lockInterruptibly();
+        try {
+            while (_head == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = _notEmpty.awaitNanos(nanos);
+            }
+            return takeFirst();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public CellMessage take() throws InterruptedException
+    {
+        _lock.lockInterruptibly();
+        try {
+            while (_head == null) {
+                _notEmpty.await();
+            }
+            return takeFirst();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public CellMessage peek()
+    {
+        _lock.lock();
+        try {
+            return (_head == null) ? null : _head.envelope;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        _lock.lock();
+        try {
+            for (Entry entry = _head; entry != null; entry = entry.next) {
+                if (entry.envelope.equals(o)) {
+                    unlink(entry);
+                    removeFoldable(entry);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        _lock.lock();
+        try {
+            return _size;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity()
+    {
+        _lock.lock();
+        try {
+            return Math.max(_capacity - _size, 0);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all queued messages, including the messages attached to them,
+     * and adds them to the given collection.
+     */
+    @Override
+    public int drainTo(Collection<? super CellMessage> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super CellMessage> c, int maxElements)
+    {
+        checkArgument(c != this);
+        _lock.lock();
+        try {
+            int count = 0;
+            while (_head != null && count < maxElements) {
+                Entry entry = _head;
+                unlink(entry);
+                removeFoldable(entry);
+                c.add(entry.envelope);
+                c.addAll(entry.attached);
+                count++;
+            }
+            return count;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queued messages.
+     */
+    @Override
+    public Iterator<CellMessage> iterator()
+    {
+        _lock.lock();
+        try {
+            List<CellMessage> messages = new ArrayList<>(_size);
+            for (Entry entry = _head; entry != null; entry = entry.next) {
+                messages.add(entry.envelope);
+            }
+            return Collections.unmodifiableList(messages).iterator();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Completes the processing of a message taken from this queue.
+     *
+     * If {@code fold} is true, queued messages that can be folded into the
+     * processed message, as well as messages attached to it, are folded,
+     * removed from the queue and returned. Otherwise attached messages are
+     * put back at the head of the queue.
+     *
+     * @param envelope a message taken from this queue
+     * @param fold whether other messages may be folded into the message
+     * @return folded messages ready to be sent back to their requestors
+     */
+    List<CellMessage> complete(CellMessage envelope, boolean fold)
+    {
+        _lock.lock();
+        try {
+            Entry entry = _inFlight.remove(envelope);
+            if (entry == null && !fold) {
+                return Collections.emptyList();
+            }
+
+            List<CellMessage> folded = new ArrayList<>();
+            List<CellMessage> unfolded = new ArrayList<>();
+            PnfsMessage message = (PnfsMessage) envelope.getMessageObject();
+            if (entry != null) {
+                removeFoldable(entry);
+                fold(entry.attached, fold ? message : null, folded, unfolded);
+            }
+
+            if (fold && _folding) {
+                long barrier = firstInvalidating(message, Long.MIN_VALUE);
+                for (Entry other : getFoldable(message)) {
+                    if (other.queued && other.seq < barrier && other.message.fold(message)) {
+                        unlink(other);
+                        removeFoldable(other);
+                        folded.add(other.envelope);
+                        fold(other.attached, message, folded, unfolded);
+                    }
+                }
+            }
+
+            for (int i = unfolded.size() - 1; i >= 0; i--) {
+                addFirst(new Entry(unfolded.get(i)));
+            }
+            return folded;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private static void fold(List<CellMessage> envelopes, PnfsMessage message,
+                             List<CellMessage> folded, List<CellMessage> unfolded)
+    {
+        for (CellMessage envelope : envelopes) {
+            if (message != null && ((Message) envelope.getMessageObject()).fold(message)) {
+                folded.add(envelope);
+            } else {
+                unfolded.add(envelope);
+            }
+        }
+    }
+
+    /**
+     * Attaches the message of {@code entry} to the latest queued or
+     * in-flight message of the same class on the same file, unless a
+     * message queued after that message invalidates it.
+     */
+    private boolean attach(Entry entry)
+    {
+        if (entry.key == null) {
+            return false;
+        }
+        Set<Entry> candidates = _foldable.get(entry.key);
+        if (candidates == null) {
+            return false;
+        }
+        Entry target = null;
+        for (Entry candidate : candidates) {
+            target = candidate;
+        }
+        if (target == null || firstInvalidating(entry.message, target.seq) != Long.MAX_VALUE) {
+            return false;
+        }
+        target.attach(entry.envelope);
+        return true;
+    }
+
+    /**
+     * Returns the foldable entries that may fold {@code message}.
+     */
+    private List<Entry> getFoldable(PnfsMessage message)
+    {
+        List<Entry> entries = new ArrayList<>();
+        PnfsId pnfsId = message.getPnfsId();
+        String path = message.getPnfsPath();
+        if (pnfsId != null) {
+            entries.addAll(_foldable.getOrDefault(new Key(message.getClass(), pnfsId), Collections.emptySet()));
+        }
+        if (path != null) {
+            entries.addAll(_foldable.getOrDefault(new Key(message.getClass(), path), Collections.emptySet()));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the sequence number of the first queued message after
+     * {@code after} that invalidates {@code message}, or Long.MAX_VALUE if
+     * there is no such message.
+     */
+    private long firstInvalidating(PnfsMessage message, long after)
+    {
+        PnfsId pnfsId = message.getPnfsId();
+        String path = message.getPnfsPath();
+        long first = Long.MAX_VALUE;
+        if (pnfsId == null && path == null) {
+            first = firstInvalidating(_invalidating, message, after, first);
+        } else {
+            if (pnfsId != null) {
+                first = firstInvalidating(_invalidatingByKey.get(pnfsId), message, after, first);
+            }
+            if (path != null) {
+                first = firstInvalidating(_invalidatingByKey.get(path), message, after, first);
+            }
+            first = firstInvalidating((pnfsId == null) ? _invalidatingWithoutPath : _invalidatingWithoutId,
+                                      message, after, first);
+        }
+        return first;
+    }
+
+    private static long firstInvalidating(Set<Entry> entries, PnfsMessage message, long after, long first)
+    {
+        if (entries != null) {
+            for (Entry entry : entries) {
+                if (entry.seq > after && entry.seq < first && entry.message.invalidates(message)) {
+                    first = entry.seq;
+                }
+            }
+        }
+        return first;
+    }
+
+    private CellMessage takeFirst()
+    {
+        Entry entry = _head;
+        unlink(entry);
+        if (entry.key != null) {
+            _inFlight.put(entry.envelope, entry);
+        }
+        return entry.envelope;
+    }
+
+    private void addLast(Entry entry)
+    {
+        entry.seq = _tailSeq++;
+        entry.prev = _tail;
+        if (_tail == null) {
+            _head = entry;
+        } else {
+            _tail.next = entry;
+        }
+        _tail = entry;
+        link(entry);
+    }
+
+    private void addFirst(Entry entry)
+    {
+        entry.seq = --_headSeq;
+        entry.next = _head;
+        if (_head == null) {
+            _tail = entry;
+        } else {
+            _head.prev = entry;
+        }
+        _head = entry;
+        link(entry);
+    }
+
+    private void link(Entry entry)
+    {
+        entry.queued = true;
+        _size++;
+        if (entry.key != null) {
+            _foldable.computeIfAbsent(entry.key, k -> new LinkedHashSet<>()).add(entry);
+        }
+        if (entry.invalidating) {
+            _invalidating.add(entry);
+            if (entry.pnfsId != null) {
+                _invalidatingByKey.computeIfAbsent(entry.pnfsId, k -> new LinkedHashSet<>()).add(entry);
+            } else {
+                _invalidatingWithoutId.add(entry);
+            }
+            if (entry.path != null) {
+                _invalidatingByKey.computeIfAbsent(entry.path, k -> new LinkedHashSet<>()).add(entry);
+            } else {
+                _invalidatingWithoutPath.add(entry);
+            }
+        }
+        _notEmpty.signal();
+    }
+
+    private void unlink(Entry entry)
+    {
+        if (entry.prev == null) {
+            _head = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next == null) {
+            _tail = entry.prev;
+        } else {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.queued = false;
+        _size--;
+        if (entry.invalidating) {
+            _invalidating.remove(entry);
+            if (entry.pnfsId != null) {
+                removeFromIndex(_invalidatingByKey, entry.pnfsId, entry);
+            } else {
+                _invalidatingWithoutId.remove(entry);
+            }
+            if (entry.path != null) {
+                removeFromIndex(_invalidatingByKey, entry.path, entry);
+            } else {
+                _invalidatingWithoutPath.remove(entry);
+            }
+        }
+        _notFull.signal();
+    }
+
+    private void removeFoldable(Entry entry)
+    {
+        if (entry.key != null) {
+            removeFromIndex(_foldable, entry.key, entry);
+        }
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<Entry>> index, K key, Entry entry)
+    {
+        Set<Entry> entries = index.get(key);
+        if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
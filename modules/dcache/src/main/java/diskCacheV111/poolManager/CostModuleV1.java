@@ -6,8 +6,6 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -15,6 +13,9 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import diskCacheV111.pools.PoolCostInfo;
@@ -33,6 +34,13 @@ import dmg.util.command.Command;
 import org.dcache.poolmanager.PoolInfo;
 import org.dcache.util.Args;
 
+/**
+ * Cost module keeping the most recent cost information reported by each pool.
+ *
+ * Pool entries are immutable and replaced on every heartbeat, hence the cost
+ * module does not lock and pool selection never waits for heartbeats to be
+ * processed.
+ */
 public class CostModuleV1
     implements Serializable,
                CostModule,
@@ -43,35 +51,54 @@ public class CostModuleV1
     private static final Logger LOGGER =
         LoggerFactory.getLogger(CostModuleV1.class);
 
-    private static final long serialVersionUID = -267023006449629909L;
+    private static final long serialVersionUID = 2315428417231934281L;
 
-    private final Map<String, Entry> _hash = new HashMap<>() ;
-    private boolean _cachedPercentileCostCutIsValid;
-    private double _cachedPercentileCostCut;
-    private double _cachedPercentileFraction;
+    private final ConcurrentMap<String, Entry> _hash = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented whenever an update may invalidate the cached percentile cost cut.
+     */
+    private final AtomicLong _generation = new AtomicLong();
+
+    private transient volatile PercentileCostCut _cachedPercentileCostCut;
 
     /**
      * Information about some specific pool.
      */
    private static class Entry implements Serializable
    {
-       private static final long serialVersionUID = -6380756950554320179L;
+       private static final long serialVersionUID = 6318117626359387332L;
 
        private final long timestamp;
        private final PoolCostInfo _info;
-       private double _fakeCpu = -1.0;
+       private final double _fakeCpu;
        private final ImmutableMap<String,String> _tagMap;
-       private final CellAddressCore _address;
+       private final PoolInfo _poolInfo;
+
+       /* Last heartbeat of the pool, to which the next delta heartbeat is applied. */
+       private final transient PoolManagerPoolUpMessage _heartbeat;
 
-       public Entry(CellAddressCore address, PoolCostInfo info, Map<String,String> tagMap)
+       public Entry(CellAddressCore address, PoolManagerPoolUpMessage heartbeat)
        {
            timestamp = System.currentTimeMillis();
-           _address = address;
-           _info = info;
+           _info = heartbeat.getPoolCostInfo();
+           _fakeCpu = -1.0;
            _tagMap =
-               (tagMap == null)
+               (heartbeat.getTagMap() == null)
                ? ImmutableMap.of()
-               : ImmutableMap.copyOf(tagMap);
+               : ImmutableMap.copyOf(heartbeat.getTagMap());
+           _poolInfo = new PoolInfo(address, _info, _tagMap);
+           _heartbeat = heartbeat;
+       }
+
+       private Entry(Entry entry, double fakeCpu)
+       {
+           timestamp = entry.timestamp;
+           _info = entry._info;
+           _fakeCpu = fakeCpu;
+           _tagMap = entry._tagMap;
+           _poolInfo = entry._poolInfo;
+           _heartbeat = entry._heartbeat;
        }
 
        public boolean isValid()
@@ -91,57 +118,99 @@ public class CostModuleV1
 
        public PoolInfo getPoolInfo()
        {
-           return new PoolInfo(_address, _info, _tagMap);
+           return _poolInfo;
+       }
+
+       public PoolManagerPoolUpMessage getHeartbeat()
+       {
+           return _heartbeat;
+       }
+
+       public Entry withFakeCpu(double fakeCpu)
+       {
+           return new Entry(this, fakeCpu);
        }
    }
 
-    public synchronized void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage msg)
+    /**
+     * Percentile performance cost computed for a particular generation of
+     * pool costs.
+     */
+    private static class PercentileCostCut
+    {
+        private final double _fraction;
+        private final double _cost;
+        private final long _generation;
+
+        private PercentileCostCut(double fraction, double cost, long generation)
+        {
+            _fraction = fraction;
+            _cost = cost;
+            _generation = generation;
+        }
+    }
+
+    public void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage msg)
     {
         CellAddressCore poolAddress = envelope.getSourceAddress();
         String poolName = msg.getPoolName();
         PoolV2Mode poolMode = msg.getPoolMode();
-        PoolCostInfo newInfo = msg.getPoolCostInfo();
-        Entry poolEntry = _hash.get(poolName);
-        boolean isNewPool = poolEntry == null;
 
         /* Whether the pool mentioned in the message should be removed */
         boolean shouldRemovePool = poolMode.getMode() == PoolV2Mode.DISABLED ||
                 poolMode.isDisabled(PoolV2Mode.DISABLED_STRICT) ||
                 poolMode.isDisabled(PoolV2Mode.DISABLED_DEAD);
 
-        if( isNewPool || shouldRemovePool) {
-            _cachedPercentileCostCutIsValid = false;
-        } else {
-            PoolCostInfo currentInfo = poolEntry.getPoolCostInfo();
-            considerInvalidatingCache(currentInfo, newInfo);
+        /* Delta heartbeats carry neither tags nor full cost information;
+         * they are combined with the last heartbeat of the pool.
+         */
+        if (msg.isDelta() && !shouldRemovePool) {
+            Entry current = _hash.get(poolName);
+            PoolManagerPoolUpMessage previous = (current == null) ? null : current.getHeartbeat();
+            if (!msg.canApplyTo(previous)) {
+                LOGGER.debug("Ignoring delta heartbeat from {} without preceding full heartbeat.", poolName);
+                return;
+            }
+            msg = msg.applyTo(previous);
         }
+        PoolCostInfo newInfo = msg.getPoolCostInfo();
 
+        Entry poolEntry;
         if (shouldRemovePool) {
-            _hash.remove(poolName);
+            poolEntry = _hash.remove(poolName);
         } else if (newInfo != null) {
-            _hash.put(poolName, new Entry(poolAddress, newInfo, msg.getTagMap()));
+            poolEntry = _hash.put(poolName, new Entry(poolAddress, msg));
+        } else {
+            poolEntry = _hash.get(poolName);
         }
-    }
 
-    private void considerInvalidatingCache(PoolCostInfo currentInfo, PoolCostInfo newInfo)
-    {
-        if( !_cachedPercentileCostCutIsValid) {
-            return;
+        /* The cache is checked after the entry was updated, so that a percentile
+         * cost cut being computed concurrently is either based on the updated
+         * entry or is invalidated.
+         */
+        if (poolEntry == null || shouldRemovePool) {
+            invalidateCache();
+        } else if (newInfo != null) {
+            considerInvalidatingCache(poolEntry.getPoolCostInfo(), newInfo);
         }
+    }
 
-        double currentCost = getPerformanceCost(currentInfo);
-        double newCost = getPerformanceCost(newInfo);
-        considerInvalidatingCache(currentCost, newCost);
+    private void invalidateCache()
+    {
+        _generation.incrementAndGet();
     }
 
-    private void considerInvalidatingCache(double currentCost, PoolCostInfo newInfo)
+    private void considerInvalidatingCache(PoolCostInfo currentInfo, PoolCostInfo newInfo)
     {
-        if( !_cachedPercentileCostCutIsValid) {
+        PercentileCostCut cut = _cachedPercentileCostCut;
+        if (cut == null || cut._generation != _generation.get()) {
+            invalidateCache();
             return;
         }
 
+        double currentCost = getPerformanceCost(currentInfo);
         double newCost = getPerformanceCost(newInfo);
-        considerInvalidatingCache(currentCost, newCost);
+        considerInvalidatingCache(cut._cost, currentCost, newCost);
     }
 
     /* Check whether we should invalidate the cached.  We must do this when
@@ -153,11 +222,11 @@ public class CostModuleV1
      *       o  a pool with cost equal to the cached value assumes a cost less
      *                  than or greater than the cached value.
      */
-    private void considerInvalidatingCache(double currentCost, double newCost)
+    private void considerInvalidatingCache(double costCut, double currentCost, double newCost)
     {
-        if( Math.signum(currentCost-_cachedPercentileCostCut) !=
-            Math.signum(newCost-_cachedPercentileCostCut)) {
-            _cachedPercentileCostCutIsValid = false;
+        if( Math.signum(currentCost-costCut) !=
+            Math.signum(newCost-costCut)) {
+            invalidateCache();
         }
     }
 
@@ -167,41 +236,38 @@ public class CostModuleV1
     }
 
    @Override
-   public synchronized double getPoolsPercentilePerformanceCost(double fraction) {
+   public double getPoolsPercentilePerformanceCost(double fraction) {
 
        if( fraction <= 0 || fraction >= 1) {
            throw new IllegalArgumentException("supplied fraction (" + Double.toString( fraction) +") not between 0 and 1");
        }
 
-       if( !_cachedPercentileCostCutIsValid || _cachedPercentileFraction != fraction) {
-           _cachedPercentileCostCut = calculatePercentileCostCut(fraction);
-           _cachedPercentileFraction = fraction;
-           _cachedPercentileCostCutIsValid = true;
+       PercentileCostCut cut = _cachedPercentileCostCut;
+       long generation = _generation.get();
+       if (cut == null || cut._generation != generation || cut._fraction != fraction) {
+           cut = new PercentileCostCut(fraction, calculatePercentileCostCut(fraction), generation);
+           _cachedPercentileCostCut = cut;
        }
 
-       return _cachedPercentileCostCut;
+       return cut._cost;
    }
 
    private double calculatePercentileCostCut(double fraction)
    {
-       if( _hash.isEmpty()) {
+       double[] poolCosts = _hash.values().stream()
+               .mapToDouble(e -> getPerformanceCost(e.getPoolCostInfo()))
+               .toArray();
+
+       if (poolCosts.length == 0) {
            LOGGER.debug("no pools available");
            return 0;
        }
 
-       LOGGER.debug("{} pools available", _hash.size());
-
-       double[] poolCosts = new double[_hash.size()];
-
-       int idx=0;
-       for( Entry poolInfo : _hash.values()) {
-           poolCosts[idx] = getPerformanceCost(poolInfo.getPoolCostInfo());
-           idx++;
-       }
+       LOGGER.debug("{} pools available", poolCosts.length);
 
        Arrays.sort(poolCosts);
 
-       return poolCosts [ (int) Math.floor(fraction * _hash.size())];
+       return poolCosts [ (int) Math.floor(fraction * poolCosts.length)];
    }
 
     @Command(name = "cm set debug")
@@ -261,7 +327,7 @@ public class CostModuleV1
     }
 
    public static final String hh_cm_fake = "<poolName> [off] | [-cpu=<cpuCost>|off]" ;
-   public synchronized String ac_cm_fake_$_1_2( Args args ){
+   public String ac_cm_fake_$_1_2( Args args ){
       String poolName = args.argv(0) ;
       Entry e = _hash.get(poolName);
       if( e == null ) {
@@ -271,7 +337,7 @@ public class CostModuleV1
 
       if( args.argc() > 1 ){
         if( args.argv(1).equals("off") ){
-           e._fakeCpu   = -1.0 ;
+           _hash.computeIfPresent(poolName, (name, entry) -> entry.withFakeCpu(-1.0));
         }else{
            throw new
            IllegalArgumentException("Unknown argument : "+args.argv(1));
@@ -280,14 +346,18 @@ public class CostModuleV1
       }
       String val = args.getOpt("cpu") ;
       if( val != null ) {
-          e._fakeCpu = Double.parseDouble(val);
+          double fakeCpu = Double.parseDouble(val);
+          e = _hash.computeIfPresent(poolName, (name, entry) -> entry.withFakeCpu(fakeCpu));
+          if (e == null) {
+              throw new IllegalArgumentException("Pool not found : " + poolName);
+          }
       }
 
       return poolName+" -cpu="+e._fakeCpu ;
    }
 
    public static final String hh_xcm_ls = "";
-   public synchronized Object ac_xcm_ls_$_0(Args args)
+   public Object ac_xcm_ls_$_0(Args args)
    {
        CostModulePoolInfoTable reply = new CostModulePoolInfoTable();
        for (Entry e : _hash.values() ){
@@ -297,7 +367,7 @@ public class CostModuleV1
    }
 
    public static final String hh_cm_ls = " -t | -r <pattern> # list all pools";
-   public synchronized String ac_cm_ls_$_0_1(Args args)
+   public String ac_cm_ls_$_0_1(Args args)
    {
        StringBuilder sb = new StringBuilder();
        boolean useTime   = args.hasOption("t");
@@ -328,7 +398,7 @@ public class CostModuleV1
    }
 
     @Override
-    public synchronized Collection<PoolCostInfo> getPoolCostInfos()
+    public Collection<PoolCostInfo> getPoolCostInfos()
     {
         Collection<PoolCostInfo> costInfos = new ArrayList<>();
         for (Entry entry: _hash.values()) {
@@ -340,7 +410,7 @@ public class CostModuleV1
     }
 
     @Override @Nullable
-    public synchronized PoolCostInfo getPoolCostInfo(String poolName)
+    public PoolCostInfo getPoolCostInfo(String poolName)
     {
         Entry entry = _hash.get(poolName);
         if (entry != null && entry.isValid()) {
@@ -350,7 +420,7 @@ public class CostModuleV1
     }
 
     @Override @Nullable
-    public synchronized PoolInfo getPoolInfo(String pool)
+    public PoolInfo getPoolInfo(String pool)
     {
         Entry entry = _hash.get(pool);
         if (entry != null && entry.isValid()) {
@@ -360,8 +430,7 @@ public class CostModuleV1
     }
 
     @Override
-    public synchronized
-        Map<String,PoolInfo> getPoolInfoAsMap(Iterable<String> pools)
+    public Map<String,PoolInfo> getPoolInfoAsMap(Iterable<String> pools)
     {
         Map<String,PoolInfo> map = new HashMap<>();
         for (String pool: pools) {
@@ -372,9 +441,4 @@ public class CostModuleV1
         }
         return map;
     }
-
-    private synchronized void writeObject(ObjectOutputStream stream) throws IOException
-    {
-        stream.defaultWriteObject();
-    }
 }
\ No newline at end of file
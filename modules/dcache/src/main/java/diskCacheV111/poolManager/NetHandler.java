@@ -44,6 +44,25 @@ class NetHandler implements Serializable {
         }
     }
 
+    /**
+     * Returns an independent copy of this handler. The net units themselves
+     * are shared.
+     */
+    NetHandler copy() {
+        NetHandler copy = new NetHandler();
+        for (int i = 0; i < _netList.length; i++) {
+            if (_netList[i] != null) {
+                copy._netList[i] = new HashMap<>(_netList[i]);
+            }
+        }
+        for (int i = 0; i < _netListV6.length; i++) {
+            if (_netListV6[i] != null) {
+                copy._netListV6[i] = new HashMap<>(_netListV6[i]);
+            }
+        }
+        return copy;
+    }
+
     void clear() {
         for (Map<Long, NetUnit> netMap : _netList) {
             if (netMap != null) {
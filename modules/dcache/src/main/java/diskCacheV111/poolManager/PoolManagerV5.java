@@ -20,6 +20,8 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -86,6 +88,13 @@ public class PoolManagerV5
     private int  _readThreads;
 
     private final LongAdder _counterPoolUp = new LongAdder();
+
+    /**
+     * Last full heartbeat of each pool. Tracked separately from the selection
+     * unit, as the latter resets the serial id of disabled pools and does not
+     * know the sequence number of the full heartbeat.
+     */
+    private final ConcurrentMap<String, PoolManagerPoolUpMessage> _fullHeartbeats = new ConcurrentHashMap<>();
     private int _counterSelectWritePool;
     private int _counterSelectReadPool;
 
@@ -391,6 +400,15 @@ public class PoolManagerV5
                 }
             }
         }
+
+        /* Forget the full heartbeats of pools that were removed from the
+         * selection unit or stopped sending heartbeats. A pool that comes
+         * back sends a full heartbeat before any delta is accepted again.
+         */
+        _fullHeartbeats.keySet().removeIf(name -> {
+            PoolSelectionUnit.SelectionPool pool = _selectionUnit.getPool(name);
+            return pool == null || pool.getActive() > deathDetectedTimer;
+        });
     }
 
     @Override
@@ -441,6 +459,22 @@ public class PoolManagerV5
 
         _counterPoolUp.increment();
 
+        if (poolMessage.isDelta()) {
+            /* A delta heartbeat only applies to the full heartbeat it was
+             * computed against. The serial id recorded by the selection
+             * unit cannot be used for this check, as it is zero for disabled
+             * pools.
+             */
+            PoolManagerPoolUpMessage full = _fullHeartbeats.get(poolName);
+            if (!poolMessage.canApplyTo(full)) {
+                _log.debug("Ignoring delta heartbeat from {} without preceding full heartbeat.", poolName);
+                return;
+            }
+            poolHsmInstances = full.getHsmInstances();
+        } else {
+            _fullHeartbeats.put(poolName, poolMessage);
+        }
+
         boolean changed = _selectionUnit.updatePool(poolName, poolAddress, poolSerialId, poolMode, poolHsmInstances);
 
         /* Notify others in case the pool status has changed. Due to
@@ -0,0 +1,367 @@
+package diskCacheV111.poolManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
+import diskCacheV111.poolManager.PoolSelectionUnit.SelectionLink;
+
+/**
+ * Immutable view of the pool selection setup optimized for matching.
+ *
+ * The snapshot resolves the unit to unit group to link relation into a
+ * pre-computed list of links per unit, and the link to pool group to pool
+ * relation into a flat list of pools per link. A snapshot is compiled by
+ * PoolSelectionUnitV2 whenever the setup changes and may be used without
+ * locking.
+ *
+ * Pools are shared with the mutable setup, as their state changes
+ * independently of the setup.
+ *
+ * Each snapshot has a bounded cache of the links matched by a unit tuple.
+ * Matched links only depend on the setup, so a new snapshot, and with it an
+ * empty cache, is compiled whenever they may change. The state of the pools
+ * of the matched links, e.g. their mode or whether they are active, is not
+ * cached and is evaluated for every selection.
+ */
+final class PoolSelectionSnapshot {
+    private static final Logger _log = LoggerFactory.getLogger(PoolSelectionSnapshot.class);
+
+    private static final int MATCH_CACHE_SIZE = 1024;
+
+    /**
+     * Key of a cached match result. Units are compared by identity.
+     */
+    static final class MatchKey {
+        private final DirectionType _type;
+        private final List<Unit> _units;
+        private final String _linkGroup;
+
+        MatchKey(DirectionType type, List<Unit> units, String linkGroup) {
+            _type = type;
+            _units = units;
+            _linkGroup = linkGroup;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MatchKey)) {
+                return false;
+            }
+            MatchKey other = (MatchKey) o;
+            return _type == other._type && _units.equals(other._units)
+                   && Objects.equals(_linkGroup, other._linkGroup);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(_type, _units, _linkGroup);
+        }
+    }
+
+    /**
+     * Immutable copy of a link.
+     */
+    static final class CompiledLink {
+        private final Link _link;
+        private final int _index;
+        private final String _name;
+        private final int _readPref;
+        private final int _writePref;
+        private final int _cachePref;
+        private final int _p2pPref;
+        private final String _tag;
+        private final int _requiredUnits;
+        private final boolean _isInLinkGroup;
+        private final ImmutableList<Pool> _pools;
+
+        private CompiledLink(Link link, int index) {
+            _link = link;
+            _index = index;
+            _name = link.getName();
+            _readPref = link.getReadPref();
+            _writePref = link.getWritePref();
+            _cachePref = link.getCachePref();
+            _p2pPref = link.getP2pPref();
+            _tag = link.getTag();
+            _requiredUnits = link._uGroupList.size();
+            _isInLinkGroup = link.getLinkGroup() != null;
+
+            ImmutableList.Builder<Pool> pools = ImmutableList.builder();
+            for (PoolCore poolCore : link._poolList.values()) {
+                if (poolCore instanceof Pool) {
+                    pools.add((Pool) poolCore);
+                } else {
+                    pools.addAll(((PGroup) poolCore)._poolList.values());
+                }
+            }
+            _pools = pools.build();
+        }
+
+        String getName() {
+            return _name;
+        }
+
+        String getTag() {
+            return _tag;
+        }
+
+        ImmutableList<Pool> getPools() {
+            return _pools;
+        }
+
+        /**
+         * Returns the preference of this link for the given type of operation.
+         * For P2P the read preference is used unless a P2P preference is defined.
+         */
+        int getPref(DirectionType type) {
+            switch (type) {
+            case READ:
+                return _readPref;
+            case CACHE:
+                return _cachePref;
+            case WRITE:
+                return _writePref;
+            case P2P:
+                return (_p2pPref < 0) ? _readPref : _p2pPref;
+            }
+            throw new IllegalArgumentException("Wrong direction type: " + type);
+        }
+
+        @Override
+        public String toString() {
+            return _link.toString();
+        }
+    }
+
+    private final ImmutableMap<String, Unit> _units;
+    private final ImmutableList<Unit> _storeUnits;
+    private final NetHandler _netHandler;
+    private final ImmutableMap<String, ImmutableSet<String>> _linkGroups;
+    private final Map<Unit, ImmutableList<CompiledLink>> _linksByUnit;
+    private final int _linkCount;
+    private final boolean _useRegex;
+    private final boolean _allPoolsActive;
+    private final Cache<MatchKey, List<CompiledLink>> _matchCache =
+            CacheBuilder.newBuilder()
+                    .maximumSize(MATCH_CACHE_SIZE)
+                    .build();
+
+    /**
+     * Compiles a snapshot. The caller must prevent concurrent modification of
+     * the setup.
+     */
+    PoolSelectionSnapshot(Map<String, Unit> units, Map<String, Link> links,
+                          Map<String, LinkGroup> linkGroups, NetHandler netHandler,
+                          boolean useRegex, boolean allPoolsActive) {
+        _units = ImmutableMap.copyOf(units);
+        _netHandler = netHandler.copy();
+        _useRegex = useRegex;
+        _allPoolsActive = allPoolsActive;
+
+        ImmutableList.Builder<Unit> storeUnits = ImmutableList.builder();
+        for (Unit unit : units.values()) {
+            if (unit.getType() == PoolSelectionUnitV2.STORE) {
+                storeUnits.add(unit);
+            }
+        }
+        _storeUnits = storeUnits.build();
+
+        ImmutableMap.Builder<String, ImmutableSet<String>> groups = ImmutableMap.builder();
+        for (LinkGroup linkGroup : linkGroups.values()) {
+            ImmutableSet.Builder<String> names = ImmutableSet.builder();
+            for (SelectionLink link : linkGroup.getAllLinks()) {
+                names.add(link.getName());
+            }
+            groups.put(linkGroup.getName(), names.build());
+        }
+        _linkGroups = groups.build();
+
+        Map<Link, CompiledLink> compiled = new IdentityHashMap<>();
+        for (Link link : links.values()) {
+            compiled.put(link, new CompiledLink(link, compiled.size()));
+        }
+
+        Map<Unit, ImmutableList<CompiledLink>> linksByUnit = new IdentityHashMap<>();
+        for (Unit unit : units.values()) {
+            Map<String, CompiledLink> unitLinks = new LinkedHashMap<>();
+            for (UGroup uGroup : unit._uGroupList.values()) {
+                for (Link link : uGroup._linkList.values()) {
+                    unitLinks.put(link.getName(),
+                                  compiled.computeIfAbsent(link, l -> new CompiledLink(l, compiled.size())));
+                }
+            }
+            linksByUnit.put(unit, ImmutableList.copyOf(unitLinks.values()));
+        }
+        _linksByUnit = linksByUnit;
+        _linkCount = compiled.size();
+    }
+
+    /**
+     * Returns the cached links matched by a unit tuple, or null if the
+     * result is not cached.
+     */
+    List<CompiledLink> getCachedMatch(MatchKey key) {
+        return _matchCache.getIfPresent(key);
+    }
+
+    void cacheMatch(MatchKey key, List<CompiledLink> links) {
+        _matchCache.put(key, ImmutableList.copyOf(links));
+    }
+
+    long getCachedMatchCount() {
+        return _matchCache.size();
+    }
+
+    boolean isAllPoolsActive() {
+        return _allPoolsActive;
+    }
+
+    Unit getUnit(String name) {
+        return _units.get(name);
+    }
+
+    /**
+     * Returns the link names of a link group, or null if no such link group exists.
+     */
+    Set<String> getLinkGroup(String name) {
+        return _linkGroups.get(name);
+    }
+
+    /**
+     * Resolves the storage unit for a storage class of the form
+     * <code>class@hsm</code>, falling back to <code>*@hsm</code> and
+     * <code>*@*</code>.
+     *
+     * @throws IllegalArgumentException if no unit matches
+     */
+    Unit findStorageUnit(String storeUnitName) {
+        if (_useRegex) {
+            Unit universalCoverage = null;
+            Unit classCoverage = null;
+
+            for (Unit unit : _storeUnits) {
+                if (unit.getName().equals("*@*")) {
+                    universalCoverage = unit;
+                } else if (unit.getName().equals("*@" + storeUnitName)) {
+                    classCoverage = unit;
+                } else if (Pattern.matches(unit.getName(), storeUnitName)) {
+                    return unit;
+                }
+            }
+            //
+            // If a pattern matches then use it, fail over to a class,
+            // then universal. If nothing, throw exception
+            //
+            if (classCoverage != null) {
+                return classCoverage;
+            } else if (universalCoverage != null) {
+                return universalCoverage;
+            }
+            throw new IllegalArgumentException("Unit not found : " + storeUnitName);
+        }
+
+        Unit unit = _units.get(storeUnitName);
+        if (unit == null) {
+            int ind = storeUnitName.lastIndexOf('@');
+            if ((ind <= 0) || (ind == (storeUnitName.length() - 1))) {
+                throw new IllegalArgumentException("IllegalUnitFormat : " + storeUnitName);
+            }
+            unit = _units.get("*@" + storeUnitName.substring(ind + 1));
+            if (unit == null) {
+                unit = _units.get("*@*");
+                if (unit == null) {
+                    _log.debug("no matching storage unit found for: {}", storeUnitName);
+                    throw new IllegalArgumentException("Unit not found : " + storeUnitName);
+                }
+            }
+        }
+        return unit;
+    }
+
+    /**
+     * Resolves the protocol unit for a protocol of the form
+     * <code>protocol/version</code>, falling back to <code>protocol/*</code>
+     * and <code>*&#47;*</code>.
+     */
+    Unit findProtocolUnit(String protocolUnitName) {
+        if ((protocolUnitName == null) || (protocolUnitName.isEmpty())) {
+            return null;
+        }
+        int position = protocolUnitName.indexOf('/');
+        if ((position < 0) || (position == 0)
+                        || (position == (protocolUnitName.length() - 1))) {
+            throw new IllegalArgumentException(
+                            "Not a valid protocol specification : " + protocolUnitName);
+        }
+        Unit unit = _units.get(protocolUnitName);
+        if (unit == null) {
+            unit = _units.get(protocolUnitName.substring(0, position) + "/*");
+            if (unit == null) {
+                unit = _units.get("*/*");
+            }
+        }
+        return unit;
+    }
+
+    NetUnit findNetUnit(String address) throws UnknownHostException {
+        return _netHandler.match(address);
+    }
+
+    /**
+     * Returns the links matching all of the given units, sorted by decreasing
+     * preference for the given type of operation and by name.
+     *
+     * A link matches if every unit group of the link contains at least one of
+     * the units. If {@code linkGroup} is null, then only links not in any link
+     * group are considered, except for reads. Otherwise only links in the
+     * given link group are considered.
+     */
+    List<CompiledLink> match(Collection<Unit> units, Set<String> linkGroup, DirectionType type,
+                             Map<String, String> variableMap) {
+        int[] counts = new int[_linkCount];
+        List<CompiledLink> candidates = new ArrayList<>();
+        for (Unit unit : units) {
+            for (CompiledLink link : _linksByUnit.getOrDefault(unit, ImmutableList.of())) {
+                boolean isEligible = (linkGroup == null)
+                                     ? (type == DirectionType.READ || !link._isInLinkGroup)
+                                     : linkGroup.contains(link._name);
+                if (isEligible && counts[link._index]++ == 0) {
+                    candidates.add(link);
+                }
+            }
+        }
+
+        int fitCount = units.size();
+        List<CompiledLink> result = new ArrayList<>(candidates.size());
+        for (CompiledLink link : candidates) {
+            if (link._requiredUnits <= fitCount && counts[link._index] >= link._requiredUnits
+                    && (variableMap == null || link._link.exec(variableMap))) {
+                result.add(link);
+            }
+        }
+        result.sort(Comparator.<CompiledLink>comparingInt(l -> l.getPref(type)).reversed()
+                            .thenComparing(CompiledLink::getName));
+        return result;
+    }
+}
@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
@@ -25,8 +26,8 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
@@ -38,6 +39,7 @@ import diskCacheV111.vehicles.StorageInfo;
 
 import dmg.cells.nucleus.CellAddressCore;
 import dmg.cells.nucleus.CellCommandListener;
+import dmg.cells.nucleus.CellInfoProvider;
 import dmg.cells.nucleus.CellLifeCycleAware;
 import dmg.cells.nucleus.CellSetupProvider;
 import dmg.util.CommandSyntaxException;
@@ -53,7 +55,7 @@ import static java.util.Comparator.comparing;
 
 public class PoolSelectionUnitV2
         implements Serializable, PoolSelectionUnit, PoolSelectionUnitAccess, CellSetupProvider,
-        CellCommandListener, CellLifeCycleAware
+        CellCommandListener, CellLifeCycleAware, CellInfoProvider
 {
     private static final String __version = "$Id: PoolSelectionUnitV2.java,v 1.42 2007-10-25 14:03:54 tigran Exp $";
     private static final Logger _log = LoggerFactory.getLogger(PoolSelectionUnitV2.class);
@@ -93,6 +95,16 @@ public class PoolSelectionUnitV2
 
     private final NetHandler _netHandler = new NetHandler();
 
+    /**
+     * Compiled version of the setup used by the select path. The snapshot is
+     * recompiled whenever the write lock is released, hence match does not
+     * need to lock the setup.
+     */
+    private transient volatile PoolSelectionSnapshot _snapshot = compile();
+
+    private transient LongAdder _matchCacheHits = new LongAdder();
+    private transient LongAdder _matchCacheMisses = new LongAdder();
+
     @Override
     public Map<String, SelectionLink> getLinks() {
         rlock();
@@ -555,15 +567,6 @@ public class PoolSelectionUnitV2
         return resultMap;
     }
 
-    private LinkMap match(LinkMap linkMap, Unit unit, LinkGroup linkGroup,
-                    DirectionType ioType) {
-        Map<String, Link> map = match(unit, linkGroup, ioType);
-        for (Link link : map.values()) {
-            linkMap.addLink(link);
-        }
-        return linkMap;
-    }
-
     @Override
     public PoolPreferenceLevel[] match(DirectionType type,  String netUnitName, String protocolUnitName,
                     FileAttributes fileAttributes, String linkGroupName) {
@@ -578,280 +581,115 @@ public class PoolSelectionUnitV2
                         type, storeUnitName, dCacheUnitName, netUnitName, protocolUnitName,
                         variableMap, storageInfo.locations(), linkGroupName);
 
+        /* The snapshot is immutable, so no lock is needed. */
+        PoolSelectionSnapshot snapshot = _snapshot;
 
-        PoolPreferenceLevel[] result = null;
-        rlock();
-        try {
-            //
-            // resolve the unit from the unitname (or net unit mask)
-            //
-            // regexp code added by rw2 12/5/02
-            // original code is in the else
-            //
-            List<Unit> list = new ArrayList<>();
-            if (_useRegex) {
-                Unit universalCoverage = null;
-                Unit classCoverage = null;
-
-                for (Unit unit : _units.values()) {
-                    if (unit.getType() != STORE) {
-                        continue;
-                    }
-
-                    if (unit.getName().equals("*@*")) {
-                        universalCoverage = unit;
-                    } else if (unit.getName().equals("*@" + storeUnitName)) {
-                        classCoverage = unit;
-                    } else {
-                        if (Pattern.matches(unit.getName(), storeUnitName)) {
-                            list.add(unit);
-                            break;
-                        }
-                    }
-                }
-                //
-                // If a pattern matches then use it, fail over to a class,
-                // then universal. If nothing, throw exception
-                //
-                if (list.isEmpty()) {
-                    if (classCoverage != null) {
-                        list.add(classCoverage);
-                    } else if (universalCoverage != null) {
-                        list.add(universalCoverage);
-                    } else {
-                        throw new IllegalArgumentException(
-                                        "Unit not found : " + storeUnitName);
-                    }
-                }
-
-            } else {
-                Unit unit = _units.get(storeUnitName);
-                if (unit == null) {
-                    int ind = storeUnitName.lastIndexOf('@');
-                    if ((ind > 0) && (ind < (storeUnitName.length() - 1))) {
-                        String template = "*@"
-                                        + storeUnitName.substring(ind + 1);
-                        if ((unit = _units.get(template)) == null) {
-
-                            if ((unit = _units.get("*@*")) == null) {
-                                _log.debug("no matching storage unit found for: {}", storeUnitName);
-                                throw new IllegalArgumentException(
-                                                "Unit not found : " + storeUnitName);
-                            }
-                        }
-                    } else {
-                        throw new IllegalArgumentException(
-                                        "IllegalUnitFormat : " + storeUnitName);
-                    }
-                }
-                _log.debug("matching storage unit found for: {}", storeUnitName);
-                list.add(unit);
+        //
+        // resolve the unit from the unitname (or net unit mask)
+        //
+        List<Unit> list = new ArrayList<>(4);
+        list.add(snapshot.findStorageUnit(storeUnitName));
+        _log.debug("matching storage unit found for: {}", storeUnitName);
+        if (protocolUnitName != null) {
+            Unit unit = snapshot.findProtocolUnit(protocolUnitName);
+            if (unit == null) {
+                _log.debug("no matching protocol unit found for: {}", protocolUnitName);
+                throw new IllegalArgumentException("Unit not found : "
+                                + protocolUnitName);
             }
-            if (protocolUnitName != null) {
-
-                Unit unit = findProtocolUnit(protocolUnitName);
-                //
-                if (unit == null){
-                    _log.debug("no matching protocol unit found for: {}", protocolUnitName);
-                    throw new IllegalArgumentException("Unit not found : "
-                                    + protocolUnitName);
-                }
-                _log.debug("matching protocol unit found: {}", unit);
-                list.add(unit);
+            _log.debug("matching protocol unit found: {}", unit);
+            list.add(unit);
+        }
+        if (dCacheUnitName != null) {
+            Unit unit = snapshot.getUnit(dCacheUnitName);
+            if (unit == null) {
+                _log.debug("no matching dCache unit found for: {}", dCacheUnitName);
+                throw new IllegalArgumentException("Unit not found : "
+                                + dCacheUnitName);
             }
-            if (dCacheUnitName != null) {
-                Unit unit = _units.get(dCacheUnitName);
+            _log.debug("matching dCache unit found: {}", unit);
+            list.add(unit);
+        }
+        if (netUnitName != null) {
+            try {
+                Unit unit = snapshot.findNetUnit(netUnitName);
                 if (unit == null) {
-                    _log.debug("no matching dCache unit found for: {}", dCacheUnitName);
-                    throw new IllegalArgumentException("Unit not found : "
-                                    + dCacheUnitName);
-                }
-                _log.debug("matching dCache unit found: {}", unit);
-                list.add(unit);
-            }
-            if (netUnitName != null) {
-                try {
-                    Unit unit = _netHandler.match(netUnitName);
-                    if (unit == null) {
-                        _log.debug("no matching net unit found for: {}", netUnitName);
-                        throw new IllegalArgumentException(
-                                        "Unit not matched : " + netUnitName);
-                    }
-                    _log.debug("matching net unit found: {}", unit);
-                    list.add(unit);
-                } catch (UnknownHostException uhe) {
+                    _log.debug("no matching net unit found for: {}", netUnitName);
                     throw new IllegalArgumentException(
-                                    "NetUnit not resolved : " + netUnitName);
+                                    "Unit not matched : " + netUnitName);
                 }
+                _log.debug("matching net unit found: {}", unit);
+                list.add(unit);
+            } catch (UnknownHostException uhe) {
+                throw new IllegalArgumentException(
+                                "NetUnit not resolved : " + netUnitName);
             }
-            //
-            // match the requests ( logical AND )
-            //
-            //
-            // Map map = null ;
-            // while( units.hasNext() )map = match( map , (Unit)units.next() ) ;
-            // Iterator links = map.values().iterator() ;
-            //
-
-            //
-            // i) sort according to the type (read,write,cache)
-            // ii) the and is only OK if we have at least as many
-            // units (from the arguments) as required by the
-            // number of uGroupList(s).
-            // iii) check for the hashtable if required.
-            //
-            int fitCount = list.size();
-            Set<Link> sortedSet = new TreeSet<>(new LinkComparator(type));
-
-            //
-            // use subset on links if it's defined
-            //
+        }
 
-            LinkGroup linkGroup = null;
-            if (linkGroupName != null) {
-                linkGroup = _linkGroups.get(linkGroupName);
-                if (linkGroup == null) {
-                    _log.debug("LinkGroup not found : {}", linkGroupName );
-                    throw new IllegalArgumentException("LinkGroup not found : "
-                                    + linkGroupName);
-                }
+        //
+        // use subset on links if it's defined
+        //
+        Set<String> linkGroup = null;
+        if (linkGroupName != null) {
+            linkGroup = snapshot.getLinkGroup(linkGroupName);
+            if (linkGroup == null) {
+                _log.debug("LinkGroup not found : {}", linkGroupName );
+                throw new IllegalArgumentException("LinkGroup not found : "
+                                + linkGroupName);
             }
+        }
 
-            //
-            // find all links that matches the specified list of units
-            //
+        //
+        // find all links that match the specified list of units ( logical AND ),
+        // sorted by preference. Link.exec ignores the storage info, so the
+        // matched links only depend on the units and are cached. The state
+        // of the pools is evaluated below for every selection.
+        //
+        PoolSelectionSnapshot.MatchKey key = new PoolSelectionSnapshot.MatchKey(type, list, linkGroupName);
+        List<PoolSelectionSnapshot.CompiledLink> links = snapshot.getCachedMatch(key);
+        if (links != null) {
+            _matchCacheHits.increment();
+        } else {
+            _matchCacheMisses.increment();
+            links = snapshot.match(list, linkGroup, type, variableMap);
+            snapshot.cacheMatch(key, links);
+        }
 
-            LinkMap matchingLinks = new LinkMap();
-            for (Unit unit : list) {
-                matchingLinks = match(matchingLinks, unit, linkGroup, type);
+        //
+        // group the links by preference and resolve them to the pools
+        //
+        boolean allPoolsActive = snapshot.isAllPoolsActive();
+        List<PoolPreferenceLevel> levels = new ArrayList<>();
+        int i = 0;
+        while (i < links.size()) {
+            int pref = links.get(i).getPref(type);
+            if (pref < 1) {
+                break;
             }
-
-            Iterator<Link> linkIterator = matchingLinks.iterator();
-            while (linkIterator.hasNext()) {
-
-                Link link = linkIterator.next();
-                if ((link._uGroupList.size() <= fitCount)
-                                && ((variableMap == null) || link.exec(variableMap))) {
-
-                    sortedSet.add(link);
+            List<String> resultList = new ArrayList<>();
+            String tag = null;
+            for (; i < links.size() && links.get(i).getPref(type) == pref; i++) {
+                PoolSelectionSnapshot.CompiledLink link = links.get(i);
+                if ((tag == null) && (link.getTag() != null)) {
+                    tag = link.getTag();
                 }
-            }
-            int pref = -1;
-            List<List<Link>> listList = new ArrayList<>();
-            List<Link> current = null;
-
-            switch (type) {
-
-                case READ:
-                    for (Link link : sortedSet) {
-                        if (link.getReadPref() < 1) {
-                            continue;
-                        }
-                        if (link.getReadPref() != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = link.getReadPref();
-                        }
-                        current.add(link);
-                    }
-                    break;
-                case CACHE:
-                    for (Link link : sortedSet) {
-                        if (link.getCachePref() < 1) {
-                            continue;
-                        }
-                        if (link.getCachePref() != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = link.getCachePref();
-                        }
-                        current.add(link);
-                    }
-                    break;
-                case P2P:
-                    for (Link link : sortedSet) {
-                        int tmpPref = link.getP2pPref() < 0 ? link.getReadPref()
-                                        : link.getP2pPref();
-                        if (tmpPref < 1) {
-                            continue;
-                        }
-                        if (tmpPref != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = tmpPref;
-                        }
-                        current.add(link);
-                    }
-                    break;
-                case WRITE:
-                    for (Link link : sortedSet) {
-                        if (link.getWritePref() < 1) {
-                            continue;
-                        }
-                        if (link.getWritePref() != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = link.getWritePref();
-                        }
-                        current.add(link);
-                    }
-            }
-            List<Link>[] x = listList.toArray(new List[listList.size()]);
-            result = new PoolPreferenceLevel[x.length];
-            //
-            // resolve the links to the pools
-            //
-            for (int i = 0; i < x.length; i++) {
-
-                List<Link> linkList = x[i];
-                List<String> resultList = new ArrayList<>();
-                String tag = null;
-
-                for (Link link : linkList) {
-                    //
-                    // get the link if available
-                    //
-                    if ((tag == null) && (link.getTag() != null)) {
-                        tag = link.getTag();
-                    }
-
-                    for (PoolCore poolCore : link._poolList.values()) {
-                        if (poolCore instanceof Pool) {
-                            Pool pool = (Pool) poolCore;
-                            _log.debug("Pool: {} can read from tape? : {}", pool, pool.canReadFromTape());
-                            if (((type == DirectionType.READ && pool.canRead())
-                                            || (type == DirectionType.CACHE && pool.canReadFromTape()
-                                            && poolCanStageFile(pool, fileAttributes))
-                                            || (type == DirectionType.WRITE && pool.canWrite())
-                                            || (type == DirectionType.P2P && pool.canWriteForP2P()))
-                                            && (_allPoolsActive || pool.isActive())) {
-                                resultList.add(pool.getName());
-                            }
-                        } else {
-                            for (Pool pool : ((PGroup)poolCore)._poolList.values()) {
-                                _log.debug("Pool: {} can read from tape? : {}", pool, pool.canReadFromTape());
-                                if (((type == DirectionType.READ && pool.canRead())
-                                                || (type == DirectionType.CACHE && pool.canReadFromTape()
-                                                && poolCanStageFile(pool, fileAttributes))
-                                                || (type == DirectionType.WRITE && pool.canWrite())
-                                                || (type == DirectionType.P2P && pool.canWriteForP2P()))
-                                                && (_allPoolsActive || pool.isActive())) {
-                                    resultList.add(pool.getName());
-                                }
-                            }
-                        }
+                for (Pool pool : link.getPools()) {
+                    if (isSelectable(pool, type, fileAttributes, allPoolsActive)) {
+                        resultList.add(pool.getName());
                     }
                 }
-                result[i] = new PoolPreferenceLevel(resultList, tag);
             }
-
-        } finally {
-            runlock();
+            levels.add(new PoolPreferenceLevel(resultList, tag));
         }
+        PoolPreferenceLevel[] result = levels.toArray(new PoolPreferenceLevel[levels.size()]);
 
         if( _log.isDebugEnabled() ) {
 
             StringBuilder sb = new StringBuilder("match done: ");
 
-            for( int i = 0; i < result.length; i++) {
-                sb.append("[").append(i).append("] :");
-                for(String poolName: result[i].getPoolList()) {
+            for( int j = 0; j < result.length; j++) {
+                sb.append("[").append(j).append("] :");
+                for(String poolName: result[j].getPoolList()) {
                     sb.append(" ").append(poolName);
                 }
             }
@@ -860,6 +698,17 @@ public class PoolSelectionUnitV2
         return result;
     }
 
+    private boolean isSelectable(Pool pool, DirectionType type, FileAttributes fileAttributes,
+                                 boolean allPoolsActive) {
+        _log.debug("Pool: {} can read from tape? : {}", pool, pool.canReadFromTape());
+        return ((type == DirectionType.READ && pool.canRead())
+                        || (type == DirectionType.CACHE && pool.canReadFromTape()
+                        && poolCanStageFile(pool, fileAttributes))
+                        || (type == DirectionType.WRITE && pool.canWrite())
+                        || (type == DirectionType.P2P && pool.canWriteForP2P()))
+                        && (allPoolsActive || pool.isActive());
+    }
+
     @Override
     public String getProtocolUnit(String protocolUnitName) {
         Unit unit = findProtocolUnit(protocolUnitName);
@@ -1133,18 +982,23 @@ public class PoolSelectionUnitV2
 
     public String setRegex(String onOff) {
         String retVal;
-        switch (onOff) {
-            case "on":
-                _useRegex = true;
-                retVal = "regex turned on";
-                break;
-            case "off":
-                _useRegex = false;
-                retVal = "regex turned off";
-                break;
-            default:
-                throw new IllegalArgumentException(
-                                "please set regex either on or off");
+        wlock();
+        try {
+            switch (onOff) {
+                case "on":
+                    _useRegex = true;
+                    retVal = "regex turned on";
+                    break;
+                case "off":
+                    _useRegex = false;
+                    retVal = "regex turned off";
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                                    "please set regex either on or off");
+            }
+        } finally {
+            wunlock();
         }
         return retVal;
     }
@@ -2454,7 +2308,22 @@ public class PoolSelectionUnitV2
 
     protected void wunlock()
     {
-        _psuWriteLock.unlock();
+        try {
+            if (_psuReadWriteLock.getWriteHoldCount() == 1) {
+                _snapshot = compile();
+            }
+        } finally {
+            _psuWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Compiles the current setup. Must be called with the write lock held,
+     * or before the instance is published.
+     */
+    private PoolSelectionSnapshot compile()
+    {
+        return new PoolSelectionSnapshot(_units, _links, _linkGroups, _netHandler, _useRegex, _allPoolsActive);
     }
 
     protected void rlock()
@@ -2952,6 +2821,25 @@ public class PoolSelectionUnitV2
         }
     }
 
+    @Command(name = "psu show match cache",
+            hint = "show statistics of the pool selection cache",
+            description = "Shows the number of pool selections for which the "
+                          + "matching links were found in the cache of recent "
+                          + "selections and the number of selections for which "
+                          + "they had to be computed. The cache is cleared "
+                          + "whenever the setup changes. The state of the pools "
+                          + "is never cached.")
+    class ShowMatchCacheCommand implements Callable<String>
+    {
+        @Override
+        public String call()
+        {
+            StringWriter sw = new StringWriter();
+            getInfo(new PrintWriter(sw));
+            return sw.toString();
+        }
+    }
+
     @AffectsSetup
     public String ac_psu_unlink_$_2(Args args)
     {
@@ -3029,4 +2917,25 @@ public class PoolSelectionUnitV2
             runlock();
         }
     }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException
+    {
+        stream.defaultReadObject();
+        _snapshot = compile();
+        _matchCacheHits = new LongAdder();
+        _matchCacheMisses = new LongAdder();
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        long hits = _matchCacheHits.sum();
+        long misses = _matchCacheMisses.sum();
+        long total = hits + misses;
+        pw.println("Match cache");
+        pw.println("   Hits       : " + hits
+                   + ((total == 0) ? "" : String.format(" (%.1f%%)", 100.0 * hits / total)));
+        pw.println("   Misses     : " + misses);
+        pw.println("   Entries    : " + _snapshot.getCachedMatchCount());
+    }
 }
@@ -2,6 +2,7 @@ package diskCacheV111.util;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +46,22 @@ public abstract class ChecksumFactory
     public abstract Checksum computeChecksum(RepositoryChannel file, double throughputLimit)
         throws IOException, InterruptedException;
 
+    /**
+     * Compute the checksum for a file with limits shared with other
+     * computations.
+     * @param file              the file to compute a checksum for.
+     * @param bandwidth         a limiter from which a permit is acquired for
+     *                          every byte read.
+     * @param operations        a limiter from which a permit is acquired for
+     *                          every read.
+     * @return                  the computed checksum.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public abstract Checksum computeChecksum(RepositoryChannel file, RateLimiter bandwidth,
+                                             RateLimiter operations)
+        throws IOException, InterruptedException;
+
     public static ChecksumFactory getFactory(ChecksumType type)
         throws NoSuchAlgorithmException
     {
@@ -228,6 +245,39 @@ class GenericIdChecksumFactory extends ChecksumFactory
                         / (( millis == 0 ? 1 : millis ) / (double) MILLISECONDS_IN_SECOND));
     }
 
+    @Override
+    public Checksum computeChecksum(RepositoryChannel channel, RateLimiter bandwidth,
+                                    RateLimiter operations)
+        throws IOException, InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        MessageDigest digest = create();
+        long pos = 0L;
+        ByteBuffer buffer = ByteBuffer.allocate(KiB.toBytes(64));
+
+        int rc;
+        do {
+            operations.acquire();
+            bandwidth.acquire(buffer.remaining());
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            rc = channel.read(buffer, pos);
+            if (rc > 0) {
+                pos += rc;
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } while (rc > 0);
+
+        Checksum checksum = create(digest.digest());
+
+        _log.debug("Computed checksum, length {}, checksum {} in {} ms", pos, checksum,
+                   System.currentTimeMillis() - start);
+        return checksum;
+    }
+
     @Override
     public Checksum computeChecksum(RepositoryChannel channel, double throughputLimit)
         throws IOException, InterruptedException
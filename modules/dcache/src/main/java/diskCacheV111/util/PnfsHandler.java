@@ -6,9 +6,11 @@ import org.slf4j.LoggerFactory;
 
 import javax.security.auth.Subject;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -40,6 +42,7 @@ import org.dcache.util.ChecksumType;
 import org.dcache.vehicles.FileAttributes;
 import org.dcache.vehicles.PnfsCreateSymLinkMessage;
 import org.dcache.vehicles.PnfsGetFileAttributes;
+import org.dcache.vehicles.PnfsGetFileAttributesBatch;
 import org.dcache.vehicles.PnfsRemoveChecksumMessage;
 import org.dcache.vehicles.PnfsSetFileAttributes;
 
@@ -479,6 +482,21 @@ public class PnfsHandler implements CellMessageSender
         return request(new PnfsGetFileAttributes(pnfsid, attr)).getFileAttributes();
     }
 
+    /**
+     * Get file attributes of many files with a single request. Files that
+     * do not exist or whose attributes may not be read are not part of the
+     * result.
+     *
+     * @param pnfsids
+     * @param attr array of requested attributes.
+     * @return requested attributes keyed by PNFS ID
+     */
+    public Map<PnfsId, FileAttributes> getFileAttributes(Collection<PnfsId> pnfsids, Set<FileAttribute> attr)
+        throws CacheException
+    {
+        return request(new PnfsGetFileAttributesBatch(pnfsids, attr)).getFileAttributes();
+    }
+
     /**
      * Get file attributes. The PnfsManager is free to return fewer attributes
      * than requested. If <code>attr</code> is an empty array, file existence
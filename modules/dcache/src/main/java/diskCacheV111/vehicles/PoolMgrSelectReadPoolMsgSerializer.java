@@ -0,0 +1,100 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2017 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package diskCacheV111.vehicles;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.EnumSet;
+
+import diskCacheV111.poolManager.RequestContainerV5;
+
+import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.MessagePayloadCodec;
+
+import org.dcache.pool.assumption.Assumption;
+import org.dcache.pool.assumption.Assumptions;
+import org.dcache.vehicles.FileAttributes;
+
+/**
+ * Compact serializer for read pool selection requests and replies.
+ */
+public class PoolMgrSelectReadPoolMsgSerializer extends AbstractMessageSerializer<PoolMgrSelectReadPoolMsg>
+{
+    public static final int TYPE_ID = 4;
+
+    public PoolMgrSelectReadPoolMsgSerializer()
+    {
+        super(TYPE_ID, PoolMgrSelectReadPoolMsg.class);
+    }
+
+    @Override
+    public void write(PoolMgrSelectReadPoolMsg message, DataOutput out) throws IOException
+    {
+        message.getFileAttributes().writeTo(out);
+        MessagePayloadCodec.writeObject(out, message.getProtocolInfo());
+        writeEnumSet(out, message.getAllowedStates());
+        PoolMgrSelectReadPoolMsg.Context context = message.getContext();
+        out.writeInt(context.getRetryCounter());
+        MessagePayloadCodec.writeString(out, context.getPreviousStageHost());
+        MessagePayloadCodec.writeString(out, context.getPreviousStagePool());
+        writeMessage(out, message);
+        MessagePayloadCodec.writeString(out, message.getPoolName());
+        CellAddressCore poolAddress = message.getPoolAddress();
+        MessagePayloadCodec.writeString(out, (poolAddress == null) ? null : poolAddress.toString());
+        MessagePayloadCodec.writeString(out, message.getIoQueueName());
+        MessagePayloadCodec.writeString(out, message.getBillingPath());
+        MessagePayloadCodec.writeString(out, message.getTransferPath());
+        MessagePayloadCodec.writeString(out, message.getLinkGroup());
+        Assumption assumption = message.getAssumption();
+        boolean hasAssumption = !assumption.equals(Assumptions.none());
+        out.writeBoolean(hasAssumption);
+        if (hasAssumption) {
+            MessagePayloadCodec.writeObject(out, assumption);
+        }
+    }
+
+    @Override
+    public PoolMgrSelectReadPoolMsg read(DataInput in) throws IOException
+    {
+        FileAttributes attributes = FileAttributes.createFrom(in);
+        ProtocolInfo protocolInfo = MessagePayloadCodec.readObject(in, ProtocolInfo.class);
+        EnumSet<RequestContainerV5.RequestState> allowedStates =
+                readEnumSet(in, RequestContainerV5.RequestState.class);
+        PoolMgrSelectReadPoolMsg.Context context =
+                new PoolMgrSelectReadPoolMsg.Context(in.readInt(),
+                                                     MessagePayloadCodec.readString(in),
+                                                     MessagePayloadCodec.readString(in));
+        PoolMgrSelectReadPoolMsg message =
+                new PoolMgrSelectReadPoolMsg(attributes, protocolInfo, context, allowedStates);
+        readMessage(in, message);
+        message.setPoolName(MessagePayloadCodec.readString(in));
+        String poolAddress = MessagePayloadCodec.readString(in);
+        if (poolAddress != null) {
+            message.setPoolAddress(new CellAddressCore(poolAddress));
+        }
+        message.setIoQueueName(MessagePayloadCodec.readString(in));
+        message.setBillingPath(MessagePayloadCodec.readString(in));
+        message.setTransferPath(MessagePayloadCodec.readString(in));
+        message.setLinkGroup(MessagePayloadCodec.readString(in));
+        if (in.readBoolean()) {
+            message.setAssumption(MessagePayloadCodec.readObject(in, Assumption.class));
+        }
+        return message;
+    }
+}
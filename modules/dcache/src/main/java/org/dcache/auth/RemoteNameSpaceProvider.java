@@ -5,12 +5,15 @@ import com.google.common.collect.Range;
 import javax.security.auth.Subject;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import diskCacheV111.namespace.NameSpaceProvider;
 import diskCacheV111.util.AccessLatency;
 import diskCacheV111.util.CacheException;
+import diskCacheV111.util.FileNotFoundCacheException;
 import diskCacheV111.util.FsPath;
 import diskCacheV111.util.PnfsHandler;
 import diskCacheV111.util.PnfsId;
@@ -132,6 +135,21 @@ public class RemoteNameSpaceProvider implements NameSpaceProvider
         return pnfs.getPathByPnfsId(id).toString();
     }
 
+    @Override
+    public Map<PnfsId, String> pnfsidsToPaths(Subject subject, Collection<PnfsId> ids) throws CacheException
+    {
+        PnfsHandler pnfs = new PnfsHandler(_pnfs, subject, Restrictions.none());
+        Map<PnfsId, String> paths = new HashMap<>();
+        for (PnfsId id : ids) {
+            try {
+                paths.put(id, pnfs.getPathByPnfsId(id).toString());
+            } catch (FileNotFoundCacheException e) {
+                /* Files that do not exist are not part of the result. */
+            }
+        }
+        return paths;
+    }
+
     @Override
     public PnfsId pathToPnfsid(Subject subject, String path,
             boolean followLinks) throws CacheException
@@ -196,6 +214,14 @@ public class RemoteNameSpaceProvider implements NameSpaceProvider
         return pnfs.getFileAttributes(id, attr);
     }
 
+    @Override
+    public Map<PnfsId, FileAttributes> getFileAttributes(Subject subject, Collection<PnfsId> ids,
+            Set<FileAttribute> attr) throws CacheException
+    {
+        PnfsHandler pnfs = new PnfsHandler(_pnfs, subject, Restrictions.none());
+        return pnfs.getFileAttributes(ids, attr);
+    }
+
     @Override
     public FileAttributes setFileAttributes(Subject subject, PnfsId id,
             FileAttributes attr, Set<FileAttribute> acquire) throws CacheException
@@ -218,6 +244,21 @@ public class RemoteNameSpaceProvider implements NameSpaceProvider
         }
     }
 
+    @Override
+    public void list(Subject subject, String path, Glob glob, String after,
+            Range<Integer> range, Set<FileAttribute> attrs, ListHandler handler)
+            throws CacheException
+    {
+        try (DirectoryStream stream = _handler.list(subject, Restrictions.none(), FsPath.create(path), glob,
+                                                    after, range, attrs)) {
+            for (DirectoryEntry entry : stream) {
+                handler.addEntry(entry.getName(), entry.getFileAttributes());
+            }
+        } catch (InterruptedException e) {
+            throw new TimeoutCacheException(e.getMessage());
+        }
+    }
+
     @Override
     public FsPath createUploadPath(Subject subject, FsPath path, FsPath rootPath,
                                    Long size, AccessLatency al, RetentionPolicy rp, String spaceToken,
@@ -20,7 +20,7 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.QueryStringDecoder;
-import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import org.slf4j.Logger;
@@ -90,6 +90,11 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
 
     private final int _chunkSize;
 
+    /**
+     * Whether files may be sent using FileRegions rather than chunks.
+     */
+    private final boolean _isZeroCopyEnabled;
+
     /**
      * The file being uploaded. Even though we only keep the file open
      * for the processing of a single HTTP message, that one message may
@@ -99,9 +104,16 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
     private NettyTransferService<HttpProtocolInfo>.NettyMoverChannel _writeChannel;
 
     public HttpPoolRequestHandler(NettyTransferService<HttpProtocolInfo> server, int chunkSize)
+    {
+        this(server, chunkSize, false);
+    }
+
+    public HttpPoolRequestHandler(NettyTransferService<HttpProtocolInfo> server, int chunkSize,
+                                  boolean isZeroCopyEnabled)
     {
         _server = server;
         _chunkSize = chunkSize;
+        _isZeroCopyEnabled = isZeroCopyEnabled;
     }
 
     private static ByteBuf createMultipartFragmentMarker(long lower, long upper, long total)
@@ -284,7 +296,7 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
              */
             context.write(new HttpGetResponse(fileSize, file))
                     .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-            context.write(read(file, 0, fileSize - 1))
+            context.write(read(context, file, 0, fileSize - 1))
                     .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
             return context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
         } else if (ranges.size() == 1) {
@@ -295,7 +307,7 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
             context.write(new HttpPartialContentResponse(range.getLower(), range.getUpper(),
                                                          fileSize, buildDigest(file)))
                     .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-            context.write(read(file, range.getLower(), range.getUpper()))
+            context.write(read(context, file, range.getLower(), range.getUpper()))
                     .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
             return context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
         } else {
@@ -323,7 +335,7 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
                 HttpByteRange range = ranges.get(i);
                 context.write(fragmentMarkers[i])
                         .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-                context.write(read(file, range.getLower(), range.getUpper()))
+                context.write(read(context, file, range.getLower(), range.getUpper()))
                         .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
             }
             return context.writeAndFlush(new DefaultLastHttpContent(endMarker));
@@ -521,25 +533,37 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
 
     /**
      * Read the resources requested in HTTP-request from the pool. Return a
-     * ChunkedInput pointing to the requested portions of the file.
+     * FileRegion or a ChunkedInput pointing to the requested portions of the
+     * file.
+     *
+     * A FileRegion allows the kernel to send the file without copying it
+     * through user space. It is only used if the channel is backed by a
+     * local file and the connection is not encrypted, as encryption requires
+     * the data to pass through user space anyway.
      *
      * Renew the keep-alive heartbeat, meaning that the last transferred time
      * will be updated, resetting the keep-alive timeout.
      *
+     * @param context the channel handler context of the connection
      * @param file the mover channel to read from
      * @param lowerRange The lower delimiter of the requested byte range of the
      *                   file
      * @param upperRange The upper delimiter of the requested byte range of the
      *                   file
-     * @return ChunkedInput View upon the file suitable for sending with
-     *         netty and representing the requested parts.
+     * @return FileRegion or ChunkedInput view upon the file suitable for
+     *         sending with netty and representing the requested parts.
      */
-    private ChunkedInput read(NettyTransferService<HttpProtocolInfo>.NettyMoverChannel file,
-                              long lowerRange, long upperRange)
+    private Object read(ChannelHandlerContext context,
+                        NettyTransferService<HttpProtocolInfo>.NettyMoverChannel file,
+                        long lowerRange, long upperRange)
     {
         /* need to count position 0 as well */
         long length = (upperRange - lowerRange) + 1;
 
+        if (_isZeroCopyEnabled && file.isZeroCopyTransferSupported()
+                && context.pipeline().get(SslHandler.class) == null) {
+            return new RepositoryFileRegion(file, lowerRange, length);
+        }
         return new ReusableChunkedNioFile(file, lowerRange, length, _chunkSize);
     }
 
@@ -68,6 +68,7 @@ public class HttpTransferService extends NettyTransferService<HttpProtocolInfo>
     private static final String PROTOCOL_HTTP = "http";
 
     private int chunkSize;
+    private boolean isZeroCopyEnabled;
     private ImmutableMap<String,String> customHeaders;
 
     public HttpTransferService()
@@ -86,6 +87,16 @@ public class HttpTransferService extends NettyTransferService<HttpProtocolInfo>
         this.chunkSize = chunkSize;
     }
 
+    public boolean isZeroCopyEnabled()
+    {
+        return isZeroCopyEnabled;
+    }
+
+    public void setZeroCopyEnabled(boolean isZeroCopyEnabled)
+    {
+        this.isZeroCopyEnabled = isZeroCopyEnabled;
+    }
+
     @Required
     public void setCustomHeaders(ImmutableMap<String,String> headers)
     {
@@ -166,6 +177,6 @@ public class HttpTransferService extends NettyTransferService<HttpProtocolInfo>
             pipeline.addLast("custom-headers", new CustomResponseHeadersHandler(customHeaders));
         }
 
-        pipeline.addLast("transfer", new HttpPoolRequestHandler(this, chunkSize));
+        pipeline.addLast("transfer", new HttpPoolRequestHandler(this, chunkSize, isZeroCopyEnabled));
     }
 }
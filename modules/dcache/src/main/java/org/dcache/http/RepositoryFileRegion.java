@@ -0,0 +1,140 @@
+package org.dcache.http;
+
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import org.dcache.pool.repository.RepositoryChannel;
+
+/**
+ * FileRegion backed by a RepositoryChannel.
+ *
+ * Unlike Netty's DefaultFileRegion, the region transfers data through
+ * {@link RepositoryChannel#transferTo} such that decorators like the mover
+ * channel can account for the transferred bytes. For channels backed by a
+ * local file, this allows the kernel to send the file without copying it
+ * through user space.
+ *
+ * Like {@link ReusableChunkedNioFile}, releasing the region does not close the
+ * channel, as the channel may be reused for further requests on a kept-alive
+ * connection.
+ */
+public class RepositoryFileRegion extends AbstractReferenceCounted implements FileRegion
+{
+    private final RepositoryChannel _channel;
+    private final long _position;
+    private final long _count;
+
+    private long _transferred;
+
+    public RepositoryFileRegion(RepositoryChannel channel, long position, long count)
+    {
+        if (channel == null) {
+            throw new NullPointerException("Channel must not be null");
+        }
+
+        if (position < 0) {
+            throw new IllegalArgumentException("position: " + position +
+                                               " (expected: 0 or greater)");
+        }
+
+        if (count < 0) {
+            throw new IllegalArgumentException("count: " + count +
+                                               " (expected: 0 or greater)");
+        }
+
+        _channel = channel;
+        _position = position;
+        _count = count;
+    }
+
+    @Override
+    public long position()
+    {
+        return _position;
+    }
+
+    @Override
+    @Deprecated
+    public long transfered()
+    {
+        return _transferred;
+    }
+
+    @Override
+    public long transferred()
+    {
+        return _transferred;
+    }
+
+    @Override
+    public long count()
+    {
+        return _count;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target, long position) throws IOException
+    {
+        long count = _count - position;
+        if (count < 0 || position < 0) {
+            throw new IllegalArgumentException("position out of range: " + position +
+                                               " (expected: 0 - " + (_count - 1) + ')');
+        }
+        if (count == 0) {
+            return 0L;
+        }
+
+        long written = _channel.transferTo(_position + position, count, target);
+        if (written > 0) {
+            _transferred += written;
+        } else if (written == 0 && _channel.size() <= _position + position) {
+            throw new IOException("Replica was truncated during transfer: " +
+                                  "expected " + (_position + _count) + " bytes, but only " +
+                                  (_position + position) + " available");
+        }
+        return written;
+    }
+
+    @Override
+    protected void deallocate()
+    {
+        /* The channel is owned by the mover and closed by it. */
+    }
+
+    @Override
+    public FileRegion retain()
+    {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public FileRegion retain(int increment)
+    {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    public FileRegion touch()
+    {
+        return this;
+    }
+
+    @Override
+    public FileRegion touch(Object hint)
+    {
+        return this;
+    }
+
+    /**
+     * Returns the repository channel. Used for unit testing.
+     */
+    RepositoryChannel getChannel()
+    {
+        return _channel;
+    }
+}
@@ -84,6 +84,7 @@ import org.dcache.pool.classic.json.TransferServicesData;
 import org.dcache.pool.json.PoolData;
 import org.dcache.pool.migration.json.MigrationData;
 import org.dcache.pool.movers.json.MoverData;
+import org.dcache.pool.movers.json.MoverIoData;
 import org.dcache.pool.nearline.NearlineStorageHandler;
 import org.dcache.pool.p2p.json.P2PData;
 import org.dcache.pool.repository.Repository;
@@ -113,6 +114,7 @@ public final class PoolInfoRequestHandler implements CellMessageReceiver,
     private PoolDataBeanProvider<JobTimeoutManagerData> jobTimeoutManager;
     private PoolDataBeanProvider<MigrationData>         migrationClient;
     private PoolDataBeanProvider<MigrationData>         migrationServer;
+    private PoolDataBeanProvider<MoverIoData>           moverIoStatistics;
     private PoolDataBeanProvider<P2PData>               p2pClient;
     private PoolDataBeanProvider<RepositoryData>        repositoryProvider;
     private PoolDataBeanProvider<SweeperData>           sweeper;
@@ -146,6 +148,7 @@ public final class PoolInfoRequestHandler implements CellMessageReceiver,
                 MigrationData service = migrationServer.getDataObject();
                 client.setServerRequests(service.getServerRequests());
                 request.setMigrationData(client);
+                request.setMoverIoData(moverIoStatistics.getDataObject());
                 request.setPpData(p2pClient.getDataObject());
                 request.setRepositoryData(repositoryProvider.getDataObject());
                 request.setStorageHandlerData(storageHandler.getDataObject());
@@ -339,6 +342,11 @@ public final class PoolInfoRequestHandler implements CellMessageReceiver,
         this.migrationServer = migrationServer;
     }
 
+    public void setMoverIoStatistics(
+                    PoolDataBeanProvider moverIoStatistics) {
+        this.moverIoStatistics = moverIoStatistics;
+    }
+
     public void setP2pClient(PoolDataBeanProvider p2pClient) {
         this.p2pClient = p2pClient;
     }
@@ -28,6 +28,7 @@ import diskCacheV111.util.CacheException;
 import diskCacheV111.util.ChecksumFactory;
 import diskCacheV111.util.FileCorruptedCacheException;
 
+import org.dcache.pool.movers.ChecksumChannel;
 import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.util.Checksum;
@@ -87,6 +88,17 @@ public interface ChecksumModule
     Set<ChecksumFactory> getProvidedChecksumsFactories(ReplicaDescriptor handle)
             throws NoSuchAlgorithmException, CacheException;
 
+    /**
+     * Returns a channel computing checksums of the data written to the
+     * provided channel.
+     *
+     * @param channel A repository channel to which writes are delegated
+     * @param factories Factories of the checksums to compute
+     * @return A checksum channel wrapping {@code channel}
+     */
+    @Nonnull
+    ChecksumChannel createChecksumChannel(RepositoryChannel channel, Set<ChecksumFactory> factories);
+
     /**
      * Applies the post-transfer checksum policy.
      *
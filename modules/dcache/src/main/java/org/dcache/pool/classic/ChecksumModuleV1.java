@@ -20,6 +20,7 @@ package org.dcache.pool.classic;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
 
 import javax.annotation.Nonnull;
 
@@ -46,6 +47,8 @@ import dmg.util.command.Argument;
 import dmg.util.command.Command;
 import dmg.util.command.Option;
 import org.dcache.pool.PoolDataBeanProvider;
+import org.dcache.pool.movers.ChecksumChannel;
+import org.dcache.pool.movers.DigestPipeline;
 import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.util.Checksum;
@@ -68,11 +71,24 @@ public class ChecksumModuleV1
     private final EnumSet<PolicyFlag> _policy = EnumSet.of(ON_TRANSFER, ENFORCE_CRC);
 
     private double _throughputLimit = Double.POSITIVE_INFINITY;
+    private double _operationsLimit = Double.POSITIVE_INFINITY;
+    private int _scrubThreads = 1;
+    private int _scrubBusyThreshold = 10;
     private long _scrubPeriod = TimeUnit.HOURS.toMillis(24L);
     private ChecksumType _defaultChecksumType = ADLER32;
+    private DigestPipeline _digestPipeline;
 
     private final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<>();
 
+    /**
+     * Sets the pipeline used to compute on-transfer checksums. If not set,
+     * checksums are computed by the threads writing the file.
+     */
+    public synchronized void setDigestPipeline(DigestPipeline pipeline)
+    {
+        _digestPipeline = pipeline;
+    }
+
     public void addListener(Runnable listener)
     {
         listeners.add(listener);
@@ -98,6 +114,31 @@ public class ChecksumModuleV1
         return _throughputLimit;
     }
 
+    /**
+     * Returns the limit on the number of reads per second of the scrubber.
+     */
+    public synchronized double getOperationsLimit()
+    {
+        return _operationsLimit;
+    }
+
+    /**
+     * Returns the number of files the scrubber verifies concurrently.
+     */
+    public synchronized int getScrubThreads()
+    {
+        return _scrubThreads;
+    }
+
+    /**
+     * Returns the number of requests waiting in the mover queues above
+     * which the scrubber pauses.
+     */
+    public synchronized int getScrubBusyThreshold()
+    {
+        return _scrubBusyThreshold;
+    }
+
     @Override
     public synchronized void printSetup(PrintWriter pw)
     {
@@ -106,6 +147,9 @@ public class ChecksumModuleV1
             pw.print("csm set policy -scrub=on");
             pw.print(" -limit=" +
                     (Double.isInfinite(_throughputLimit) ? "off" : BYTES.toMiB(_throughputLimit)));
+            pw.print(" -iops=" + (Double.isInfinite(_operationsLimit) ? "off" : _operationsLimit));
+            pw.print(" -threads=" + _scrubThreads);
+            pw.print(" -busy=" + _scrubBusyThreshold);
             pw.println(" -period=" + TimeUnit.MILLISECONDS.toHours(_scrubPeriod));
         } else {
             pw.println("csm set policy -scrub=off");
@@ -162,6 +206,13 @@ public class ChecksumModuleV1
             } else {
                 sb.append("             limit  = ").append(BYTES.toMiB(_throughputLimit)).append(" MiB/s\n");
             }
+            if (Double.isInfinite(_operationsLimit)) {
+                sb.append("             iops   = off\n");
+            } else {
+                sb.append("             iops   = ").append(_operationsLimit).append("\n");
+            }
+            sb.append("             threads = ").append(_scrubThreads).append("\n");
+            sb.append("             busy   = ").append(_scrubBusyThreshold).append(" queued movers\n");
             sb.append("             period = ").append(TimeUnit.MILLISECONDS.toHours(_scrubPeriod)).append(" hours\n");
         }
         return sb.toString();
@@ -196,6 +247,26 @@ public class ChecksumModuleV1
                 valueSpec = "<MiB/s>|off")
         String limit;
 
+        @Option(name = "iops",
+                category = "Scrubber options",
+                usage = "Limit on the number of reads per second of the scrubber.",
+                valueSpec = "<reads/s>|off")
+        String iops;
+
+        @Option(name = "threads",
+                category = "Scrubber options",
+                usage = "Number of files verified concurrently by the scrubber. The " +
+                        "throughput and read limits are shared by all files.",
+                metaVar = "count")
+        Integer threads;
+
+        @Option(name = "busy",
+                category = "Scrubber options",
+                usage = "The scrubber pauses while more than this number of " +
+                        "requests are waiting in the mover queues.",
+                metaVar = "requests")
+        Integer busy;
+
         @Option(name = "period",
                 category = "Scrubber options",
                 usage = "Run scrubber every HOURS hours.",
@@ -310,6 +381,32 @@ public class ChecksumModuleV1
                     }
                 }
 
+                if (iops != null) {
+                    if (iops.equals("off")) {
+                        _operationsLimit = Double.POSITIVE_INFINITY;
+                    } else {
+                        double value = Double.parseDouble(iops);
+                        if (value <= 0) {
+                            throw new IllegalArgumentException("Read limit must be > 0");
+                        }
+                        _operationsLimit = value;
+                    }
+                }
+
+                if (threads != null) {
+                    if (threads <= 0) {
+                        throw new IllegalArgumentException("Number of scrubber threads must be > 0");
+                    }
+                    _scrubThreads = threads;
+                }
+
+                if (busy != null) {
+                    if (busy < 0) {
+                        throw new IllegalArgumentException("Busy threshold must be >= 0");
+                    }
+                    _scrubBusyThreshold = busy;
+                }
+
                 if (period != null) {
                     long value = TimeUnit.HOURS.toMillis(period);
                     if (value <= 0) {
@@ -368,6 +465,14 @@ public class ChecksumModuleV1
         return ChecksumFactory.getFactories(existingChecksumsByPreference, getDefaultChecksumType());
     }
 
+    @Nonnull
+    @Override
+    public synchronized ChecksumChannel createChecksumChannel(RepositoryChannel channel,
+                                                              Set<ChecksumFactory> factories)
+    {
+        return new ChecksumChannel(channel, factories, _digestPipeline);
+    }
+
     @Override
     public void enforcePostTransferPolicy(
             ReplicaDescriptor handle, Iterable<Checksum> actualChecksums)
@@ -432,6 +537,23 @@ public class ChecksumModuleV1
         }
     }
 
+    /**
+     * Verifies the checksum of a replica, reading the replica at the rates
+     * permitted by the given limiters.
+     */
+    public Iterable<Checksum> verifyChecksum(ReplicaDescriptor handle, RateLimiter bandwidth, RateLimiter operations)
+            throws IOException, InterruptedException, NoSuchAlgorithmException, CacheException
+    {
+        Iterable<Checksum> expectedChecksums = handle.getChecksums();
+        ChecksumFactory factory = ChecksumFactory.getFactory(expectedChecksums, getDefaultChecksumType());
+        Iterable<Checksum> actualChecksums;
+        try (RepositoryChannel channel = handle.createChannel()) {
+            actualChecksums = Collections.singleton(factory.computeChecksum(channel, bandwidth, operations));
+        }
+        compareChecksums(expectedChecksums, actualChecksums);
+        return actualChecksums;
+    }
+
     private Iterable<Checksum> verifyChecksum(RepositoryChannel channel, Iterable<Checksum> expectedChecksums, double throughputLimit)
             throws NoSuchAlgorithmException, IOException, InterruptedException, CacheException
     {
@@ -1,7 +1,8 @@
 package org.dcache.pool.classic;
 
-import com.google.common.collect.Iterables;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,13 +12,18 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.FileCorruptedCacheException;
@@ -37,8 +43,11 @@ import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.pool.repository.Repository;
 import org.dcache.pool.repository.Repository.OpenFlags;
 import org.dcache.util.Checksum;
+import org.dcache.util.TimeUtils;
+import org.dcache.util.TimeUtils.TimeUnitFormat;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.dcache.util.ByteUnit.BYTES;
 
 public class ChecksumScanner
     implements CellCommandListener, CellLifeCycleAware
@@ -51,6 +60,7 @@ public class ChecksumScanner
     private final SingleScan _singleScan = new SingleScan();
 
     private Repository _repository;
+    private IoQueueManager _ioQueueManager;
     private ChecksumModuleV1 _csm;
     private String poolName;
 
@@ -65,6 +75,7 @@ public class ChecksumScanner
 
     private void onConfigChange()
     {
+        _scrubber.updateLimits();
         if (_csm.hasPolicy(ChecksumModule.PolicyFlag.SCRUB)) {
             startScrubber();
         } else {
@@ -87,6 +98,16 @@ public class ChecksumScanner
         _repository = repository;
     }
 
+    /**
+     * Sets the mover queues. While more requests than the busy threshold
+     * of the checksum module are waiting, the scrubber does not start
+     * verifying further files.
+     */
+    public void setIoQueueManager(IoQueueManager ioQueueManager)
+    {
+        _ioQueueManager = ioQueueManager;
+    }
+
     public void setChecksumModule(ChecksumModuleV1 csm)
     {
         _csm = csm;
@@ -231,11 +252,32 @@ public class ChecksumScanner
         private final long CHECKPOINT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
         private final long FAILURE_RATELIMIT_DELAY =
             TimeUnit.SECONDS.toMillis(10);
+        private final long BACKOFF_DELAY = TimeUnit.SECONDS.toMillis(10);
 
-        private volatile int _badCount;
+        /**
+         * Maximum number of files to verify per pass over the repository.
+         */
+        private final int BATCH_SIZE = 100000;
+
+        private final LongAdder _badCount = new LongAdder();
+        private final LongAdder _totalCount = new LongAdder();
+        private final LongAdder _unableCount = new LongAdder();
+        private final LongAdder _bytesChecked = new LongAdder();
         private volatile int _numFiles;
-        private volatile int _totalCount;
-        private volatile int _unableCount;
+        private volatile long _runStart;
+        private volatile boolean _isBackingOff;
+
+        /**
+         * Shared limits on the throughput and the number of reads of all
+         * verifications.
+         */
+        private final RateLimiter _bandwidth = RateLimiter.create(Double.POSITIVE_INFINITY);
+        private final RateLimiter _operations = RateLimiter.create(Double.POSITIVE_INFINITY);
+
+        /**
+         * First failure of a verification that aborts the run.
+         */
+        private volatile Exception _failure;
 
         private PnfsId _lastFileChecked;
         private long _lastCheckpoint;
@@ -341,6 +383,15 @@ public class ChecksumScanner
             }
         }
 
+        /**
+         * Applies the throughput and read limits of the checksum module.
+         */
+        public void updateLimits()
+        {
+            _bandwidth.setRate(_csm.getThroughputLimit());
+            _operations.setRate(_csm.getOperationsLimit());
+        }
+
         @Override
         public void runIt() throws InterruptedException
         {
@@ -365,15 +416,15 @@ public class ChecksumScanner
                     }
 
                     try {
-                        PnfsId[] toScan = getFilesToVerify();
-                        _numFiles = toScan.length;
-                        _badCount = 0;
-                        _totalCount = 0;
-                        _unableCount = 0;
-                        scanFiles(toScan);
-                        if (_badCount > 0) {
+                        _badCount.reset();
+                        _totalCount.reset();
+                        _unableCount.reset();
+                        _bytesChecked.reset();
+                        _runStart = System.currentTimeMillis();
+                        scanFiles();
+                        if (_badCount.sum() > 0) {
                             _log.warn("Finished scrubbing. Found {} bad files of {}",
-                                       _badCount, _numFiles);
+                                       _badCount.sum(), _totalCount.sum());
                         }
                         isFinished = true;
                     } catch (IOException e) {
@@ -397,101 +448,204 @@ public class ChecksumScanner
         }
 
         /**
-         * Return array of pnfs id's that has not yet been verified. Any files
-         * added to the pool after this array has been generated will be
-         * included the next time the array is generated.
+         * Return array of at most <code>BATCH_SIZE</code> pnfs id's greater
+         * than <code>cursor</code>, sorted by pnfs id. The repository is
+         * iterated once per batch and only the smallest pnfs id's seen so
+         * far are kept, so the repository index is never copied as a whole.
+         * Updates the number of files of the current run from the number of
+         * files after the cursor.
          * @return array of pnfs id's that needs to be verified. No check is
          *         done on in which state the files are in.
          */
-        private PnfsId[] getFilesToVerify()
+        private PnfsId[] getFilesToVerify(PnfsId cursor)
         {
-            PnfsId[] repcopy = Iterables.toArray(_repository, PnfsId.class);
-            Arrays.sort(repcopy);
-
-            if (!isResuming()) {
-                return repcopy;
-            }
-
-            int index = Arrays.binarySearch(repcopy, _lastFileChecked);
-            if (index >= 0) {
-                /**
-                 * Found. 0 <= index <= repcopy.length - 1
-                 */
-                return Arrays.copyOfRange(repcopy, index + 1, repcopy.length);
-            } else {
-                /**
-                 * Not found. insertionPoint == -index - 1
-                 * where: 0 <= insertionPoint <= repcopy.length
-                 */
-                return Arrays.copyOfRange(repcopy, -index - 1, repcopy.length);
+            NavigableSet<PnfsId> batch = new TreeSet<>();
+            int remaining = 0;
+            for (PnfsId id : _repository) {
+                if (cursor == null || id.compareTo(cursor) > 0) {
+                    remaining++;
+                    if (batch.size() < BATCH_SIZE) {
+                        batch.add(id);
+                    } else if (id.compareTo(batch.last()) < 0) {
+                        batch.pollLast();
+                        batch.add(id);
+                    }
+                }
             }
+            _numFiles = (int) _totalCount.sum() + remaining;
+            return batch.toArray(new PnfsId[batch.size()]);
         }
 
         /**
          * Save state information only every <code>CHECKPOINT_INTERVAL</code>
          * period.
          */
-        private void checkpointIfNeeded()
+        private void checkpointIfNeeded(ScrubberProgress progress)
         {
             if (System.currentTimeMillis() - _lastCheckpoint > CHECKPOINT_INTERVAL) {
+                _lastFileChecked = progress.checkpoint();
                 saveState();
                 _lastCheckpoint = System.currentTimeMillis();
             }
         }
 
-        private void scanFiles(PnfsId[] repository)
+        /**
+         * Pauses while more than the configured number of requests are
+         * waiting in the mover queues.
+         */
+        private void backOffIfBusy() throws InterruptedException
+        {
+            if (_ioQueueManager != null) {
+                while (getQueuedMovers() > _csm.getScrubBusyThreshold()) {
+                    _isBackingOff = true;
+                    Thread.sleep(BACKOFF_DELAY);
+                }
+                _isBackingOff = false;
+            }
+        }
+
+        private int getQueuedMovers()
+        {
+            return _ioQueueManager.queues().stream().mapToInt(MoverRequestScheduler::getQueueSize).sum();
+        }
+
+        private void scanFiles()
                 throws InterruptedException, NoSuchAlgorithmException, IOException
         {
-            for (PnfsId id : repository) {
-                try {
-                    if (_repository.getState(id) == ReplicaState.CACHED ||
-                        _repository.getState(id) == ReplicaState.PRECIOUS) {
-                        ReplicaDescriptor handle =
-                            _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
-                        try {
-                            _csm.verifyChecksumWithThroughputLimit(handle);
-                        } finally {
-                            handle.close();
+            _failure = null;
+            updateLimits();
+            int threads = _csm.getScrubThreads();
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    threads, new ThreadFactoryBuilder().setNameFormat("scrubber-%d").build());
+            Semaphore permits = new Semaphore(threads);
+            ScrubberProgress progress = null;
+            try {
+                PnfsId[] files;
+                do {
+                    files = getFilesToVerify(_lastFileChecked);
+                    ScrubberProgress batch = new ScrubberProgress(files, _lastFileChecked);
+                    progress = batch;
+                    while (batch.hasNext()) {
+                        backOffIfBusy();
+                        permits.acquire();
+                        if (_failure != null) {
+                            permits.release();
+                            break;
                         }
+                        PnfsId id = batch.next();
+                        executor.execute(() -> {
+                            try {
+                                if (verify(id)) {
+                                    batch.done(id);
+                                }
+                            } finally {
+                                permits.release();
+                            }
+                        });
+                        checkpointIfNeeded(batch);
                     }
-                } catch (FileCorruptedCacheException e) {
-                    _badCount++;
-                    _log.error(AlarmMarkerFactory.getMarker(PredefinedAlarm.CHECKSUM,
-                                                            id.toString(),
-                                                            poolName),
-                                    "Marking {} on {} as BROKEN: {}",
-                                    id,
-                                    poolName,
-                                    e.getMessage());
-                    try {
-                        _repository.setState(id, ReplicaState.BROKEN);
-                    } catch (CacheException f) {
-                        _log.warn("Failed to mark {} as BROKEN: {}", id, f.getMessage());
-                    }
-                } catch (IOException e) {
-                    _unableCount++;
-                    throw new IOException("Unable to read " + id + ": " + e.getMessage(), e);
-                } catch (FileNotInCacheException | NotInTrashCacheException e) {
-                    /* It was removed before we could get it. No problem.
+                    /* The next batch starts after the checkpoint, so all
+                     * files of this batch must have been verified first.
                      */
-                } catch (CacheException e) {
-                    _log.warn("Scrubber unable to verify {}: {}", id, e.getMessage());
-                    _unableCount++;
+                    permits.acquire(threads);
+                    permits.release(threads);
+                    _lastFileChecked = batch.checkpoint();
+                } while (files.length == BATCH_SIZE && _failure == null);
+            } finally {
+                executor.shutdownNow();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+                if (progress != null) {
+                    _lastFileChecked = progress.checkpoint();
                 }
-                _lastFileChecked = id;
-                _totalCount++;
-                checkpointIfNeeded();
+            }
+
+            Exception failure = _failure;
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
             }
             _lastFileChecked = null;
         }
 
+        /**
+         * Verifies a single file. Returns false if the verification was
+         * interrupted or aborts the run, in which case the file is still to
+         * be verified.
+         */
+        private boolean verify(PnfsId id)
+        {
+            try {
+                if (_repository.getState(id) == ReplicaState.CACHED ||
+                    _repository.getState(id) == ReplicaState.PRECIOUS) {
+                    ReplicaDescriptor handle =
+                        _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
+                    try {
+                        _csm.verifyChecksum(handle, _bandwidth, _operations);
+                        _bytesChecked.add(handle.getReplicaSize());
+                    } finally {
+                        handle.close();
+                    }
+                }
+            } catch (FileCorruptedCacheException e) {
+                _badCount.increment();
+                _log.error(AlarmMarkerFactory.getMarker(PredefinedAlarm.CHECKSUM,
+                                                        id.toString(),
+                                                        poolName),
+                                "Marking {} on {} as BROKEN: {}",
+                                id,
+                                poolName,
+                                e.getMessage());
+                try {
+                    _repository.setState(id, ReplicaState.BROKEN);
+                } catch (CacheException f) {
+                    _log.warn("Failed to mark {} as BROKEN: {}", id, f.getMessage());
+                } catch (InterruptedException f) {
+                    Thread.currentThread().interrupt();
+                }
+            } catch (IOException e) {
+                _unableCount.increment();
+                _failure = new IOException("Unable to read " + id + ": " + e.getMessage(), e);
+                return false;
+            } catch (FileNotInCacheException | NotInTrashCacheException e) {
+                /* It was removed before we could get it. No problem.
+                 */
+            } catch (CacheException e) {
+                _log.warn("Scrubber unable to verify {}: {}", id, e.getMessage());
+                _unableCount.increment();
+            } catch (InterruptedException e) {
+                return false;
+            } catch (NoSuchAlgorithmException | RuntimeException e) {
+                _failure = e;
+                return false;
+            }
+            _totalCount.increment();
+            return true;
+        }
+
         @Override
         public String toString()
         {
-            return super.toString() + " processed "
-                + _totalCount + " of " + _numFiles + " files: "
-                + _badCount + " corrupt, "
-                + _unableCount + " unable to check";
+            long total = _totalCount.sum();
+            long elapsed = System.currentTimeMillis() - _runStart;
+            StringBuilder sb = new StringBuilder();
+            sb.append(super.toString()).append(" processed ")
+                    .append(total).append(" of ").append(Math.max(_numFiles, 0)).append(" files: ")
+                    .append(_badCount.sum()).append(" corrupt, ")
+                    .append(_unableCount.sum()).append(" unable to check");
+            if (isActive() && total > 0 && elapsed > 0) {
+                double throughput = BYTES.toMiB((double) _bytesChecked.sum()) / (elapsed / 1000.0);
+                sb.append(String.format("; %.1f MiB/s", throughput));
+                long remaining = Math.max(_numFiles - total, 0);
+                long eta = (long) (remaining * ((double) elapsed / total));
+                sb.append(", ETA ").append(TimeUtils.duration(eta, TimeUnit.MILLISECONDS, TimeUnitFormat.SHORT));
+                if (_isBackingOff) {
+                    sb.append(" (paused: mover queues busy)");
+                }
+            }
+            return sb.toString();
         }
     }
 
@@ -0,0 +1,102 @@
+package org.dcache.pool.classic;
+
+import javax.security.auth.Subject;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.dcache.auth.FQAN;
+import org.dcache.auth.Subjects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Share table of mover queues using the {@link MoverRequestScheduler.Order#FAIR}
+ * order.
+ *
+ * Movers are grouped by owner. The owner of a mover is derived from its
+ * subject according to the configured key. Each owner has a weight that
+ * determines its share of the movers started by a queue; owners without an
+ * explicit weight have a weight of one.
+ */
+public class FairShare
+{
+    public enum Key
+    {
+        /** The UID of the user. */
+        UID,
+
+        /** The primary GID of the user. */
+        GID,
+
+        /** The group of the primary FQAN of the user. */
+        FQAN
+    }
+
+    public static final int DEFAULT_WEIGHT = 1;
+
+    private volatile Key _key = Key.UID;
+
+    private final ConcurrentMap<String, Integer> _weights = new ConcurrentHashMap<>();
+
+    public Key getKey()
+    {
+        return _key;
+    }
+
+    public void setKey(Key key)
+    {
+        _key = key;
+    }
+
+    /**
+     * Returns the owner of a mover with the given subject.
+     */
+    public String getOwner(Subject subject)
+    {
+        try {
+            switch (_key) {
+            case UID:
+                return "uid:" + Subjects.getUid(subject);
+            case GID:
+                return "gid:" + Subjects.getPrimaryGid(subject);
+            case FQAN:
+                FQAN fqan = Subjects.getPrimaryFqan(subject);
+                if (fqan != null) {
+                    return "fqan:" + fqan.getGroup();
+                }
+                break;
+            }
+        } catch (NoSuchElementException | IllegalArgumentException ignored) {
+            /* Subject has none or several of the principals. */
+        }
+        return Subjects.UNKNOWN;
+    }
+
+    public int getWeight(String owner)
+    {
+        return _weights.getOrDefault(owner, DEFAULT_WEIGHT);
+    }
+
+    public void setWeight(String owner, int weight)
+    {
+        checkArgument(weight > 0, "Weight must be positive");
+        _weights.put(owner, weight);
+    }
+
+    public void removeWeight(String owner)
+    {
+        _weights.remove(owner);
+    }
+
+    /**
+     * Returns the explicitly configured weights ordered by owner.
+     */
+    public Map<String, Integer> getWeights()
+    {
+        return new TreeMap<>(_weights);
+    }
+}
@@ -0,0 +1,142 @@
+package org.dcache.pool.classic;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.dcache.pool.classic.MoverRequestScheduler.PrioritizedRequest;
+
+/**
+ * Queue of mover requests served in weighted fair share order.
+ *
+ * Requests are kept in one sub-queue per owner, ordered by the given
+ * comparator. Owners with queued requests are served with deficit round
+ * robin: whenever an owner is at the head of the round and has no deficit
+ * left, its deficit grows by its weight in the share table. Each request
+ * taken costs one, so an owner with weight n gets n requests per round.
+ *
+ * Adding and polling a request take logarithmic time in the number of
+ * requests of the owner. The queue is thread safe.
+ */
+class FairShareQueue extends AbstractQueue<PrioritizedRequest>
+{
+    private final FairShare _share;
+    private final Comparator<? super PrioritizedRequest> _comparator;
+
+    /**
+     * Sub-queues of owners with queued requests.
+     */
+    private final Map<String, SubQueue> _queues = new HashMap<>();
+
+    /**
+     * Round of sub-queues. The head is the sub-queue currently served.
+     */
+    private final Deque<SubQueue> _round = new ArrayDeque<>();
+
+    private int _size;
+
+    FairShareQueue(FairShare share, Comparator<? super PrioritizedRequest> comparator)
+    {
+        _share = share;
+        _comparator = comparator;
+    }
+
+    private class SubQueue
+    {
+        final String owner;
+        final TreeSet<PrioritizedRequest> requests = new TreeSet<>(_comparator);
+        long deficit;
+
+        SubQueue(String owner)
+        {
+            this.owner = owner;
+        }
+    }
+
+    @Override
+    public synchronized boolean offer(PrioritizedRequest request)
+    {
+        SubQueue queue = _queues.computeIfAbsent(request.getOwner(), SubQueue::new);
+        if (!queue.requests.add(request)) {
+            return false;
+        }
+        if (queue.requests.size() == 1) {
+            _round.addLast(queue);
+        }
+        _size++;
+        return true;
+    }
+
+    @Override
+    public synchronized PrioritizedRequest poll()
+    {
+        SubQueue queue = _round.peekFirst();
+        if (queue == null) {
+            return null;
+        }
+        if (queue.deficit < 1) {
+            queue.deficit += _share.getWeight(queue.owner);
+        }
+        queue.deficit--;
+        PrioritizedRequest request = queue.requests.pollFirst();
+        _size--;
+        if (queue.requests.isEmpty()) {
+            _round.removeFirst();
+            _queues.remove(queue.owner);
+        } else if (queue.deficit < 1) {
+            _round.removeFirst();
+            _round.addLast(queue);
+        }
+        return request;
+    }
+
+    @Override
+    public synchronized PrioritizedRequest peek()
+    {
+        SubQueue queue = _round.peekFirst();
+        return (queue == null) ? null : queue.requests.first();
+    }
+
+    @Override
+    public synchronized boolean remove(Object o)
+    {
+        if (!(o instanceof PrioritizedRequest)) {
+            return false;
+        }
+        SubQueue queue = _queues.get(((PrioritizedRequest) o).getOwner());
+        if (queue == null || !queue.requests.remove(o)) {
+            return false;
+        }
+        _size--;
+        if (queue.requests.isEmpty()) {
+            _round.remove(queue);
+            _queues.remove(queue.owner);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized int size()
+    {
+        return _size;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queued requests.
+     */
+    @Override
+    public synchronized Iterator<PrioritizedRequest> iterator()
+    {
+        List<PrioritizedRequest> requests = new ArrayList<>(_size);
+        _round.forEach(queue -> requests.addAll(queue.requests));
+        return Collections.unmodifiableList(requests).iterator();
+    }
+}
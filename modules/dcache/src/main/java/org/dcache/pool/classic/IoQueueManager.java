@@ -29,6 +29,7 @@ import dmg.util.command.Command;
 import dmg.util.command.DelayedCommand;
 import dmg.util.command.Option;
 
+import org.dcache.auth.Subjects;
 import org.dcache.pool.FaultEvent;
 import org.dcache.pool.FaultListener;
 import org.dcache.pool.classic.MoverRequestScheduler.Order;
@@ -73,6 +74,11 @@ public class IoQueueManager
      */
     private final AtomicInteger counter = new AtomicInteger();
 
+    /**
+     * Share table of queues with fair share order.
+     */
+    private final FairShare fairShare = new FairShare();
+
     /**
      * Default queue used when named queue does not exist.
      */
@@ -152,6 +158,8 @@ public class IoQueueManager
     public void printSetup(PrintWriter pw)
     {
         queues().forEach(q -> pw.println("mover queue create " + q.getName() + " -order=" + q.getOrder()));
+        pw.println("mover share key " + fairShare.getKey());
+        fairShare.getWeights().forEach((owner, weight) -> pw.println("mover share set " + owner + " " + weight));
         queues().forEach(q -> pw.println("mover set max active -queue=" + q.getName() + " " + q.getMaxActiveJobs()));
         queues().forEach(q -> pw.println("jtm set timeout -queue=" + q.getName() + " -lastAccess=" +
                                          (q.getLastAccessed() / 1000L) + " -total=" + (q.getTotal() / 1000L)));
@@ -175,7 +183,7 @@ public class IoQueueManager
             LOGGER.info("Creating queue: {}", name);
 
             int id = counter.getAndIncrement();
-            queue = new MoverRequestScheduler(name, id, order);
+            queue = new MoverRequestScheduler(name, id, order, fairShare);
             queue.addFaultListener(this);
             queuesById.put(id, queue);
             queuesByName.put(name, queue);
@@ -279,7 +287,10 @@ public class IoQueueManager
 
         @Option(name = "order",
                 usage = "Ordering of the queue. Although last in first out is " +
-                        "unfair, it tends to be more robust in overload situations.")
+                        "unfair, it tends to be more robust in overload situations. " +
+                        "FAIR serves the owners of queued movers in weighted round " +
+                        "robin order according to the share table, and the movers of " +
+                        "each owner in first in first out order.")
         Order order = Order.LIFO;
 
         @Override
@@ -309,6 +320,78 @@ public class IoQueueManager
         }
     }
 
+    @AffectsSetup
+    @Command(name = "mover share key", hint = "set how owners are identified",
+            description = "Sets how the owner of a mover is determined for queues with FAIR " +
+                          "order. The owner is derived from the user of the transfer; movers " +
+                          "for which the owner cannot be determined share the owner '" +
+                          Subjects.UNKNOWN + "'. Changing the key only affects new movers.")
+    public class MoverShareKeyCommand implements Callable<String>
+    {
+        @Argument(usage = "UID groups movers by user, GID by primary group and FQAN by " +
+                          "the group of the primary FQAN.")
+        FairShare.Key key;
+
+        @Override
+        public String call()
+        {
+            fairShare.setKey(key);
+            return "";
+        }
+    }
+
+    @AffectsSetup
+    @Command(name = "mover share set", hint = "set the share of an owner",
+            description = "Sets the weight of an owner in queues with FAIR order. An owner " +
+                          "with weight n gets n movers started for every mover started for " +
+                          "an owner with weight one, as long as both have queued movers. " +
+                          "Owners without an explicit weight have a weight of one.")
+    public class MoverShareSetCommand implements Callable<String>
+    {
+        @Argument(index = 0, usage = "Owner such as uid:1000, gid:100 or fqan:/atlas.")
+        String owner;
+
+        @Argument(index = 1, usage = "Positive weight of the owner.")
+        int weight;
+
+        @Override
+        public String call() throws IllegalArgumentException
+        {
+            fairShare.setWeight(owner, weight);
+            return "";
+        }
+    }
+
+    @AffectsSetup
+    @Command(name = "mover share unset", hint = "reset the share of an owner",
+            description = "Resets the weight of an owner to the default of one.")
+    public class MoverShareUnsetCommand implements Callable<String>
+    {
+        @Argument(usage = "Owner such as uid:1000, gid:100 or fqan:/atlas.")
+        String owner;
+
+        @Override
+        public String call()
+        {
+            fairShare.removeWeight(owner);
+            return "";
+        }
+    }
+
+    @Command(name = "mover share ls", hint = "list share table",
+            description = "Lists the owners with an explicit weight.")
+    public class MoverShareLsCommand implements Callable<String>
+    {
+        @Override
+        public String call()
+        {
+            return "Key: " + fairShare.getKey() + "\n" +
+                   fairShare.getWeights().entrySet().stream()
+                           .map(e -> e.getKey() + " " + e.getValue())
+                           .collect(joining("\n"));
+        }
+    }
+
     @Command(name = "mover queue ls",
             hint = "list all mover queues in this pool",
             description = "List information about the mover queues in this pool. " +
@@ -406,6 +489,11 @@ public class IoQueueManager
         @Option(name = "r", usage = "Sort output in reverse order.")
         boolean reverseSort;
 
+        @Option(name = "owners", usage = "List the number of queued and active movers " +
+                                         "and the weight of each owner by queue instead " +
+                                         "of the movers.")
+        boolean byOwner;
+
         @Override
         public Serializable call() throws NoSuchElementException
         {
@@ -427,7 +515,19 @@ public class IoQueueManager
                 queues = queuesById.values();
             }
 
-            if (isBinary) {
+            if (byOwner) {
+                StringBuilder sb = new StringBuilder();
+                queues.forEach(q -> {
+                    sb.append("[").append(q.getName()).append("]\n");
+                    q.getCountsByOwner().forEach((owner, counts) ->
+                            sb.append(owner)
+                                    .append(" queued=").append(counts[0])
+                                    .append(" active=").append(counts[1])
+                                    .append(" weight=").append(fairShare.getWeight(owner))
+                                    .append('\n'));
+                });
+                return sb.toString();
+            } else if (isBinary) {
                 // ignore sortin and grouping by queue name if binnary
                 return queues.stream().flatMap(s -> s.getJobInfos().stream()).toArray(IoJobInfo[]::new);
             } else {
@@ -15,7 +15,8 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.PriorityBlockingQueue;
@@ -101,7 +102,12 @@ public class MoverRequestScheduler
     /**
      * Queued movers.
      */
-    private BlockingQueue<PrioritizedRequest> _queue;
+    private Queue<PrioritizedRequest> _queue;
+
+    /**
+     * Share table used by the FAIR order.
+     */
+    private final FairShare _share;
 
     /**
      * Job id generator
@@ -115,14 +121,20 @@ public class MoverRequestScheduler
 
     public enum Order
     {
-        FIFO, LIFO
+        FIFO, LIFO,
+
+        /**
+         * Weighted fair share between owners, see {@link FairShareQueue}.
+         */
+        FAIR
     }
 
-    public MoverRequestScheduler(String name, int queueId, Order order)
+    public MoverRequestScheduler(String name, int queueId, Order order, FairShare share)
     {
         _name = name;
         _queueId = queueId;
         _order = order;
+        _share = share;
         _queue = createQueue(order);
         _semaphore.setMaxPermits(2);
     }
@@ -137,13 +149,13 @@ public class MoverRequestScheduler
         _faultListeners.remove(listener);
     }
 
-    private PriorityBlockingQueue<PrioritizedRequest> createQueue(Order order)
+    private Queue<PrioritizedRequest> createQueue(Order order)
     {
         /* PriorityBlockingQueue returns the least elements first, that is, the
          * the highest priority requests have to be first in the ordering.
          */
         Comparator<IoPrioritizable> comparator =
-                order == Order.FIFO
+                order != Order.LIFO
                 ? Comparator
                         .comparing(IoPrioritizable::getPriority)
                         .reversed()
@@ -153,6 +165,12 @@ public class MoverRequestScheduler
                         .thenComparingLong(IoPrioritizable::getCreateTime)
                         .reversed();
 
+        if (order == Order.FAIR) {
+            /* Requests of an owner are served in FIFO order. Ties are broken by id
+             * as the sub-queues are sets.
+             */
+            return new FairShareQueue(_share, comparator.thenComparingInt(r -> ((PrioritizedRequest) r).getId()));
+        }
         return new PriorityBlockingQueue<>(16, comparator);
     }
 
@@ -164,13 +182,26 @@ public class MoverRequestScheduler
     public synchronized void setOrder(Order order)
     {
         if (order != _order) {
-            PriorityBlockingQueue<PrioritizedRequest> queue = createQueue(order);
-            _queue.drainTo(queue);
+            Queue<PrioritizedRequest> queue = createQueue(order);
+            queue.addAll(drainQueue());
             _queue = queue;
             _order = order;
         }
     }
 
+    /**
+     * Removes and returns all queued requests.
+     */
+    private synchronized List<PrioritizedRequest> drainQueue()
+    {
+        List<PrioritizedRequest> requests = new ArrayList<>(_queue.size());
+        PrioritizedRequest request;
+        while ((request = _queue.poll()) != null) {
+            requests.add(request);
+        }
+        return requests;
+    }
+
     /**
      * Get mover id for given door request. If there is no mover associated with {@code doorUniqueueRequest} a new mover
      * will be created by using provided {@code moverSupplier}.
@@ -226,10 +257,12 @@ public class MoverRequestScheduler
                                              String doorUniqueId,
                                              IoPriority priority) throws CacheException
     {
+        Mover<?> mover = moverSupplier.createMover();
         return new PrioritizedRequest(_queueId << 24 | nextId(),
                                       doorUniqueId,
-                                      moverSupplier.createMover(),
-                                      priority);
+                                      mover,
+                                      priority,
+                                      _share.getOwner(mover.getSubject()));
     }
 
     /**
@@ -383,7 +416,7 @@ public class MoverRequestScheduler
      */
     public int getQueueSize()
     {
-        BlockingQueue<PrioritizedRequest> queue;
+        Queue<PrioritizedRequest> queue;
         synchronized (this) {
             queue = _queue;
         }
@@ -395,7 +428,7 @@ public class MoverRequestScheduler
      */
     public int getCountByPriority(IoPriority priority)
     {
-        BlockingQueue<PrioritizedRequest> queue;
+        Queue<PrioritizedRequest> queue;
         synchronized (this) {
             queue = _queue;
         }
@@ -404,6 +437,25 @@ public class MoverRequestScheduler
                 .count();
     }
 
+    /**
+     * Get the number of queued and running requests by owner. The owner of
+     * a request is determined by the share table when the request is created.
+     *
+     * @return map from owner to an array with the number of queued and the
+     *         number of running requests
+     */
+    public Map<String, int[]> getCountsByOwner()
+    {
+        Map<String, int[]> counts = new TreeMap<>();
+        _jobs.values().forEach(request -> {
+            IoRequestState state = request.getState();
+            if (state == QUEUED || state == RUNNING) {
+                counts.computeIfAbsent(request.getOwner(), owner -> new int[2])[state == QUEUED ? 0 : 1]++;
+            }
+        });
+        return counts;
+    }
+
     /**
      * Get the name of this scheduler.
      *
@@ -478,8 +530,7 @@ public class MoverRequestScheduler
          * before killing jobs as otherwise the queued jobs will immediatley fill
          * the freed job slot.
          */
-        Collection<PrioritizedRequest> toBeCancelled = new ArrayList<>();
-        _queue.drainTo(toBeCancelled);
+        Collection<PrioritizedRequest> toBeCancelled = drainQueue();
 
         /* Kill both the jobs that were queued and which are running. */
         _jobs.values().forEach(j -> j.kill("shutdown"));
@@ -621,6 +672,11 @@ public class MoverRequestScheduler
 
         private final String _doorUniqueId;
 
+        /**
+         * Owner of the mover for fair share scheduling.
+         */
+        private final String _owner;
+
         private IoRequestState _state;
 
         /**
@@ -630,7 +686,7 @@ public class MoverRequestScheduler
 
         private Cancellable _cancellable;
 
-        PrioritizedRequest(int id, String doorUniqueId, Mover<?> mover, IoPriority p)
+        PrioritizedRequest(int id, String doorUniqueId, Mover<?> mover, IoPriority p, String owner)
         {
             _id = id;
             _mover = mover;
@@ -639,6 +695,7 @@ public class MoverRequestScheduler
             _submitTime = System.currentTimeMillis();
             _state = NEW;
             _doorUniqueId = doorUniqueId;
+            _owner = owner;
             _cdc = new CDC();
         }
 
@@ -667,6 +724,16 @@ public class MoverRequestScheduler
             return _doorUniqueId;
         }
 
+        public String getOwner()
+        {
+            return _owner;
+        }
+
+        public synchronized IoRequestState getState()
+        {
+            return _state;
+        }
+
         @Override
         public IoPriority getPriority()
         {
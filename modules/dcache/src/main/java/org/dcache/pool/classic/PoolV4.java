@@ -430,6 +430,17 @@ public class PoolV4
         }));
     }
 
+    /**
+     * Sets the number of heartbeats between full heartbeats. Heartbeats in
+     * between are sent as deltas without tags and HSM instances. A value of
+     * one disables delta heartbeats.
+     */
+    public void setFullHeartbeatInterval(int interval)
+    {
+        checkArgument(interval > 0, "The full heartbeat interval must be positive.");
+        _pingThread.setFullHeartbeatInterval(interval);
+    }
+
     @Required
     public void setIoQueueManager(IoQueueManager ioQueueManager)
     {
@@ -1462,6 +1473,15 @@ public class PoolV4
     {
         private final Thread _worker;
         private int _heartbeat = HEARTBEAT;
+        private int _fullHeartbeatInterval = 1;
+
+        /* State sent with the last full heartbeat. */
+        private long _fullHeartbeatSequence;
+        private int _heartbeatsSinceFull;
+        private ImmutableMap<String, String> _lastTags;
+        private Set<String> _lastHsmInstances;
+        private int _lastMode;
+        private PoolCostInfo _lastCostInfo;
 
         private PoolManagerPingThread()
         {
@@ -1504,6 +1524,11 @@ public class PoolV4
             return _heartbeat;
         }
 
+        public synchronized void setFullHeartbeatInterval(int interval)
+        {
+            _fullHeartbeatInterval = interval;
+        }
+
         public synchronized void sendPoolManagerMessage(boolean forceSend)
         {
             if (forceSend || _storageQueue.poolStatusChanged()) {
@@ -1518,14 +1543,40 @@ public class PoolV4
                 _poolMode.isDisabled(PoolV2Mode.DISABLED_STRICT);
             PoolCostInfo info = disabled ? null : getPoolCostInfo();
 
-            PoolManagerPoolUpMessage poolManagerMessage =
-                new PoolManagerPoolUpMessage(_poolName, _serialId,
-                                             _poolMode, info);
-
-            poolManagerMessage.setTagMap(_tags);
-            if (_hsmSet != null) {
-                poolManagerMessage.setHsmInstances(new TreeSet<>(_hsmSet
-                        .getHsmInstances()));
+            /* Tags and HSM instances rarely change, so they are only sent
+             * with every n-th heartbeat or when they or the pool mode changed.
+             * Heartbeats in between only carry the changes to the cost
+             * information of the last full heartbeat. Each full heartbeat
+             * carries a new sequence number that deltas echo, so receivers
+             * that missed the full heartbeat ignore deltas based on it.
+             */
+            ImmutableMap<String, String> tags = ImmutableMap.copyOf(_tags);
+            Set<String> hsmInstances = (_hsmSet == null) ? null : new TreeSet<>(_hsmSet.getHsmInstances());
+            int mode = _poolMode.getMode();
+            PoolManagerPoolUpMessage poolManagerMessage;
+            if (++_heartbeatsSinceFull < _fullHeartbeatInterval
+                    && tags.equals(_lastTags)
+                    && Objects.equals(hsmInstances, _lastHsmInstances)
+                    && mode == _lastMode
+                    && (info == null) == (_lastCostInfo == null)
+                    && (info == null || info.getDefaultQueueName().equals(_lastCostInfo.getDefaultQueueName()))) {
+                poolManagerMessage = new PoolManagerPoolUpMessage(_poolName, _serialId, _poolMode);
+                poolManagerMessage.setDelta(true);
+                poolManagerMessage.setFullHeartbeatSequence(_fullHeartbeatSequence);
+                poolManagerMessage.setCostDelta((info == null) ? null : info.diff(_lastCostInfo));
+            } else {
+                _heartbeatsSinceFull = 0;
+                _lastTags = tags;
+                _lastHsmInstances = hsmInstances;
+                _lastMode = mode;
+                _lastCostInfo = info;
+                _fullHeartbeatSequence++;
+                poolManagerMessage = new PoolManagerPoolUpMessage(_poolName, _serialId, _poolMode, info);
+                poolManagerMessage.setFullHeartbeatSequence(_fullHeartbeatSequence);
+                poolManagerMessage.setTagMap(tags);
+                if (hsmInstances != null) {
+                    poolManagerMessage.setHsmInstances(hsmInstances);
+                }
             }
             poolManagerMessage.setMessage(_poolStatusMessage);
             poolManagerMessage.setCode(_poolStatusCode);
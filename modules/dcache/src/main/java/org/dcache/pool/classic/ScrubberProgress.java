@@ -0,0 +1,80 @@
+package org.dcache.pool.classic;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import java.util.Arrays;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import diskCacheV111.util.PnfsId;
+
+/**
+ * Tracks the progress of a batch of a scrubber run over files verified
+ * concurrently.
+ *
+ * Files are handed out in pnfs id order and remain in flight until their
+ * verification completes. The checkpoint is the largest pnfs id up to which
+ * all files have been verified, so resuming after the checkpoint never skips
+ * a file that was still in flight.
+ */
+class ScrubberProgress
+{
+    /** Files to verify, sorted by pnfs id. */
+    private final PnfsId[] _files;
+
+    /** Checkpoint from which the run started, or null. */
+    private final PnfsId _start;
+
+    /** Index of the next file to hand out. */
+    @GuardedBy("this")
+    private int _next;
+
+    @GuardedBy("this")
+    private final NavigableSet<PnfsId> _inFlight = new TreeSet<>();
+
+    /**
+     * @param files sorted pnfs ids of the files to verify
+     * @param start checkpoint from which the run starts, or null
+     */
+    ScrubberProgress(PnfsId[] files, @Nullable PnfsId start)
+    {
+        _files = files;
+        _start = start;
+    }
+
+    synchronized boolean hasNext()
+    {
+        return _next < _files.length;
+    }
+
+    /**
+     * Returns the next file to verify and marks it as in flight.
+     */
+    synchronized PnfsId next()
+    {
+        PnfsId id = _files[_next++];
+        _inFlight.add(id);
+        return id;
+    }
+
+    /**
+     * Marks a file as verified.
+     */
+    synchronized void done(PnfsId id)
+    {
+        _inFlight.remove(id);
+    }
+
+    /**
+     * Returns the largest pnfs id for which all files up to and including
+     * it have been verified, or null if no file has been verified since the
+     * start of the scrub.
+     */
+    @Nullable
+    synchronized PnfsId checkpoint()
+    {
+        int end = _inFlight.isEmpty() ? _next : Arrays.binarySearch(_files, _inFlight.first());
+        return (end == 0) ? _start : _files[end - 1];
+    }
+}
@@ -71,6 +71,7 @@ import org.dcache.pool.classic.json.JobTimeoutManagerData;
 import org.dcache.pool.classic.json.SweeperData;
 import org.dcache.pool.classic.json.TransferServicesData;
 import org.dcache.pool.migration.json.MigrationData;
+import org.dcache.pool.movers.json.MoverIoData;
 import org.dcache.pool.nearline.json.StorageHandlerData;
 import org.dcache.pool.p2p.json.P2PData;
 import org.dcache.pool.repository.json.RepositoryData;
@@ -91,6 +92,7 @@ public class PoolData implements Serializable {
     private HSMFlushQManagerData  hsmFlushQMData;
     private JobTimeoutManagerData jtmData;
     private MigrationData         migrationData;
+    private MoverIoData           moverIoData;
     private P2PData               ppData;
     private RepositoryData        repositoryData;
     private StorageHandlerData    storageHandlerData;
@@ -129,6 +131,10 @@ public class PoolData implements Serializable {
         return migrationData;
     }
 
+    public MoverIoData getMoverIoData() {
+        return moverIoData;
+    }
+
     public List<String> getPoolGroups() {
         return poolGroups;
     }
@@ -187,6 +193,10 @@ public class PoolData implements Serializable {
         this.migrationData = migrationData;
     }
 
+    public void setMoverIoData(MoverIoData moverIoData) {
+        this.moverIoData = moverIoData;
+    }
+
     public void setPoolGroups(List<String> poolGroups) {
         this.poolGroups = poolGroups;
     }
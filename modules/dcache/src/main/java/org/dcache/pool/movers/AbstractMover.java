@@ -76,6 +76,7 @@ public abstract class AbstractMover<P extends ProtocolInfo, M extends AbstractMo
     protected final String _transferPath;
     protected volatile int _errorCode;
     protected volatile String _errorMessage = "";
+    private final ChecksumModule _checksumModule;
     private final Set<ChecksumFactory> _checksumFactories;
     private volatile ChecksumChannel _checksumChannel;
 
@@ -98,6 +99,7 @@ public abstract class AbstractMover<P extends ProtocolInfo, M extends AbstractMo
         _pathToDoor = pathToDoor;
         _handle = handle;
         _transferService = transferService;
+        _checksumModule = checksumModule;
         _checksumFactories = getChecksumFactoriesFor(checksumModule,
                                                      handle);
     }
@@ -261,7 +263,7 @@ public abstract class AbstractMover<P extends ProtocolInfo, M extends AbstractMo
             channel = _handle.createChannel();
             if (getIoMode().contains(StandardOpenOption.WRITE)) {
                 try {
-                    channel = _checksumChannel = new ChecksumChannel(channel, _checksumFactories);
+                    channel = _checksumChannel = _checksumModule.createChecksumChannel(channel, _checksumFactories);
                 } catch (Throwable t) {
                     /* This should only happen in case of JVM Errors or if the checksum digest cannot be
                      * instantiated (which, barring bugs, should never happen).
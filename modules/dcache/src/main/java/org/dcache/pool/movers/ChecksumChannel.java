@@ -8,6 +8,7 @@ import com.google.common.collect.TreeRangeSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import java.io.IOException;
@@ -39,6 +40,12 @@ import static org.dcache.util.ByteUnit.KiB;
  * A wrapper for RepositoryChannel that computes a digest
  * on the fly during write as long as all writes are
  * sequential.
+ *
+ * If created with a {@link DigestPipeline}, the digests are updated on the
+ * worker threads of the pipeline rather than by the writing thread. Data
+ * is still submitted in file order, so out of order writes are handled as
+ * in the inline case: data beyond a gap is read back from the inner channel
+ * once the gap has been filled.
  */
 public class ChecksumChannel implements RepositoryChannel
 {
@@ -61,6 +68,12 @@ public class ChecksumChannel implements RepositoryChannel
      */
     private final Map<ChecksumType, MessageDigest> _digests;
 
+    /**
+     * Pipeline stream updating the digests, or null if the digests are
+     * updated by the writing thread.
+     */
+    private final DigestPipeline.Stream _pipeline;
+
     /**
      * Cached checksum after getChecksums is called the first time.
      */
@@ -119,11 +132,19 @@ public class ChecksumChannel implements RepositoryChannel
 
     public ChecksumChannel(RepositoryChannel inner,
                            Set<ChecksumFactory> checksumFactories)
+    {
+        this(inner, checksumFactories, null);
+    }
+
+    public ChecksumChannel(RepositoryChannel inner,
+                           Set<ChecksumFactory> checksumFactories,
+                           @Nullable DigestPipeline pipeline)
     {
         _channel = inner;
         _checksumFactories = checksumFactories;
         _digests = _checksumFactories.stream().collect(Collectors.toMap(f -> f.getType(),
                                                                         f -> f.create()));
+        _pipeline = (pipeline == null) ? null : pipeline.newStream(_digests.values());
     }
 
     @Override
@@ -314,11 +335,15 @@ public class ChecksumChannel implements RepositoryChannel
                         feedZerosToDigesterForRangeGaps();
                     }
 
+                    if (_pipeline != null) {
+                        _pipeline.await();
+                    }
+
                     return _checksumFactories.stream().map(e -> e.create(_digests.get(e.getType())
                                                                                         .digest()))
                                                       .collect(Collectors.toSet());
                 } catch (IOException e) {
-                    _log.info("Unable to generate checksum of sparse file: {}", e.toString());
+                    _log.info("Unable to generate checksum: {}", e.toString());
                     return Collections.emptySet();
                 }
             }
@@ -420,13 +445,11 @@ public class ChecksumChannel implements RepositoryChannel
             // update offset prior digest calculation as digests#update will update position in the buffer
             _nextChecksumOffset += buffer.remaining();
 
-            _digests.values().stream().forEach(d -> {
-                d.update(buffer.duplicate());
-            });
-
             long expectedOffsetAfterRead = _nextChecksumOffset + bytesToRead;
             try
             {
+                updateDigests(buffer);
+
                 while (bytesToRead > 0) {
                     _readBackBuffer.clear();
                     long limit = Math.min(_readBackBuffer.capacity(), bytesToRead);
@@ -439,9 +462,7 @@ public class ChecksumChannel implements RepositoryChannel
 
                     _readBackBuffer.flip();
 
-                    _digests.values().stream().forEach(d -> {
-                        d.update(_readBackBuffer.duplicate());
-                    });
+                    updateDigests(_readBackBuffer);
 
                     bytesToRead -= lastBytesRead;
                     _nextChecksumOffset += lastBytesRead;
@@ -456,4 +477,14 @@ public class ChecksumChannel implements RepositoryChannel
             }
         }
     }
+
+    @GuardedBy("_digests")
+    private void updateDigests(ByteBuffer buffer) throws IOException
+    {
+        if (_pipeline != null) {
+            _pipeline.update(buffer.duplicate());
+        } else {
+            _digests.values().forEach(d -> d.update(buffer.duplicate()));
+        }
+    }
 }
@@ -0,0 +1,202 @@
+package org.dcache.pool.movers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import org.dcache.util.SequentialExecutor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.dcache.util.ByteUnit.KiB;
+
+/**
+ * Computes message digests on worker threads.
+ *
+ * Data submitted to the pipeline is copied into buffers taken from a bounded
+ * pool, after which the submitting thread may continue writing to disk while
+ * the digests are updated by a shared set of worker threads. Each digest is
+ * updated by at most one thread at a time and sees the data in the order it
+ * was submitted; different digests of the same stream are updated in
+ * parallel.
+ *
+ * If all buffers are in use, submitting blocks until a buffer is released.
+ * This bounds the memory used by the pipeline and throttles writers that
+ * outpace the digest computation.
+ */
+public class DigestPipeline implements CellInfoProvider
+{
+    private static final int BUFFER_SIZE = KiB.toBytes(256);
+
+    private final ExecutorService _executor;
+
+    /**
+     * Buffers that are not in use. Buffers are allocated on demand until
+     * _maxBuffers buffers exist.
+     */
+    private final BlockingQueue<ByteBuffer> _buffers;
+    private final AtomicInteger _allocatedBuffers = new AtomicInteger();
+    private final int _maxBuffers;
+
+    private final LongAdder _bytes = new LongAdder();
+    private final LongAdder _stalls = new LongAdder();
+
+    public DigestPipeline(int threads, int buffers)
+    {
+        checkArgument(threads > 0, "Number of threads must be positive");
+        checkArgument(buffers > 0, "Number of buffers must be positive");
+        _executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("checksum-pipeline-%d").setDaemon(true).build());
+        _buffers = new ArrayBlockingQueue<>(buffers);
+        _maxBuffers = buffers;
+    }
+
+    public void shutdown()
+    {
+        _executor.shutdown();
+    }
+
+    /**
+     * Returns a new stream updating the given digests.
+     */
+    public Stream newStream(Collection<MessageDigest> digests)
+    {
+        return new Stream(digests);
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        pw.println("Checksum pipeline:");
+        pw.println("    Bytes digested : " + _bytes.sum());
+        pw.println("    Buffers        : " + (_allocatedBuffers.get() - _buffers.size()) + " used, " +
+                   _allocatedBuffers.get() + " allocated, " + _maxBuffers + " max");
+        pw.println("    Writer stalls  : " + _stalls.sum());
+    }
+
+    private ByteBuffer acquireBuffer() throws InterruptedIOException
+    {
+        ByteBuffer buffer = _buffers.poll();
+        if (buffer == null) {
+            int allocated = _allocatedBuffers.get();
+            while (allocated < _maxBuffers) {
+                if (_allocatedBuffers.compareAndSet(allocated, allocated + 1)) {
+                    return ByteBuffer.allocate(BUFFER_SIZE);
+                }
+                allocated = _allocatedBuffers.get();
+            }
+            _stalls.increment();
+            try {
+                buffer = _buffers.take();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for checksum buffer");
+            }
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Data submitted to the same stream is fed to its digests in order.
+     */
+    public class Stream
+    {
+        private final List<MessageDigest> _digests;
+        private final List<SequentialExecutor> _workers;
+        private final AtomicReference<RuntimeException> _failure = new AtomicReference<>();
+
+        private Stream(Collection<MessageDigest> digests)
+        {
+            _digests = new ArrayList<>(digests);
+            _workers = new ArrayList<>(_digests.size());
+            for (int i = 0; i < _digests.size(); i++) {
+                _workers.add(new SequentialExecutor(_executor));
+            }
+        }
+
+        /**
+         * Submits the remaining bytes of {@code src} to the digests. On return
+         * the data has been copied and {@code src} may be reused.
+         */
+        public void update(ByteBuffer src) throws IOException
+        {
+            while (src.hasRemaining()) {
+                ByteBuffer buffer = acquireBuffer();
+                ByteBuffer chunk = src.duplicate();
+                chunk.limit(chunk.position() + Math.min(chunk.remaining(), buffer.capacity()));
+                buffer.put(chunk).flip();
+                src.position(chunk.position());
+                submit(buffer);
+            }
+        }
+
+        private void submit(ByteBuffer buffer) throws IOException
+        {
+            AtomicInteger references = new AtomicInteger(_workers.size());
+            int length = buffer.remaining();
+            for (int i = 0; i < _workers.size(); i++) {
+                MessageDigest digest = _digests.get(i);
+                try {
+                    _workers.get(i).execute(() -> {
+                        try {
+                            digest.update(buffer.duplicate());
+                            _bytes.add(length);
+                        } catch (RuntimeException e) {
+                            _failure.compareAndSet(null, e);
+                        } finally {
+                            release(buffer, references, 1);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    release(buffer, references, _workers.size() - i);
+                    throw new IOException("Checksum pipeline is shut down", e);
+                }
+            }
+        }
+
+        private void release(ByteBuffer buffer, AtomicInteger references, int count)
+        {
+            if (references.addAndGet(-count) == 0) {
+                _buffers.add(buffer);
+            }
+        }
+
+        /**
+         * Waits until all submitted data has been fed to the digests. No
+         * data may be submitted afterwards.
+         *
+         * @throws IOException if updating a digest failed
+         */
+        public void await() throws IOException
+        {
+            _workers.forEach(SequentialExecutor::shutdown);
+            try {
+                for (SequentialExecutor worker : _workers) {
+                    worker.awaitTermination();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for checksum computation");
+            }
+            RuntimeException failure = _failure.get();
+            if (failure != null) {
+                throw new IOException("Checksum computation failed: " + failure, failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.dcache.pool.movers;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dcache.pool.movers.json.IoHistogramData;
+
+/**
+ * Lock-free histogram of non-negative values.
+ *
+ * Buckets are logarithmic with each power of two split into eight linear
+ * sub-buckets. Percentiles are reported as the upper bound of the bucket
+ * containing the percentile, i.e. they are accurate to within 12.5%.
+ * Recording increments a {@link LongAdder} and may be called concurrently
+ * from any thread.
+ */
+public class IoHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values of 2^MAX_EXPONENT and above share the last bucket.
+     */
+    private static final int MAX_EXPONENT = 50;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS;
+
+    private final LongAdder[] _buckets = new LongAdder[BUCKETS];
+    private final LongAdder _sum = new LongAdder();
+    private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+
+    public IoHistogram()
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            _buckets[i] = new LongAdder();
+        }
+    }
+
+    static int bucketOf(long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int bucket = ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    static long upperBoundOf(int bucket)
+    {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long lower = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    public void record(long value)
+    {
+        _buckets[bucketOf(value)].increment();
+        _sum.add(value);
+        _max.accumulate(value);
+    }
+
+    /**
+     * Returns a point in time copy of the histogram.
+     */
+    public Snapshot snapshot()
+    {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _buckets[i].sum();
+        }
+        return new Snapshot(counts, _sum.sum(), _max.get());
+    }
+
+    /**
+     * Immutable copy of a histogram. Snapshots of several histograms can
+     * be combined with {@link #plus}.
+     */
+    public static class Snapshot
+    {
+        private final long[] _counts;
+        private final long _sum;
+        private final long _max;
+
+        private Snapshot(long[] counts, long sum, long max)
+        {
+            _counts = counts;
+            _sum = sum;
+            _max = max;
+        }
+
+        public static Snapshot empty()
+        {
+            return new Snapshot(new long[BUCKETS], 0, 0);
+        }
+
+        public Snapshot plus(Snapshot other)
+        {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = _counts[i] + other._counts[i];
+            }
+            return new Snapshot(counts, _sum + other._sum, Math.max(_max, other._max));
+        }
+
+        public long getCount()
+        {
+            long count = 0;
+            for (long c : _counts) {
+                count += c;
+            }
+            return count;
+        }
+
+        public long getSum()
+        {
+            return _sum;
+        }
+
+        public long getMax()
+        {
+            return _max;
+        }
+
+        public double getMean()
+        {
+            long count = getCount();
+            return (count == 0) ? 0 : (double) _sum / count;
+        }
+
+        /**
+         * Returns an upper bound for the given percentile, or 0 if nothing
+         * was recorded. The bound never exceeds the maximum recorded value.
+         */
+        public long getPercentile(double percentile)
+        {
+            long threshold = (long) Math.ceil(getCount() * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += _counts[i];
+                if (seen > 0 && seen >= threshold) {
+                    return Math.min(upperBoundOf(i), _max);
+                }
+            }
+            return 0;
+        }
+
+        public IoHistogramData toData()
+        {
+            IoHistogramData data = new IoHistogramData();
+            data.setCount(getCount());
+            data.setMean(getMean());
+            data.setMax(_max);
+            data.setP50(getPercentile(50));
+            data.setP90(getPercentile(90));
+            data.setP99(getPercentile(99));
+            data.setP999(getPercentile(99.9));
+            return data;
+        }
+    }
+}
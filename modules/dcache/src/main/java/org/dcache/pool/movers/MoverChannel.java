@@ -3,6 +3,8 @@ package org.dcache.pool.movers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.SyncFailedException;
@@ -97,13 +99,33 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
      */
     private final AllocatorMode _allocatorMode;
 
+    /**
+     * I/O statistics of the protocol of the transfer, or null.
+     */
+    @Nullable
+    private final MoverIoStatistics.ProtocolStatistics _statistics;
+
     public MoverChannel(Mover<T> mover, RepositoryChannel channel, AllocatorMode allocatorMode)
     {
-        this(mover.getIoMode(), mover.getFileAttributes(), mover.getProtocolInfo(), channel, mover.getIoHandle(), allocatorMode);
+        this(mover, channel, allocatorMode, null);
+    }
+
+    public MoverChannel(Mover<T> mover, RepositoryChannel channel, AllocatorMode allocatorMode,
+            @Nullable MoverIoStatistics statistics)
+    {
+        this(mover.getIoMode(), mover.getFileAttributes(), mover.getProtocolInfo(), channel, mover.getIoHandle(),
+             allocatorMode, statistics);
     }
 
     public MoverChannel(Set<? extends OpenOption> mode, FileAttributes attributes, T protocolInfo,
             RepositoryChannel channel, Allocator allocator, AllocatorMode allocatorMode)
+    {
+        this(mode, attributes, protocolInfo, channel, allocator, allocatorMode, null);
+    }
+
+    public MoverChannel(Set<? extends OpenOption> mode, FileAttributes attributes, T protocolInfo,
+            RepositoryChannel channel, Allocator allocator, AllocatorMode allocatorMode,
+            @Nullable MoverIoStatistics statistics)
     {
         _mode = mode;
         _protocolInfo = protocolInfo;
@@ -111,6 +133,7 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
         _allocator = allocator;
         _fileAttributes = attributes;
         _allocatorMode = allocatorMode;
+        _statistics = (statistics == null) ? null : statistics.getStatistics(protocolInfo);
     }
 
     @Override
@@ -154,6 +177,9 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
     public void close() throws IOException
     {
         _lastTransferred.set(System.currentTimeMillis());
+        if (_statistics != null && _channel.isOpen()) {
+            _statistics.transferred(getBytesTransferred(), getLastTransferred() - _transferStarted);
+        }
         _channel.close();
     }
 
@@ -167,7 +193,9 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
     public synchronized int read(ByteBuffer dst) throws IOException
     {
         try {
+            long start = System.nanoTime();
             int bytes = _channel.read(dst);
+            recordRead(start, bytes);
             _bytesTransferred.getAndAdd(bytes);
             return bytes;
         } finally {
@@ -178,7 +206,9 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
     @Override
     public int read(ByteBuffer buffer, long position) throws IOException {
         try {
+            long start = System.nanoTime();
             int bytes = _channel.read(buffer, position);
+            recordRead(start, bytes);
             _bytesTransferred.getAndAdd(bytes);
             return bytes;
         } finally {
@@ -189,7 +219,9 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
     @Override
     public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
         try {
+            long start = System.nanoTime();
             long bytes = _channel.read(dsts, offset, length);
+            recordRead(start, bytes);
             _bytesTransferred.getAndAdd(bytes);
             return bytes;
         } finally {
@@ -200,7 +232,9 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
     @Override
     public synchronized long read(ByteBuffer[] dsts) throws IOException {
         try {
+            long start = System.nanoTime();
             long bytes = _channel.read(dsts);
+            recordRead(start, bytes);
             _bytesTransferred.getAndAdd(bytes);
             return bytes;
         } finally {
@@ -212,7 +246,9 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
     public synchronized int write(ByteBuffer src) throws IOException {
         try {
             preallocate(position() + src.remaining());
+            long start = System.nanoTime();
             int bytes = _channel.write(src);
+            recordWrite(start, bytes);
             _bytesTransferred.getAndAdd(bytes);
             return bytes;
         } finally {
@@ -224,7 +260,9 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
     public int write(ByteBuffer buffer, long position) throws IOException {
         try {
             preallocate(position + buffer.remaining());
+            long start = System.nanoTime();
             int bytes = _channel.write(buffer, position);
+            recordWrite(start, bytes);
             _bytesTransferred.getAndAdd(bytes);
             return bytes;
         } finally {
@@ -241,7 +279,9 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
             }
             preallocate(position() + remaining);
 
+            long start = System.nanoTime();
             long bytes = _channel.write(srcs, offset, length);
+            recordWrite(start, bytes);
             _bytesTransferred.getAndAdd(bytes);
             return bytes;
         } finally {
@@ -258,7 +298,9 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
             }
             preallocate(position() + remaining);
 
+            long start = System.nanoTime();
             long bytes = _channel.write(srcs);
+            recordWrite(start, bytes);
             _bytesTransferred.getAndAdd(bytes);
             return bytes;
         } finally {
@@ -269,7 +311,9 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
     @Override
     public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
         try {
+            long start = System.nanoTime();
             long bytes = _channel.transferTo(position, count, target);
+            recordRead(start, bytes);
             _bytesTransferred.getAndAdd(bytes);
             return bytes;
         } finally {
@@ -277,11 +321,18 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
         }
     }
 
+    @Override
+    public boolean isZeroCopyTransferSupported() {
+        return _channel.isZeroCopyTransferSupported();
+    }
+
     @Override
     public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
         try {
             preallocate(position + count);
+            long start = System.nanoTime();
             long bytes = _channel.transferFrom(src, position, count);
+            recordWrite(start, bytes);
             _bytesTransferred.getAndAdd(bytes);
             return bytes;
         } finally {
@@ -319,6 +370,20 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
         return _reserved;
     }
 
+    private void recordRead(long start, long bytes)
+    {
+        if (_statistics != null) {
+            _statistics.read(System.nanoTime() - start, bytes);
+        }
+    }
+
+    private void recordWrite(long start, long bytes)
+    {
+        if (_statistics != null) {
+            _statistics.write(System.nanoTime() - start, bytes);
+        }
+    }
+
     private synchronized void preallocate(long pos)
         throws IOException
     {
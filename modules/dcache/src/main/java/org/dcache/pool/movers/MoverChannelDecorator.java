@@ -61,6 +61,12 @@ public class MoverChannelDecorator<T extends ProtocolInfo> implements Repository
         return channel.transferTo(position, count, target);
     }
 
+    @Override
+    public boolean isZeroCopyTransferSupported()
+    {
+        return channel.isZeroCopyTransferSupported();
+    }
+
     @Override
     public MoverChannel<T> position(long position) throws IOException
     {
@@ -17,6 +17,8 @@
  */
 package org.dcache.pool.movers;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 
 import diskCacheV111.util.DiskErrorCacheException;
@@ -39,15 +41,18 @@ public abstract class MoverChannelMover<P extends ProtocolInfo, M extends MoverC
 {
     private volatile MoverChannel<P> _wrappedChannel;
     private final MoverChannel.AllocatorMode _allocatorMode;
+    private final MoverIoStatistics _ioStatistics;
 
     public MoverChannelMover(ReplicaDescriptor handle, PoolIoFileMessage message,
                              CellPath pathToDoor,
                              TransferService<M> transferService,
                              MoverChannel.AllocatorMode allocatorMode,
-                             ChecksumModule checksumModule)
+                             ChecksumModule checksumModule,
+                             @Nullable MoverIoStatistics ioStatistics)
     {
         super(handle, message, pathToDoor, transferService, checksumModule);
         _allocatorMode = allocatorMode;
+        _ioStatistics = ioStatistics;
     }
 
     @Override
@@ -86,7 +91,7 @@ public abstract class MoverChannelMover<P extends ProtocolInfo, M extends MoverC
     public synchronized MoverChannel<P> open() throws DiskErrorCacheException
     {
         checkState(_wrappedChannel == null);
-        _wrappedChannel = new MoverChannel<>(this, openChannel(), _allocatorMode);
+        _wrappedChannel = new MoverChannel<>(this, openChannel(), _allocatorMode, _ioStatistics);
         return _wrappedChannel;
     }
 
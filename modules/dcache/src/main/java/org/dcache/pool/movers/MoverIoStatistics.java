@@ -0,0 +1,153 @@
+package org.dcache.pool.movers;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import diskCacheV111.vehicles.ProtocolInfo;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import org.dcache.pool.PoolDataBeanProvider;
+import org.dcache.pool.movers.json.MoverIoData;
+import org.dcache.pool.movers.json.ProtocolIoData;
+
+/**
+ * I/O statistics of the movers of a pool.
+ *
+ * Every read and write of a {@link MoverChannel} records its latency and
+ * size in the histograms of the protocol of the mover. The throughput of a
+ * transfer is recorded when its channel is closed. Statistics of the pool
+ * as a whole are obtained by combining the histograms of all protocols.
+ */
+public class MoverIoStatistics implements CellInfoProvider, PoolDataBeanProvider<MoverIoData>
+{
+    private final ConcurrentMap<String, ProtocolStatistics> _protocols = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the statistics of the protocol of {@code info}.
+     */
+    public ProtocolStatistics getStatistics(ProtocolInfo info)
+    {
+        return _protocols.computeIfAbsent(info.getProtocol() + "-" + info.getMajorVersion(),
+                                          key -> new ProtocolStatistics());
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        getDataObject().print(pw);
+    }
+
+    @Override
+    public MoverIoData getDataObject()
+    {
+        MoverIoData info = new MoverIoData();
+        info.setLabel("Mover I/O");
+        Map<String, ProtocolIoData> protocols = new TreeMap<>();
+        Snapshot total = new Snapshot();
+        _protocols.forEach((protocol, statistics) -> {
+            Snapshot snapshot = statistics.snapshot();
+            protocols.put(protocol, snapshot.toData());
+            total.add(snapshot);
+        });
+        info.setProtocols(protocols);
+        info.setTotal(total.toData());
+        return info;
+    }
+
+    /**
+     * I/O statistics of the movers of one protocol. Recording is lock-free.
+     */
+    public static class ProtocolStatistics
+    {
+        private final IoHistogram _readLatency = new IoHistogram();
+        private final IoHistogram _writeLatency = new IoHistogram();
+        private final IoHistogram _readSize = new IoHistogram();
+        private final IoHistogram _writeSize = new IoHistogram();
+        private final IoHistogram _throughput = new IoHistogram();
+        private final LongAdder _transfers = new LongAdder();
+
+        /**
+         * Records a read of {@code bytes} bytes that took {@code nanos}
+         * nanoseconds.
+         */
+        public void read(long nanos, long bytes)
+        {
+            _readLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+            _readSize.record(Math.max(bytes, 0));
+        }
+
+        /**
+         * Records a write of {@code bytes} bytes that took {@code nanos}
+         * nanoseconds.
+         */
+        public void write(long nanos, long bytes)
+        {
+            _writeLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+            _writeSize.record(Math.max(bytes, 0));
+        }
+
+        /**
+         * Records a completed transfer of {@code bytes} bytes that took
+         * {@code millis} milliseconds.
+         */
+        public void transferred(long bytes, long millis)
+        {
+            _transfers.increment();
+            if (millis > 0) {
+                _throughput.record(bytes * 1000 / millis);
+            }
+        }
+
+        private Snapshot snapshot()
+        {
+            Snapshot snapshot = new Snapshot();
+            snapshot.transfers = _transfers.sum();
+            snapshot.readLatency = _readLatency.snapshot();
+            snapshot.writeLatency = _writeLatency.snapshot();
+            snapshot.readSize = _readSize.snapshot();
+            snapshot.writeSize = _writeSize.snapshot();
+            snapshot.throughput = _throughput.snapshot();
+            return snapshot;
+        }
+    }
+
+    private static class Snapshot
+    {
+        long transfers;
+        IoHistogram.Snapshot readLatency = IoHistogram.Snapshot.empty();
+        IoHistogram.Snapshot writeLatency = IoHistogram.Snapshot.empty();
+        IoHistogram.Snapshot readSize = IoHistogram.Snapshot.empty();
+        IoHistogram.Snapshot writeSize = IoHistogram.Snapshot.empty();
+        IoHistogram.Snapshot throughput = IoHistogram.Snapshot.empty();
+
+        void add(Snapshot other)
+        {
+            transfers += other.transfers;
+            readLatency = readLatency.plus(other.readLatency);
+            writeLatency = writeLatency.plus(other.writeLatency);
+            readSize = readSize.plus(other.readSize);
+            writeSize = writeSize.plus(other.writeSize);
+            throughput = throughput.plus(other.throughput);
+        }
+
+        ProtocolIoData toData()
+        {
+            ProtocolIoData data = new ProtocolIoData();
+            data.setTransfers(transfers);
+            data.setBytesRead(readSize.getSum());
+            data.setBytesWritten(writeSize.getSum());
+            data.setReadLatency(readLatency.toData());
+            data.setWriteLatency(writeLatency.toData());
+            data.setReadSize(readSize.toData());
+            data.setWriteSize(writeSize.toData());
+            data.setThroughput(throughput.toData());
+            return data;
+        }
+    }
+}
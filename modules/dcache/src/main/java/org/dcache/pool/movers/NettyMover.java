@@ -41,9 +41,11 @@ public class NettyMover<P extends ProtocolInfo> extends MoverChannelMover<P, Net
                       CellPath pathToDoor,
                       TransferService<NettyMover<P>> transferService,
                       UUID uuid,
-                      ChecksumModule checksumModule)
+                      ChecksumModule checksumModule,
+                      MoverIoStatistics ioStatistics)
     {
-        super(handle, message, pathToDoor, transferService, MoverChannel.AllocatorMode.HARD, checksumModule);
+        super(handle, message, pathToDoor, transferService, MoverChannel.AllocatorMode.HARD, checksumModule,
+              ioStatistics);
         this.uuid = uuid;
     }
 
@@ -21,6 +21,7 @@ import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
@@ -31,6 +32,7 @@ import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.concurrent.GlobalEventExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -122,6 +124,9 @@ public abstract class NettyTransferService<P extends ProtocolInfo>
     /** Service to calculate and verify checksums. */
     protected ChecksumModule checksumModule;
 
+    /** I/O statistics of the movers of the pool. */
+    protected MoverIoStatistics ioStatistics;
+
     /** Timeout for when to disconnect an idle client. */
     protected long clientIdleTimeout;
     protected TimeUnit clientIdleTimeoutUnit;
@@ -144,6 +149,11 @@ public abstract class NettyTransferService<P extends ProtocolInfo>
         this.checksumModule = checksumModule;
     }
 
+    public void setIoStatistics(MoverIoStatistics ioStatistics)
+    {
+        this.ioStatistics = ioStatistics;
+    }
+
     @Required
     public void setThreads(int threads)
     {
@@ -266,6 +276,29 @@ public abstract class NettyTransferService<P extends ProtocolInfo>
         }
     }
 
+    /**
+     * Returns a bootstrap for connecting to a client. Channels created by the
+     * bootstrap share the event loop of the server and are initialized like
+     * channels accepted by the server.
+     */
+    protected Bootstrap clientBootstrap()
+    {
+        return new Bootstrap()
+                .group(socketGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, false)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeoutUnit.toMillis(connectTimeout))
+                .handler(new ChannelInitializer<Channel>()
+                {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception
+                    {
+                        NettyTransferService.this.initChannel(ch);
+                    }
+                });
+    }
+
     /**
      * Stop netty server.
      */
@@ -341,7 +374,7 @@ public abstract class NettyTransferService<P extends ProtocolInfo>
                                 CellPath pathToDoor) throws CacheException
     {
         return new NettyMover<>(handle, message, pathToDoor, this,
-                                createUuid((P) message.getProtocolInfo()), checksumModule);
+                                createUuid((P) message.getProtocolInfo()), checksumModule, ioStatistics);
     }
 
     @Override
@@ -0,0 +1,80 @@
+package org.dcache.pool.movers.json;
+
+import java.io.Serializable;
+
+/**
+ * <p>Summary of an {@link org.dcache.pool.movers.IoHistogram}.
+ * Percentiles are upper bounds accurate to within 12.5%.</p>
+ */
+public class IoHistogramData implements Serializable {
+    private static final long serialVersionUID = 821718121515168319L;
+    private long count;
+    private double mean;
+    private long max;
+    private long p50;
+    private long p90;
+    private long p99;
+    private long p999;
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public void setMean(double mean) {
+        this.mean = mean;
+    }
+
+    public void setMax(long max) {
+        this.max = max;
+    }
+
+    public void setP50(long p50) {
+        this.p50 = p50;
+    }
+
+    public void setP90(long p90) {
+        this.p90 = p90;
+    }
+
+    public void setP99(long p99) {
+        this.p99 = p99;
+    }
+
+    public void setP999(long p999) {
+        this.p999 = p999;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.0f p50<=%d p90<=%d p99<=%d p99.9<=%d max=%d",
+                             count, mean, p50, p90, p99, p999, max);
+    }
+}
@@ -0,0 +1,50 @@
+package org.dcache.pool.movers.json;
+
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * <p>Corresponds to the information delivered
+ * from the {@link org.dcache.pool.movers.MoverIoStatistics} using
+ * {@link dmg.cells.nucleus.CellInfoProvider#getInfo(PrintWriter)}.</p>
+ */
+public class MoverIoData implements Serializable {
+    private static final long serialVersionUID = -6076105163253850316L;
+    private String label;
+    private ProtocolIoData total;
+    private Map<String, ProtocolIoData> protocols;
+
+    public String getLabel() {
+        return label;
+    }
+
+    public ProtocolIoData getTotal() {
+        return total;
+    }
+
+    public Map<String, ProtocolIoData> getProtocols() {
+        return protocols;
+    }
+
+    public void print(PrintWriter pw) {
+        pw.println("  All protocols");
+        total.print(pw, "    ");
+        protocols.forEach((protocol, data) -> {
+            pw.println("  " + protocol);
+            data.print(pw, "    ");
+        });
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public void setTotal(ProtocolIoData total) {
+        this.total = total;
+    }
+
+    public void setProtocols(Map<String, ProtocolIoData> protocols) {
+        this.protocols = protocols;
+    }
+}
@@ -0,0 +1,98 @@
+package org.dcache.pool.movers.json;
+
+import java.io.PrintWriter;
+import java.io.Serializable;
+
+/**
+ * <p>I/O statistics of the movers of one protocol, or of all movers
+ * of a pool.</p>
+ *
+ * <p>Latencies are in microseconds, sizes in bytes and throughput
+ * in bytes per second.</p>
+ */
+public class ProtocolIoData implements Serializable {
+    private static final long serialVersionUID = -7377146117535336829L;
+    private long transfers;
+    private long bytesRead;
+    private long bytesWritten;
+    private IoHistogramData readLatency;
+    private IoHistogramData writeLatency;
+    private IoHistogramData readSize;
+    private IoHistogramData writeSize;
+    private IoHistogramData throughput;
+
+    public long getTransfers() {
+        return transfers;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public IoHistogramData getReadLatency() {
+        return readLatency;
+    }
+
+    public IoHistogramData getWriteLatency() {
+        return writeLatency;
+    }
+
+    public IoHistogramData getReadSize() {
+        return readSize;
+    }
+
+    public IoHistogramData getWriteSize() {
+        return writeSize;
+    }
+
+    public IoHistogramData getThroughput() {
+        return throughput;
+    }
+
+    public void print(PrintWriter pw, String indent) {
+        pw.println(indent + "Transfers       : " + transfers);
+        pw.println(indent + "Bytes read      : " + bytesRead);
+        pw.println(indent + "Bytes written   : " + bytesWritten);
+        pw.println(indent + "Read latency    : " + readLatency + " [us]");
+        pw.println(indent + "Write latency   : " + writeLatency + " [us]");
+        pw.println(indent + "Read size       : " + readSize + " [bytes]");
+        pw.println(indent + "Write size      : " + writeSize + " [bytes]");
+        pw.println(indent + "Throughput      : " + throughput + " [bytes/s]");
+    }
+
+    public void setTransfers(long transfers) {
+        this.transfers = transfers;
+    }
+
+    public void setBytesRead(long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+
+    public void setBytesWritten(long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    public void setReadLatency(IoHistogramData readLatency) {
+        this.readLatency = readLatency;
+    }
+
+    public void setWriteLatency(IoHistogramData writeLatency) {
+        this.writeLatency = writeLatency;
+    }
+
+    public void setReadSize(IoHistogramData readSize) {
+        this.readSize = readSize;
+    }
+
+    public void setWriteSize(IoHistogramData writeSize) {
+        this.writeSize = writeSize;
+    }
+
+    public void setThroughput(IoHistogramData throughput) {
+        this.throughput = throughput;
+    }
+}
@@ -3,8 +3,10 @@ package org.dcache.pool.p2p;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpResponseException;
@@ -23,7 +25,9 @@ import java.io.SyncFailedException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.EnumSet;
@@ -69,6 +73,7 @@ import org.dcache.vehicles.PnfsGetFileAttributes;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.dcache.util.ByteUnit.KiB;
+import static org.dcache.util.ByteUnit.MiB;
 
 /**
  * Encapsulates the tasks to be performed on the destination of a pool
@@ -76,6 +81,7 @@ import static org.dcache.util.ByteUnit.KiB;
  *
  * The companion will submit an HTTP download request to the source
  * pool, wait for the reply and then download the file through HTTP.
+ * Large files may be downloaded as several byte ranges in parallel.
  *
  * The code is driven by a state machine, Companion.sm. Most of the
  * logic is encapsulated in the state machine.
@@ -86,6 +92,7 @@ class Companion
 
     private static final long PING_PERIOD = TimeUnit.MINUTES.toMillis(5);
     private static final int BUFFER_SIZE = KiB.toBytes(64);
+    private static final int CHUNK_SIZE = MiB.toBytes(4);
     private static final String PROTOCOL_INFO_NAME = "Http";
     private static final int PROTOCOL_INFO_MAJOR_VERSION = 1;
     private static final int PROTOCOL_INFO_MINOR_VERSION = 1;
@@ -134,7 +141,15 @@ class Companion
 
     /** ID of the mover on the source pool. */
     private int _moverId;
-    private HttpGet _request;
+
+    /** Requests of the file transfer. */
+    private final List<HttpGet> _requests = new ArrayList<>();
+
+    /** Maximum number of parallel streams of the file transfer. */
+    private final int _maxStreams;
+
+    /** Minimum number of bytes transferred per stream. */
+    private final long _minStreamSize;
 
     /**
      * Creates a new instance.
@@ -155,6 +170,8 @@ class Companion
      * @param callback    Callback to which success or failure is reported
      * @param forceSourceMode Ignores disabled state of pools
      * @param atime       Last access time for the new replica
+     * @param maxStreams  Maximum number of parallel streams
+     * @param minStreamSize Minimum number of bytes transferred per stream
      */
     Companion(ScheduledExecutorService executor,
               InetAddress address,
@@ -170,7 +187,9 @@ class Companion
               List<StickyRecord> stickyRecords,
               CacheFileAvailable callback,
               boolean forceSourceMode,
-              Long atime)
+              Long atime,
+              int maxStreams,
+              long minStreamSize)
     {
         _fsm = new CompanionContext(this);
 
@@ -197,6 +216,8 @@ class Companion
         _atime = atime;
         _targetState = targetState;
         _stickyRecords = new ArrayList<>(stickyRecords);
+        _maxStreams = maxStreams;
+        _minStreamSize = minStreamSize;
 
         _id = _nextId.getAndIncrement();
 
@@ -269,11 +290,27 @@ class Companion
     }
 
     /**
-     * Sets the request used for the file transfer.
+     * Adds a request of the file transfer.
+     */
+    private synchronized void addRequest(HttpGet request)
+    {
+        _requests.add(request);
+    }
+
+    /**
+     * Removes a request of the file transfer.
      */
-    private synchronized void setRequest(HttpGet request)
+    private synchronized void removeRequest(HttpGet request)
     {
-        _request = request;
+        _requests.remove(request);
+    }
+
+    /**
+     * Aborts all requests of the file transfer.
+     */
+    private synchronized void abortRequests()
+    {
+        _requests.forEach(HttpGet::abort);
     }
 
     private void transfer(String uri)
@@ -318,52 +355,127 @@ class Companion
     }
 
     private Set<Checksum> copy(String uri, ReplicaDescriptor handle, Set<ChecksumFactory> checksumFactories)
-            throws IOException
+            throws IOException, InterruptedException
     {
-        try (ChecksumChannel checksumChannel = new ChecksumChannel(handle.createChannel(), checksumFactories)) {
-
-            HttpGet get = new HttpGet(uri);
-            get.addHeader(HttpHeaders.CONNECTION, HTTP.CONN_CLOSE);
-            get.setConfig(RequestConfig.custom()
-                                  .setConnectTimeout((int) CONNECT_TIMEOUT)
-                                  .setSocketTimeout((int) READ_TIMEOUT)
-                                  .build());
-            setRequest(get);
-
-            try (CloseableHttpClient client = HttpClients.custom().setUserAgent(USER_AGENT).build();
-                 CloseableHttpResponse response = client.execute(get)) {
-                StatusLine statusLine = response.getStatusLine();
-                if (statusLine.getStatusCode() >= 300) {
-                    throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
-                }
+        try (ChecksumChannel checksumChannel =
+                     _checksumModule.createChecksumChannel(handle.createChannel(), checksumFactories)) {
+            long size = _fileAttributes.getSize();
+            int streams = ParallelCopy.getStreamCount(size, _maxStreams, _minStreamSize);
+            if (streams > 1) {
+                copyParallel(uri, checksumChannel, size, streams);
+            } else {
+                copySequential(uri, checksumChannel);
+            }
 
-                HttpEntity entity = response.getEntity();
-                if (entity == null) {
-                    throw new ClientProtocolException("Response contains no content");
-                }
+            try {
+                checksumChannel.sync();
+            } catch (SyncFailedException e) {
+                /* Data is not guaranteed to be on disk. Not a fatal
+                 * problem, but better generate a warning.
+                 */
+                _log.warn("Failed to synchronize file with storage device: {}",
+                          e.getMessage());
+            }
 
-                long contentLength = entity.getContentLength();
-                if (contentLength >= 0 && contentLength != _fileAttributes.getSize()) {
-                    /* Fail fast if the response is incomplete.
-                     */
-                    throw new EOFException("Received file does not match expected file size.");
-                }
+            return checksumChannel.getChecksums();
+        }
+    }
+
+    private HttpGet createRequest(String uri)
+    {
+        HttpGet get = new HttpGet(uri);
+        get.setConfig(RequestConfig.custom()
+                              .setConnectTimeout((int) CONNECT_TIMEOUT)
+                              .setSocketTimeout((int) READ_TIMEOUT)
+                              .build());
+        return get;
+    }
+
+    private void copySequential(String uri, ChecksumChannel checksumChannel) throws IOException
+    {
+        HttpGet get = createRequest(uri);
+        get.addHeader(HttpHeaders.CONNECTION, HTTP.CONN_CLOSE);
+        addRequest(get);
+
+        try (CloseableHttpClient client = HttpClients.custom().setUserAgent(USER_AGENT).build();
+             CloseableHttpResponse response = client.execute(get)) {
+            StatusLine statusLine = response.getStatusLine();
+            if (statusLine.getStatusCode() >= 300) {
+                throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+            }
+
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new ClientProtocolException("Response contains no content");
+            }
+
+            long contentLength = entity.getContentLength();
+            if (contentLength >= 0 && contentLength != _fileAttributes.getSize()) {
+                /* Fail fast if the response is incomplete.
+                 */
+                throw new EOFException("Received file does not match expected file size.");
+            }
+
+            ByteStreams.copy(entity.getContent(), Channels.newOutputStream(checksumChannel));
+        } finally {
+            removeRequest(get);
+        }
+    }
+
+    /**
+     * Transfers the file as byte ranges requested in parallel over
+     * {@code streams} separate connections.
+     *
+     * All connections are kept open until every range has been received:
+     * the source mover completes once its last connection closes.
+     */
+    private void copyParallel(String uri, ChecksumChannel checksumChannel, long size, int streams)
+            throws IOException, InterruptedException
+    {
+        _log.debug("Transferring {} in {} streams", _pnfsId, streams);
+
+        try (CloseableHttpClient client = HttpClients.custom()
+                .setUserAgent(USER_AGENT)
+                .setMaxConnPerRoute(streams)
+                .setMaxConnTotal(streams)
+                .build()) {
+            ParallelCopy copy = new ParallelCopy((start, end, buffer) -> readRange(client, uri, start, end, buffer),
+                                                 this::abortRequests, size, streams, CHUNK_SIZE);
+            copy.copy(checksumChannel,
+                      new ThreadFactoryBuilder().setNameFormat("P2P Transfer - " + _pnfsId + " stream %d").build());
+        }
+    }
+
+    private void readRange(CloseableHttpClient client, String uri, long start, long end, ByteBuffer buffer)
+            throws IOException
+    {
+        HttpGet get = createRequest(uri);
+        get.addHeader(HttpHeaders.RANGE, "bytes=" + start + "-" + end);
+        addRequest(get);
+        try (CloseableHttpResponse response = client.execute(get)) {
+            StatusLine statusLine = response.getStatusLine();
+            if (statusLine.getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+                throw new HttpResponseException(statusLine.getStatusCode(),
+                                                "Range request failed: " + statusLine.getReasonPhrase());
+            }
 
-                ByteStreams.copy(entity.getContent(), Channels.newOutputStream(checksumChannel));
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new ClientProtocolException("Response contains no content");
+            }
+
+            long contentLength = entity.getContentLength();
+            if (contentLength >= 0 && contentLength != end - start + 1) {
+                throw new EOFException("Received range does not match requested range.");
+            }
 
-                try {
-                    checksumChannel.sync();
-                } catch (SyncFailedException e) {
-                    /* Data is not guaranteed to be on disk. Not a fatal
-                     * problem, but better generate a warning.
-                     */
-                    _log.warn("Failed to synchronize file with storage device: {}",
-                              e.getMessage());
+            try (ReadableByteChannel in = Channels.newChannel(entity.getContent())) {
+                while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+                    // continue reading
                 }
-            } finally {
-                setRequest(null);
             }
-            return checksumChannel.getChecksums();
+        } finally {
+            removeRequest(get);
         }
     }
 
@@ -604,9 +716,7 @@ class Companion
         if (_thread != null) {
             _thread.interrupt();
         }
-        if (_request != null) {
-            _request.abort();
-        }
+        abortRequests();
     }
 
     /**
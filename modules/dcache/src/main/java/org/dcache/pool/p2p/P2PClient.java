@@ -35,6 +35,7 @@ import org.dcache.pool.repository.StickyRecord;
 import org.dcache.vehicles.FileAttributes;
 import org.dcache.pool.p2p.json.P2PData;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.stream.Collectors.joining;
 
 public class P2PClient
@@ -50,6 +51,8 @@ public class P2PClient
     private CellStub _pnfs;
     private CellStub _pool;
     private InetAddress _interface;
+    private int _maxStreams = 1;
+    private long _minStreamSize = Long.MAX_VALUE;
 
     public synchronized void setExecutor(ScheduledExecutorService executor)
     {
@@ -76,6 +79,25 @@ public class P2PClient
         _pool = pool;
     }
 
+    /**
+     * Sets the maximum number of parallel streams used to transfer a file.
+     */
+    public synchronized void setMaxStreams(int maxStreams)
+    {
+        checkArgument(maxStreams > 0, "Number of streams must be positive");
+        _maxStreams = maxStreams;
+    }
+
+    /**
+     * Sets the minimum number of bytes transferred by each stream. Files
+     * smaller than twice this size are transferred in a single stream.
+     */
+    public synchronized void setMinStreamSize(long minStreamSize)
+    {
+        checkArgument(minStreamSize > 0, "Stream size must be positive");
+        _minStreamSize = minStreamSize;
+    }
+
     public synchronized int getActiveJobs()
     {
         return _companions.size();
@@ -242,7 +264,7 @@ public class P2PClient
                           getCellDomainName(),
                           targetState, stickyRecords,
                           cb, forceSourceMode,
-                          atime);
+                          atime, _maxStreams, _minStreamSize);
 
         int id = addCompanion(companion);
         cb.setId(id);
@@ -0,0 +1,216 @@
+package org.dcache.pool.p2p;
+
+import com.google.common.base.Throwables;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Copies a file as byte ranges read in parallel by several streams.
+ *
+ * The file is split into chunks which the streams claim in file order.
+ * Each stream reads its chunk into memory and writes it to the channel once
+ * all preceding chunks have been written. The channel thus sees sequential
+ * writes, which allows checksums to be computed on the fly rather than by
+ * reading the data back from disk. At most one chunk per stream is held in
+ * memory.
+ *
+ * Should any stream fail, the remaining streams are aborted and the copy
+ * returns only after all streams have terminated.
+ */
+class ParallelCopy
+{
+    /**
+     * Reads a byte range of the file.
+     */
+    @FunctionalInterface
+    interface RangeReader
+    {
+        /**
+         * Reads the bytes from {@code start} to {@code end}, inclusive, into
+         * {@code buffer}. The buffer has room for exactly these bytes.
+         */
+        void read(long start, long end, ByteBuffer buffer) throws IOException, InterruptedException;
+    }
+
+    private final RangeReader _reader;
+    private final Runnable _abort;
+    private final long _size;
+    private final int _streams;
+    private final int _chunkSize;
+
+    /** Offset of the next chunk to be claimed by a stream. */
+    private final AtomicLong _nextChunk = new AtomicLong();
+
+    /** Number of bytes written to the channel so far. */
+    @GuardedBy("this")
+    private long _written;
+
+    /** Whether the copy has been aborted. */
+    @GuardedBy("this")
+    private boolean _isAborted;
+
+    /** The failure that caused the copy to be aborted, if any. */
+    @GuardedBy("this")
+    private Throwable _error;
+
+    /**
+     * @param reader    Reader used by the streams to read chunks
+     * @param abort     Invoked to abort reads in progress after a failure
+     * @param size      Size of the file
+     * @param streams   Number of parallel streams
+     * @param chunkSize Number of bytes read by each request of a stream
+     */
+    ParallelCopy(RangeReader reader, Runnable abort, long size, int streams, int chunkSize)
+    {
+        checkArgument(streams > 0, "Number of streams must be positive");
+        checkArgument(chunkSize > 0, "Chunk size must be positive");
+        _reader = reader;
+        _abort = abort;
+        _size = size;
+        _streams = streams;
+        _chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the number of parallel streams used to transfer a file of
+     * the given size. Each stream transfers at least {@code minStreamSize}
+     * bytes and no more than {@code maxStreams} streams are used.
+     */
+    static int getStreamCount(long size, int maxStreams, long minStreamSize)
+    {
+        return (int) Math.max(1, Math.min(maxStreams, size / minStreamSize));
+    }
+
+    /**
+     * Copies the file to {@code channel} using streams created by
+     * {@code threadFactory}.
+     */
+    void copy(WritableByteChannel channel, ThreadFactory threadFactory)
+            throws IOException, InterruptedException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(_streams, threadFactory);
+        try {
+            CompletionService<Void> streams = new ExecutorCompletionService<>(executor);
+            for (int i = 0; i < _streams; i++) {
+                streams.submit(() -> {
+                    try {
+                        copyChunks(channel);
+                    } catch (Throwable t) {
+                        abort(t);
+                        throw t;
+                    }
+                    return null;
+                });
+            }
+            for (int i = 0; i < _streams; i++) {
+                streams.take().get();
+            }
+        } catch (ExecutionException e) {
+            /* Streams failing after the abort are not the cause of the failure. */
+            Throwable cause = getError();
+            Throwables.propagateIfPossible(cause, IOException.class, InterruptedException.class);
+            throw new IOException(cause.toString(), cause);
+        } catch (InterruptedException e) {
+            abort(e);
+            throw e;
+        } finally {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+    }
+
+    private void copyChunks(WritableByteChannel channel) throws IOException, InterruptedException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(_chunkSize, _size));
+        long start;
+        while ((start = _nextChunk.getAndAdd(_chunkSize)) < _size) {
+            long end = Math.min(start + _chunkSize, _size) - 1;
+            buffer.clear();
+            buffer.limit((int) (end - start + 1));
+            _reader.read(start, end, buffer);
+            if (buffer.hasRemaining()) {
+                throw new EOFException("Received range is incomplete.");
+            }
+            buffer.flip();
+
+            if (!awaitTurn(start)) {
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            advance(end + 1);
+        }
+    }
+
+    /**
+     * Waits until all data before {@code offset} has been written. Returns
+     * false if the copy was aborted.
+     */
+    private synchronized boolean awaitTurn(long offset) throws InterruptedException
+    {
+        while (_written != offset && !_isAborted) {
+            wait();
+        }
+        return !_isAborted;
+    }
+
+    private synchronized void advance(long offset)
+    {
+        _written = offset;
+        notifyAll();
+    }
+
+    private void abort(Throwable cause)
+    {
+        synchronized (this) {
+            if (_isAborted) {
+                return;
+            }
+            _isAborted = true;
+            _error = cause;
+            notifyAll();
+        }
+        _abort.run();
+    }
+
+    private synchronized Throwable getError()
+    {
+        return _error;
+    }
+
+    private static void awaitTermination(ExecutorService executor)
+    {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.dcache.pool.repository;
+
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Direct I/O for large replicas.
+ *
+ * Replicas of at least a minimum size are accessed through channels that
+ * bypass the page cache, reserving the cache for small files. Direct I/O
+ * requires file offsets, transfer sizes and buffer addresses to be aligned;
+ * data is therefore staged through aligned buffers taken from a pool shared
+ * by all channels. Requests that cannot be aligned use buffered I/O.
+ *
+ * Direct I/O depends on the O_DIRECT open option of the JVM and is only used
+ * for replicas stored in the local file system. If either is unavailable,
+ * replicas are accessed with buffered I/O.
+ */
+public class DirectIo implements CellInfoProvider
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectIo.class);
+
+    /**
+     * O_DIRECT open option, or null if not supported by the JVM.
+     */
+    private static final OpenOption DIRECT = lookupDirect();
+
+    /**
+     * ByteBuffer#alignedSlice, or null if not supported by the JVM.
+     */
+    private static final MethodHandle ALIGNED_SLICE = lookupAlignedSlice();
+
+    private final long _minSize;
+    private final int _alignment;
+    private final int _bufferSize;
+    private final BlockingQueue<ByteBuffer> _buffers;
+
+    final LongAdder channels = new LongAdder();
+    final LongAdder fallbacks = new LongAdder();
+    final LongAdder bytesDirect = new LongAdder();
+    final LongAdder bytesBuffered = new LongAdder();
+    final LongAdder buffersAllocated = new LongAdder();
+
+    public DirectIo(long minSize, int alignment, int bufferSize, int buffers)
+    {
+        checkArgument(alignment > 0 && (alignment & (alignment - 1)) == 0, "Alignment must be a power of two");
+        checkArgument(bufferSize >= alignment && bufferSize % alignment == 0,
+                      "Buffer size must be a multiple of the alignment");
+        checkArgument(buffers > 0, "Number of buffers must be positive");
+        _minSize = minSize;
+        _alignment = alignment;
+        _bufferSize = bufferSize;
+        _buffers = new ArrayBlockingQueue<>(buffers);
+        if (!isSupported()) {
+            LOGGER.warn("Direct I/O is not supported by this JVM; using buffered I/O.");
+        }
+    }
+
+    private static OpenOption lookupDirect()
+    {
+        try {
+            Class<?> options = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            for (Object option : options.getEnumConstants()) {
+                if (((Enum<?>) option).name().equals("DIRECT")) {
+                    return (OpenOption) option;
+                }
+            }
+        } catch (ClassNotFoundException ignored) {
+        }
+        return null;
+    }
+
+    private static MethodHandle lookupAlignedSlice()
+    {
+        try {
+            return MethodHandles.publicLookup().findVirtual(ByteBuffer.class, "alignedSlice",
+                                                            MethodType.methodType(ByteBuffer.class, int.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public static boolean isSupported()
+    {
+        return DIRECT != null && ALIGNED_SLICE != null;
+    }
+
+    int getAlignment()
+    {
+        return _alignment;
+    }
+
+    /**
+     * Opens a channel to the replica of {@code entry}. The channel uses
+     * direct I/O if {@code size} is at least the minimum size and direct
+     * I/O is supported for the replica.
+     *
+     * @param size the size of the replica or the expected size of a replica
+     *             being written, or -1 if unknown
+     */
+    public RepositoryChannel openChannel(ReplicaRecord entry, Set<? extends OpenOption> mode, long size)
+            throws IOException
+    {
+        URI uri = entry.getReplicaUri();
+        if (size < _minSize || !isSupported() || !"file".equals(uri.getScheme())) {
+            return entry.openChannel(mode);
+        }
+        try {
+            Set<OpenOption> directMode = ImmutableSet.<OpenOption>builder().addAll(mode).add(DIRECT).build();
+            RepositoryChannel channel = new DirectRepositoryChannel(Paths.get(uri), mode, directMode, this);
+            channels.increment();
+            return channel;
+        } catch (IOException e) {
+            /* Not all file systems support O_DIRECT. */
+            LOGGER.debug("Direct I/O for {} failed, using buffered I/O: {}", uri, e.toString());
+            fallbacks.increment();
+            return entry.openChannel(mode);
+        }
+    }
+
+    /**
+     * Returns an aligned buffer of the configured buffer size. The buffer
+     * should be returned with {@link #release}.
+     */
+    ByteBuffer acquire()
+    {
+        ByteBuffer buffer = _buffers.poll();
+        if (buffer == null) {
+            buffer = allocate();
+        }
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer)
+    {
+        buffer.clear();
+        _buffers.offer(buffer);
+    }
+
+    private ByteBuffer allocate()
+    {
+        try {
+            ByteBuffer buffer = (ByteBuffer) ALIGNED_SLICE.invoke(
+                    ByteBuffer.allocateDirect(_bufferSize + 2 * _alignment), _alignment);
+            buffer.limit(_bufferSize);
+            buffersAllocated.increment();
+            return buffer.slice();
+        } catch (Throwable t) {
+            throw new RuntimeException("Failed to allocate aligned buffer: " + t, t);
+        }
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        pw.println("Direct I/O:");
+        pw.println("    Supported         : " + isSupported());
+        pw.println("    Minimum file size : " + _minSize);
+        pw.println("    Alignment         : " + _alignment);
+        pw.println("    Buffers           : " + _buffers.size() + " idle, " +
+                   buffersAllocated.sum() + " allocated, " + _bufferSize + " bytes each");
+        pw.println("    Channels          : " + channels.sum() + " direct, " + fallbacks.sum() + " fallbacks");
+        pw.println("    Bytes direct      : " + bytesDirect.sum());
+        pw.println("    Bytes buffered    : " + bytesBuffered.sum());
+    }
+}
@@ -0,0 +1,321 @@
+package org.dcache.pool.repository;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.IOException;
+import java.io.SyncFailedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * RepositoryChannel using direct I/O.
+ *
+ * The file is opened twice: once with O_DIRECT and once for buffered I/O.
+ * Reads starting at an aligned offset are served through the direct
+ * channel in multiples of the alignment; other reads use the buffered
+ * channel.
+ *
+ * Sequential writes are collected in an aligned buffer that is written
+ * through the direct channel whenever it is full. Data preceding the first
+ * aligned offset of a sequence of writes and the unaligned tail of the
+ * buffer are written through the buffered channel. The buffer is flushed
+ * before any operation that depends on the file content.
+ */
+class DirectRepositoryChannel implements RepositoryChannel
+{
+    private final FileChannel _buffered;
+    private final FileChannel _direct;
+    private final DirectIo _directIo;
+    private final int _alignment;
+
+    private volatile long _position;
+
+    /**
+     * Buffer of sequential writes not yet written to the file, or null.
+     */
+    @GuardedBy("this")
+    private volatile ByteBuffer _pending;
+
+    /**
+     * File offset of the start of _pending. Always aligned.
+     */
+    @GuardedBy("this")
+    private long _pendingPosition;
+
+    DirectRepositoryChannel(Path path, Set<? extends OpenOption> mode, Set<? extends OpenOption> directMode,
+                            DirectIo directIo) throws IOException
+    {
+        _buffered = FileChannel.open(path, mode);
+        try {
+            _direct = FileChannel.open(path, directMode);
+        } catch (IOException | RuntimeException e) {
+            _buffered.close();
+            throw e;
+        }
+        _directIo = directIo;
+        _alignment = directIo.getAlignment();
+    }
+
+    private boolean isAligned(long value)
+    {
+        return (value & (_alignment - 1)) == 0;
+    }
+
+    private long alignDown(long value)
+    {
+        return value & -_alignment;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException
+    {
+        if (_pending != null) {
+            synchronized (this) {
+                flushPending();
+            }
+        }
+
+        if (!isAligned(position) || dst.remaining() < _alignment) {
+            int n = _buffered.read(dst, position);
+            if (n > 0) {
+                _directIo.bytesBuffered.add(n);
+            }
+            return n;
+        }
+
+        ByteBuffer buffer = _directIo.acquire();
+        try {
+            buffer.limit((int) Math.min(alignDown(dst.remaining()), buffer.capacity()));
+            int n = _direct.read(buffer, position);
+            if (n > 0) {
+                buffer.flip();
+                dst.put(buffer);
+                _directIo.bytesDirect.add(n);
+            }
+            return n;
+        } finally {
+            _directIo.release(buffer);
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException
+    {
+        int n = read(dst, _position);
+        if (n > 0) {
+            _position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException
+    {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            while (dsts[i].hasRemaining()) {
+                int n = read(dsts[i]);
+                if (n < 0) {
+                    return (total == 0) ? -1 : total;
+                }
+                if (n == 0) {
+                    return total;
+                }
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException
+    {
+        return read(dsts, 0, dsts.length);
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src, long position) throws IOException
+    {
+        int count = src.remaining();
+
+        if (_pending == null || position != _pendingPosition + _pending.position()) {
+            flushPending();
+
+            /* Write the data before the next aligned offset buffered. */
+            long head = Math.min(alignDown(position + _alignment - 1) - position, src.remaining());
+            if (head > 0) {
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + (int) head);
+                writeFully(_buffered, slice, position);
+                _directIo.bytesBuffered.add(head);
+                src.position(slice.position());
+                position += head;
+            }
+            if (!src.hasRemaining()) {
+                return count;
+            }
+            _pending = _directIo.acquire();
+            _pendingPosition = position;
+        }
+
+        while (src.hasRemaining()) {
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + Math.min(src.remaining(), _pending.remaining()));
+            _pending.put(slice);
+            src.position(slice.position());
+            if (!_pending.hasRemaining()) {
+                _pending.flip();
+                writeFully(_direct, _pending, _pendingPosition);
+                _directIo.bytesDirect.add(_pending.limit());
+                _pendingPosition += _pending.limit();
+                _pending.clear();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes buffered writes to the file. The aligned part is written
+     * through the direct channel, the tail through the buffered channel.
+     */
+    @GuardedBy("this")
+    private void flushPending() throws IOException
+    {
+        ByteBuffer pending = _pending;
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.flip();
+            int end = pending.limit();
+            int aligned = (int) alignDown(end);
+            if (aligned > 0) {
+                pending.limit(aligned);
+                writeFully(_direct, pending, _pendingPosition);
+                _directIo.bytesDirect.add(aligned);
+            }
+            if (aligned < end) {
+                pending.limit(end).position(aligned);
+                writeFully(_buffered, pending, _pendingPosition + aligned);
+                _directIo.bytesBuffered.add(end - aligned);
+            }
+        } finally {
+            _pending = null;
+            _directIo.release(pending);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException
+    {
+        int n = write(src, _position);
+        _position += n;
+        return n;
+    }
+
+    @Override
+    public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException
+    {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public synchronized long transferTo(long position, long count, WritableByteChannel target) throws IOException
+    {
+        flushPending();
+        return _buffered.transferTo(position, count, target);
+    }
+
+    @Override
+    public synchronized long transferFrom(ReadableByteChannel src, long position, long count) throws IOException
+    {
+        flushPending();
+        return _buffered.transferFrom(src, position, count);
+    }
+
+    /**
+     * Zero-copy transfers use the page cache and are therefore not offered.
+     */
+    @Override
+    public boolean isZeroCopyTransferSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public long position() throws IOException
+    {
+        return _position;
+    }
+
+    @Override
+    public RepositoryChannel position(long position) throws IOException
+    {
+        _position = position;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException
+    {
+        long size = _buffered.size();
+        return (_pending == null) ? size : Math.max(size, _pendingPosition + _pending.position());
+    }
+
+    @Override
+    public synchronized RepositoryChannel truncate(long size) throws IOException
+    {
+        flushPending();
+        _buffered.truncate(size);
+        return this;
+    }
+
+    @Override
+    public synchronized void sync() throws SyncFailedException, IOException
+    {
+        flushPending();
+        _buffered.force(false);
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return _buffered.isOpen();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try {
+            flushPending();
+        } finally {
+            try {
+                _direct.close();
+            } finally {
+                _buffered.close();
+            }
+        }
+    }
+}
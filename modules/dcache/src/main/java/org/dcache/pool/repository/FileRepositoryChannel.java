@@ -134,4 +134,9 @@ public class FileRepositoryChannel implements RepositoryChannel {
     public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
         return _fileChannel.transferFrom(src, position, count);
     }
+
+    @Override
+    public boolean isZeroCopyTransferSupported() {
+        return true;
+    }
 }
@@ -0,0 +1,75 @@
+package org.dcache.pool.repository;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Read-ahead for replicas read by movers.
+ *
+ * Many clients read files in small sequential requests, each of which
+ * results in a separate positional read of the file. Channels decorated by
+ * this class detect sequential access and then read the file in windows of
+ * a fixed size, serving subsequent requests from memory. While a window is
+ * consumed, the next window is read asynchronously by a shared set of
+ * threads.
+ *
+ * Each channel holds at most two windows. Requests of at least the window
+ * size bypass read-ahead.
+ */
+public class ReadAhead implements CellInfoProvider
+{
+    private final int _windowSize;
+    private final ListeningExecutorService _executor;
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder bytesServed = new LongAdder();
+    final LongAdder bytesReadAhead = new LongAdder();
+    final LongAdder bytesWasted = new LongAdder();
+
+    public ReadAhead(int windowSize, int threads)
+    {
+        checkArgument(windowSize > 0, "Window size must be positive");
+        checkArgument(threads > 0, "Number of threads must be positive");
+        _windowSize = windowSize;
+        _executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("read-ahead-%d").setDaemon(true).build()));
+    }
+
+    public void shutdown()
+    {
+        _executor.shutdown();
+    }
+
+    /**
+     * Returns a channel reading {@code channel} with read-ahead. Closing the
+     * returned channel closes {@code channel}.
+     */
+    public RepositoryChannel decorate(RepositoryChannel channel)
+    {
+        return new ReadAheadRepositoryChannel(channel, _windowSize, _executor, this);
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        long hits = this.hits.sum();
+        long requests = hits + misses.sum();
+        pw.println("Read-ahead:");
+        pw.println("    Window size      : " + _windowSize);
+        pw.println("    Hit rate         : " + hits + "/" + requests +
+                   String.format(" (%.1f%%)", (requests == 0) ? 0.0 : 100.0 * hits / requests));
+        pw.println("    Bytes served     : " + bytesServed.sum());
+        pw.println("    Bytes read ahead : " + bytesReadAhead.sum());
+        pw.println("    Bytes wasted     : " + bytesWasted.sum());
+    }
+}
@@ -0,0 +1,529 @@
+package org.dcache.pool.repository;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.SyncFailedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+/**
+ * RepositoryChannel decorator implementing read-ahead.
+ *
+ * Once {@link #SEQUENTIAL_THRESHOLD} consecutive requests have each started
+ * where the previous one ended, the file is read in windows and requests
+ * are served from the current window. When half of the current window has
+ * been served, the following window is read asynchronously. Requests outside
+ * both windows are read from the file.
+ *
+ * Writing to the channel discards the windows.
+ *
+ * The state is guarded by the channel monitor, but windows are read and
+ * waited for without holding it.
+ */
+class ReadAheadRepositoryChannel implements RepositoryChannel
+{
+    /**
+     * Number of consecutive sequential requests after which read-ahead starts.
+     */
+    static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /**
+     * Returned by readAhead if the request cannot be served from a window.
+     */
+    private static final int MISS = -2;
+
+    private final RepositoryChannel _channel;
+    private final int _windowSize;
+    private final ListeningExecutorService _executor;
+    private final ReadAhead _statistics;
+
+    /**
+     * Position at which the next request is expected if access is sequential.
+     */
+    @GuardedBy("this")
+    private long _expectedPosition = -1;
+
+    @GuardedBy("this")
+    private int _sequentialRequests;
+
+    @GuardedBy("this")
+    private Window _current;
+
+    /**
+     * Asynchronous read of the window starting at _nextPosition.
+     */
+    @GuardedBy("this")
+    private ListenableFuture<Window> _next;
+
+    @GuardedBy("this")
+    private long _nextPosition;
+
+    /**
+     * Incremented whenever the windows are discarded because the channel
+     * was written to. Windows read concurrently with a write are not used.
+     */
+    @GuardedBy("this")
+    private long _epoch;
+
+    /**
+     * Buffer of a retired window available for reuse.
+     */
+    @GuardedBy("this")
+    private ByteBuffer _spare;
+
+    ReadAheadRepositoryChannel(RepositoryChannel channel, int windowSize,
+                               ListeningExecutorService executor, ReadAhead statistics)
+    {
+        _channel = channel;
+        _windowSize = windowSize;
+        _executor = executor;
+        _statistics = statistics;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException
+    {
+        int length = dst.remaining();
+        if (length > 0 && length < _windowSize) {
+            int n = readAhead(dst, position);
+            if (n != MISS) {
+                return n;
+            }
+            _statistics.misses.increment();
+        }
+        return _channel.read(dst, position);
+    }
+
+    private int readAhead(ByteBuffer dst, long position) throws IOException
+    {
+        int sequentialRequests;
+        long epoch;
+        synchronized (this) {
+            boolean isSequential = (position == _expectedPosition);
+            _expectedPosition = position + dst.remaining();
+            _sequentialRequests = isSequential ? _sequentialRequests + 1 : 0;
+            sequentialRequests = _sequentialRequests;
+            epoch = _epoch;
+        }
+
+        int total = 0;
+        boolean isEndOfFile = false;
+        while (dst.hasRemaining() && !isEndOfFile) {
+            Window window = windowFor(position + total, sequentialRequests, epoch);
+            if (window == null) {
+                break;
+            }
+            SettableFuture<Window> prefetch = null;
+            ByteBuffer buffer = null;
+            long end;
+            synchronized (this) {
+                if (window.isRetired) {
+                    /* Replaced by another reader; its buffer may be reused. */
+                    continue;
+                }
+                total += window.copyTo(dst, position + total);
+                end = window.end();
+                isEndOfFile = window.isLast() && position + total >= end;
+                if (_next == null && !window.isLast() && sequentialRequests >= SEQUENTIAL_THRESHOLD &&
+                        window.consumed >= window.data.limit() / 2) {
+                    prefetch = SettableFuture.create();
+                    buffer = takeBuffer();
+                    _next = prefetch;
+                    _nextPosition = end;
+                }
+            }
+            if (prefetch != null) {
+                prefetch(prefetch, buffer, end);
+            }
+        }
+
+        if (total == 0) {
+            return MISS;
+        }
+        _statistics.hits.increment();
+        _statistics.bytesServed.add(total);
+
+        if (dst.hasRemaining() && !isEndOfFile) {
+            /* The request extends beyond the windows. */
+            int n = _channel.read(dst, position + total);
+            if (n > 0) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the window containing {@code position}. If no window contains
+     * the position and access is sequential, a new window is read. Returns
+     * null if the channel was written to since {@code epoch}.
+     *
+     * The channel monitor is not held while waiting for or reading a window.
+     */
+    private Window windowFor(long position, int sequentialRequests, long epoch) throws IOException
+    {
+        ListenableFuture<Window> next;
+        synchronized (this) {
+            if (_epoch != epoch) {
+                return null;
+            }
+            if (_current != null && _current.contains(position)) {
+                return _current;
+            }
+            next = takeNext(position);
+        }
+
+        if (next != null) {
+            Window window = await(next);
+            if (window != null) {
+                if (window.contains(position)) {
+                    return install(window, epoch) ? window : null;
+                }
+                synchronized (this) {
+                    retire(window);
+                }
+            }
+        }
+
+        if (sequentialRequests < SEQUENTIAL_THRESHOLD) {
+            return null;
+        }
+
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = takeBuffer();
+        }
+        Window window = readWindow(buffer, position);
+        if (!install(window, epoch)) {
+            return null;
+        }
+        return window.data.hasRemaining() ? window : null;
+    }
+
+    /**
+     * Makes {@code window} the current window unless the channel was
+     * written to since {@code epoch}.
+     */
+    private synchronized boolean install(Window window, long epoch)
+    {
+        if (_epoch != epoch) {
+            retire(window);
+            return false;
+        }
+        retire(_current);
+        _current = window;
+        return true;
+    }
+
+    /**
+     * Removes and returns the asynchronous read of the window that would
+     * contain {@code position}. Any other asynchronous read is discarded.
+     */
+    @GuardedBy("this")
+    private ListenableFuture<Window> takeNext(long position)
+    {
+        if (_next == null) {
+            return null;
+        }
+        if (position < _nextPosition || position >= _nextPosition + _windowSize) {
+            discardNext();
+            return null;
+        }
+        ListenableFuture<Window> next = _next;
+        _next = null;
+        return next;
+    }
+
+    /**
+     * Waits for an asynchronous read. Returns null if the read failed.
+     */
+    private Window await(ListenableFuture<Window> next) throws IOException
+    {
+        try {
+            return next.get();
+        } catch (InterruptedException e) {
+            discard(next);
+            throw new InterruptedIOException("Interrupted while waiting for read-ahead");
+        } catch (ExecutionException | CancellationException e) {
+            /* The window is read again synchronously, reporting the error. */
+            return null;
+        }
+    }
+
+    private void prefetch(SettableFuture<Window> future, ByteBuffer buffer, long position)
+    {
+        try {
+            future.setFuture(_executor.submit(() -> readWindow(buffer, position)));
+        } catch (RejectedExecutionException e) {
+            future.setException(e);
+        }
+    }
+
+    @GuardedBy("this")
+    private ByteBuffer takeBuffer()
+    {
+        ByteBuffer buffer = _spare;
+        _spare = null;
+        return (buffer == null) ? ByteBuffer.allocate(_windowSize) : buffer;
+    }
+
+    private Window readWindow(ByteBuffer buffer, long position) throws IOException
+    {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (_channel.read(buffer, position + buffer.position()) <= 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        _statistics.bytesReadAhead.add(buffer.limit());
+        return new Window(position, buffer);
+    }
+
+    /**
+     * Accounts for the unused part of {@code window} and keeps its buffer
+     * for reuse.
+     */
+    @GuardedBy("this")
+    private void retire(Window window)
+    {
+        if (window != null && !window.isRetired) {
+            window.isRetired = true;
+            _statistics.bytesWasted.add(window.data.limit() - window.consumed);
+            _spare = window.data;
+        }
+    }
+
+    @GuardedBy("this")
+    private void discardNext()
+    {
+        if (_next != null) {
+            discard(_next);
+            _next = null;
+        }
+    }
+
+    private void discard(ListenableFuture<Window> future)
+    {
+        if (!future.cancel(false)) {
+            future.addListener(() -> {
+                try {
+                    Window window = Futures.getDone(future);
+                    _statistics.bytesWasted.add(window.data.limit());
+                } catch (ExecutionException | CancellationException ignored) {
+                }
+            }, directExecutor());
+        }
+    }
+
+    private synchronized void invalidate()
+    {
+        _epoch++;
+        discardNext();
+        retire(_current);
+        _current = null;
+        _expectedPosition = -1;
+        _sequentialRequests = 0;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException
+    {
+        long position = _channel.position();
+        int n = read(dst, position);
+        if (n > 0) {
+            _channel.position(position + n);
+        }
+        return n;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException
+    {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer dst = dsts[i];
+            if (!dst.hasRemaining()) {
+                continue;
+            }
+            int n = read(dst);
+            if (n < 0) {
+                return (total == 0) ? -1 : total;
+            }
+            total += n;
+            if (dst.hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException
+    {
+        return read(dsts, 0, dsts.length);
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, long position) throws IOException
+    {
+        invalidate();
+        return _channel.write(buffer, position);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+        invalidate();
+        return _channel.write(src);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        invalidate();
+        return _channel.write(srcs, offset, length);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException
+    {
+        invalidate();
+        return _channel.write(srcs);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException
+    {
+        invalidate();
+        return _channel.transferFrom(src, position, count);
+    }
+
+    @Override
+    public RepositoryChannel truncate(long size) throws IOException
+    {
+        invalidate();
+        _channel.truncate(size);
+        return this;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException
+    {
+        return _channel.transferTo(position, count, target);
+    }
+
+    @Override
+    public boolean isZeroCopyTransferSupported()
+    {
+        return _channel.isZeroCopyTransferSupported();
+    }
+
+    @Override
+    public long position() throws IOException
+    {
+        return _channel.position();
+    }
+
+    @Override
+    public RepositoryChannel position(long position) throws IOException
+    {
+        _channel.position(position);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        return _channel.size();
+    }
+
+    @Override
+    public void sync() throws SyncFailedException, IOException
+    {
+        _channel.sync();
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return _channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        invalidate();
+        _channel.close();
+    }
+
+    /**
+     * A range of the file held in memory.
+     */
+    private static class Window
+    {
+        final long position;
+        final ByteBuffer data;
+
+        /**
+         * Offset up to which data has been served.
+         */
+        int consumed;
+
+        /**
+         * Whether the window has been replaced, in which case its buffer
+         * may be reused.
+         */
+        boolean isRetired;
+
+        Window(long position, ByteBuffer data)
+        {
+            this.position = position;
+            this.data = data;
+        }
+
+        long end()
+        {
+            return position + data.limit();
+        }
+
+        boolean contains(long position)
+        {
+            return position >= this.position && position < end();
+        }
+
+        /**
+         * True if the window ends at the end of the file.
+         */
+        boolean isLast()
+        {
+            return data.limit() < data.capacity();
+        }
+
+        int copyTo(ByteBuffer dst, long position)
+        {
+            ByteBuffer src = data.duplicate();
+            src.position((int) (position - this.position));
+            if (src.remaining() > dst.remaining()) {
+                src.limit(src.position() + dst.remaining());
+            }
+            int n = src.remaining();
+            dst.put(src);
+            consumed = Math.max(consumed, src.position());
+            return n;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package org.dcache.pool.repository;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import diskCacheV111.util.PnfsId;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Compact index of replicas.
+ *
+ * Stores the PNFS ID and a summary of the replica (state, size, creation time,
+ * access time and whether the replica is sticky) in primitive arrays using open
+ * addressing with linear probing. An entry takes less than a hundred bytes, rather
+ * than the several hundred bytes taken by a map entry with its key and record
+ * objects.
+ *
+ * An entry may be added before its summary is known, in which case it is marked
+ * as not loaded.
+ *
+ * The class is thread safe. Iterators are weakly consistent: they never throw
+ * ConcurrentModificationException and may or may not reflect modifications
+ * made after the iterator was created.
+ */
+class ReplicaIndex
+{
+    private static final int MAX_ID_SIZE = 18;
+
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+    private static final byte DELETED = 2;
+
+    private static final byte LOADED = 4;
+    private static final byte STICKY = 8;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final double LOAD_FACTOR = 0.75;
+
+    private static final ReplicaState[] STATES = ReplicaState.values();
+
+    /**
+     * Summary of a replica as stored in the index.
+     */
+    static class Summary
+    {
+        private final ReplicaState _state;
+        private final long _size;
+        private final long _creationTime;
+        private final long _lastAccessTime;
+        private final boolean _isSticky;
+
+        Summary(ReplicaState state, long size, long creationTime, long lastAccessTime, boolean isSticky)
+        {
+            _state = state;
+            _size = size;
+            _creationTime = creationTime;
+            _lastAccessTime = lastAccessTime;
+            _isSticky = isSticky;
+        }
+
+        ReplicaState getState()
+        {
+            return _state;
+        }
+
+        long getReplicaSize()
+        {
+            return _size;
+        }
+
+        long getCreationTime()
+        {
+            return _creationTime;
+        }
+
+        long getLastAccessTime()
+        {
+            return _lastAccessTime;
+        }
+
+        boolean isSticky()
+        {
+            return _isSticky;
+        }
+    }
+
+    /**
+     * Arrays of one generation of the table. Replaced as a whole on resize such
+     * that iterators can continue on the old arrays.
+     */
+    private static class Table
+    {
+        final byte[] ids;
+        final byte[] idLengths;
+        final byte[] flags;
+        final byte[] states;
+        final long[] sizes;
+        final long[] creationTimes;
+        final long[] accessTimes;
+
+        Table(int capacity)
+        {
+            ids = new byte[capacity * MAX_ID_SIZE];
+            idLengths = new byte[capacity];
+            flags = new byte[capacity];
+            states = new byte[capacity];
+            sizes = new long[capacity];
+            creationTimes = new long[capacity];
+            accessTimes = new long[capacity];
+        }
+
+        int capacity()
+        {
+            return flags.length;
+        }
+
+        boolean isUsed(int slot)
+        {
+            return (flags[slot] & 3) == USED;
+        }
+
+        PnfsId id(int slot)
+        {
+            return new PnfsId(Arrays.copyOfRange(ids, slot * MAX_ID_SIZE, slot * MAX_ID_SIZE + idLengths[slot]));
+        }
+
+        boolean matches(int slot, byte[] id)
+        {
+            if (idLengths[slot] != id.length) {
+                return false;
+            }
+            int offset = slot * MAX_ID_SIZE;
+            for (int i = 0; i < id.length; i++) {
+                if (ids[offset + i] != id[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private Table _table = new Table(DEFAULT_CAPACITY);
+    private int _size;
+    private int _deleted;
+
+    private static byte[] toBytes(PnfsId id)
+    {
+        checkArgument(id.getDomain() == null, "PNFS IDs with a domain are not supported: %s", id);
+        return id.getBytes();
+    }
+
+    /**
+     * FNV-1a followed by a finalizing mix. Unlike Arrays.hashCode this spreads
+     * IDs differing only in their last bytes, which is common for PNFS IDs.
+     */
+    private static int hash(byte[] bytes, int offset, int length)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static int hash(byte[] id)
+    {
+        return hash(id, 0, id.length);
+    }
+
+    /**
+     * Returns the slot of an id, or -1 if not found.
+     */
+    private int find(byte[] id)
+    {
+        Table table = _table;
+        int mask = table.capacity() - 1;
+        for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+            byte flag = table.flags[slot];
+            if (flag == FREE) {
+                return -1;
+            }
+            if ((flag & 3) == USED && table.matches(slot, id)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Returns the slot of an id, inserting it as not loaded if not found.
+     */
+    private int findOrInsert(byte[] id)
+    {
+        int slot = find(id);
+        if (slot >= 0) {
+            return slot;
+        }
+
+        if (_size + _deleted + 1 > _table.capacity() * LOAD_FACTOR) {
+            rehash((_size + 1 > _table.capacity() * LOAD_FACTOR / 2) ? _table.capacity() * 2 : _table.capacity());
+        }
+
+        Table table = _table;
+        int mask = table.capacity() - 1;
+        for (slot = hash(id) & mask; table.isUsed(slot); slot = (slot + 1) & mask) {
+        }
+        if (table.flags[slot] == DELETED) {
+            _deleted--;
+        }
+        System.arraycopy(id, 0, table.ids, slot * MAX_ID_SIZE, id.length);
+        table.idLengths[slot] = (byte) id.length;
+        table.flags[slot] = USED;
+        _size++;
+        return slot;
+    }
+
+    private void rehash(int capacity)
+    {
+        Table old = _table;
+        Table table = new Table(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < old.capacity(); i++) {
+            if (old.isUsed(i)) {
+                int length = old.idLengths[i];
+                int slot = hash(old.ids, i * MAX_ID_SIZE, length) & mask;
+                while (table.flags[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                System.arraycopy(old.ids, i * MAX_ID_SIZE, table.ids, slot * MAX_ID_SIZE, length);
+                table.idLengths[slot] = old.idLengths[i];
+                table.flags[slot] = old.flags[i];
+                table.states[slot] = old.states[i];
+                table.sizes[slot] = old.sizes[i];
+                table.creationTimes[slot] = old.creationTimes[i];
+                table.accessTimes[slot] = old.accessTimes[i];
+            }
+        }
+        _table = table;
+        _deleted = 0;
+    }
+
+    /**
+     * Adds an entry without a summary. Nothing happens if the entry already exists.
+     */
+    synchronized void add(PnfsId id)
+    {
+        findOrInsert(toBytes(id));
+    }
+
+    /**
+     * Adds or updates an entry and its summary.
+     */
+    synchronized void put(PnfsId id, ReplicaState state, long size, long creationTime,
+                          long lastAccessTime, boolean isSticky)
+    {
+        int slot = findOrInsert(toBytes(id));
+        Table table = _table;
+        table.flags[slot] = (byte) (USED | LOADED | (isSticky ? STICKY : 0));
+        table.states[slot] = (byte) state.ordinal();
+        table.sizes[slot] = size;
+        table.creationTimes[slot] = creationTime;
+        table.accessTimes[slot] = lastAccessTime;
+    }
+
+    synchronized boolean contains(PnfsId id)
+    {
+        return id.getDomain() == null && find(id.getBytes()) >= 0;
+    }
+
+    /**
+     * Returns the summary of an entry, or null if the entry does not exist or
+     * its summary is unknown.
+     */
+    synchronized Summary get(PnfsId id)
+    {
+        if (id.getDomain() != null) {
+            return null;
+        }
+        int slot = find(id.getBytes());
+        if (slot < 0) {
+            return null;
+        }
+        Table table = _table;
+        byte flag = table.flags[slot];
+        if ((flag & LOADED) == 0) {
+            return null;
+        }
+        return new Summary(STATES[table.states[slot]], table.sizes[slot], table.creationTimes[slot],
+                           table.accessTimes[slot], (flag & STICKY) != 0);
+    }
+
+    synchronized void remove(PnfsId id)
+    {
+        if (id.getDomain() != null) {
+            return;
+        }
+        int slot = find(id.getBytes());
+        if (slot >= 0) {
+            _table.flags[slot] = DELETED;
+            _size--;
+            _deleted++;
+        }
+    }
+
+    synchronized int size()
+    {
+        return _size;
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the PNFS IDs in the index.
+     */
+    Iterator<PnfsId> iterator()
+    {
+        return new Iterator<PnfsId>()
+        {
+            private Table _current = currentTable();
+            private int _slot = -1;
+            private PnfsId _next = advance();
+
+            private PnfsId advance()
+            {
+                synchronized (ReplicaIndex.this) {
+                    while (++_slot < _current.capacity()) {
+                        if (_current.isUsed(_slot)) {
+                            return _current.id(_slot);
+                        }
+                    }
+                    return null;
+                }
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return _next != null;
+            }
+
+            @Override
+            public PnfsId next()
+            {
+                if (_next == null) {
+                    throw new NoSuchElementException();
+                }
+                PnfsId id = _next;
+                _next = advance();
+                return id;
+            }
+        };
+    }
+
+    private synchronized Table currentTable()
+    {
+        return _table;
+    }
+}
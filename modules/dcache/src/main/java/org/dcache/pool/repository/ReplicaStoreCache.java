@@ -2,11 +2,18 @@ package org.dcache.pool.repository;
 
 import javax.annotation.concurrent.GuardedBy;
 
+import com.google.common.collect.Iterators;
+
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.nio.file.OpenOption;
+import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -41,13 +48,29 @@ import static org.dcache.pool.repository.ReplicaState.NEW;
  * listener is called from the thread making the modification and with
  * the ReplicaRecord locked. Care must be taken in the listener to
  * not cause deadlocks or slow down the store.
+ *
+ * In compact mode the cache does not keep a ReplicaRecord for every
+ * replica. Instead the state, size, access times and sticky flag of
+ * each replica are kept in a ReplicaIndex and records are only
+ * referenced weakly. Records are loaded from the inner store when an
+ * operation needs more than the summary kept in the index. As long
+ * as a record is referenced, the same instance is returned for a
+ * given entry.
  */
 public class ReplicaStoreCache
     implements ReplicaStore
 {
     /** Map of cached ReplicaRecords.
      */
-    private final ConcurrentMap<PnfsId,Monitor> _entries;
+    private final ConcurrentMap<PnfsId,MonitorReference> _entries;
+
+    /** Summary of all replicas in compact mode, null otherwise.
+     */
+    private final ReplicaIndex _index;
+
+    /** Queue of cleared monitor references in compact mode.
+     */
+    private final ReferenceQueue<Monitor> _queue = new ReferenceQueue<>();
 
     private final ReplicaStore _inner;
     private final StateChangeListener _stateChangeListener;
@@ -59,11 +82,47 @@ public class ReplicaStoreCache
      * Constructs a new cache.
      */
     public ReplicaStoreCache(ReplicaStore inner, StateChangeListener stateChangeListener, FaultListener faultListener)
+    {
+        this(inner, stateChangeListener, faultListener, false);
+    }
+
+    /**
+     * Constructs a new cache, optionally in compact mode.
+     */
+    public ReplicaStoreCache(ReplicaStore inner, StateChangeListener stateChangeListener, FaultListener faultListener,
+                             boolean isCompact)
     {
         _inner = inner;
         _stateChangeListener = stateChangeListener;
         _faultListener = faultListener;
         _entries = new ConcurrentHashMap<>();
+        _index = isCompact ? new ReplicaIndex() : null;
+    }
+
+    /**
+     * Reference to a Monitor as stored in _entries. A Monitor is its own strong
+     * reference, while in compact mode a weak reference is used.
+     */
+    private interface MonitorReference
+    {
+        Monitor monitor();
+    }
+
+    private static class WeakMonitorReference extends WeakReference<Monitor> implements MonitorReference
+    {
+        private final PnfsId _id;
+
+        WeakMonitorReference(Monitor monitor, ReferenceQueue<Monitor> queue)
+        {
+            super(monitor, queue);
+            _id = monitor.getPnfsId();
+        }
+
+        @Override
+        public Monitor monitor()
+        {
+            return get();
+        }
     }
 
     /**
@@ -75,7 +134,7 @@ public class ReplicaStoreCache
      *
      * 1. after an initial check it is guaranteed that
      *
-     *        _entries[this._id] == this
+     *        _entries[this._id] == this._reference
      *
      *    it follows that for any given id, the condition can only be true
      *    for one Monitor at a time
@@ -92,32 +151,51 @@ public class ReplicaStoreCache
      * The point from which the condition in item 1 is true is marked by
      * assertions in the code.
      */
-    private class Monitor implements ReplicaRecord
+    private class Monitor implements ReplicaRecord, MonitorReference
     {
         private final PnfsId _id;
-        private ReplicaRecord _record;
+        private final MonitorReference _reference;
+        private volatile ReplicaRecord _record;
+        private volatile ReplicaIndex.Summary _summary;
 
         private Monitor(PnfsId id)
         {
             _id = id;
+            _reference = (_index == null) ? this : new WeakMonitorReference(this, _queue);
+        }
+
+        @Override
+        public Monitor monitor()
+        {
+            return this;
         }
 
         private synchronized ReplicaRecord get()
                 throws CacheException
         {
-            if (_entries.get(_id) != this) {
+            if (_entries.get(_id) != _reference) {
                 return null;
             }
-            assert _entries.get(_id) == this;
-            if (_record == null) {
-                _record = _inner.get(_id);
-                if (_record == null) {
-                    _entries.remove(_id, this);
-                    return null;
+            assert _entries.get(_id) == _reference;
+            if (_record == null && _summary == null) {
+                ReplicaIndex.Summary summary = (_index == null) ? null : _index.get(_id);
+                if (summary != null) {
+                    _summary = summary;
+                } else {
+                    ReplicaRecord record = _inner.get(_id);
+                    if (record == null) {
+                        _entries.remove(_id, _reference);
+                        if (_index != null) {
+                            _index.remove(_id);
+                        }
+                        return null;
+                    }
+                    _record = record;
+                    CacheEntry entry = new CacheEntryImpl(record);
+                    _stateChangeListener.stateChanged(
+                            new StateChangeEvent(entry, entry, NEW, record.getState()));
+                    updateIndex();
                 }
-                CacheEntry entry = new CacheEntryImpl(_record);
-                _stateChangeListener.stateChanged(
-                        new StateChangeEvent(entry, entry, NEW, _record.getState()));
             }
             return this;
         }
@@ -125,10 +203,11 @@ public class ReplicaStoreCache
         private synchronized ReplicaRecord create(Set<? extends OpenOption> flags)
                 throws CacheException
         {
-            if (_entries.get(_id) != this || _record != null) {
+            if (_entries.get(_id) != _reference || _record != null || _summary != null
+                    || (_index != null && _index.contains(_id))) {
                 throw new DuplicateEntryException(_id);
             }
-            assert _entries.get(_id) == this;
+            assert _entries.get(_id) == _reference;
             try {
                 checkState(!_isClosed);
                 _record = _inner.create(_id, flags);
@@ -138,18 +217,72 @@ public class ReplicaStoreCache
                 _entries.remove(_id);
                 throw e;
             }
+            updateIndex();
             return this;
         }
 
+        /**
+         * Returns the record, loading it from the inner store if only the
+         * summary is known.
+         */
+        private ReplicaRecord loadedRecord() throws CacheException
+        {
+            ReplicaRecord record = _record;
+            if (record == null) {
+                synchronized (this) {
+                    record = _record;
+                    if (record == null) {
+                        record = _inner.get(_id);
+                        if (record == null) {
+                            throw new IllegalStateException("Meta data of " + _id + " disappeared.");
+                        }
+                        _record = record;
+                    }
+                }
+            }
+            return record;
+        }
+
+        private ReplicaRecord record()
+        {
+            try {
+                return loadedRecord();
+            } catch (CacheException e) {
+                throw new IllegalStateException("Failed to read meta data of " + _id + ": " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Returns the summary of the record if the record has not been loaded,
+         * otherwise null.
+         */
+        private ReplicaIndex.Summary summary()
+        {
+            return (_record == null) ? _summary : null;
+        }
+
+        @GuardedBy("this")
+        private void updateIndex()
+        {
+            if (_index != null) {
+                ReplicaRecord r = _record;
+                _index.put(_id, r.getState(), r.getReplicaSize(), r.getCreationTime(),
+                           r.getLastAccessTime(), r.isSticky());
+            }
+        }
+
         @GuardedBy("this")
         private void destroy()
         {
-            assert _entries.get(_id) == this;
+            assert _entries.get(_id) == _reference;
             try {
                 CacheEntry entry = new CacheEntryImpl(_record);
                 _record.update(r -> r.setState(DESTROYED));
                 _inner.remove(_id);
                 _entries.remove(_id);
+                if (_index != null) {
+                    _index.remove(_id);
+                }
                 _stateChangeListener.stateChanged(
                         new StateChangeEvent(entry, entry, entry.getState(), DESTROYED));
             } catch (DiskErrorCacheException | RuntimeException e) {
@@ -163,7 +296,7 @@ public class ReplicaStoreCache
 
         private synchronized void close()
         {
-            _entries.remove(_id, this);
+            _entries.remove(_id, _reference);
         }
 
         @Override
@@ -176,7 +309,9 @@ public class ReplicaStoreCache
         public long getReplicaSize()
         {
             try {
-                return _record.getReplicaSize();
+                ReplicaIndex.Summary summary = summary();
+                return (summary != null && !summary.getState().isMutable())
+                       ? summary.getReplicaSize() : record().getReplicaSize();
             } catch (RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -188,7 +323,7 @@ public class ReplicaStoreCache
         public FileAttributes getFileAttributes() throws CacheException
         {
             try {
-                return _record.getFileAttributes();
+                return loadedRecord().getFileAttributes();
             } catch (RuntimeException | DiskErrorCacheException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -200,7 +335,8 @@ public class ReplicaStoreCache
         public ReplicaState getState()
         {
             try {
-                return _record.getState();
+                ReplicaIndex.Summary summary = summary();
+                return (summary != null) ? summary.getState() : record().getState();
             } catch (RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -212,7 +348,7 @@ public class ReplicaStoreCache
         public URI getReplicaUri()
         {
             try {
-                return _record.getReplicaUri();
+                return record().getReplicaUri();
             } catch (RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -223,14 +359,15 @@ public class ReplicaStoreCache
         @Override
         public RepositoryChannel openChannel(Set<? extends OpenOption> mode) throws IOException
         {
-            return _record.openChannel(mode);
+            return record().openChannel(mode);
         }
 
         @Override
         public long getCreationTime()
         {
             try {
-                return _record.getCreationTime();
+                ReplicaIndex.Summary summary = summary();
+                return (summary != null) ? summary.getCreationTime() : record().getCreationTime();
             } catch (RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -242,7 +379,8 @@ public class ReplicaStoreCache
         public long getLastAccessTime()
         {
             try {
-                return _record.getLastAccessTime();
+                ReplicaIndex.Summary summary = summary();
+                return (summary != null) ? summary.getLastAccessTime() : record().getLastAccessTime();
             } catch (RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -254,7 +392,10 @@ public class ReplicaStoreCache
         public void setLastAccessTime(long time) throws CacheException
         {
             try {
-                _record.setLastAccessTime(time);
+                loadedRecord().setLastAccessTime(time);
+                synchronized (this) {
+                    updateIndex();
+                }
             } catch (IllegalArgumentException e) {
                 throw e;
             } catch (RuntimeException | DiskErrorCacheException e) {
@@ -267,7 +408,7 @@ public class ReplicaStoreCache
         @Override
         public synchronized int decrementLinkCount()
         {
-            int cnt = _record.decrementLinkCount();
+            int cnt = record().decrementLinkCount();
             if (cnt == 0 && _record.getState() == ReplicaState.REMOVED) {
                 destroy();
             }
@@ -278,7 +419,7 @@ public class ReplicaStoreCache
         public int incrementLinkCount()
         {
             try {
-                return _record.incrementLinkCount();
+                return record().incrementLinkCount();
             } catch (RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -290,7 +431,7 @@ public class ReplicaStoreCache
         public int getLinkCount()
         {
             try {
-                return _record.getLinkCount();
+                return record().getLinkCount();
             } catch (RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -302,7 +443,8 @@ public class ReplicaStoreCache
         public boolean isSticky()
         {
             try {
-                return _record.isSticky();
+                ReplicaIndex.Summary summary = summary();
+                return (summary != null) ? summary.isSticky() : record().isSticky();
             } catch (RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -314,11 +456,12 @@ public class ReplicaStoreCache
         public synchronized Collection<StickyRecord> removeExpiredStickyFlags() throws CacheException
         {
             try {
-                CacheEntry oldEntry = new CacheEntryImpl(_record);
+                CacheEntry oldEntry = new CacheEntryImpl(loadedRecord());
                 Collection<StickyRecord> removed = _record.removeExpiredStickyFlags();
                 if (!removed.isEmpty()) {
                     CacheEntryImpl newEntry = new CacheEntryImpl(_record);
                     _stateChangeListener.stickyChanged(new StickyChangeEvent(oldEntry, newEntry));
+                    updateIndex();
                 }
                 return removed;
             } catch (RuntimeException | DiskErrorCacheException e) {
@@ -332,7 +475,7 @@ public class ReplicaStoreCache
         public Collection<StickyRecord> stickyRecords()
         {
             try {
-                return _record.stickyRecords();
+                return record().stickyRecords();
             } catch (RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -344,7 +487,7 @@ public class ReplicaStoreCache
         public synchronized <T> T update(Update<T> update) throws CacheException
         {
             try {
-                T result = _record.update(
+                T result = loadedRecord().update(
                         r -> update.apply(
                                 new UpdatableRecord()
                                 {
@@ -400,6 +543,7 @@ public class ReplicaStoreCache
                                         return r.getLinkCount();
                                     }
                                 }));
+                updateIndex();
                 if (_record.getLinkCount() == 0 && _record.getState() == ReplicaState.REMOVED) {
                     destroy();
                 }
@@ -418,7 +562,7 @@ public class ReplicaStoreCache
             throws CacheException
     {
         try {
-            return _entries.computeIfAbsent(id, Monitor::new).get();
+            return monitor(id).get();
         } catch (RuntimeException | DiskErrorCacheException e) {
             _faultListener.faultOccurred(
                     new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -430,7 +574,7 @@ public class ReplicaStoreCache
     public ReplicaRecord create(PnfsId id, Set<? extends OpenOption> flags) throws CacheException
     {
         try {
-            return _entries.computeIfAbsent(id, Monitor::new).create(flags);
+            return monitor(id).create(flags);
         } catch (RuntimeException | DiskErrorCacheException e) {
             _faultListener.faultOccurred(
                     new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -438,6 +582,40 @@ public class ReplicaStoreCache
         }
     }
 
+    /**
+     * Returns the current monitor of an entry, creating a new monitor if
+     * there is none.
+     */
+    private Monitor monitor(PnfsId id)
+    {
+        if (_index == null) {
+            return (Monitor) _entries.computeIfAbsent(id, Monitor::new);
+        }
+
+        expungeStaleReferences();
+        MonitorReference reference = _entries.get(id);
+        Monitor monitor = (reference == null) ? null : reference.monitor();
+        if (monitor != null) {
+            return monitor;
+        }
+        Monitor[] result = new Monitor[1];
+        _entries.compute(id, (key, current) -> {
+            Monitor m = (current == null) ? null : current.monitor();
+            result[0] = (m != null) ? m : new Monitor(key);
+            return result[0]._reference;
+        });
+        return result[0];
+    }
+
+    private void expungeStaleReferences()
+    {
+        Reference<? extends Monitor> reference;
+        while ((reference = _queue.poll()) != null) {
+            WeakMonitorReference weak = (WeakMonitorReference) reference;
+            _entries.remove(weak._id, weak);
+        }
+    }
+
     @Override
     public void remove(PnfsId id) throws CacheException
     {
@@ -451,14 +629,40 @@ public class ReplicaStoreCache
     public void init() throws CacheException
     {
         for (PnfsId id: _inner.index(IndexOption.ALLOW_REPAIR)) {
-            _entries.putIfAbsent(id, new Monitor(id));
+            if (_index == null) {
+                _entries.putIfAbsent(id, new Monitor(id));
+            } else {
+                _index.add(id);
+            }
         }
     }
 
     @Override
     public Set<PnfsId> index(IndexOption... options)
     {
-        return Collections.unmodifiableSet(_entries.keySet());
+        if (_index == null) {
+            return Collections.unmodifiableSet(_entries.keySet());
+        }
+        return new AbstractSet<PnfsId>()
+        {
+            @Override
+            public Iterator<PnfsId> iterator()
+            {
+                return Iterators.unmodifiableIterator(_index.iterator());
+            }
+
+            @Override
+            public int size()
+            {
+                return _index.size();
+            }
+
+            @Override
+            public boolean contains(Object o)
+            {
+                return o instanceof PnfsId && _index.contains((PnfsId) o);
+            }
+        };
     }
 
     @Override
@@ -471,8 +675,11 @@ public class ReplicaStoreCache
     public void close()
     {
         _isClosed = true;
-        for (Monitor monitor : _entries.values()) {
-            monitor.close();
+        for (MonitorReference reference : _entries.values()) {
+            Monitor monitor = reference.monitor();
+            if (monitor != null) {
+                monitor.close();
+            }
         }
         _inner.close();
     }
@@ -188,4 +188,16 @@ public interface RepositoryChannel
      */
     long transferFrom(ReadableByteChannel src, long position, long count)
         throws IOException;
+
+    /**
+     * Returns true if {@link #transferTo} is implemented by the operating
+     * system without copying the data through user space.
+     *
+     * Channels that emulate the transfer, do not support it, or need to
+     * observe the data passing through must return false.
+     */
+    default boolean isZeroCopyTransferSupported()
+    {
+        return false;
+    }
 }
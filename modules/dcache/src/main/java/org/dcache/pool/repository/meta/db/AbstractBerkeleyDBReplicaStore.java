@@ -18,6 +18,7 @@
  */
 package org.dcache.pool.repository.meta.db;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sleepycat.collections.StoredMap;
 import com.sleepycat.collections.TransactionWorker;
 import com.sleepycat.je.DatabaseException;
@@ -29,18 +30,29 @@ import org.slf4j.LoggerFactory;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.URI;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.OpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.PnfsId;
 import diskCacheV111.vehicles.StorageInfo;
 
+import dmg.cells.nucleus.CellInfoProvider;
 import dmg.cells.nucleus.EnvironmentAware;
 
 import org.dcache.pool.repository.ReplicaStore;
@@ -55,13 +67,24 @@ import org.dcache.util.ConfigurationMapFactoryBean;
  *
  * The cache repository entries generated by this store fetch storage
  * info from the database on demand.
+ *
+ * State and sticky flag changes are committed to the database
+ * immediately. Updates of the last access time, which is stored as
+ * the modification time of the data file, are not critical and may
+ * be written behind: The latest update of each replica is kept in
+ * memory and written on a time or size trigger, thus coalescing
+ * repeated updates of the same replica.
  */
-public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, EnvironmentAware
+public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, EnvironmentAware, CellInfoProvider
 {
     protected static final Logger LOGGER =
         LoggerFactory.getLogger(AbstractBerkeleyDBReplicaStore.class);
     protected static final String DIRECTORY_NAME = "meta";
 
+    private static final String WRITE_BEHIND_DELAY = "pool.plugins.meta.db.access-time.write-behind.delay";
+    private static final String WRITE_BEHIND_DELAY_UNIT = "pool.plugins.meta.db.access-time.write-behind.delay.unit";
+    private static final String WRITE_BEHIND_LIMIT = "pool.plugins.meta.db.access-time.write-behind.limit";
+
     protected final boolean readOnly;
 
     /**
@@ -84,6 +107,28 @@ public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, En
      */
     protected ReplicaStoreView views;
 
+    /**
+     * Delay in milliseconds before access time updates are written. Zero
+     * disables write-behind.
+     */
+    private long accessTimeDelay;
+
+    /**
+     * Number of pending access time updates triggering a write before the
+     * delay has passed.
+     */
+    private int accessTimeLimit = 10000;
+
+    /**
+     * Pending access time updates.
+     */
+    private final ConcurrentMap<PnfsId,Long> pendingAccessTimes = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean isFlushRequested = new AtomicBoolean();
+    private final LongAdder accessTimeUpdates = new LongAdder();
+    private final LongAdder accessTimeWrites = new LongAdder();
+
+    private ScheduledExecutorService accessTimeWriter;
 
     public AbstractBerkeleyDBReplicaStore(Path directory, boolean readOnly) throws IOException
     {
@@ -106,6 +151,17 @@ public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, En
         factory.buildMap();
         properties.clear();
         properties.putAll(factory.getObject());
+
+        Object delay = environment.get(WRITE_BEHIND_DELAY);
+        if (delay != null) {
+            Object unit = environment.get(WRITE_BEHIND_DELAY_UNIT);
+            accessTimeDelay = (unit == null ? TimeUnit.SECONDS : TimeUnit.valueOf(unit.toString().trim()))
+                    .toMillis(Long.parseLong(delay.toString().trim()));
+        }
+        Object limit = environment.get(WRITE_BEHIND_LIMIT);
+        if (limit != null) {
+            accessTimeLimit = Integer.parseInt(limit.toString().trim());
+        }
     }
 
     @Override
@@ -114,6 +170,12 @@ public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, En
         try {
             database = new ReplicaStoreDatabase(properties, dir.toFile(), readOnly);
             views = new ReplicaStoreView(database);
+            if (accessTimeDelay > 0) {
+                accessTimeWriter = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("access-time-writer").build());
+                accessTimeWriter.scheduleWithFixedDelay(this::flushAccessTimes,
+                                                        accessTimeDelay, accessTimeDelay, TimeUnit.MILLISECONDS);
+            }
         } catch (EnvironmentFailureException e) {
             throw new CacheException(CacheException.PANIC, "Failed to open Berkeley DB database. When upgrading to " +
                                                            "dCache 2.6, it may be necessary to run the /usr/sbin/dcache-pool-meta-preupgrade utility " +
@@ -142,6 +204,15 @@ public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, En
     @Override
     public void close()
     {
+        if (accessTimeWriter != null) {
+            accessTimeWriter.shutdown();
+            try {
+                accessTimeWriter.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushAccessTimes();
         try {
             database.close();
         } catch (DatabaseException e) {
@@ -183,6 +254,75 @@ public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, En
         database.run(worker);
     }
 
+    /**
+     * Updates the last access time of a replica. Unless write-behind is
+     * disabled, the update is only queued.
+     */
+    public void updateLastAccessTime(PnfsId pnfsId, long time) throws IOException
+    {
+        accessTimeUpdates.increment();
+        if (accessTimeWriter == null) {
+            setLastModifiedTime(pnfsId, time);
+            accessTimeWrites.increment();
+        } else {
+            pendingAccessTimes.put(pnfsId, time);
+            if (pendingAccessTimes.size() >= accessTimeLimit && isFlushRequested.compareAndSet(false, true)) {
+                accessTimeWriter.execute(this::flushAccessTimes);
+            }
+        }
+    }
+
+    /**
+     * Returns the last access time of a replica, taking pending updates into
+     * account.
+     */
+    public long getLastAccessTime(PnfsId pnfsId, BasicFileAttributes attributes)
+    {
+        Long time = pendingAccessTimes.get(pnfsId);
+        return (time != null) ? time : attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Discards pending updates of a replica, typically because it is deleted.
+     */
+    protected void discardLastAccessTime(PnfsId pnfsId)
+    {
+        pendingAccessTimes.remove(pnfsId);
+    }
+
+    private void flushAccessTimes()
+    {
+        isFlushRequested.set(false);
+        for (PnfsId id : pendingAccessTimes.keySet()) {
+            Long time = pendingAccessTimes.remove(id);
+            if (time != null) {
+                try {
+                    setLastModifiedTime(id, time);
+                    accessTimeWrites.increment();
+                } catch (NoSuchFileException e) {
+                    // Replica was deleted in the meantime
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to update access time of {}: {}", id, e.toString());
+                } catch (RuntimeException e) {
+                    LOGGER.error("Failed to update access time of {}. Please report this to support@dcache.org.", id, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        long updates = accessTimeUpdates.sum();
+        long writes = accessTimeWrites.sum();
+        pw.println("Access time write-behind : " + (accessTimeWriter == null ? "disabled" : accessTimeDelay + " ms"));
+        pw.println("    Pending updates      : " + pendingAccessTimes.size());
+        pw.println("    Updates / writes     : " + updates + " / " + writes);
+        if (writes > 0) {
+            pw.println(String.format("    Coalescing ratio     : %.2f", (double) updates / writes));
+        }
+    }
+
     public abstract void setLastModifiedTime(PnfsId pnfsId, long time) throws IOException;
 
     public abstract long getFileSize(PnfsId pnfsId) throws IOException;
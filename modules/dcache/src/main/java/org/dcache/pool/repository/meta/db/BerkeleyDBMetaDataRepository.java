@@ -155,6 +155,7 @@ public class BerkeleyDBMetaDataRepository extends AbstractBerkeleyDBReplicaStore
     public void remove(PnfsId id) throws CacheException
     {
 
+        discardLastAccessTime(id);
         try {
             _fileStore.remove(id);
         } catch (IOException e) {
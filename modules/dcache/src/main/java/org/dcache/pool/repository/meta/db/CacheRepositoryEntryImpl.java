@@ -84,7 +84,7 @@ public class CacheRepositoryEntryImpl implements ReplicaRecord
         _pnfsId = pnfsId;
         _state = state;
         setStickyRecords(sticky);
-        _lastAccess = attributes.lastModifiedTime().toMillis();
+        _lastAccess = repository.getLastAccessTime(pnfsId, attributes);
         _size = attributes.size();
     }
 
@@ -141,7 +141,7 @@ public class CacheRepositoryEntryImpl implements ReplicaRecord
     public synchronized void setLastAccessTime(long time) throws CacheException
     {
         try {
-            _repository.setLastModifiedTime(_pnfsId, time);
+            _repository.updateLastAccessTime(_pnfsId, time);
         } catch (IOException e) {
             throw new DiskErrorCacheException("Failed to set modification time for " + _pnfsId + ": " + e.toString(), e);
         }
@@ -68,14 +68,16 @@ class CheckHealthTask implements Runnable
         switch (_repository.getState()) {
         case UNINITIALIZED:
         case INITIALIZED:
-        case LOADING:
         case FAILED:
         case CLOSED:
             break;
+        case LOADING:
+            /* Space accounting is incomplete until all entries are loaded.
+             */
+            checkReplicaStore();
+            break;
         case OPEN:
-            if (!_replicaStore.isOk()) {
-                _repository.fail(FaultAction.DISABLED, "I/O test failed");
-            }
+            checkReplicaStore();
 
             if (!checkSpaceAccounting()) {
                 LOGGER.error("Marking pool read-only due to accounting errors. This is a bug. Please report it to support@dcache.org.");
@@ -88,6 +90,13 @@ class CheckHealthTask implements Runnable
         checkHealthCommand();
     }
 
+    private void checkReplicaStore()
+    {
+        if (!_replicaStore.isOk()) {
+            _repository.fail(FaultAction.DISABLED, "I/O test failed");
+        }
+    }
+
     private void checkHealthCommand()
     {
         if (_commands.length > 0) {
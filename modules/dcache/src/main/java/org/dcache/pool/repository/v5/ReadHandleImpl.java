@@ -1,5 +1,7 @@
 package org.dcache.pool.repository.v5;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 import java.net.URI;
 import java.util.EnumSet;
@@ -9,7 +11,9 @@ import diskCacheV111.util.CacheException;
 import diskCacheV111.util.PnfsHandler;
 
 import org.dcache.namespace.FileAttribute;
+import org.dcache.pool.repository.DirectIo;
 import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.ReadAhead;
 import org.dcache.pool.repository.ReplicaRecord;
 import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.pool.repository.RepositoryChannel;
@@ -23,14 +27,19 @@ class ReadHandleImpl implements ReplicaDescriptor
 {
     private final PnfsHandler _pnfs;
     private final ReplicaRecord _entry;
+    private final ReadAhead _readAhead;
+    private final DirectIo _directIo;
     private FileAttributes _fileAttributes;
     private boolean _open;
 
-    ReadHandleImpl(PnfsHandler pnfs, ReplicaRecord entry, FileAttributes fileAttributes)
+    ReadHandleImpl(PnfsHandler pnfs, ReplicaRecord entry, FileAttributes fileAttributes,
+                   @Nullable ReadAhead readAhead, @Nullable DirectIo directIo)
     {
         _pnfs = checkNotNull(pnfs);
         _entry = checkNotNull(entry);
         _fileAttributes = checkNotNull(fileAttributes);
+        _readAhead = readAhead;
+        _directIo = directIo;
         _open = true;
     }
 
@@ -51,7 +60,10 @@ class ReadHandleImpl implements ReplicaDescriptor
 
     @Override
     public RepositoryChannel createChannel() throws IOException {
-        return _entry.openChannel(FileStore.O_READ);
+        RepositoryChannel channel = (_directIo == null)
+                ? _entry.openChannel(FileStore.O_READ)
+                : _directIo.openChannel(_entry, FileStore.O_READ, _entry.getReplicaSize());
+        return (_readAhead == null) ? channel : _readAhead.decorate(channel);
     }
 
     /**
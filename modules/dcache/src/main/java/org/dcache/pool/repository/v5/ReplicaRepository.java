@@ -1,12 +1,15 @@
 package org.dcache.pool.repository.v5;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import java.io.PrintWriter;
 import java.nio.file.OpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -16,10 +19,17 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -52,6 +62,8 @@ import org.dcache.pool.repository.CacheEntry;
 import org.dcache.pool.repository.DuplicateEntryException;
 import org.dcache.pool.repository.EntryChangeEvent;
 import org.dcache.pool.repository.IllegalTransitionException;
+import org.dcache.pool.repository.DirectIo;
+import org.dcache.pool.repository.ReadAhead;
 import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.pool.repository.ReplicaRecord;
 import org.dcache.pool.repository.ReplicaState;
@@ -166,9 +178,23 @@ public class ReplicaRepository
     private final ReadWriteLock _stateLock = new ReentrantReadWriteLock();
 
     /**
-     * Initialization progress between 0 and 1.
+     * Number of entries loaded and to load during initialization.
      */
-    private volatile float _initializationProgress;
+    private final AtomicInteger _loadedEntries = new AtomicInteger();
+    private volatile int _entriesToLoad;
+
+    /**
+     * Number of threads reading meta data during initialization.
+     */
+    @GuardedBy("_stateLock")
+    private int _loadThreads = 1;
+
+    /**
+     * Read-ahead applied to channels of replicas opened for reading, or null
+     * if disabled.
+     */
+    private volatile ReadAhead _readAhead;
+    private volatile DirectIo _directIo;
 
     /**
      * Shared repository account object for tracking space.
@@ -194,6 +220,12 @@ public class ReplicaRepository
     @GuardedBy("_stateLock")
     private boolean _volatile;
 
+    /**
+     * Whether replica meta data is kept in a compact index.
+     */
+    @GuardedBy("_stateLock")
+    private boolean _compactIndex;
+
     /**
      * Pool size configured through the 'max disk space' command.
      */
@@ -330,6 +362,56 @@ public class ReplicaRepository
         }
     }
 
+    /**
+     * Sets whether replica meta data is kept in a compact index rather than
+     * keeping a record object for every replica in memory. Must be set
+     * before the replica store.
+     */
+    public void setCompactIndex(boolean value)
+    {
+        _stateLock.readLock().lock();
+        try {
+            checkUninitialized();
+            _compactIndex = value;
+        } finally {
+            _stateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the number of threads used to read the meta data of all replicas
+     * while loading the repository.
+     */
+    public void setLoadThreads(int threads)
+    {
+        checkArgument(threads > 0, "Number of threads must be positive");
+        _stateLock.readLock().lock();
+        try {
+            checkUninitialized();
+            _loadThreads = threads;
+        } finally {
+            _stateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the read-ahead applied to channels of replicas opened for
+     * reading. Read-ahead is disabled if null.
+     */
+    public void setReadAhead(@Nullable ReadAhead readAhead)
+    {
+        _readAhead = readAhead;
+    }
+
+    /**
+     * Sets the direct I/O used for channels of large replicas. Direct I/O is
+     * disabled if null.
+     */
+    public void setDirectIo(@Nullable DirectIo directIo)
+    {
+        _directIo = directIo;
+    }
+
     /**
      * The account keeps track of available space.
      */
@@ -441,7 +523,7 @@ public class ReplicaRepository
                         listener.faultOccurred(event);
                     }
                 }
-            });
+            }, _compactIndex);
         } finally {
             _stateLock.readLock().unlock();
         }
@@ -527,23 +609,9 @@ public class ReplicaRepository
 
             Collection<PnfsId> ids = _store.index();
 
-            int fileCount = ids.size();
-            LOGGER.info("Checking meta data for {} files.", fileCount);
-            int cnt = 0;
-            for (PnfsId id: ids) {
-                ReplicaRecord entry = readReplicaRecord(id);
-                if (entry != null)  {
-                    ReplicaState state = entry.getState();
-                    LOGGER.debug("{} {}", id, state);
-                }
-                _initializationProgress = ((float) cnt) / fileCount;
-                cnt++;
-
-                // Lazily check if repository was closed
-                if (_state != State.LOADING) {
-                    throw new IllegalStateException("Repository was closed during loading.");
-                }
-            }
+            _entriesToLoad = ids.size();
+            LOGGER.info("Checking meta data for {} files using {} threads.", ids.size(), _loadThreads);
+            loadEntries(ids.iterator());
 
             _stateLock.writeLock().lock();
             try {
@@ -561,12 +629,91 @@ public class ReplicaRepository
         LOGGER.info("Done generating inventory.");
     }
 
+    /**
+     * Reads the meta data of all entries of the iterator using several threads.
+     *
+     * Entries are loaded lazily by the replica store, thus entries already read
+     * may be accessed while the remaining entries are loaded.
+     *
+     * The loading threads are not interrupted on failure, as interrupting a
+     * thread blocked on the meta data store may corrupt the store. Instead the
+     * threads stop after the entry they are currently reading.
+     */
+    private void loadEntries(Iterator<PnfsId> ids)
+            throws CacheException, InterruptedException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                _loadThreads, new ThreadFactoryBuilder().setNameFormat("repository-load-%d").build());
+        CompletionService<Void> workers = new ExecutorCompletionService<>(executor);
+        AtomicBoolean stopped = new AtomicBoolean();
+        try {
+            for (int i = 0; i < _loadThreads; i++) {
+                workers.submit(() -> {
+                    try {
+                        PnfsId id;
+                        while ((id = nextId(ids, stopped)) != null) {
+                            ReplicaRecord entry = readReplicaRecord(id);
+                            if (entry != null) {
+                                ReplicaState state = entry.getState();
+                                LOGGER.debug("{} {}", id, state);
+                            }
+                            _loadedEntries.incrementAndGet();
+
+                            // Lazily check if repository was closed
+                            if (_state != State.LOADING) {
+                                throw new IllegalStateException("Repository was closed during loading.");
+                            }
+                        }
+                        return null;
+                    } catch (Exception | Error e) {
+                        // Stop the other workers
+                        stopped.set(true);
+                        throw e;
+                    }
+                });
+            }
+            /* Workers are collected in the order they complete, such that
+             * a failure is reported without waiting for the others.
+             */
+            for (int i = 0; i < _loadThreads; i++) {
+                try {
+                    workers.take().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof CacheException) {
+                        throw (CacheException) cause;
+                    }
+                    if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            stopped.set(true);
+            executor.shutdown();
+        }
+    }
+
+    private static PnfsId nextId(Iterator<PnfsId> ids, AtomicBoolean stopped)
+    {
+        synchronized (ids) {
+            return (!stopped.get() && ids.hasNext()) ? ids.next() : null;
+        }
+    }
+
     @Override
     public Iterator<PnfsId> iterator()
     {
         _stateLock.readLock().lock();
         try {
-            checkOpen();
+            checkInitialized();
             try {
                 return Collections.unmodifiableCollection(_store.index()).iterator();
             } catch (CacheException e) {
@@ -621,7 +768,7 @@ public class ReplicaRepository
                 r.setState(transferState);
                 return new WriteHandleImpl(
                         this, _allocator, _pnfs, entry, fileAttributes,
-                        targetState, stickyRecords);
+                        targetState, stickyRecords, _directIo);
             });
         } catch (DuplicateEntryException e) {
             /* Somebody got the idea that we don't have the file, so we make
@@ -667,7 +814,7 @@ public class ReplicaRepository
                 entry.incrementLinkCount();
             }
 
-            return new ReadHandleImpl(_pnfs, entry, fileAttributes);
+            return new ReadHandleImpl(_pnfs, entry, fileAttributes, _readAhead, _directIo);
         } catch (FileNotInCacheException e) {
             /* Somebody got the idea that we have the file, so we make
              * sure to remove any stray pointers.
@@ -907,7 +1054,9 @@ public class ReplicaRepository
         try {
             info.setState(_state.name());
             if (_state == State.LOADING) {
-                info.setInitializationProgress((int) (_initializationProgress * 100));
+                int entriesToLoad = _entriesToLoad;
+                info.setInitializationProgress(
+                        (entriesToLoad == 0) ? 0 : (int) (_loadedEntries.get() * 100L / entriesToLoad));
             }
             try {
                 if (_state == State.OPEN ||
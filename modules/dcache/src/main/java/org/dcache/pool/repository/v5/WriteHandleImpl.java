@@ -4,6 +4,8 @@ import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 import java.net.URI;
 import java.util.EnumSet;
@@ -17,6 +19,7 @@ import diskCacheV111.util.PnfsId;
 import org.dcache.alarms.AlarmMarkerFactory;
 import org.dcache.alarms.PredefinedAlarm;
 import org.dcache.pool.repository.Allocator;
+import org.dcache.pool.repository.DirectIo;
 import org.dcache.pool.repository.FileStore;
 import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.ReplicaRecord;
@@ -83,13 +86,17 @@ class WriteHandleImpl implements ReplicaDescriptor
     /** Last access time of new replica. */
     private Long _atime;
 
+    /** Direct I/O for large replicas, or null. */
+    private final DirectIo _directIo;
+
     WriteHandleImpl(ReplicaRepository repository,
                     Allocator allocator,
                     PnfsHandler pnfs,
                     ReplicaRecord entry,
                     FileAttributes fileAttributes,
                     ReplicaState targetState,
-                    List<StickyRecord> stickyRecords)
+                    List<StickyRecord> stickyRecords,
+                    @Nullable DirectIo directIo)
     {
         _repository = checkNotNull(repository);
         _allocator = checkNotNull(allocator);
@@ -99,6 +106,7 @@ class WriteHandleImpl implements ReplicaDescriptor
         _initialState = entry.getState();
         _targetState = checkNotNull(targetState);
         _stickyRecords = checkNotNull(stickyRecords);
+        _directIo = directIo;
         _state = HandleState.OPEN;
         _allocated = 0;
 
@@ -121,7 +129,11 @@ class WriteHandleImpl implements ReplicaDescriptor
 
     @Override
     public RepositoryChannel createChannel() throws IOException {
-        return _entry.openChannel(FileStore.O_RW);
+        if (_directIo == null) {
+            return _entry.openChannel(FileStore.O_RW);
+        }
+        long size = _fileAttributes.isDefined(SIZE) ? _fileAttributes.getSize() : -1;
+        return _directIo.openChannel(_entry, FileStore.O_RW, size);
     }
 
     /**
@@ -104,6 +104,15 @@ public class PoolInformationBase implements CellMessageReceiver
     {
         String name = message.getPoolName();
 
+        if (message.isDelta()) {
+            PoolInformation current = _pools.get(name);
+            PoolManagerPoolUpMessage previous = (current == null) ? null : current._poolup;
+            if (!message.canApplyTo(previous)) {
+                return;
+            }
+            message = message.applyTo(previous);
+        }
+
         remove(name);
 
         PoolInformation pool = new PoolInformation(message);
@@ -29,6 +29,7 @@ import org.dcache.util.CacheExceptionFactory;
 import org.dcache.util.Glob;
 import org.dcache.vehicles.FileAttributes;
 import org.dcache.vehicles.PnfsListDirectoryMessage;
+import org.dcache.vehicles.PnfsResumeListDirectoryMessage;
 
 /**
  * DirectoryListSource which delegates the list operation to the
@@ -99,10 +100,29 @@ public class ListDirectoryHandler
         list(Subject subject, Restriction restriction, FsPath path, Glob pattern,
                 Range<Integer> range, Set<FileAttribute> attributes)
                 throws InterruptedException, CacheException
+    {
+        return list(subject, restriction, path, pattern, null, range, attributes);
+    }
+
+    /**
+     * Sends a directory list request to PnfsManager, resuming a previous
+     * listing. Entries are listed in name order, starting with the first
+     * entry whose name sorts after {@code after}; the range is relative to
+     * that entry. Paging through a large directory by passing the name of
+     * the last entry of the previous page avoids rescanning the entries of
+     * all previous pages.
+     *
+     * @see #list(Subject, Restriction, FsPath, Glob, Range, Set)
+     */
+    public DirectoryStream
+        list(Subject subject, Restriction restriction, FsPath path, Glob pattern,
+                String after, Range<Integer> range, Set<FileAttribute> attributes)
+                throws InterruptedException, CacheException
     {
         String dir = path.toString();
-        PnfsListDirectoryMessage msg =
-            new PnfsListDirectoryMessage(dir, pattern, range, attributes);
+        PnfsListDirectoryMessage msg = (after == null)
+            ? new PnfsListDirectoryMessage(dir, pattern, range, attributes)
+            : new PnfsResumeListDirectoryMessage(dir, pattern, after, range, attributes);
         UUID uuid = msg.getUUID();
         boolean success = false;
         Stream stream = new Stream(dir, uuid);
@@ -0,0 +1,150 @@
+package diskCacheV111.namespace;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.PnfsGetCacheLocationsMessage;
+import diskCacheV111.vehicles.PnfsMessage;
+
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+
+import org.dcache.vehicles.FileAttributes;
+import org.dcache.vehicles.PnfsSetFileAttributes;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PnfsMessageQueueTest
+{
+    private static final PnfsId FILE = new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId OTHER_FILE = new PnfsId("000000000000000000000000000000000002");
+
+    private PnfsMessageQueue _queue;
+
+    @Before
+    public void setup()
+    {
+        _queue = new PnfsMessageQueue(10, true);
+    }
+
+    private static CellMessage envelope(PnfsMessage message)
+    {
+        return new CellMessage(new CellPath("PnfsManager"), message);
+    }
+
+    private static CellMessage getLocations(PnfsId pnfsId)
+    {
+        return envelope(new PnfsGetCacheLocationsMessage(pnfsId));
+    }
+
+    private static CellMessage setAttributes(PnfsId pnfsId)
+    {
+        return envelope(new PnfsSetFileAttributes(pnfsId, new FileAttributes()));
+    }
+
+    private static CellMessage process(CellMessage envelope)
+    {
+        PnfsGetCacheLocationsMessage message = (PnfsGetCacheLocationsMessage) envelope.getMessageObject();
+        message.setCacheLocations(asList("pool"));
+        message.setSucceeded();
+        return envelope;
+    }
+
+    private List<CellMessage> drain()
+    {
+        List<CellMessage> messages = new ArrayList<>();
+        _queue.drainTo(messages);
+        return messages;
+    }
+
+    @Test
+    public void shouldServeMessagesInOrderUpToCapacity()
+    {
+        List<CellMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            CellMessage message = setAttributes(FILE);
+            messages.add(message);
+            assertThat(_queue.offer(message), is(true));
+        }
+
+        assertThat(_queue.offer(setAttributes(FILE)), is(false));
+        assertThat(_queue.size(), is(10));
+        assertThat(drain(), is(messages));
+    }
+
+    @Test
+    public void shouldNotFoldAcrossInvalidatingMessage()
+    {
+        CellMessage first = getLocations(FILE);
+        CellMessage second = getLocations(FILE);
+        CellMessage other = getLocations(OTHER_FILE);
+        CellMessage update = setAttributes(FILE);
+        CellMessage third = getLocations(FILE);
+        _queue.offer(first);
+        _queue.offer(other);
+        _queue.offer(update);
+        _queue.offer(third);
+        _queue.add(second);
+
+        assertThat(_queue.size(), is(4));
+        assertThat(_queue.poll(), is(first));
+        assertThat(_queue.complete(process(first), true), is(empty()));
+        assertThat(drain(), contains(other, update, third, second));
+    }
+
+    @Test
+    public void shouldAttachIdenticalMessagesToMessageInProgress()
+    {
+        CellMessage first = getLocations(FILE);
+        CellMessage second = getLocations(FILE);
+        CellMessage other = getLocations(OTHER_FILE);
+        _queue.offer(first);
+        assertThat(_queue.poll(), is(first));
+        _queue.offer(second);
+        _queue.offer(other);
+
+        assertThat(_queue.size(), is(1));
+        assertThat(_queue.complete(process(first), true), contains(second));
+        assertThat(((PnfsGetCacheLocationsMessage) second.getMessageObject()).getCacheLocations(),
+                   contains("pool"));
+        assertThat(drain(), contains(other));
+    }
+
+    @Test
+    public void shouldRequeueAttachedMessagesIfNotFolded()
+    {
+        CellMessage first = getLocations(FILE);
+        CellMessage second = getLocations(FILE);
+        CellMessage other = getLocations(OTHER_FILE);
+        _queue.offer(first);
+        _queue.offer(other);
+        _queue.offer(second);
+        assertThat(_queue.size(), is(2));
+
+        assertThat(_queue.poll(), is(first));
+        assertThat(_queue.complete(first, false), is(empty()));
+        assertThat(drain(), contains(second, other));
+    }
+
+    @Test
+    public void shouldNotAttachAcrossInvalidatingMessage()
+    {
+        CellMessage first = getLocations(FILE);
+        CellMessage update = setAttributes(FILE);
+        CellMessage second = getLocations(FILE);
+        _queue.offer(first);
+        _queue.offer(update);
+        _queue.offer(second);
+
+        assertThat(_queue.size(), is(3));
+        assertThat(_queue.poll(), is(first));
+        assertThat(_queue.complete(process(first), true), is(empty()));
+        assertThat(drain(), contains(update, second));
+    }
+}
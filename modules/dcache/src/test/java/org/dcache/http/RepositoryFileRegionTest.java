@@ -0,0 +1,77 @@
+package org.dcache.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+
+import org.dcache.pool.repository.FileRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RepositoryFileRegionTest
+{
+    private Path _file;
+    private RepositoryChannel _channel;
+
+    @Before
+    public void setup() throws IOException
+    {
+        _file = Files.createTempFile("region", null);
+        Files.write(_file, "0123456789".getBytes(US_ASCII));
+        _channel = new FileRepositoryChannel(_file, EnumSet.of(StandardOpenOption.READ));
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        _channel.close();
+        Files.delete(_file);
+    }
+
+    @Test
+    public void shouldTransferRequestedRange() throws IOException
+    {
+        RepositoryFileRegion region = new RepositoryFileRegion(_channel, 2, 5);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+
+        while (region.transferred() < region.count()) {
+            region.transferTo(target, region.transferred());
+        }
+
+        assertThat(new String(out.toByteArray(), US_ASCII), is("23456"));
+        assertThat(region.transferred(), is(5L));
+    }
+
+    @Test
+    public void shouldNotCloseChannelWhenReleased() throws IOException
+    {
+        RepositoryFileRegion region = new RepositoryFileRegion(_channel, 0, 10);
+        region.release();
+
+        assertThat(_channel.isOpen(), is(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailIfFileIsTruncated() throws IOException
+    {
+        RepositoryFileRegion region = new RepositoryFileRegion(_channel, 8, 5);
+        WritableByteChannel target = Channels.newChannel(new ByteArrayOutputStream());
+
+        while (region.transferred() < region.count()) {
+            region.transferTo(target, region.transferred());
+        }
+    }
+}
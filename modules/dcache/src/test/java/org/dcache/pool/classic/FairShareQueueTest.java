@@ -0,0 +1,97 @@
+package org.dcache.pool.classic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Comparator;
+
+import org.dcache.pool.classic.MoverRequestScheduler.PrioritizedRequest;
+import org.dcache.pool.movers.Mover;
+import org.dcache.util.IoPriority;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class FairShareQueueTest
+{
+    private FairShare _share;
+    private FairShareQueue _queue;
+    private int _id;
+
+    @Before
+    public void setup()
+    {
+        _share = new FairShare();
+        _queue = new FairShareQueue(_share, Comparator.comparing(PrioritizedRequest::getPriority).reversed()
+                .thenComparingLong(PrioritizedRequest::getCreateTime)
+                .thenComparingInt(PrioritizedRequest::getId));
+    }
+
+    private PrioritizedRequest add(String owner)
+    {
+        PrioritizedRequest request = new PrioritizedRequest(_id++, "door-" + _id, mock(Mover.class),
+                                                            IoPriority.REGULAR, owner);
+        _queue.add(request);
+        return request;
+    }
+
+    @Test
+    public void shouldAlternateBetweenOwners()
+    {
+        for (int i = 0; i < 100; i++) {
+            add("uid:1");
+        }
+        add("uid:2");
+        add("uid:2");
+
+        assertThat(_queue.poll().getOwner(), is("uid:1"));
+        assertThat(_queue.poll().getOwner(), is("uid:2"));
+        assertThat(_queue.poll().getOwner(), is("uid:1"));
+        assertThat(_queue.poll().getOwner(), is("uid:2"));
+        assertThat(_queue.poll().getOwner(), is("uid:1"));
+        assertThat(_queue.size(), is(97));
+    }
+
+    @Test
+    public void shouldServeOwnersInProportionToWeight()
+    {
+        _share.setWeight("uid:1", 3);
+        for (int i = 0; i < 100; i++) {
+            add("uid:1");
+            add("uid:2");
+        }
+
+        int first = 0;
+        for (int i = 0; i < 40; i++) {
+            if (_queue.poll().getOwner().equals("uid:1")) {
+                first++;
+            }
+        }
+        assertThat(first, is(30));
+    }
+
+    @Test
+    public void shouldServeRequestsOfOwnerInOrder()
+    {
+        PrioritizedRequest first = add("uid:1");
+        PrioritizedRequest second = add("uid:1");
+
+        assertThat(_queue.poll(), is(first));
+        assertThat(_queue.poll(), is(second));
+        assertThat(_queue.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldRemoveRequests()
+    {
+        PrioritizedRequest request = add("uid:1");
+        add("uid:2");
+
+        assertThat(_queue.remove(request), is(true));
+        assertThat(_queue.remove(request), is(false));
+        assertThat(_queue.size(), is(1));
+        assertThat(_queue.poll().getOwner(), is("uid:2"));
+        assertThat(_queue.isEmpty(), is(true));
+    }
+}
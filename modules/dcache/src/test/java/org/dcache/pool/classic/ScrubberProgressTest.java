@@ -0,0 +1,95 @@
+package org.dcache.pool.classic;
+
+import org.junit.Test;
+
+import diskCacheV111.util.PnfsId;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ScrubberProgressTest
+{
+    private static final PnfsId A = new PnfsId("00000000000000000000000A");
+    private static final PnfsId B = new PnfsId("00000000000000000000000B");
+    private static final PnfsId C = new PnfsId("00000000000000000000000C");
+    private static final PnfsId D = new PnfsId("00000000000000000000000D");
+
+    @Test
+    public void shouldHandOutFilesInOrder()
+    {
+        ScrubberProgress progress = new ScrubberProgress(new PnfsId[] { A, B, C }, null);
+
+        assertThat(progress.next(), is(A));
+        assertThat(progress.next(), is(B));
+        assertThat(progress.next(), is(C));
+        assertThat(progress.hasNext(), is(false));
+    }
+
+    @Test
+    public void shouldCheckpointAtStartBeforeAnyFileIsVerified()
+    {
+        ScrubberProgress progress = new ScrubberProgress(new PnfsId[] { B, C }, A);
+
+        assertThat(progress.checkpoint(), is(A));
+
+        progress.next();
+        assertThat(progress.checkpoint(), is(A));
+    }
+
+    @Test
+    public void shouldCheckpointAtNullOnFirstRun()
+    {
+        ScrubberProgress progress = new ScrubberProgress(new PnfsId[] { A, B }, null);
+        progress.next();
+
+        assertThat(progress.checkpoint(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldCheckpointAtLastVerifiedFile()
+    {
+        ScrubberProgress progress = new ScrubberProgress(new PnfsId[] { A, B, C }, null);
+        progress.done(progress.next());
+        progress.done(progress.next());
+
+        assertThat(progress.checkpoint(), is(B));
+    }
+
+    @Test
+    public void shouldNotCheckpointPastFileInFlight()
+    {
+        ScrubberProgress progress = new ScrubberProgress(new PnfsId[] { A, B, C, D }, null);
+        PnfsId a = progress.next();
+        PnfsId b = progress.next();
+        PnfsId c = progress.next();
+        progress.done(a);
+        progress.done(c);
+
+        assertThat(progress.checkpoint(), is(A));
+
+        progress.done(b);
+        assertThat(progress.checkpoint(), is(C));
+    }
+
+    @Test
+    public void shouldNotCheckpointPastFirstFileInFlight()
+    {
+        ScrubberProgress progress = new ScrubberProgress(new PnfsId[] { B, C, D }, A);
+        progress.next();
+        progress.done(progress.next());
+        progress.done(progress.next());
+
+        assertThat(progress.checkpoint(), is(A));
+    }
+
+    @Test
+    public void shouldCheckpointAtLastFileWhenAllVerified()
+    {
+        ScrubberProgress progress = new ScrubberProgress(new PnfsId[] { B, C }, A);
+        while (progress.hasNext()) {
+            progress.done(progress.next());
+        }
+
+        assertThat(progress.checkpoint(), is(C));
+    }
+}
@@ -305,6 +305,45 @@ public class ChecksumChannelTest {
         assertThat(chksumChannel.getChecksums(), contains(expectedChecksum));
     }
 
+    @Test
+    public void shouldSucceedIfWrittenOutOfOrderWithPipeline() throws IOException, NoSuchAlgorithmException {
+        DigestPipeline pipeline = new DigestPipeline(2, 1);
+        try {
+            ChecksumFactory md5 = ChecksumFactory.getFactory(ChecksumType.MD5_TYPE);
+            ChecksumFactory adler32 = ChecksumFactory.getFactory(ChecksumType.ADLER32);
+            ChecksumChannel channel = new ChecksumChannel(chksumChannel._channel,
+                                                          Sets.newHashSet(md5, adler32), pipeline);
+            channel._readBackBuffer = ByteBuffer.allocate(2);
+
+            int[] blockorder = getRandomPermutationOfBlockOrder();
+            for (int i = 0; i < blockcount; i++) {
+                channel.write(buffers[blockorder[i]], blockorder[i] * blocksize);
+            }
+
+            assertThat(channel.getChecksums(), containsInAnyOrder(expectedChecksum,
+                    new Checksum(ChecksumType.ADLER32, adler32.create().digest(data))));
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldFillUpRangeGapsWithZerosWithPipeline() throws IOException, NoSuchAlgorithmException {
+        DigestPipeline pipeline = new DigestPipeline(1, 2);
+        try {
+            ChecksumChannel channel = new ChecksumChannel(chksumChannel._channel,
+                    Sets.newHashSet(ChecksumFactory.getFactory(ChecksumType.MD5_TYPE)), pipeline);
+            Map<Long, ByteBuffer> nonZeroBlocksFromByteArray = getNonZeroBlocksFromByteArray(data);
+            for (Long position : nonZeroBlocksFromByteArray.keySet()) {
+                channel.write(nonZeroBlocksFromByteArray.get(position), position);
+            }
+
+            assertThat(channel.getChecksums(), contains(expectedChecksum));
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
     private Map<Long, ByteBuffer> getNonZeroBlocksFromByteArray(byte[] bytes) {
         Map<Long, ByteBuffer> result = new TreeMap<>();
         for (int position = 0; position < bytes.length; position++) {
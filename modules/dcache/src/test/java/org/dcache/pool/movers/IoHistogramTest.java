@@ -0,0 +1,59 @@
+package org.dcache.pool.movers;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class IoHistogramTest
+{
+    @Test
+    public void shouldPlaceValuesInBucketsBoundingThem()
+    {
+        for (long value = 0; value < 1_000_000; value = value * 3 / 2 + 1) {
+            long upper = IoHistogram.upperBoundOf(IoHistogram.bucketOf(value));
+            assertThat(upper, is(greaterThanOrEqualTo(value)));
+            assertThat((double) upper, is(lessThanOrEqualTo(value * 1.125)));
+        }
+    }
+
+    @Test
+    public void shouldUseContiguousBuckets()
+    {
+        for (long value = 1; value < 100_000; value++) {
+            assertThat(IoHistogram.bucketOf(value) - IoHistogram.bucketOf(value - 1), is(either(is(0)).or(is(1))));
+        }
+    }
+
+    @Test
+    public void shouldReportPercentiles()
+    {
+        IoHistogram histogram = new IoHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        IoHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount(), is(1000L));
+        assertThat(snapshot.getMax(), is(1000L));
+        assertThat(snapshot.getMean(), is(500.5));
+        assertThat(snapshot.getPercentile(50), is(both(greaterThanOrEqualTo(500L)).and(lessThanOrEqualTo(563L))));
+        assertThat(snapshot.getPercentile(99), is(both(greaterThanOrEqualTo(990L)).and(lessThanOrEqualTo(1000L))));
+        assertThat(snapshot.getPercentile(100), is(1000L));
+    }
+
+    @Test
+    public void shouldCombineSnapshots()
+    {
+        IoHistogram first = new IoHistogram();
+        IoHistogram second = new IoHistogram();
+        first.record(10);
+        second.record(1_000_000);
+        second.record(Long.MAX_VALUE);
+
+        IoHistogram.Snapshot combined = first.snapshot().plus(second.snapshot());
+        assertThat(combined.getCount(), is(3L));
+        assertThat(combined.getMax(), is(Long.MAX_VALUE));
+        assertThat(combined.getPercentile(10), is(10L));
+    }
+}
@@ -0,0 +1,201 @@
+package org.dcache.pool.p2p;
+
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelCopyTest
+{
+    private static final ThreadFactory THREADS =
+            new ThreadFactoryBuilder().setNameFormat("stream-%d").build();
+
+    private static byte[] data(int size)
+    {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void shouldUseSingleStreamForSmallFiles()
+    {
+        assertThat(ParallelCopy.getStreamCount(100, 4, 1000), is(1));
+        assertThat(ParallelCopy.getStreamCount(1999, 4, 1000), is(1));
+    }
+
+    @Test
+    public void shouldUseOneStreamPerMinimumStreamSize()
+    {
+        assertThat(ParallelCopy.getStreamCount(2000, 4, 1000), is(2));
+        assertThat(ParallelCopy.getStreamCount(3999, 4, 1000), is(3));
+    }
+
+    @Test
+    public void shouldNotExceedMaximumStreams()
+    {
+        assertThat(ParallelCopy.getStreamCount(100000, 4, 1000), is(4));
+        assertThat(ParallelCopy.getStreamCount(100000, 1, 1000), is(1));
+        assertThat(ParallelCopy.getStreamCount(Long.MAX_VALUE, 4, Long.MAX_VALUE), is(1));
+    }
+
+    @Test
+    public void shouldSplitFileIntoChunks() throws Exception
+    {
+        byte[] data = data(10);
+        List<Range<Long>> ranges = new CopyOnWriteArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new ParallelCopy((start, end, buffer) -> {
+            ranges.add(Range.closed(start, end));
+            buffer.put(data, (int) start, (int) (end - start + 1));
+        }, () -> {}, data.length, 2, 3).copy(Channels.newChannel(out), THREADS);
+
+        assertThat(ranges, containsInAnyOrder(Range.closed(0L, 2L), Range.closed(3L, 5L),
+                                              Range.closed(6L, 8L), Range.closed(9L, 9L)));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void shouldWriteChunksInFileOrder() throws Exception
+    {
+        byte[] data = data(1000);
+        Random random = new Random();
+        AtomicInteger position = new AtomicInteger();
+        WritableByteChannel channel = new WritableByteChannel()
+        {
+            @Override
+            public int write(ByteBuffer src)
+            {
+                int n = src.remaining();
+                byte[] bytes = new byte[n];
+                src.get(bytes);
+                byte[] expected = new byte[n];
+                System.arraycopy(data, position.getAndAdd(n), expected, 0, n);
+                assertArrayEquals(expected, bytes);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen()
+            {
+                return true;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+
+        new ParallelCopy((start, end, buffer) -> {
+            Thread.sleep(random.nextInt(3));
+            buffer.put(data, (int) start, (int) (end - start + 1));
+        }, () -> {}, data.length, 4, 16).copy(channel, THREADS);
+
+        assertThat(position.get(), is(data.length));
+    }
+
+    @Test
+    public void shouldFailOnIncompleteRange() throws Exception
+    {
+        try {
+            new ParallelCopy((start, end, buffer) -> buffer.put((byte) 0), () -> {}, 10, 2, 5)
+                    .copy(Channels.newChannel(new ByteArrayOutputStream()), THREADS);
+            fail("Expected EOFException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("Received range is incomplete."));
+        }
+    }
+
+    @Test
+    public void shouldAbortOtherStreamsOnFailure() throws Exception
+    {
+        CountDownLatch aborted = new CountDownLatch(1);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+
+        ParallelCopy copy = new ParallelCopy((start, end, buffer) -> {
+            active.incrementAndGet();
+            try {
+                if (start == 0) {
+                    throw new IOException("Connection reset");
+                }
+                /* Blocks like an HTTP read until the request is aborted. */
+                if (!aborted.await(10, TimeUnit.SECONDS)) {
+                    return;
+                }
+                throw new IOException("Request aborted");
+            } finally {
+                Thread.sleep(10);
+                active.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        }, aborted::countDown, 100, 4, 10);
+
+        try {
+            copy.copy(Channels.newChannel(new ByteArrayOutputStream()), THREADS);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("Connection reset"));
+        }
+
+        assertTrue(aborted.await(0, TimeUnit.SECONDS));
+        assertThat(active.get(), is(0));
+        assertThat(completed.get(), is(4));
+    }
+
+    @Test
+    public void shouldAbortStreamsWhenInterrupted() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch aborted = new CountDownLatch(1);
+        AtomicInteger active = new AtomicInteger();
+
+        ParallelCopy copy = new ParallelCopy((start, end, buffer) -> {
+            active.incrementAndGet();
+            started.countDown();
+            try {
+                aborted.await();
+                throw new IOException("Request aborted");
+            } finally {
+                active.decrementAndGet();
+            }
+        }, aborted::countDown, 100, 2, 10);
+
+        Thread thread = Thread.currentThread();
+        new Thread(() -> {
+            try {
+                started.await();
+            } catch (InterruptedException ignored) {
+            }
+            thread.interrupt();
+        }).start();
+
+        try {
+            copy.copy(Channels.newChannel(new ByteArrayOutputStream()), THREADS);
+            fail("Expected InterruptedException");
+        } catch (InterruptedException expected) {
+        }
+
+        assertThat(active.get(), is(0));
+    }
+}
@@ -0,0 +1,113 @@
+package org.dcache.pool.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DirectRepositoryChannelTest
+{
+    private static final int ALIGNMENT = 4096;
+    private static final int BUFFER_SIZE = 4 * ALIGNMENT;
+
+    private Path _file;
+    private byte[] _data;
+    private DirectIo _directIo;
+    private ReplicaRecord _entry;
+
+    @Before
+    public void setup() throws IOException
+    {
+        assumeTrue(DirectIo.isSupported());
+        _data = new byte[5 * BUFFER_SIZE + 1000];
+        new Random(42).nextBytes(_data);
+        _file = Files.createTempFile("direct-io", null);
+        _directIo = new DirectIo(0, ALIGNMENT, BUFFER_SIZE, 4);
+        _entry = mock(ReplicaRecord.class);
+        when(_entry.getReplicaUri()).thenReturn(_file.toUri());
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        if (_file != null) {
+            Files.delete(_file);
+        }
+    }
+
+    private RepositoryChannel open(Set<? extends OpenOption> mode) throws IOException
+    {
+        RepositoryChannel channel = _directIo.openChannel(_entry, mode, _data.length);
+        assumeThat("File system supports O_DIRECT", _directIo.fallbacks.sum(), is(0L));
+        return channel;
+    }
+
+    @Test
+    public void shouldWriteUnalignedChunks() throws IOException
+    {
+        try (RepositoryChannel channel = open(FileStore.O_RW)) {
+            int position = 0;
+            int chunk = 1;
+            while (position < _data.length) {
+                int length = Math.min(chunk, _data.length - position);
+                channel.write(ByteBuffer.wrap(_data, position, length));
+                position += length;
+                chunk = chunk * 3 + 7;
+            }
+            assertThat(channel.size(), is((long) _data.length));
+        }
+
+        assertThat(Files.readAllBytes(_file), is(_data));
+        assertThat(_directIo.bytesDirect.sum(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void shouldReadAlignedAndUnalignedRequests() throws IOException
+    {
+        Files.write(_file, _data);
+
+        try (RepositoryChannel channel = open(FileStore.O_READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(_data.length);
+            ByteBuffer chunk = ByteBuffer.allocate(3 * ALIGNMENT);
+            while (channel.read(chunk) > 0) {
+                chunk.flip();
+                buffer.put(chunk);
+                chunk.clear();
+            }
+            assertThat(buffer.array(), is(_data));
+
+            ByteBuffer unaligned = ByteBuffer.allocate(100);
+            assertThat(channel.read(unaligned, 17), is(100));
+            assertThat(unaligned.array()[0], is(_data[17]));
+        }
+
+        assertThat(_directIo.bytesDirect.sum(), is(greaterThan(0L)));
+        assertThat(_directIo.bytesBuffered.sum(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void shouldReadDataNotYetFlushed() throws IOException
+    {
+        try (RepositoryChannel channel = open(FileStore.O_RW)) {
+            channel.write(ByteBuffer.wrap(_data, 0, 1000), 0);
+
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            assertThat(channel.read(buffer, 0), is(1000));
+            assertThat(buffer.array()[999], is(_data[999]));
+        }
+    }
+}
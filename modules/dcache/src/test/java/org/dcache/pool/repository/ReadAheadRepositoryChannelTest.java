@@ -0,0 +1,167 @@
+package org.dcache.pool.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ReadAheadRepositoryChannelTest
+{
+    private static final int WINDOW = 64 * 1024;
+    private static final int REQUEST = 4096;
+
+    private Path _file;
+    private byte[] _data;
+    private ReadAhead _readAhead;
+    private RepositoryChannel _channel;
+
+    @Before
+    public void setup() throws IOException
+    {
+        _data = new byte[3 * WINDOW + 1000];
+        new Random(42).nextBytes(_data);
+        _file = Files.createTempFile("read-ahead", null);
+        Files.write(_file, _data);
+        _readAhead = new ReadAhead(WINDOW, 1);
+        _channel = _readAhead.decorate(new FileRepositoryChannel(_file, FileStore.O_READ));
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        _channel.close();
+        _readAhead.shutdown();
+        Files.delete(_file);
+    }
+
+    private byte[] read(long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        int n = _channel.read(buffer, position);
+        byte[] result = new byte[Math.max(n, 0)];
+        buffer.flip();
+        buffer.get(result);
+        return result;
+    }
+
+    private byte[] expected(long position, int length)
+    {
+        int end = (int) Math.min(_data.length, position + length);
+        byte[] result = new byte[end - (int) position];
+        System.arraycopy(_data, (int) position, result, 0, result.length);
+        return result;
+    }
+
+    @Test
+    public void shouldServeSequentialReadsFromWindows() throws IOException
+    {
+        for (long position = 0; position < _data.length; position += REQUEST) {
+            assertThat(read(position, REQUEST), is(expected(position, REQUEST)));
+        }
+
+        assertThat(_readAhead.misses.sum(), is((long) ReadAheadRepositoryChannel.SEQUENTIAL_THRESHOLD));
+        assertThat(_readAhead.hits.sum(), is(greaterThan(0L)));
+        assertThat(_readAhead.bytesReadAhead.sum(), is(lessThanOrEqualTo((long) _data.length)));
+    }
+
+    @Test
+    public void shouldReturnEndOfFileAfterSequentialReads() throws IOException
+    {
+        long position = 0;
+        while (position < _data.length) {
+            position += read(position, REQUEST).length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(REQUEST);
+        assertThat(_channel.read(buffer, position), is(-1));
+    }
+
+    @Test
+    public void shouldNotReadAheadOnRandomAccess() throws IOException
+    {
+        Random random = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            long position = random.nextInt(_data.length - REQUEST);
+            assertThat(read(position, REQUEST), is(expected(position, REQUEST)));
+        }
+
+        assertThat(_readAhead.hits.sum(), is(0L));
+        assertThat(_readAhead.bytesReadAhead.sum(), is(0L));
+    }
+
+    @Test
+    public void shouldBypassLargeRequests() throws IOException
+    {
+        for (long position = 0; position < 3 * WINDOW; position += WINDOW) {
+            assertThat(read(position, WINDOW), is(expected(position, WINDOW)));
+        }
+
+        assertThat(_readAhead.hits.sum(), is(0L));
+        assertThat(_readAhead.misses.sum(), is(0L));
+    }
+
+    @Test
+    public void shouldServeRelativeReads() throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(_data.length);
+        ByteBuffer chunk = ByteBuffer.allocate(REQUEST - 17);
+        while (_channel.read(chunk) > 0) {
+            chunk.flip();
+            buffer.put(chunk);
+            chunk.clear();
+        }
+
+        assertThat(buffer.array(), is(_data));
+        assertThat(_channel.position(), is((long) _data.length));
+    }
+
+    @Test
+    public void shouldAccountUnusedReadAheadAsWasted() throws IOException
+    {
+        for (long position = 0; position < 4 * REQUEST; position += REQUEST) {
+            read(position, REQUEST);
+        }
+        _channel.close();
+
+        assertThat(_readAhead.bytesWasted.sum(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void shouldServeConcurrentReaders() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int stride = REQUEST + 13 * i;
+                results.add(executor.submit(() -> {
+                    for (long position = 0; position < _data.length; position += stride) {
+                        if (!Arrays.equals(read(position, stride), expected(position, stride))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertThat(result.get(), is(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.dcache.pool.repository;
+
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import diskCacheV111.util.PnfsId;
+
+import static org.dcache.pool.repository.ReplicaState.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ReplicaIndexTest
+{
+    private final static PnfsId PNFSID =
+        new PnfsId("000000000000000000000000000000000001");
+
+    private ReplicaIndex _index;
+
+    @Before
+    public void setup()
+    {
+        _index = new ReplicaIndex();
+    }
+
+    private static PnfsId id(int i)
+    {
+        return new PnfsId(String.format("0000%032X", i));
+    }
+
+    @Test
+    public void shouldNotHaveSummaryOfAddedEntry()
+    {
+        _index.add(PNFSID);
+
+        assertThat(_index.contains(PNFSID), is(true));
+        assertThat(_index.get(PNFSID), is(nullValue()));
+        assertThat(_index.size(), is(1));
+    }
+
+    @Test
+    public void shouldReturnSummaryOfPutEntry()
+    {
+        _index.add(PNFSID);
+        _index.put(PNFSID, PRECIOUS, 1234, 10, 20, true);
+
+        ReplicaIndex.Summary summary = _index.get(PNFSID);
+        assertThat(summary.getState(), is(PRECIOUS));
+        assertThat(summary.getReplicaSize(), is(1234L));
+        assertThat(summary.getCreationTime(), is(10L));
+        assertThat(summary.getLastAccessTime(), is(20L));
+        assertThat(summary.isSticky(), is(true));
+        assertThat(_index.size(), is(1));
+    }
+
+    @Test
+    public void shouldForgetRemovedEntry()
+    {
+        _index.put(PNFSID, CACHED, 1, 1, 1, false);
+        _index.remove(PNFSID);
+
+        assertThat(_index.contains(PNFSID), is(false));
+        assertThat(_index.get(PNFSID), is(nullValue()));
+        assertThat(_index.size(), is(0));
+    }
+
+    @Test
+    public void shouldSupportShortIds()
+    {
+        PnfsId id = new PnfsId("000100000000000000001060");
+        _index.put(id, CACHED, 1, 1, 1, false);
+
+        assertThat(_index.contains(id), is(true));
+        assertThat(_index.iterator().next(), is(id));
+    }
+
+    @Test
+    public void shouldGrowAndIterateOverAllEntries()
+    {
+        Set<PnfsId> expected = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            PnfsId id = id(i);
+            _index.put(id, CACHED, i, i, i, false);
+            expected.add(id);
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            PnfsId id = id(i);
+            _index.remove(id);
+            expected.remove(id);
+        }
+
+        assertThat(_index.size(), is(5000));
+        assertThat(Sets.newHashSet(_index.iterator()), is(expected));
+        assertThat(_index.get(id(4711)).getReplicaSize(), is(4711L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectIdsWithDomain()
+    {
+        _index.add(new PnfsId("000000000000000000000000000000000001.domain"));
+    }
+}
@@ -0,0 +1,233 @@
+package org.dcache.pool.repository;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.FaultListener;
+import org.dcache.tests.repository.ReplicaStoreHelper;
+
+import static org.dcache.pool.repository.ReplicaState.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class ReplicaStoreCacheTest
+{
+    private final static PnfsId PNFSID =
+        new PnfsId("000000000000000000000000000000000001");
+
+    private FlatFileStore _fileStore;
+    private ReplicaStore _inner;
+    private FaultListener _faultListener;
+
+    @Before
+    public void setup() throws Exception
+    {
+        _fileStore = new FlatFileStore(Jimfs.newFileSystem(Configuration.unix()).getPath("/"));
+        _inner = spy(new ReplicaStoreHelper(_fileStore));
+        _faultListener = mock(FaultListener.class);
+    }
+
+    private ReplicaStoreCache givenCache(boolean isCompact)
+    {
+        return new ReplicaStoreCache(_inner, mock(StateChangeListener.class), _faultListener, isCompact);
+    }
+
+    private void givenInnerStoreHas(PnfsId id, ReplicaState state, long size) throws IOException, CacheException
+    {
+        _fileStore.create(id);
+        try (RepositoryChannel channel = _fileStore.openDataChannel(id, FileStore.O_RW)) {
+            channel.write(ByteBuffer.allocate((int) size));
+        }
+        _inner.create(id, EnumSet.noneOf(Repository.OpenFlags.class)).update(r -> r.setState(state));
+    }
+
+    private static void awaitCollected(WeakReference<?> reference) throws InterruptedException
+    {
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat("record was not garbage collected", reference.get(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldReturnSameRecordWhileReferenced() throws Exception
+    {
+        givenInnerStoreHas(PNFSID, CACHED, 17);
+        ReplicaStoreCache cache = givenCache(true);
+        cache.init();
+
+        ReplicaRecord record = cache.get(PNFSID);
+
+        assertThat(cache.get(PNFSID), is(sameInstance(record)));
+    }
+
+    @Test
+    public void shouldReleaseUnreferencedRecordsInCompactMode() throws Exception
+    {
+        givenInnerStoreHas(PNFSID, CACHED, 17);
+        ReplicaStoreCache cache = givenCache(true);
+        cache.init();
+
+        ReplicaRecord record = cache.get(PNFSID);
+        WeakReference<ReplicaRecord> reference = new WeakReference<>(record);
+        record = null;
+
+        awaitCollected(reference);
+        assertThat(cache.index(), contains(PNFSID));
+        assertThat(cache.get(PNFSID), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldKeepRecordsInDefaultMode() throws Exception
+    {
+        givenInnerStoreHas(PNFSID, CACHED, 17);
+        ReplicaStoreCache cache = givenCache(false);
+        cache.init();
+
+        WeakReference<ReplicaRecord> reference = new WeakReference<>(cache.get(PNFSID));
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+
+        assertThat(reference.get(), is(sameInstance(cache.get(PNFSID))));
+    }
+
+    @Test
+    public void shouldLoadFullRecordOnFirstAccess() throws Exception
+    {
+        givenInnerStoreHas(PNFSID, CACHED, 17);
+        ReplicaStoreCache cache = givenCache(true);
+        cache.init();
+
+        ReplicaRecord record = cache.get(PNFSID);
+
+        assertThat(record.getState(), is(CACHED));
+        assertThat(record.getReplicaSize(), is(17L));
+        verify(_inner, times(1)).get(PNFSID);
+    }
+
+    @Test
+    public void shouldServeSummaryWithoutLoadingRecord() throws Exception
+    {
+        givenInnerStoreHas(PNFSID, CACHED, 17);
+        ReplicaStoreCache cache = givenCache(true);
+        cache.init();
+
+        ReplicaRecord record = cache.get(PNFSID);
+        record.update(r -> r.setSticky("owner", -1, true));
+        long lastAccessTime = record.getLastAccessTime();
+        WeakReference<ReplicaRecord> reference = new WeakReference<>(record);
+        record = null;
+        awaitCollected(reference);
+        reset(_inner);
+
+        record = cache.get(PNFSID);
+
+        assertThat(record.getState(), is(CACHED));
+        assertThat(record.getReplicaSize(), is(17L));
+        assertThat(record.isSticky(), is(true));
+        assertThat(record.getLastAccessTime(), is(lastAccessTime));
+        verify(_inner, never()).get(any(PnfsId.class));
+    }
+
+    @Test
+    public void shouldLoadRecordForInformationNotInSummary() throws Exception
+    {
+        givenInnerStoreHas(PNFSID, CACHED, 17);
+        ReplicaStoreCache cache = givenCache(true);
+        cache.init();
+
+        ReplicaRecord record = cache.get(PNFSID);
+        WeakReference<ReplicaRecord> reference = new WeakReference<>(record);
+        record = null;
+        awaitCollected(reference);
+        reset(_inner);
+
+        record = cache.get(PNFSID);
+        record.getFileAttributes();
+        record.getReplicaUri();
+
+        verify(_inner, times(1)).get(PNFSID);
+    }
+
+    @Test
+    public void shouldNotServeSummaryOfMutableReplicaSize() throws Exception
+    {
+        givenInnerStoreHas(PNFSID, FROM_CLIENT, 17);
+        ReplicaStoreCache cache = givenCache(true);
+        cache.init();
+
+        ReplicaRecord record = cache.get(PNFSID);
+        WeakReference<ReplicaRecord> reference = new WeakReference<>(record);
+        record = null;
+        awaitCollected(reference);
+        reset(_inner);
+
+        assertThat(cache.get(PNFSID).getReplicaSize(), is(17L));
+        verify(_inner, times(1)).get(PNFSID);
+    }
+
+    @Test
+    public void shouldRejectCreatingReferencedRecord() throws Exception
+    {
+        ReplicaStoreCache cache = givenCache(true);
+        _fileStore.create(PNFSID);
+        ReplicaRecord record = cache.create(PNFSID, EnumSet.noneOf(Repository.OpenFlags.class));
+
+        try {
+            cache.create(PNFSID, EnumSet.noneOf(Repository.OpenFlags.class));
+            fail("Expected DuplicateEntryException");
+        } catch (DuplicateEntryException expected) {
+        }
+        assertThat(cache.get(PNFSID), is(sameInstance(record)));
+    }
+
+    @Test
+    public void shouldRejectCreatingUnreferencedRecord() throws Exception
+    {
+        givenInnerStoreHas(PNFSID, CACHED, 17);
+        ReplicaStoreCache cache = givenCache(true);
+        cache.init();
+
+        WeakReference<ReplicaRecord> reference = new WeakReference<>(cache.get(PNFSID));
+        awaitCollected(reference);
+        reset(_inner);
+
+        try {
+            cache.create(PNFSID, EnumSet.noneOf(Repository.OpenFlags.class));
+            fail("Expected DuplicateEntryException");
+        } catch (DuplicateEntryException expected) {
+        }
+        verify(_inner, never()).create(any(PnfsId.class), any());
+    }
+
+    @Test
+    public void shouldRejectCreatingIndexedRecordNotYetLoaded() throws Exception
+    {
+        givenInnerStoreHas(PNFSID, CACHED, 17);
+        ReplicaStoreCache cache = givenCache(true);
+        cache.init();
+        reset(_inner);
+
+        try {
+            cache.create(PNFSID, EnumSet.noneOf(Repository.OpenFlags.class));
+            fail("Expected DuplicateEntryException");
+        } catch (DuplicateEntryException expected) {
+        }
+        verify(_inner, never()).create(any(PnfsId.class), any());
+    }
+}
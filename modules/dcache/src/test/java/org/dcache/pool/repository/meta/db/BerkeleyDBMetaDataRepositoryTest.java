@@ -0,0 +1,244 @@
+package org.dcache.pool.repository.meta.db;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.FlatFileStore;
+import org.dcache.pool.repository.ReplicaRecord;
+
+import static org.dcache.pool.repository.ReplicaState.CACHED;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class BerkeleyDBMetaDataRepositoryTest
+{
+    private static final PnfsId PNFSID_A =
+        new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId PNFSID_B =
+        new PnfsId("000000000000000000000000000000000002");
+
+    /* Whole seconds to be independent of the time stamp resolution of the file system. */
+    private static final long TIME_1 = 1_400_000_000_000L;
+    private static final long TIME_2 = 1_500_000_000_000L;
+    private static final long TIME_3 = 1_600_000_000_000L;
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    private FlatFileStore _fileStore;
+    private BerkeleyDBMetaDataRepository _repository;
+
+    @Before
+    public void setup() throws Exception
+    {
+        Path base = _folder.getRoot().toPath();
+        _fileStore = new FlatFileStore(base);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (_repository != null) {
+            _repository.close();
+        }
+    }
+
+    private void givenRepository(Map<String, Object> environment) throws Exception
+    {
+        _repository = new BerkeleyDBMetaDataRepository(_fileStore, _folder.getRoot().toPath(), "pool");
+        _repository.setEnvironment(environment);
+        _repository.init();
+    }
+
+    private void givenWriteBehind(long delay, String unit, int limit) throws Exception
+    {
+        givenRepository(ImmutableMap.of("pool.plugins.meta.db.access-time.write-behind.delay", String.valueOf(delay),
+                                        "pool.plugins.meta.db.access-time.write-behind.delay.unit", unit,
+                                        "pool.plugins.meta.db.access-time.write-behind.limit", String.valueOf(limit)));
+    }
+
+    private void givenReplica(PnfsId id, long accessTime) throws Exception
+    {
+        ReplicaRecord record = _repository.create(id, EnumSet.of(StandardOpenOption.CREATE));
+        record.update(r -> r.setState(CACHED));
+        _repository.setLastModifiedTime(id, accessTime);
+    }
+
+    private long modificationTimeOf(PnfsId id) throws Exception
+    {
+        return _fileStore.getFileAttributeView(id).readAttributes().lastModifiedTime().toMillis();
+    }
+
+    private String info()
+    {
+        StringWriter info = new StringWriter();
+        _repository.getInfo(new PrintWriter(info));
+        return info.toString();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException
+    {
+        for (int i = 0; i < 1000 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat("condition not met in time", condition.getAsBoolean(), is(true));
+    }
+
+    private BooleanSupplier modificationTimeIs(PnfsId id, long time)
+    {
+        return () -> {
+            try {
+                return modificationTimeOf(id) == time;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    @Test
+    public void shouldWriteAccessTimeImmediatelyWithoutWriteBehind() throws Exception
+    {
+        givenRepository(ImmutableMap.of());
+        givenReplica(PNFSID_A, TIME_1);
+
+        _repository.updateLastAccessTime(PNFSID_A, TIME_2);
+
+        assertThat(modificationTimeOf(PNFSID_A), is(TIME_2));
+        assertThat(info(), containsString("disabled"));
+    }
+
+    @Test
+    public void shouldNotWriteAccessTimeBeforeDelay() throws Exception
+    {
+        givenWriteBehind(1, "HOURS", 100);
+        givenReplica(PNFSID_A, TIME_1);
+
+        _repository.updateLastAccessTime(PNFSID_A, TIME_2);
+
+        assertThat(modificationTimeOf(PNFSID_A), is(TIME_1));
+        assertThat(info(), containsString("Pending updates      : 1"));
+    }
+
+    @Test
+    public void shouldWriteAccessTimeAfterDelay() throws Exception
+    {
+        givenWriteBehind(50, "MILLISECONDS", 100);
+        givenReplica(PNFSID_A, TIME_1);
+
+        _repository.updateLastAccessTime(PNFSID_A, TIME_2);
+
+        await(modificationTimeIs(PNFSID_A, TIME_2));
+    }
+
+    @Test
+    public void shouldWriteAccessTimesOnceLimitIsReached() throws Exception
+    {
+        givenWriteBehind(1, "HOURS", 2);
+        givenReplica(PNFSID_A, TIME_1);
+        givenReplica(PNFSID_B, TIME_1);
+
+        _repository.updateLastAccessTime(PNFSID_A, TIME_2);
+        _repository.updateLastAccessTime(PNFSID_B, TIME_3);
+
+        await(modificationTimeIs(PNFSID_A, TIME_2));
+        await(modificationTimeIs(PNFSID_B, TIME_3));
+    }
+
+    @Test
+    public void shouldCoalesceUpdatesOfSameReplica() throws Exception
+    {
+        givenWriteBehind(1, "HOURS", 2);
+        givenReplica(PNFSID_A, TIME_1);
+
+        _repository.updateLastAccessTime(PNFSID_A, TIME_1);
+        _repository.updateLastAccessTime(PNFSID_A, TIME_2);
+        _repository.updateLastAccessTime(PNFSID_A, TIME_3);
+
+        assertThat(modificationTimeOf(PNFSID_A), is(TIME_1));
+        assertThat(info(), containsString("Pending updates      : 1"));
+    }
+
+    @Test
+    public void shouldWriteLatestAccessTimesOnClose() throws Exception
+    {
+        givenWriteBehind(1, "HOURS", 100);
+        givenReplica(PNFSID_A, TIME_1);
+        givenReplica(PNFSID_B, TIME_1);
+
+        _repository.updateLastAccessTime(PNFSID_A, TIME_2);
+        _repository.updateLastAccessTime(PNFSID_A, TIME_3);
+        _repository.updateLastAccessTime(PNFSID_B, TIME_2);
+        _repository.close();
+
+        assertThat(modificationTimeOf(PNFSID_A), is(TIME_3));
+        assertThat(modificationTimeOf(PNFSID_B), is(TIME_2));
+        assertThat(info(), containsString("Pending updates      : 0"));
+        assertThat(info(), containsString("Updates / writes     : 3 / 2"));
+        _repository = null;
+    }
+
+    @Test
+    public void shouldLoadRecordWithPendingAccessTime() throws Exception
+    {
+        givenWriteBehind(1, "HOURS", 100);
+        givenReplica(PNFSID_A, TIME_1);
+
+        _repository.updateLastAccessTime(PNFSID_A, TIME_2);
+
+        assertThat(_repository.get(PNFSID_A).getLastAccessTime(), is(TIME_2));
+    }
+
+    @Test
+    public void shouldLoadRecordWithPendingAccessTimeSetThroughRecord() throws Exception
+    {
+        givenWriteBehind(1, "HOURS", 100);
+        givenReplica(PNFSID_A, TIME_1);
+
+        _repository.get(PNFSID_A).setLastAccessTime(TIME_2);
+
+        assertThat(modificationTimeOf(PNFSID_A), is(TIME_1));
+        assertThat(_repository.get(PNFSID_A).getLastAccessTime(), is(TIME_2));
+    }
+
+    @Test
+    public void shouldLoadRecordWithWrittenAccessTime() throws Exception
+    {
+        givenWriteBehind(50, "MILLISECONDS", 100);
+        givenReplica(PNFSID_A, TIME_1);
+
+        _repository.updateLastAccessTime(PNFSID_A, TIME_2);
+        await(modificationTimeIs(PNFSID_A, TIME_2));
+
+        assertThat(_repository.get(PNFSID_A).getLastAccessTime(), is(TIME_2));
+    }
+
+    @Test
+    public void shouldDiscardPendingAccessTimeOfRemovedReplica() throws Exception
+    {
+        givenWriteBehind(1, "HOURS", 100);
+        givenReplica(PNFSID_A, TIME_1);
+
+        _repository.updateLastAccessTime(PNFSID_A, TIME_2);
+        _repository.remove(PNFSID_A);
+        givenReplica(PNFSID_A, TIME_1);
+        _repository.close();
+
+        assertThat(modificationTimeOf(PNFSID_A), is(TIME_1));
+        assertThat(info(), containsString("Updates / writes     : 1 / 0"));
+        _repository = null;
+    }
+}
@@ -0,0 +1,236 @@
+package org.dcache.pool.repository.v5;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskSpace;
+import diskCacheV111.util.PnfsHandler;
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.CellAddressCore;
+
+import org.dcache.pool.classic.FairQueueAllocation;
+import org.dcache.pool.repository.Account;
+import org.dcache.pool.repository.FlatFileStore;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaStore;
+import org.dcache.pool.repository.SpaceSweeperPolicy;
+import org.dcache.pool.repository.meta.file.FileMetaDataRepository;
+import org.dcache.pool.repository.v5.ReplicaRepository.State;
+
+import static org.dcache.pool.repository.ReplicaState.CACHED;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+
+public class ReplicaRepositoryTest
+{
+    private static final int LOAD_THREADS = 4;
+    private static final int ENTRIES = 1000;
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    private final List<PnfsId> _ids = new ArrayList<>();
+    private final AtomicInteger _reads = new AtomicInteger();
+
+    private ReplicaStore _realStore;
+    private ReplicaStore _store;
+    private ReplicaRepository _repository;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Path data = _folder.newFolder("data").toPath();
+        Path meta = _folder.newFolder("meta").toPath();
+        FileMetaDataRepository store = new FileMetaDataRepository(new FlatFileStore(data), meta, "pool");
+        for (int i = 1; i <= ENTRIES; i++) {
+            PnfsId id = new PnfsId(String.format("%024X", i));
+            ReplicaRecord record = store.create(id, EnumSet.of(StandardOpenOption.CREATE));
+            record.update(r -> r.setState(CACHED));
+            _ids.add(id);
+        }
+        _realStore = store;
+        _store = spy(store);
+
+        FairQueueAllocation allocator = new FairQueueAllocation();
+        Account account = new Account();
+        allocator.setAccount(account);
+
+        _repository = new ReplicaRepository();
+        _repository.setCellAddress(new CellAddressCore("pool", "test"));
+        _repository.setAllocator(allocator);
+        _repository.setPnfsHandler(mock(PnfsHandler.class));
+        _repository.setAccount(account);
+        _repository.setReplicaStore(_store);
+        _repository.setExecutor(Executors.newSingleThreadScheduledExecutor());
+        _repository.setSynchronousNotification(true);
+        _repository.setSpaceSweeperPolicy(mock(SpaceSweeperPolicy.class));
+        _repository.setMaxDiskSpace(new DiskSpace(1_000_000));
+        _repository.setLoadThreads(LOAD_THREADS);
+        _repository.init();
+    }
+
+    @After
+    public void tearDown()
+    {
+        _repository.shutdown();
+    }
+
+    private interface Reader
+    {
+        ReplicaRecord read(PnfsId id) throws Exception;
+    }
+
+    /**
+     * Intercepts reads of replica records from the store.
+     */
+    private void givenReads(Reader reader) throws CacheException
+    {
+        doAnswer(invocation -> {
+            _reads.incrementAndGet();
+            return reader.read((PnfsId) invocation.getArguments()[0]);
+        }).when(_store).get(any(PnfsId.class));
+    }
+
+    /**
+     * Waits until the loading threads of the repository have terminated.
+     */
+    private static void awaitLoadThreads() throws InterruptedException
+    {
+        for (int i = 0; i < 1000 && isLoadThreadAlive(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat("load threads did not terminate", isLoadThreadAlive(), is(false));
+    }
+
+    private static boolean isLoadThreadAlive()
+    {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(t -> t.getName().startsWith("repository-load-"));
+    }
+
+    @Test
+    public void shouldLoadEveryEntryUsingSeveralThreads() throws Exception
+    {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        Set<PnfsId> read = ConcurrentHashMap.newKeySet();
+        givenReads(id -> {
+            threads.add(Thread.currentThread().getName());
+            read.add(id);
+            return _realStore.get(id);
+        });
+
+        _repository.load();
+
+        assertThat(_repository.getState(), is(State.OPEN));
+        assertThat(read, containsInAnyOrder(_ids.toArray()));
+        assertThat(_reads.get(), is(ENTRIES));
+        assertThat(threads, everyItem(startsWith("repository-load-")));
+        assertThat(Lists.newArrayList(_repository.iterator()), containsInAnyOrder(_ids.toArray()));
+    }
+
+    @Test
+    public void shouldAllowIterationWhileLoading() throws Exception
+    {
+        AtomicReference<List<PnfsId>> iterated = new AtomicReference<>();
+        givenReads(id -> {
+            if (iterated.get() == null) {
+                iterated.compareAndSet(null, Lists.newArrayList(_repository.iterator()));
+            }
+            return _realStore.get(id);
+        });
+
+        _repository.load();
+
+        assertThat(iterated.get(), containsInAnyOrder(_ids.toArray()));
+    }
+
+    @Test
+    public void shouldStopOtherWorkersAndFailLoadWhenWorkerFails() throws Exception
+    {
+        CountDownLatch failed = new CountDownLatch(1);
+        AtomicBoolean first = new AtomicBoolean(true);
+        givenReads(id -> {
+            if (first.getAndSet(false)) {
+                throw new CacheException("Injected failure");
+            }
+            failed.await();
+            return _realStore.get(id);
+        });
+
+        try {
+            _repository.load();
+            fail("Expected CacheException");
+        } catch (CacheException e) {
+            assertThat(e.getMessage(), containsString("Injected failure"));
+        }
+        assertThat(_repository.getState(), is(State.FAILED));
+
+        failed.countDown();
+        awaitLoadThreads();
+
+        /* Every other worker reads at most the entry it was reading when the
+         * first worker failed.
+         */
+        assertThat(_reads.get(), is(lessThanOrEqualTo(LOAD_THREADS)));
+    }
+
+    @Test
+    public void shouldFailLoadWhenInterrupted() throws Exception
+    {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        givenReads(id -> {
+            reading.countDown();
+            interrupted.await();
+            return _realStore.get(id);
+        });
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread loader = new Thread(() -> {
+            try {
+                _repository.load();
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        loader.start();
+        assertThat(reading.await(10, TimeUnit.SECONDS), is(true));
+
+        loader.interrupt();
+        loader.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(loader.isAlive(), is(false));
+        assertThat(failure.get(), is(instanceOf(InterruptedException.class)));
+        assertThat(_repository.getState(), is(State.FAILED));
+
+        interrupted.countDown();
+        awaitLoadThreads();
+
+        assertThat(_reads.get(), is(lessThanOrEqualTo(LOAD_THREADS)));
+    }
+}
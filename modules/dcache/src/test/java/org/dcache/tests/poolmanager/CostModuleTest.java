@@ -3,7 +3,18 @@ package org.dcache.tests.poolmanager;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import diskCacheV111.poolManager.CostModuleV1;
 import diskCacheV111.pools.PoolCostInfo;
@@ -14,6 +25,7 @@ import dmg.cells.nucleus.CellAddressCore;
 import dmg.cells.nucleus.CellMessage;
 
 import org.dcache.pool.classic.IoQueueManager;
+import org.dcache.poolmanager.PoolInfo;
 
 import static org.dcache.util.ByteUnit.GiB;
 import static org.junit.Assert.*;
@@ -154,6 +166,86 @@ public class CostModuleTest {
         assertNull("should return null cost on a DEAD pool", receivedCost);
     }
 
+    @Test
+    public void testDeltaWithoutFullHeartbeatIsIgnored() {
+
+        PoolManagerPoolUpMessage full = buildPoolUpMessageWithCost( POOL_NAME, 100, 20, 30, 50);
+        PoolManagerPoolUpMessage delta = buildDelta(full, buildPoolUpMessageWithCost( POOL_NAME, 100, 10, 30, 50));
+        _costModule.messageArrived(buildEnvelope(POOL_ADDRESS), delta);
+
+        assertNull("delta must not register a pool", _costModule.getPoolCostInfo( POOL_NAME));
+    }
+
+    @Test
+    public void testDeltaOfOtherIncarnationIsIgnored() {
+
+        PoolManagerPoolUpMessage full = buildPoolUpMessageWithCost( POOL_NAME, 100, 20, 30, 50);
+        _costModule.messageArrived(buildEnvelope(POOL_ADDRESS), full);
+
+        PoolManagerPoolUpMessage restarted = new PoolManagerPoolUpMessage(POOL_NAME, full.getSerialId() + 1,
+                                                                          full.getPoolMode(), full.getPoolCostInfo());
+        PoolManagerPoolUpMessage delta = buildDelta(restarted, buildPoolUpMessageWithCost( POOL_NAME, 100, 10, 30, 50));
+        _costModule.messageArrived(buildEnvelope(POOL_ADDRESS), delta);
+
+        assertEquals(GiB.toBytes(20L), _costModule.getPoolCostInfo( POOL_NAME).getSpaceInfo().getFreeSpace());
+    }
+
+    @Test
+    public void testDeltaOfDroppedFullHeartbeatIsIgnored() {
+
+        PoolManagerPoolUpMessage full = buildPoolUpMessageWithCost( POOL_NAME, 100, 20, 30, 50);
+        full.setFullHeartbeatSequence(1);
+        full.setTagMap(Collections.singletonMap("hostname", "node1"));
+        _costModule.messageArrived(buildEnvelope(POOL_ADDRESS), full);
+
+        /* The next full heartbeat of the same incarnation is lost. */
+        PoolManagerPoolUpMessage dropped = new PoolManagerPoolUpMessage(POOL_NAME, full.getSerialId(),
+                                                                        full.getPoolMode(),
+                                                                        buildPoolUpMessageWithCost( POOL_NAME, 200, 20, 30, 50).getPoolCostInfo());
+        dropped.setFullHeartbeatSequence(2);
+        dropped.setTagMap(Collections.singletonMap("hostname", "node2"));
+
+        PoolManagerPoolUpMessage delta = buildDelta(dropped, buildPoolUpMessageWithCost( POOL_NAME, 200, 10, 30, 50));
+        _costModule.messageArrived(buildEnvelope(POOL_ADDRESS), delta);
+
+        PoolInfo info = _costModule.getPoolInfo( POOL_NAME);
+        assertEquals("node1", info.getTags().get("hostname"));
+        assertEquals(GiB.toBytes(20L), info.getCostInfo().getSpaceInfo().getFreeSpace());
+        assertEquals(GiB.toBytes(100L), info.getCostInfo().getSpaceInfo().getTotalSpace());
+
+        /* Deltas of the next full heartbeat that arrives apply again. */
+        _costModule.messageArrived(buildEnvelope(POOL_ADDRESS), dropped);
+        _costModule.messageArrived(buildEnvelope(POOL_ADDRESS), delta);
+
+        info = _costModule.getPoolInfo( POOL_NAME);
+        assertEquals("node2", info.getTags().get("hostname"));
+        assertEquals(GiB.toBytes(10L), info.getCostInfo().getSpaceInfo().getFreeSpace());
+        assertEquals(GiB.toBytes(200L), info.getCostInfo().getSpaceInfo().getTotalSpace());
+    }
+
+    @Test
+    public void testDeltaKeepsTagsOfFullHeartbeat() {
+
+        PoolManagerPoolUpMessage full = buildPoolUpMessageWithCost( POOL_NAME, 100, 20, 30, 50);
+        full.setTagMap(Collections.singletonMap("hostname", "node1"));
+        _costModule.messageArrived(buildEnvelope(POOL_ADDRESS), full);
+
+        PoolManagerPoolUpMessage delta = buildDelta(full, buildPoolUpMessageWithCost( POOL_NAME, 100, 10, 30, 50));
+        _costModule.messageArrived(buildEnvelope(POOL_ADDRESS), delta);
+
+        PoolInfo info = _costModule.getPoolInfo( POOL_NAME);
+        assertNotNull(info);
+        assertEquals("node1", info.getTags().get("hostname"));
+        assertEquals(GiB.toBytes(10L), info.getCostInfo().getSpaceInfo().getFreeSpace());
+        assertEquals(GiB.toBytes(100L), info.getCostInfo().getSpaceInfo().getTotalSpace());
+
+        /* Deltas are relative to the last full heartbeat. */
+        delta = buildDelta(full, buildPoolUpMessageWithCost( POOL_NAME, 100, 20, 30, 50));
+        _costModule.messageArrived(buildEnvelope(POOL_ADDRESS), delta);
+
+        assertEquals(GiB.toBytes(20L), _costModule.getPoolCostInfo( POOL_NAME).getSpaceInfo().getFreeSpace());
+    }
+
 
     @Test
     public void testTwoPoolsThenPercentile() {
@@ -240,6 +332,87 @@ public class CostModuleTest {
         assertPercentileCost( FRACTION_JUST_BELOW_ONE, perfCost [2]);
     }
 
+    @Test
+    public void testConcurrentHeartbeatsAndPercentileQueries() throws Exception {
+        int writers = 4;
+        int poolsPerWriter = 4;
+        int heartbeatsPerPool = 500;
+
+        List<String> pools = new ArrayList<>();
+        for (int i = 0; i < writers * poolsPerWriter; i++) {
+            pools.add("pool" + i);
+        }
+        PoolManagerPoolUpMessage[] lastHeartbeats = new PoolManagerPoolUpMessage[pools.size()];
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 2);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicBoolean isDone = new AtomicBoolean();
+            List<Future<?>> writerTasks = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int first = w * poolsPerWriter;
+                writerTasks.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int n = 0; n < heartbeatsPerPool; n++) {
+                        for (int i = first; i < first + poolsPerWriter; i++) {
+                            String pool = pools.get(i);
+                            PoolManagerPoolUpMessage heartbeat =
+                                    buildPoolUpMessageWithCostAndQueue(pool,
+                                                                       100, 20, 30, 50,
+                                                                       random.nextInt(100), 100, 0,
+                                                                       0, 0, 0,
+                                                                       0, 0, 0);
+                            _costModule.messageArrived(buildEnvelope(new CellAddressCore(pool, "poolDomain")),
+                                                       heartbeat);
+                            lastHeartbeats[i] = heartbeat;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> readerTasks = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readerTasks.add(executor.submit(() -> {
+                    start.await();
+                    while (!isDone.get()) {
+                        double cost = _costModule.getPoolsPercentilePerformanceCost(FRACTION_HALF);
+                        assertTrue("percentile cost must not be negative", cost >= 0);
+                        Map<String, PoolInfo> infos = _costModule.getPoolInfoAsMap(pools);
+                        for (PoolInfo info : infos.values()) {
+                            assertNotNull("pool info must have cost", info.getCostInfo());
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> task : writerTasks) {
+                task.get(1, TimeUnit.MINUTES);
+            }
+            isDone.set(true);
+            for (Future<?> task : readerTasks) {
+                task.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        /* The cached percentile cost cut must reflect the last heartbeat of every pool. */
+        CostModuleV1 expected = new CostModuleV1();
+        for (int i = 0; i < pools.size(); i++) {
+            expected.messageArrived(buildEnvelope(new CellAddressCore(pools.get(i), "poolDomain")), lastHeartbeats[i]);
+            assertEquals("cost of " + pools.get(i),
+                         lastHeartbeats[i].getPoolCostInfo().getPerformanceCost(),
+                         getPerformanceCostOfPercentileFile(pools.get(i)), 0);
+        }
+        assertEquals(pools.size(), _costModule.getPoolInfoAsMap(pools).size());
+        for (double fraction : new double[] { FRACTION_HALF, FRACTION_JUST_ABOVE_ZERO, FRACTION_JUST_BELOW_ONE }) {
+            assertPercentileCost(fraction, expected.getPoolsPercentilePerformanceCost(fraction));
+        }
+    }
+
     /*
      *  SUPPORT METHODS FOR BUILDING MESSAGES AND ASSERTING
      */
@@ -267,6 +440,20 @@ public class CostModuleTest {
     }
 
 
+    /**
+     * Create a delta heartbeat of the cost information in {@code current}
+     * relative to the full heartbeat {@code full}.
+     */
+    private static PoolManagerPoolUpMessage buildDelta(PoolManagerPoolUpMessage full,
+                                                       PoolManagerPoolUpMessage current) {
+        PoolManagerPoolUpMessage delta =
+                new PoolManagerPoolUpMessage(full.getPoolName(), full.getSerialId(), current.getPoolMode());
+        delta.setDelta(true);
+        delta.setFullHeartbeatSequence(full.getFullHeartbeatSequence());
+        delta.setCostDelta(current.getPoolCostInfo().diff(full.getPoolCostInfo()));
+        return delta;
+    }
+
     /**
      * Create a pool-up message for a pool with the given space parameters
      * @param poolName name of the pool
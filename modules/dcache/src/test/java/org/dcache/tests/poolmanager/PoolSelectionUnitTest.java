@@ -3,6 +3,8 @@ package org.dcache.tests.poolmanager;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -24,6 +26,7 @@ import dmg.util.CommandInterpreter;
 import org.dcache.util.Args;
 import org.dcache.vehicles.FileAttributes;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
 
 
@@ -766,6 +769,109 @@ public class PoolSelectionUnitTest {
     }
 
 
+    /*
+     * test case: check that setup changes are visible to subsequent matches
+     */
+    @Test
+    public void testSetupChangeIsVisibleToMatch() throws CommandException {
+
+        _ci.command("psu set allpoolsactive on");
+        FileAttributes fileAttributes = new FileAttributes();
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("*", "*"), fileAttributes);
+
+        _ci.command(new Args("psu set link default-read-link-in -readpref=0"));
+        PoolPreferenceLevel[] preference = _psu.match(
+                                                      DirectionType.READ,  // operation
+                                                      "131.169.214.149", // net unit
+                                                      null,  // protocol
+                                                      fileAttributes,
+                                                      null); // linkGroup
+        assertEquals("Link with zero preference must not be triggered", 0, preference.length);
+
+        _ci.command(new Args("psu create pool new-read"));
+        _psu.getPool("new-read").setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        _ci.command(new Args("psu addto pgroup default-read-pools new-read"));
+        _ci.command(new Args("psu set link default-read-link-in -readpref=5"));
+        preference = _psu.match(
+                                DirectionType.READ,  // operation
+                                "131.169.214.149", // net unit
+                                null,  // protocol
+                                fileAttributes,
+                                null); // linkGroup
+        assertEquals(1, preference.length);
+        assertEquals(new HashSet<>(asList("default-read", "new-read")),
+                     new HashSet<>(preference[0].getPoolList()));
+    }
+
+    @Test
+    public void testMatchCacheIsClearedOnPoolStateChange() throws CommandException {
+
+        _ci.command("psu set allpoolsactive on");
+        FileAttributes fileAttributes = new FileAttributes();
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("*", "*"), fileAttributes);
+
+        _ci.command(new Args("psu create pool new-read"));
+        _psu.getPool("new-read").setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        _ci.command(new Args("psu addto pgroup default-read-pools new-read"));
+
+        PoolPreferenceLevel[] first = _psu.match(DirectionType.READ, "131.169.214.149", null,
+                                                 fileAttributes, null);
+        PoolPreferenceLevel[] second = _psu.match(DirectionType.READ, "131.169.214.149", null,
+                                                  fileAttributes, null);
+        assertEquals(1, second.length);
+        assertEquals(first[0].getPoolList(), second[0].getPoolList());
+
+        StringWriter info = new StringWriter();
+        _psu.getInfo(new PrintWriter(info));
+        assertTrue("Second match must be served from cache",
+                   info.toString().contains("Hits       : 1 "));
+
+        _ci.command(new Args("psu set disabled new-read"));
+        PoolPreferenceLevel[] third = _psu.match(DirectionType.READ, "131.169.214.149", null,
+                                                 fileAttributes, null);
+        assertEquals(1, third.length);
+        assertEquals(asList("default-read"), third[0].getPoolList());
+    }
+
+    @Test
+    public void testMatchCacheReflectsPoolStateChangedOutsideSetup() throws CommandException {
+
+        FileAttributes fileAttributes = new FileAttributes();
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("*", "*"), fileAttributes);
+
+        _ci.command(new Args("psu create pool new-read"));
+        _ci.command(new Args("psu addto pgroup default-read-pools new-read"));
+        SelectionPool pool = _psu.getPool("new-read");
+        pool.setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        pool.setActive(true);
+        _psu.getPool("default-read").setActive(true);
+
+        PoolPreferenceLevel[] levels = _psu.match(DirectionType.READ, "131.169.214.149", null,
+                                                  fileAttributes, null);
+        assertEquals(new HashSet<>(asList("default-read", "new-read")),
+                     new HashSet<>(levels[0].getPoolList()));
+
+        /* As done by pool mode updates from the pool. */
+        pool.setPoolMode(new PoolV2Mode(PoolV2Mode.DISABLED_FETCH));
+        levels = _psu.match(DirectionType.READ, "131.169.214.149", null, fileAttributes, null);
+        assertEquals(asList("default-read"), levels[0].getPoolList());
+
+        pool.setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        levels = _psu.match(DirectionType.READ, "131.169.214.149", null, fileAttributes, null);
+        assertEquals(new HashSet<>(asList("default-read", "new-read")),
+                     new HashSet<>(levels[0].getPoolList()));
+
+        /* As if the heartbeat of the pool timed out. */
+        pool.setActive(false);
+        levels = _psu.match(DirectionType.READ, "131.169.214.149", null, fileAttributes, null);
+        assertEquals(asList("default-read"), levels[0].getPoolList());
+
+        StringWriter info = new StringWriter();
+        _psu.getInfo(new PrintWriter(info));
+        assertTrue("Links must be served from cache",
+                   info.toString().contains("Hits       : 3 "));
+    }
+
     @Test
     public void testActive() throws CommandException {
 